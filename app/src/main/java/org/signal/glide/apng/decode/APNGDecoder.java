@@ -36,6 +36,7 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
 
     private APNGWriter apngWriter;
     private int mLoopCount;
+    private volatile DecodedFrameContainer decodedFrames;
     private final Paint paint = new Paint();
 
 
@@ -74,15 +75,32 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
         return mLoopCount;
     }
 
+    @Override
+    protected int getDesiredSample(int desiredWidth, int desiredHeight) {
+        int sample = super.getDesiredSample(desiredWidth, desiredHeight);
+        // Decoded frames are stored at their display size and cannot be sampled
+        return decodedFrames != null ? 1 : sample;
+    }
+
     @Override
     protected void release() {
         snapShot.byteBuffer = null;
         apngWriter = null;
+        if (decodedFrames != null) {
+            decodedFrames.release();
+            decodedFrames = null;
+        }
     }
 
 
     @Override
     protected Rect read(APNGReader reader) throws IOException {
+        if (DecodedFrameContainer.isContainer(reader)) {
+            reader.reset();
+            return readDecodedFrames(reader);
+        }
+        reader.reset();
+
         List<Chunk> chunks = APNGParser.parse(reader);
         List<Chunk> otherChunks = new ArrayList<>();
 
@@ -131,11 +149,37 @@ public class APNGDecoder extends FrameSeqDecoder<APNGReader, APNGWriter> {
         return new Rect(0, 0, canvasWidth, canvasHeight);
     }
 
+    /**
+     * Frames in the container are already composited at the size they were cached for.
+     */
+    private Rect readDecodedFrames(APNGReader reader) throws IOException {
+        if (decodedFrames != null) {
+            decodedFrames.release();
+        }
+        decodedFrames = DecodedFrameContainer.read(reader);
+        frames.addAll(decodedFrames.getFrames());
+        mLoopCount = decodedFrames.getLoopCount();
+
+        int width = decodedFrames.getWidth();
+        int height = decodedFrames.getHeight();
+        frameBuffer = ByteBuffer.allocate((width * height + 1) * 4);
+        snapShot.byteBuffer = null;
+        return new Rect(0, 0, width, height);
+    }
+
     @Override
     protected void renderFrame(Frame frame) {
         if (frame == null || fullRect == null) {
             return;
         }
+        if (frame instanceof DecodedFrameContainer.DecodedFrame) {
+            try {
+                decodedFrames.render((DecodedFrameContainer.DecodedFrame) frame, frameBuffer);
+            } catch (Throwable t) {
+                Log.e(TAG, "Failed to render!", t);
+            }
+            return;
+        }
         try {
             Bitmap bitmap = obtainBitmap(fullRect.width() / sampleSize, fullRect.height() / sampleSize);
             Canvas canvas = cachedCanvas.get(bitmap);
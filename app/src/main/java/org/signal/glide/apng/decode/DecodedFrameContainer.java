@@ -0,0 +1,398 @@
+package org.signal.glide.apng.decode;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.core.util.logging.Log;
+
+import org.signal.glide.apng.io.APNGReader;
+import org.signal.glide.apng.io.APNGWriter;
+import org.signal.glide.common.decode.Frame;
+import org.signal.glide.common.decode.FrameSeqDecoder;
+import org.signal.glide.common.io.Reader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A cache format for animations that have already been decoded and composited at the size they
+ * are displayed at. Playing one back is an inflate and an XOR per frame, instead of decoding every
+ * PNG chunk and compositing it onto the canvas.
+ *
+ * Layout, big-endian:
+ *
+ * magic (4), version, width, height, loop count, frame count,
+ * then per frame: duration, compressed length, deflated pixels.
+ *
+ * Pixels are in the {@link Bitmap#copyPixelsToBuffer} layout of the canvas. The first frame is
+ * stored as is, every following frame as the XOR of itself and the previous frame, which leaves
+ * mostly zeroes for the unchanged parts of the canvas and compresses well.
+ */
+public final class DecodedFrameContainer {
+
+  private static final String TAG = Log.tag(DecodedFrameContainer.class);
+
+  public static final int MAGIC_LENGTH = 4;
+
+  private static final byte[] MAGIC   = { (byte) 0x89, 'S', 'D', 'F' };
+  private static final int    VERSION = 1;
+
+  private static final int MAX_PIXELS = 1024 * 1024;
+  private static final int MAX_FRAMES = 1024;
+
+  private final int                width;
+  private final int                height;
+  private final int                loopCount;
+  private final List<DecodedFrame> frames;
+  private final Inflater           inflater;
+
+  private byte[]     scratch;
+  private ByteBuffer drawBuffer;
+
+  private DecodedFrameContainer(int width, int height, int loopCount, int frameCount) {
+    this.width     = width;
+    this.height    = height;
+    this.loopCount = loopCount;
+    this.frames    = new ArrayList<>(frameCount);
+    this.inflater  = new Inflater();
+  }
+
+  public static boolean isContainer(@NonNull byte[] header) {
+    return header.length >= MAGIC_LENGTH && Arrays.equals(Arrays.copyOf(header, MAGIC_LENGTH), MAGIC);
+  }
+
+  public static boolean isContainer(@NonNull Reader reader) {
+    byte[] header = new byte[MAGIC_LENGTH];
+
+    try {
+      return readFully(reader, header) && isContainer(header);
+    } catch (IOException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Renders every frame of the decoder at the sample size closest to the desired size and writes
+   * the result to the output stream.
+   */
+  public static void write(@NonNull APNGDecoder decoder, int desiredWidth, int desiredHeight, @NonNull OutputStream outputStream) throws IOException {
+    Encoder encoder = new Encoder(outputStream);
+
+    try {
+      if (!decoder.renderAllFrames(desiredWidth, desiredHeight, encoder)) {
+        throw new IOException("Decoder is in use!");
+      }
+      encoder.flush();
+    } finally {
+      encoder.release();
+    }
+  }
+
+  /**
+   * Reads a container in a single pass. The frames stay compressed in memory until they are
+   * rendered.
+   */
+  static @NonNull DecodedFrameContainer read(@NonNull APNGReader reader) throws IOException {
+    byte[] magic = new byte[MAGIC_LENGTH];
+
+    if (!readFully(reader, magic) || !isContainer(magic)) {
+      throw new IOException("Not a decoded frame container!");
+    }
+
+    int version = reader.readInt();
+
+    if (version != VERSION) {
+      throw new IOException("Unsupported version: " + version);
+    }
+
+    int width      = reader.readInt();
+    int height     = reader.readInt();
+    int loopCount  = reader.readInt();
+    int frameCount = reader.readInt();
+
+    if (width <= 0 || height <= 0 || (long) width * height > MAX_PIXELS) {
+      throw new IOException("Invalid dimensions: " + width + "x" + height);
+    }
+
+    if (frameCount <= 0 || frameCount > MAX_FRAMES) {
+      throw new IOException("Invalid frame count: " + frameCount);
+    }
+
+    DecodedFrameContainer container = new DecodedFrameContainer(width, height, loopCount, frameCount);
+
+    for (int i = 0; i < frameCount; i++) {
+      int duration = reader.readInt();
+      int length   = reader.readInt();
+
+      if (length <= 0 || length > reader.available()) {
+        throw new IOException("Invalid frame length: " + length);
+      }
+
+      byte[] data = new byte[length];
+
+      if (!readFully(reader, data)) {
+        throw new IOException("Truncated frame!");
+      }
+
+      container.frames.add(new DecodedFrame(container, reader, duration, i == 0, data));
+    }
+
+    return container;
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  int getHeight() {
+    return height;
+  }
+
+  int getLoopCount() {
+    return loopCount;
+  }
+
+  @NonNull List<DecodedFrame> getFrames() {
+    return Collections.unmodifiableList(frames);
+  }
+
+  /**
+   * Applies the frame to the canvas pixels held in the frame buffer. Frames must be rendered in
+   * order, starting with the first.
+   */
+  void render(@NonNull DecodedFrame frame, @NonNull ByteBuffer frameBuffer) throws DataFormatException {
+    int    frameBytes = width * height * 4;
+    byte[] canvas     = frameBuffer.array();
+    int    offset     = frameBuffer.arrayOffset();
+
+    if (frameBuffer.capacity() < frameBytes) {
+      throw new DataFormatException("Frame buffer is too small: " + frameBuffer.capacity() + " < " + frameBytes);
+    }
+
+    inflater.reset();
+    inflater.setInput(frame.data);
+
+    if (frame.keyFrame) {
+      inflateFully(inflater, canvas, offset, frameBytes);
+    } else {
+      if (scratch == null) {
+        scratch = new byte[frameBytes];
+      }
+
+      inflateFully(inflater, scratch, 0, frameBytes);
+
+      for (int i = 0; i < frameBytes; i++) {
+        canvas[offset + i] ^= scratch[i];
+      }
+    }
+  }
+
+  /**
+   * Draws the frame through a canvas, for callers that don't hand the decoder's frame buffer to
+   * {@link #render(DecodedFrame, ByteBuffer)}. The canvas pixels are kept in a buffer of their own,
+   * so frames must still be drawn in order, starting with the first.
+   */
+  @NonNull Bitmap draw(@NonNull DecodedFrame frame, @NonNull Canvas canvas, @NonNull Paint paint, @Nullable Bitmap reusedBitmap) throws DataFormatException {
+    if (drawBuffer == null) {
+      drawBuffer = ByteBuffer.allocate(width * height * 4);
+    }
+
+    render(frame, drawBuffer);
+
+    Bitmap bitmap = reusedBitmap;
+
+    if (bitmap == null || !bitmap.isMutable() || bitmap.getWidth() != width || bitmap.getHeight() != height || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+      bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    drawBuffer.rewind();
+    bitmap.copyPixelsFromBuffer(drawBuffer);
+
+    canvas.save();
+    canvas.clipRect(0, 0, width, height);
+    canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+    canvas.drawBitmap(bitmap, 0, 0, paint);
+    canvas.restore();
+
+    return bitmap;
+  }
+
+  void release() {
+    inflater.end();
+    scratch    = null;
+    drawBuffer = null;
+  }
+
+  private static void inflateFully(@NonNull Inflater inflater, @NonNull byte[] output, int offset, int length) throws DataFormatException {
+    int inflated = 0;
+
+    while (inflated < length) {
+      int count = inflater.inflate(output, offset + inflated, length - inflated);
+
+      if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+        throw new DataFormatException("Truncated frame! " + inflated + " < " + length);
+      }
+
+      inflated += count;
+    }
+  }
+
+  private static boolean readFully(@NonNull Reader reader, @NonNull byte[] buffer) throws IOException {
+    int offset = 0;
+
+    while (offset < buffer.length) {
+      int read = reader.read(buffer, offset, buffer.length - offset);
+
+      if (read <= 0) {
+        return false;
+      }
+
+      offset += read;
+    }
+
+    return true;
+  }
+
+  /**
+   * A frame whose pixels {@link APNGDecoder} applies directly to its frame buffer. Drawing it through
+   * a canvas also works, but is slower. The frame is already at the size it is displayed at, so the
+   * sample size is ignored.
+   */
+  static final class DecodedFrame extends Frame<APNGReader, APNGWriter> {
+
+    private final DecodedFrameContainer container;
+    private final boolean               keyFrame;
+    private final byte[]                data;
+
+    DecodedFrame(@NonNull DecodedFrameContainer container, @NonNull APNGReader reader, int duration, boolean keyFrame, @NonNull byte[] data) {
+      super(reader);
+      this.container     = container;
+      this.frameWidth    = container.width;
+      this.frameHeight   = container.height;
+      this.frameDuration = duration;
+      this.keyFrame      = keyFrame;
+      this.data          = data;
+    }
+
+    @Override
+    public Bitmap draw(Canvas canvas, Paint paint, int sampleSize, Bitmap reusedBitmap, APNGWriter writer) {
+      try {
+        return container.draw(this, canvas, paint, reusedBitmap);
+      } catch (DataFormatException e) {
+        Log.w(TAG, "Failed to draw decoded frame.", e);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Receives the composited frames of a decoder and writes them out as a container.
+   */
+  static final class Encoder implements FrameSeqDecoder.FrameCallback {
+
+    private final DataOutputStream      output;
+    private final Deflater              deflater;
+    private final ByteArrayOutputStream compressed;
+    private final byte[]                chunk;
+
+    private int    frameBytes;
+    private byte[] current;
+    private byte[] previous;
+    private byte[] delta;
+    private int    frameIndex;
+
+    Encoder(@NonNull OutputStream outputStream) {
+      this.output     = new DataOutputStream(outputStream);
+      this.deflater   = new Deflater(Deflater.DEFAULT_COMPRESSION);
+      this.compressed = new ByteArrayOutputStream();
+      this.chunk      = new byte[16 * 1024];
+    }
+
+    @Override
+    public void onStart(int width, int height, int loopCount, int frameCount) throws IOException {
+      if (width <= 0 || height <= 0 || (long) width * height > MAX_PIXELS) {
+        throw new IOException("Invalid dimensions: " + width + "x" + height);
+      }
+
+      if (frameCount <= 0 || frameCount > MAX_FRAMES) {
+        throw new IOException("Invalid frame count: " + frameCount);
+      }
+
+      frameBytes = width * height * 4;
+      current    = new byte[frameBytes];
+      previous   = new byte[frameBytes];
+      delta      = new byte[frameBytes];
+      frameIndex = 0;
+
+      output.write(MAGIC);
+      output.writeInt(VERSION);
+      output.writeInt(width);
+      output.writeInt(height);
+      output.writeInt(loopCount);
+      output.writeInt(frameCount);
+    }
+
+    @Override
+    public void onFrame(@NonNull ByteBuffer pixels, int duration) throws IOException {
+      if (current == null) {
+        throw new IOException("Frame before start!");
+      }
+
+      pixels.get(current, 0, frameBytes);
+
+      byte[] input;
+
+      if (frameIndex == 0) {
+        input = current;
+      } else {
+        for (int i = 0; i < frameBytes; i++) {
+          delta[i] = (byte) (current[i] ^ previous[i]);
+        }
+        input = delta;
+      }
+
+      compressed.reset();
+      deflater.reset();
+      deflater.setInput(input, 0, frameBytes);
+      deflater.finish();
+
+      while (!deflater.finished()) {
+        int count = deflater.deflate(chunk);
+        compressed.write(chunk, 0, count);
+      }
+
+      output.writeInt(duration);
+      output.writeInt(compressed.size());
+      compressed.writeTo(output);
+
+      byte[] swap = previous;
+      previous = current;
+      current  = swap;
+      frameIndex++;
+    }
+
+    void flush() throws IOException {
+      output.flush();
+    }
+
+    void release() {
+      deflater.end();
+    }
+  }
+}
@@ -137,6 +137,7 @@ public abstract class FrameAnimationDrawable<Decoder extends FrameSeqDecoder> ex
 
     @Override
     public void draw(Canvas canvas) {
+        frameSeqDecoder.onRenderNeeded();
         if (bitmap == null || bitmap.isRecycled()) {
             return;
         }
@@ -204,6 +205,11 @@ public abstract class FrameAnimationDrawable<Decoder extends FrameSeqDecoder> ex
         Message.obtain(uiHandler, MSG_ANIMATION_END).sendToTarget();
     }
 
+    @Override
+    public boolean isRenderNeeded() {
+        return isVisible() && getCallback() != null;
+    }
+
     @Override
     public boolean setVisible(boolean visible, boolean restart) {
         if (this.autoPlay) {
@@ -215,7 +221,11 @@ public abstract class FrameAnimationDrawable<Decoder extends FrameSeqDecoder> ex
                 stop();
             }
         }
-        return super.setVisible(visible, restart);
+        boolean changed = super.setVisible(visible, restart);
+        if (visible) {
+            frameSeqDecoder.onRenderNeeded();
+        }
+        return changed;
     }
 
     @Override
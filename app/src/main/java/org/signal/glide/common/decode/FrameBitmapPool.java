@@ -0,0 +1,146 @@
+package org.signal.glide.common.decode;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.core.util.logging.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A bitmap pool shared by every {@link FrameSeqDecoder}. Each decoder needs a canvas-sized bitmap
+ * and a frame-sized bitmap for every rendered frame, so a grid of animated stickers would otherwise
+ * keep a private set of buffers per sticker.
+ *
+ * Bitmaps are bucketed by the power of two of their allocation size, and the pool is bounded to a
+ * fraction of the heap. Bitmaps that do not fit are recycled immediately.
+ */
+public final class FrameBitmapPool {
+
+  private static final String TAG = Log.tag(FrameBitmapPool.class);
+
+  private static final int BUCKET_COUNT      = 32;
+  private static final int MAX_BUCKET_SKIP   = 2;
+  private static final int MAX_PER_BUCKET    = 16;
+
+  private static final FrameBitmapPool INSTANCE = new FrameBitmapPool(Runtime.getRuntime().maxMemory() / 16);
+
+  private final ArrayDeque<Bitmap>[] buckets;
+  private final long                 maxBytes;
+
+  private long pooledBytes;
+  private long hits;
+  private long misses;
+
+  public static @NonNull FrameBitmapPool getInstance() {
+    return INSTANCE;
+  }
+
+  @SuppressWarnings("unchecked")
+  private FrameBitmapPool(long maxBytes) {
+    this.maxBytes = maxBytes;
+    this.buckets  = new ArrayDeque[BUCKET_COUNT];
+
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * @return A cleared, mutable ARGB_8888 bitmap of the requested size, or null if one could not be
+   *         allocated.
+   */
+  public @Nullable Bitmap obtain(int width, int height) {
+    int    byteCount = width * height * 4;
+    Bitmap bitmap    = take(byteCount);
+
+    if (bitmap != null) {
+      if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+        bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+      }
+      bitmap.eraseColor(0);
+      return bitmap;
+    }
+
+    try {
+      return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    } catch (OutOfMemoryError e) {
+      Log.w(TAG, "Failed to allocate a frame bitmap. Clearing the pool.", e);
+      clear();
+      return null;
+    }
+  }
+
+  public void recycle(@Nullable Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+      return;
+    }
+
+    int byteCount = bitmap.getAllocationByteCount();
+
+    synchronized (this) {
+      ArrayDeque<Bitmap> bucket = buckets[bucketFor(byteCount)];
+
+      for (Bitmap pooled : bucket) {
+        if (pooled == bitmap) {
+          return;
+        }
+      }
+
+      if (pooledBytes + byteCount <= maxBytes && bucket.size() < MAX_PER_BUCKET) {
+        bucket.push(bitmap);
+        pooledBytes += byteCount;
+        return;
+      }
+    }
+
+    bitmap.recycle();
+  }
+
+  public synchronized void clear() {
+    for (ArrayDeque<Bitmap> bucket : buckets) {
+      for (Bitmap bitmap : bucket) {
+        bitmap.recycle();
+      }
+      bucket.clear();
+    }
+
+    pooledBytes = 0;
+  }
+
+  public synchronized @NonNull String getStats() {
+    return "pooled: " + pooledBytes + "/" + maxBytes + " bytes, hits: " + hits + ", misses: " + misses;
+  }
+
+  private synchronized @Nullable Bitmap take(int byteCount) {
+    int first = bucketFor(byteCount);
+
+    for (int i = first; i < Math.min(BUCKET_COUNT, first + 1 + MAX_BUCKET_SKIP); i++) {
+      Iterator<Bitmap> iterator = buckets[i].iterator();
+
+      while (iterator.hasNext()) {
+        Bitmap bitmap = iterator.next();
+
+        if (bitmap.isRecycled()) {
+          iterator.remove();
+          pooledBytes -= bitmap.getAllocationByteCount();
+        } else if (bitmap.getAllocationByteCount() >= byteCount) {
+          iterator.remove();
+          pooledBytes -= bitmap.getAllocationByteCount();
+          hits++;
+          return bitmap;
+        }
+      }
+    }
+
+    misses++;
+    return null;
+  }
+
+  private static int bucketFor(int byteCount) {
+    return Math.min(BUCKET_COUNT - 1, 31 - Integer.numberOfLeadingZeros(Math.max(1, byteCount)));
+  }
+}
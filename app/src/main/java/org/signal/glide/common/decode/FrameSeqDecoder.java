@@ -8,9 +8,6 @@ package org.signal.glide.common.decode;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Rect;
-import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
@@ -25,7 +22,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -43,7 +39,7 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
     private final int taskId;
 
     private final Loader mLoader;
-    private final Handler workerHandler;
+    private final FrameDecoderExecutor.Lane workerHandler;
     protected List<Frame> frames = new ArrayList<>();
     protected int frameIndex = -1;
     private int playCount;
@@ -51,12 +47,20 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
     private Set<RenderListener> renderListeners = new HashSet<>();
     private AtomicBoolean paused = new AtomicBoolean(true);
     private static final Rect RECT_EMPTY = new Rect();
+    private AtomicBoolean waitingForRender = new AtomicBoolean(false);
     private Runnable renderTask = new Runnable() {
         @Override
         public void run() {
             if (paused.get()) {
                 return;
             }
+            if (!isRenderNeeded()) {
+                waitingForRender.set(true);
+                if (isRenderNeeded() && waitingForRender.compareAndSet(true, false)) {
+                    workerHandler.post(this);
+                }
+                return;
+            }
             if (canStep()) {
                 long start = System.currentTimeMillis();
                 long delay = step();
@@ -72,10 +76,11 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
     };
     protected int sampleSize = 1;
 
-    private Set<Bitmap> cacheBitmaps = new HashSet<>();
     protected Map<Bitmap, Canvas> cachedCanvas = new WeakHashMap<>();
     protected ByteBuffer frameBuffer;
     protected volatile Rect fullRect;
+    private int requestedWidth;
+    private int requestedHeight;
     private W mWriter = getWriter();
     private R mReader = null;
 
@@ -102,45 +107,28 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
     protected abstract R getReader(Reader reader);
 
     protected Bitmap obtainBitmap(int width, int height) {
-        Bitmap ret = null;
-        Iterator<Bitmap> iterator = cacheBitmaps.iterator();
-        while (iterator.hasNext()) {
-            int reuseSize = width * height * 4;
-            ret = iterator.next();
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-                if (ret != null && ret.getAllocationByteCount() >= reuseSize) {
-                    iterator.remove();
-                    if (ret.getWidth() != width || ret.getHeight() != height) {
-                        ret.reconfigure(width, height, Bitmap.Config.ARGB_8888);
-                    }
-                    ret.eraseColor(0);
-                    return ret;
-                }
-            } else {
-                if (ret != null && ret.getByteCount() >= reuseSize) {
-                    if (ret.getWidth() == width && ret.getHeight() == height) {
-                        iterator.remove();
-                        ret.eraseColor(0);
-                    }
-                    return ret;
-                }
-            }
-        }
-
-        try {
-            Bitmap.Config config = Bitmap.Config.ARGB_8888;
-            ret = Bitmap.createBitmap(width, height, config);
-        } catch (OutOfMemoryError e) {
-            e.printStackTrace();
-        }
-        return ret;
+        return FrameBitmapPool.getInstance().obtain(width, height);
     }
 
     protected void recycleBitmap(Bitmap bitmap) {
-        if (bitmap != null && !cacheBitmaps.contains(bitmap)) {
-            cacheBitmaps.add(bitmap);
+        FrameBitmapPool.getInstance().recycle(bitmap);
+    }
+
+    /**
+     * Frames are only decoded while at least one listener will show them. Off-screen drawables keep
+     * their place in the animation, and nothing is scheduled until {@link #onRenderNeeded()} says one
+     * of them is visible again.
+     */
+    private boolean isRenderNeeded() {
+        if (renderListeners.isEmpty()) {
+            return true;
         }
+        for (RenderListener renderListener : renderListeners) {
+            if (renderListener.isRenderNeeded()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -161,6 +149,25 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
          * 播放结束
          */
         void onEnd();
+
+        /**
+         * @return False if the rendered frames would not be shown, e.g. because the listener is off-screen.
+         */
+        default boolean isRenderNeeded() {
+            return true;
+        }
+    }
+
+    /**
+     * Receives every frame of the animation from {@link #renderAllFrames(int, int, FrameCallback)}.
+     */
+    public interface FrameCallback {
+        void onStart(int width, int height, int loopCount, int frameCount) throws IOException;
+
+        /**
+         * @param pixels The composited canvas, only valid for the duration of the call.
+         */
+        void onFrame(ByteBuffer pixels, int duration) throws IOException;
     }
 
 
@@ -174,7 +181,7 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
             this.renderListeners.add(renderListener);
         }
         this.taskId = FrameDecoderExecutor.getInstance().generateTaskId();
-        this.workerHandler = new Handler(FrameDecoderExecutor.getInstance().getLooper(taskId));
+        this.workerHandler = FrameDecoderExecutor.getInstance().newLane();
     }
 
 
@@ -185,6 +192,17 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
                 renderListeners.add(renderListener);
             }
         });
+        onRenderNeeded();
+    }
+
+    /**
+     * Resumes decoding if it stopped because no listener needed frames. Listeners call this when
+     * they may have become visible, it does nothing otherwise.
+     */
+    public void onRenderNeeded() {
+        if (waitingForRender.compareAndSet(true, false)) {
+            workerHandler.post(renderTask);
+        }
     }
 
     public void removeRenderListener(final RenderListener renderListener) {
@@ -268,7 +286,7 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
             Log.e(TAG, debugInfo() + " Processing,wait for finish at " + mState);
         }
         mState = State.INITIALIZING;
-        if (Looper.myLooper() == workerHandler.getLooper()) {
+        if (workerHandler.isCurrentThread()) {
             innerStart();
         } else {
             workerHandler.post(new Runnable() {
@@ -316,13 +334,8 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
     @WorkerThread
     private void innerStop() {
         workerHandler.removeCallbacks(renderTask);
+        waitingForRender.set(false);
         frames.clear();
-        for (Bitmap bitmap : cacheBitmaps) {
-            if (bitmap != null && !bitmap.isRecycled()) {
-                bitmap.recycle();
-            }
-        }
-        cacheBitmaps.clear();
         if (frameBuffer != null) {
             frameBuffer = null;
         }
@@ -357,7 +370,7 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
             Log.e(TAG, debugInfo() + "Processing,wait for finish at " + mState);
         }
         mState = State.FINISHING;
-        if (Looper.myLooper() == workerHandler.getLooper()) {
+        if (workerHandler.isCurrentThread()) {
             innerStop();
         } else {
             workerHandler.post(new Runnable() {
@@ -400,6 +413,7 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
 
     public void resume() {
         paused.compareAndSet(true, false);
+        waitingForRender.set(false);
         workerHandler.removeCallbacks(renderTask);
         workerHandler.post(renderTask);
     }
@@ -409,6 +423,23 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
         return sampleSize;
     }
 
+    /**
+     * Remembers the size this decoder was loaded for. Unlike {@link #setDesiredSize(int, int)}
+     * this does not change the sample size.
+     */
+    public void setRequestedSize(int width, int height) {
+        this.requestedWidth = Math.max(0, width);
+        this.requestedHeight = Math.max(0, height);
+    }
+
+    public int getRequestedWidth() {
+        return requestedWidth;
+    }
+
+    public int getRequestedHeight() {
+        return requestedHeight;
+    }
+
     public boolean setDesiredSize(int width, int height) {
         boolean sampleSizeChanged = false;
         int sample = getDesiredSample(width, height);
@@ -536,4 +567,42 @@ public abstract class FrameSeqDecoder<R extends Reader, W extends Writer> {
         innerStop();
         return bitmap;
     }
+
+    /**
+     * Renders each frame once, in order, at the sample size that best fits the desired size. Like
+     * {@link #getFrameBitmap(int)} this runs on the calling thread and needs a stopped decoder.
+     *
+     * @return False if the decoder was running.
+     */
+    public boolean renderAllFrames(int desiredWidth, int desiredHeight, FrameCallback callback) throws IOException {
+        if (mState != State.IDLE) {
+            Log.e(TAG, debugInfo() + ",stop first");
+            return false;
+        }
+        mState = State.RUNNING;
+        paused.compareAndSet(true, false);
+        try {
+            frames.clear();
+            mReader = getReader(mLoader.obtain());
+            initCanvasBounds(read(mReader));
+            int sample = getDesiredSample(Math.max(0, desiredWidth), Math.max(0, desiredHeight));
+            if (sample != sampleSize) {
+                sampleSize = sample;
+                frames.clear();
+                mReader.reset();
+                initCanvasBounds(read(mReader));
+            }
+            callback.onStart(fullRect.width() / sampleSize, fullRect.height() / sampleSize, getLoopCount(), frames.size());
+            for (int i = 0; i < frames.size(); i++) {
+                Frame frame = frames.get(i);
+                frameIndex = i;
+                renderFrame(frame);
+                frameBuffer.rewind();
+                callback.onFrame(frameBuffer, frame.frameDuration);
+            }
+            return true;
+        } finally {
+            innerStop();
+        }
+    }
 }
@@ -5,29 +5,43 @@
 
 package org.signal.glide.common.executor;
 
-import android.os.HandlerThread;
-import android.os.Looper;
-
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @Description: com.github.penfeizhou.animation.executor
  * @Author: pengfei.zhou
  * @CreateDate: 2019-11-21
+ *
+ * Decoders are no longer pinned to a thread. Each decoder gets a {@link Lane}, which runs its
+ * tasks in order and never concurrently, while the lanes themselves share one bounded pool. An
+ * idle thread picks up whichever lane has work, so a grid of busy stickers is spread over every
+ * thread instead of piling up on the thread its task id hashed to.
  */
 public class FrameDecoderExecutor {
-    private static int sPoolNumber = 4;
-    private ArrayList<HandlerThread> mHandlerThreadGroup = new ArrayList<>();
-    private AtomicInteger counter = new AtomicInteger(0);
+    private static int sPoolNumber = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private final AtomicInteger counter = new AtomicInteger(0);
+    private final AtomicInteger threadCounter = new AtomicInteger(0);
+    private volatile ScheduledThreadPoolExecutor executor;
 
-    private FrameDecoderExecutor() {
+    FrameDecoderExecutor() {
     }
 
     static class Inner {
         static final FrameDecoderExecutor sInstance = new FrameDecoderExecutor();
     }
 
+    /**
+     * Only has an effect if called before the first decoder is created.
+     */
     public void setPoolSize(int size) {
         sPoolNumber = size;
     }
@@ -36,35 +50,137 @@ public class FrameDecoderExecutor {
         return Inner.sInstance;
     }
 
-    public Looper getLooper(int taskId) {
-        int idx = taskId % sPoolNumber;
-        if (idx >= mHandlerThreadGroup.size()) {
-            HandlerThread handlerThread = new HandlerThread("FrameDecoderExecutor-" + idx);
-            handlerThread.start();
-
-            mHandlerThreadGroup.add(handlerThread);
-            Looper looper = handlerThread.getLooper();
-            if (looper != null) {
-                return looper;
-            } else {
-                return Looper.getMainLooper();
-            }
-        } else {
-            if (mHandlerThreadGroup.get(idx) != null) {
-                Looper looper = mHandlerThreadGroup.get(idx).getLooper();
-                if (looper != null) {
-                    return looper;
-                } else {
-                    return Looper.getMainLooper();
+    public Lane newLane() {
+        return new Lane(getExecutor());
+    }
+
+    public int generateTaskId() {
+        return counter.getAndIncrement();
+    }
+
+    private ScheduledThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(sPoolNumber, r -> {
+                        Thread thread = new Thread(r, "FrameDecoderExecutor-" + threadCounter.getAndIncrement());
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    });
+                    pool.setRemoveOnCancelPolicy(true);
+                    executor = pool;
                 }
-            } else {
-                return Looper.getMainLooper();
             }
         }
+        return executor;
     }
 
-    public int generateTaskId() {
-        return counter.getAndIncrement();
+    /**
+     * A serial queue of tasks for a single decoder, with the subset of the Handler API the decoder
+     * needs. Only one task from a lane is run per dispatch, so lanes take turns on the shared pool.
+     */
+    public static final class Lane {
+        private final ScheduledThreadPoolExecutor executor;
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private final Map<Runnable, List<ScheduledFuture<?>>> delayed = new HashMap<>();
+        private final Runnable drainTask = this::drainOne;
+
+        private boolean dispatched;
+        private volatile Thread currentThread;
+
+        Lane(ScheduledThreadPoolExecutor executor) {
+            this.executor = executor;
+        }
+
+        public boolean isCurrentThread() {
+            return currentThread == Thread.currentThread();
+        }
+
+        public void post(Runnable runnable) {
+            synchronized (this) {
+                queue.add(runnable);
+                if (dispatched) {
+                    return;
+                }
+                dispatched = true;
+            }
+            executor.execute(drainTask);
+        }
+
+        public void postDelayed(final Runnable runnable, long delayMs) {
+            if (delayMs <= 0) {
+                post(runnable);
+                return;
+            }
+
+            synchronized (this) {
+                final ScheduledFuture<?>[] holder = new ScheduledFuture<?>[1];
+                holder[0] = executor.schedule(() -> {
+                    synchronized (Lane.this) {
+                        List<ScheduledFuture<?>> futures = delayed.get(runnable);
+                        if (futures == null || !futures.remove(holder[0])) {
+                            return;
+                        }
+                        if (futures.isEmpty()) {
+                            delayed.remove(runnable);
+                        }
+                    }
+                    post(runnable);
+                }, delayMs, TimeUnit.MILLISECONDS);
+
+                List<ScheduledFuture<?>> futures = delayed.get(runnable);
+                if (futures == null) {
+                    futures = new ArrayList<>(1);
+                    delayed.put(runnable, futures);
+                }
+                futures.add(holder[0]);
+            }
+        }
+
+        public synchronized void removeCallbacks(Runnable runnable) {
+            Iterator<Runnable> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() == runnable) {
+                    iterator.remove();
+                }
+            }
+
+            List<ScheduledFuture<?>> futures = delayed.remove(runnable);
+            if (futures != null) {
+                for (ScheduledFuture<?> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+
+        private void drainOne() {
+            Runnable task;
+
+            synchronized (this) {
+                task = queue.poll();
+                if (task == null) {
+                    dispatched = false;
+                    return;
+                }
+            }
+
+            currentThread = Thread.currentThread();
+            try {
+                task.run();
+            } finally {
+                currentThread = null;
+                redispatch();
+            }
+        }
+
+        private void redispatch() {
+            synchronized (this) {
+                if (queue.isEmpty()) {
+                    dispatched = false;
+                    return;
+                }
+            }
+            executor.execute(drainTask);
+        }
     }
 }
-
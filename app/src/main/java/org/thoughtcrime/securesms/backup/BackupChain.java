@@ -0,0 +1,266 @@
+package org.thoughtcrime.securesms.backup;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.google.protobuf.ByteString;
+
+import org.signal.core.util.Conversions;
+import org.signal.core.util.StreamUtil;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.backup.BackupProtos.ChainState;
+import org.thoughtcrime.securesms.backup.BackupProtos.Header;
+import org.thoughtcrime.securesms.database.NoExternalStorageException;
+import org.thoughtcrime.securesms.util.BackupUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Backups are written as chains: a base snapshot (sequence 0) followed by up to
+ * {@link #MAX_LENGTH} - 1 incremental backups. Every file in a chain contains the full database,
+ * but attachment and sticker bodies are only written once per chain. Each incremental backup
+ * records the digest of its parent, so a restore can verify that the chain is intact.
+ *
+ * The chain id and sequence are stored in the plaintext header so that chains can be resolved and
+ * pruned without the passphrase. The authenticated {@link BackupProtos.Increment} frame inside the
+ * file is the source of truth during a restore.
+ */
+public final class BackupChain {
+
+  private static final String TAG = Log.tag(BackupChain.class);
+
+  public static final int MAX_LENGTH = 7;
+
+  private static final int MAX_HEADER_LENGTH = 1024;
+
+  private BackupChain() {}
+
+  /**
+   * @return True if the next backup can be written as an increment of the provided state, whose
+   *         file is located at parentUri.
+   */
+  public static boolean canContinue(@NonNull Context context, @Nullable ChainState state, @Nullable Uri parentUri) {
+    if (state == null || !state.hasIncrement() || !state.hasDigest()) {
+      return false;
+    }
+
+    if (state.getIncrement().getSequence() + 1 >= MAX_LENGTH) {
+      Log.i(TAG, "Chain is at its maximum length. Starting a new chain.");
+      return false;
+    }
+
+    if (parentUri == null) {
+      Log.w(TAG, "Parent backup is missing. Starting a new chain.");
+      return false;
+    }
+
+    Header header = readHeader(context, parentUri);
+
+    if (header == null                                                          ||
+        !header.getChainId().equals(state.getIncrement().getChainId())         ||
+        header.getChainSequence() != state.getIncrement().getSequence())
+    {
+      Log.w(TAG, "Parent backup does not match the stored chain state. Starting a new chain.");
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Finds every file needed to restore the provided backup.
+   *
+   * On API 29+ a backup chosen with the document picker is only readable on its own, so the rest
+   * of its chain can only be found if the folder containing it is provided as backupDirectory.
+   *
+   * @param backupDirectory An optional document tree to search in addition to the backup's own
+   *                        directory and the configured backup directory.
+   * @return The chain ordered from the provided backup back to its base snapshot.
+   * @throws IOException If a file of the chain cannot be found.
+   */
+  static @NonNull List<Uri> resolve(@NonNull Context context, @NonNull Uri uri, @Nullable Uri backupDirectory) throws IOException {
+    return resolve(uri, new DeviceSource(context, backupDirectory));
+  }
+
+  /**
+   * @return True if every file needed to restore the provided backup can be found. See
+   *         {@link #resolve(Context, Uri, Uri)}.
+   */
+  @WorkerThread
+  public static boolean canResolve(@NonNull Context context, @NonNull Uri uri, @Nullable Uri backupDirectory) {
+    try {
+      resolve(context, uri, backupDirectory);
+      return true;
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to resolve the backup chain.", e);
+      return false;
+    }
+  }
+
+  @VisibleForTesting
+  static @NonNull List<Uri> resolve(@NonNull Uri uri, @NonNull Source source) throws IOException {
+    Header tip = source.readHeader(uri);
+
+    if (tip == null || !tip.hasChainId() || tip.getChainSequence() == 0) {
+      return Collections.singletonList(uri);
+    }
+
+    Map<Integer, Uri> candidates = new HashMap<>();
+
+    for (Uri candidate : source.getSiblings(uri)) {
+      Header header = source.readHeader(candidate);
+
+      if (header != null && header.getChainId().equals(tip.getChainId())) {
+        candidates.put(header.getChainSequence(), candidate);
+      }
+    }
+
+    List<Uri> chain = new ArrayList<>(tip.getChainSequence() + 1);
+    chain.add(uri);
+
+    for (int sequence = tip.getChainSequence() - 1; sequence >= 0; sequence--) {
+      Uri parent = candidates.get(sequence);
+
+      if (parent == null) {
+        throw new IOException("Incomplete backup chain! Missing sequence " + sequence + " of " + tip.getChainSequence());
+      }
+
+      chain.add(parent);
+    }
+
+    Log.i(TAG, "Resolved a backup chain of length " + chain.size());
+    return chain;
+  }
+
+  /**
+   * @return A key identifying the chain the backup belongs to. Backups written before chains
+   *         existed are their own chain.
+   */
+  public static @NonNull String getChainKey(@NonNull Context context, @NonNull Uri uri) {
+    Header header = readHeader(context, uri);
+
+    if (header != null && header.hasChainId()) {
+      return header.getChainId().toStringUtf8();
+    } else {
+      return uri.toString();
+    }
+  }
+
+  static @NonNull ByteString newChainId() {
+    return ByteString.copyFromUtf8(UUID.randomUUID().toString());
+  }
+
+  static @Nullable Header readHeader(@NonNull Context context, @NonNull Uri uri) {
+    try (InputStream in = BackupUtil.openBackupInputStream(context, uri)) {
+      return readHeader(in);
+    } catch (IOException | SecurityException e) {
+      Log.w(TAG, "Failed to read backup header.", e);
+      return null;
+    }
+  }
+
+  static @NonNull Header readHeader(@NonNull InputStream in) throws IOException {
+    byte[] headerLengthBytes = new byte[4];
+    StreamUtil.readFully(in, headerLengthBytes);
+
+    int headerLength = Conversions.byteArrayToInt(headerLengthBytes);
+
+    if (headerLength <= 0 || headerLength > MAX_HEADER_LENGTH) {
+      throw new IOException("Invalid header length: " + headerLength);
+    }
+
+    byte[] headerFrame = new byte[headerLength];
+    StreamUtil.readFully(in, headerFrame);
+
+    BackupProtos.BackupFrame frame = BackupProtos.BackupFrame.parseFrom(headerFrame);
+
+    if (!frame.hasHeader()) {
+      throw new IOException("Backup stream does not start with header!");
+    }
+
+    return frame.getHeader();
+  }
+
+  @VisibleForTesting
+  interface Source {
+    @Nullable Header readHeader(@NonNull Uri uri);
+
+    /**
+     * @return Every backup that may belong to the same chain as the provided one.
+     */
+    @NonNull List<Uri> getSiblings(@NonNull Uri uri);
+  }
+
+  private static final class DeviceSource implements Source {
+
+    private final Context context;
+    private final Uri     backupDirectory;
+
+    private DeviceSource(@NonNull Context context, @Nullable Uri backupDirectory) {
+      this.context         = context;
+      this.backupDirectory = backupDirectory;
+    }
+
+    @Override
+    public @Nullable Header readHeader(@NonNull Uri uri) {
+      return BackupChain.readHeader(context, uri);
+    }
+
+    @Override
+    public @NonNull List<Uri> getSiblings(@NonNull Uri uri) {
+      List<Uri> siblings = new LinkedList<>();
+
+      if ("file".equals(uri.getScheme()) && uri.getPath() != null) {
+        File   parent = new File(uri.getPath()).getParentFile();
+        File[] files  = parent != null ? parent.listFiles() : null;
+
+        if (files != null) {
+          for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(".backup")) {
+              siblings.add(Uri.fromFile(file));
+            }
+          }
+        }
+      }
+
+      if (backupDirectory != null && Build.VERSION.SDK_INT >= 29) {
+        try {
+          addAll(siblings, BackupUtil.getAllBackupsNewestFirst(backupDirectory));
+        } catch (SecurityException e) {
+          Log.w(TAG, "Unable to list the chosen backup directory.", e);
+        }
+      }
+
+      try {
+        addAll(siblings, BackupUtil.getAllBackupsNewestFirst());
+      } catch (NoExternalStorageException e) {
+        Log.w(TAG, "Unable to list the backup directory.", e);
+      }
+
+      return siblings;
+    }
+
+    private static void addAll(@NonNull List<Uri> siblings, @NonNull List<BackupUtil.BackupInfo> backups) {
+      for (BackupUtil.BackupInfo backup : backups) {
+        if (!siblings.contains(backup.getUri())) {
+          siblings.add(backup.getUri());
+        }
+      }
+    }
+  }
+}
@@ -73,6 +73,7 @@ public class BackupDialog {
           }
 
           BackupPassphrase.set(context, Util.join(password, " "));
+          SignalStore.settings().clearBackupChainState();
           TextSecurePreferences.setNextBackupTime(context, 0);
           TextSecurePreferences.setBackupEnabled(context, true);
           LocalBackupListener.schedule(context);
@@ -25,9 +25,11 @@ import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.IdentityKeyUtil;
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.database.CdsDatabase;
 import org.thoughtcrime.securesms.database.GroupReceiptDatabase;
 import org.thoughtcrime.securesms.database.JobDatabase;
 import org.thoughtcrime.securesms.database.KeyValueDatabase;
+import org.thoughtcrime.securesms.database.MessageIndexDatabase;
 import org.thoughtcrime.securesms.database.MmsDatabase;
 import org.thoughtcrime.securesms.database.MmsSmsColumns;
 import org.thoughtcrime.securesms.database.OneTimePreKeyDatabase;
@@ -36,6 +38,7 @@ import org.thoughtcrime.securesms.database.SessionDatabase;
 import org.thoughtcrime.securesms.database.SignedPreKeyDatabase;
 import org.thoughtcrime.securesms.database.SmsDatabase;
 import org.thoughtcrime.securesms.database.StickerDatabase;
+import org.thoughtcrime.securesms.database.TranscodePlanDatabase;
 import org.thoughtcrime.securesms.profiles.AvatarHelper;
 import org.thoughtcrime.securesms.util.SetUtil;
 import org.thoughtcrime.securesms.util.Stopwatch;
@@ -49,8 +52,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
+import java.security.DigestOutputStream;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -74,44 +80,61 @@ public class FullBackupExporter extends FullBackupBase {
     OneTimePreKeyDatabase.TABLE_NAME,
     SessionDatabase.TABLE_NAME,
     SearchDatabase.SMS_FTS_TABLE_NAME,
-    SearchDatabase.MMS_FTS_TABLE_NAME
+    SearchDatabase.MMS_FTS_TABLE_NAME,
+    SearchDatabase.PROGRESS_TABLE_NAME,
+    CdsDatabase.TABLE_NAME,
+    MessageIndexDatabase.TABLE_NAME,
+    TranscodePlanDatabase.TABLE_NAME
   );
 
-  public static void export(@NonNull Context context,
-                            @NonNull AttachmentSecret attachmentSecret,
-                            @NonNull SQLiteDatabase input,
-                            @NonNull File output,
-                            @NonNull String passphrase)
+  /**
+   * Writes a backup to the provided file. If a parent chain state is provided and still compatible
+   * with the database, the backup is written as an increment of it, see {@link BackupChain}.
+   *
+   * @return The chain state describing the written backup, to be used as the parent of the next one.
+   */
+  public static @NonNull BackupProtos.ChainState export(@NonNull Context context,
+                                                        @NonNull AttachmentSecret attachmentSecret,
+                                                        @NonNull SQLiteDatabase input,
+                                                        @NonNull File output,
+                                                        @NonNull String passphrase,
+                                                        @Nullable BackupProtos.ChainState parent)
       throws IOException
   {
     try (OutputStream outputStream = new FileOutputStream(output)) {
-      internalExport(context, attachmentSecret, input, outputStream, passphrase);
+      return internalExport(context, attachmentSecret, input, outputStream, passphrase, parent);
     }
   }
 
   @RequiresApi(29)
-  public static void export(@NonNull Context context,
-                            @NonNull AttachmentSecret attachmentSecret,
-                            @NonNull SQLiteDatabase input,
-                            @NonNull DocumentFile output,
-                            @NonNull String passphrase)
+  public static @NonNull BackupProtos.ChainState export(@NonNull Context context,
+                                                        @NonNull AttachmentSecret attachmentSecret,
+                                                        @NonNull SQLiteDatabase input,
+                                                        @NonNull DocumentFile output,
+                                                        @NonNull String passphrase,
+                                                        @Nullable BackupProtos.ChainState parent)
       throws IOException
   {
     try (OutputStream outputStream = Objects.requireNonNull(context.getContentResolver().openOutputStream(output.getUri()))) {
-      internalExport(context, attachmentSecret, input, outputStream, passphrase);
+      return internalExport(context, attachmentSecret, input, outputStream, passphrase, parent);
     }
   }
 
-  private static void internalExport(@NonNull Context context,
-                                     @NonNull AttachmentSecret attachmentSecret,
-                                     @NonNull SQLiteDatabase input,
-                                     @NonNull OutputStream fileOutputStream,
-                                     @NonNull String passphrase)
+  private static @NonNull BackupProtos.ChainState internalExport(@NonNull Context context,
+                                                                 @NonNull AttachmentSecret attachmentSecret,
+                                                                 @NonNull SQLiteDatabase input,
+                                                                 @NonNull OutputStream fileOutputStream,
+                                                                 @NonNull String passphrase,
+                                                                 @Nullable BackupProtos.ChainState parent)
       throws IOException
   {
-    BackupFrameOutputStream outputStream = new BackupFrameOutputStream(fileOutputStream, passphrase);
+    IncrementTracker        tracker      = IncrementTracker.create(parent, input.getVersion());
+    MessageDigest           digest       = getDigest();
+    BackupFrameOutputStream outputStream = new BackupFrameOutputStream(new DigestOutputStream(fileOutputStream, digest), passphrase, tracker.chainId, tracker.sequence);
     int                     count        = 0;
 
+    Log.i(TAG, "Exporting sequence " + tracker.sequence + " of backup chain.");
+
     try {
       outputStream.writeDatabaseVersion(input.getVersion());
 
@@ -127,9 +150,9 @@ public class FullBackupExporter extends FullBackupBase {
         } else if (table.equals(GroupReceiptDatabase.TABLE_NAME)) {
           count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptDatabase.MMS_ID))), null, count);
         } else if (table.equals(AttachmentDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID))), cursor -> exportAttachment(attachmentSecret, cursor, outputStream), count);
+          count = exportTable(table, input, outputStream, cursor -> isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID))), cursor -> exportAttachment(attachmentSecret, cursor, outputStream, tracker), count);
         } else if (table.equals(StickerDatabase.TABLE_NAME)) {
-          count = exportTable(table, input, outputStream, cursor -> true, cursor -> exportSticker(attachmentSecret, cursor, outputStream), count);
+          count = exportTable(table, input, outputStream, cursor -> true, cursor -> exportSticker(attachmentSecret, cursor, outputStream, tracker), count);
         } else if (!BLACKLISTED_TABLES.contains(table) && !table.startsWith("sqlite_")) {
           count = exportTable(table, input, outputStream, null, null, count);
         }
@@ -153,11 +176,27 @@ public class FullBackupExporter extends FullBackupBase {
       stopwatch.split("avatars");
       stopwatch.stop(TAG);
 
+      outputStream.write(tracker.buildIncrement());
       outputStream.writeEnd();
+
+      Log.i(TAG, "Skipped " + tracker.skippedBodies + " attachment and sticker bodies already in the chain.");
     } finally {
       outputStream.close();
       EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, ++count));
     }
+
+    return BackupProtos.ChainState.newBuilder()
+                                  .setIncrement(tracker.buildIncrement())
+                                  .setDigest(ByteString.copyFrom(digest.digest()))
+                                  .build();
+  }
+
+  private static @NonNull MessageDigest getDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
   }
 
   private static List<String> exportSchema(@NonNull SQLiteDatabase input, @NonNull BackupFrameOutputStream outputStream)
@@ -244,10 +283,18 @@ public class FullBackupExporter extends FullBackupBase {
     return count;
   }
 
-  private static void exportAttachment(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream) {
+  private static void exportAttachment(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream, @NonNull IncrementTracker tracker) {
+    long         rowId        = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID));
+    long         uniqueId     = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID));
+    AttachmentId attachmentId = new AttachmentId(rowId, uniqueId);
+
+    if (!tracker.needsAttachmentBody(attachmentId)) {
+      return;
+    }
+
+    boolean written = false;
+
     try {
-      long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID));
-      long uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID));
       long size     = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.SIZE));
 
       String data   = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA));
@@ -269,28 +316,44 @@ public class FullBackupExporter extends FullBackupBase {
         if (random != null && random.length == 32) inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
         else                                       inputStream = ClassicDecryptingPartInputStream.createFor(attachmentSecret, new File(data));
 
-        outputStream.write(new AttachmentId(rowId, uniqueId), inputStream, size);
+        outputStream.write(attachmentId, inputStream, size);
+        written = true;
       }
     } catch (IOException e) {
       Log.w(TAG, e);
     }
+
+    if (!written) {
+      tracker.markPending(attachmentId);
+    }
   }
 
-  private static void exportSticker(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream) {
-    try {
-      long rowId    = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase._ID));
-      long size     = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_LENGTH));
+  private static void exportSticker(@NonNull AttachmentSecret attachmentSecret, @NonNull Cursor cursor, @NonNull BackupFrameOutputStream outputStream, @NonNull IncrementTracker tracker) {
+    long rowId = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase._ID));
 
+    if (!tracker.needsStickerBody(rowId)) {
+      return;
+    }
+
+    boolean written = false;
+
+    try {
+      long   size   = cursor.getLong(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_LENGTH));
       String data   = cursor.getString(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_PATH));
       byte[] random = cursor.getBlob(cursor.getColumnIndexOrThrow(StickerDatabase.FILE_RANDOM));
 
       if (!TextUtils.isEmpty(data) && size > 0) {
         InputStream inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, new File(data), 0);
         outputStream.writeSticker(rowId, inputStream, size);
+        written = true;
       }
     } catch (IOException e) {
       Log.w(TAG, e);
     }
+
+    if (!written) {
+      tracker.markStickerPending(rowId);
+    }
   }
 
   private static long calculateVeryOldStreamLength(@NonNull AttachmentSecret attachmentSecret, @Nullable byte[] random, @NonNull String data) throws IOException {
@@ -335,6 +398,116 @@ public class FullBackupExporter extends FullBackupBase {
   }
 
 
+  /**
+   * Decides which attachment and sticker bodies need to be written to continue a
+   * {@link BackupChain}. A body is written if its row is newer than the parent's watermark, or if
+   * the parent had the row but could not write its body (e.g. it had not been downloaded yet).
+   */
+  private static final class IncrementTracker {
+
+    private final ByteString                        chainId;
+    private final int                               sequence;
+    private final int                               databaseVersion;
+    private final @Nullable BackupProtos.ChainState parent;
+    private final Set<AttachmentId>                 parentPending;
+    private final List<AttachmentId>                pending;
+    private final Set<Long>                         parentPendingStickers;
+    private final List<Long>                        pendingStickers;
+
+    private long attachmentWatermark;
+    private long stickerWatermark;
+    private int  skippedBodies;
+
+    private IncrementTracker(@NonNull ByteString chainId, int sequence, int databaseVersion, @Nullable BackupProtos.ChainState parent) {
+      this.chainId         = chainId;
+      this.sequence        = sequence;
+      this.databaseVersion = databaseVersion;
+      this.parent          = parent;
+      this.parentPending   = new HashSet<>();
+      this.pending         = new LinkedList<>();
+
+      this.parentPendingStickers = new HashSet<>();
+      this.pendingStickers       = new LinkedList<>();
+
+      if (parent != null) {
+        for (BackupProtos.Attachment attachment : parent.getIncrement().getPendingAttachmentsList()) {
+          parentPending.add(new AttachmentId(attachment.getRowId(), attachment.getAttachmentId()));
+        }
+
+        parentPendingStickers.addAll(parent.getIncrement().getPendingStickersList());
+
+        this.attachmentWatermark = parent.getIncrement().getAttachmentWatermark();
+        this.stickerWatermark    = parent.getIncrement().getStickerWatermark();
+      }
+    }
+
+    static @NonNull IncrementTracker create(@Nullable BackupProtos.ChainState parent, int databaseVersion) {
+      if (parent != null && parent.getIncrement().getDatabaseVersion() != databaseVersion) {
+        Log.i(TAG, "Database version changed since the last backup. Starting a new chain.");
+        parent = null;
+      }
+
+      if (parent == null) {
+        return new IncrementTracker(BackupChain.newChainId(), 0, databaseVersion, null);
+      } else {
+        return new IncrementTracker(parent.getIncrement().getChainId(), parent.getIncrement().getSequence() + 1, databaseVersion, parent);
+      }
+    }
+
+    boolean needsAttachmentBody(@NonNull AttachmentId attachmentId) {
+      boolean needed = parent == null                                                           ||
+                       attachmentId.getRowId() > parent.getIncrement().getAttachmentWatermark() ||
+                       parentPending.contains(attachmentId);
+
+      attachmentWatermark = Math.max(attachmentWatermark, attachmentId.getRowId());
+
+      if (!needed) skippedBodies++;
+      return needed;
+    }
+
+    boolean needsStickerBody(long rowId) {
+      boolean needed = parent == null                                        ||
+                       rowId > parent.getIncrement().getStickerWatermark() ||
+                       parentPendingStickers.contains(rowId);
+
+      stickerWatermark = Math.max(stickerWatermark, rowId);
+
+      if (!needed) skippedBodies++;
+      return needed;
+    }
+
+    void markPending(@NonNull AttachmentId attachmentId) {
+      pending.add(attachmentId);
+    }
+
+    void markStickerPending(long rowId) {
+      pendingStickers.add(rowId);
+    }
+
+    @NonNull BackupProtos.Increment buildIncrement() {
+      BackupProtos.Increment.Builder builder = BackupProtos.Increment.newBuilder()
+                                                                     .setChainId(chainId)
+                                                                     .setSequence(sequence)
+                                                                     .setDatabaseVersion(databaseVersion)
+                                                                     .setAttachmentWatermark(attachmentWatermark)
+                                                                     .setStickerWatermark(stickerWatermark);
+
+      if (parent != null) {
+        builder.setParentDigest(parent.getDigest());
+      }
+
+      for (AttachmentId attachmentId : pending) {
+        builder.addPendingAttachments(BackupProtos.Attachment.newBuilder()
+                                                             .setRowId(attachmentId.getRowId())
+                                                             .setAttachmentId(attachmentId.getUniqueId()));
+      }
+
+      builder.addAllPendingStickers(pendingStickers);
+
+      return builder.build();
+    }
+  }
+
   private static class BackupFrameOutputStream extends BackupStream {
 
     private final OutputStream outputStream;
@@ -347,7 +520,7 @@ public class FullBackupExporter extends FullBackupBase {
     private byte[] iv;
     private int    counter;
 
-    private BackupFrameOutputStream(@NonNull OutputStream output, @NonNull String passphrase) throws IOException {
+    private BackupFrameOutputStream(@NonNull OutputStream output, @NonNull String passphrase, @NonNull ByteString chainId, int chainSequence) throws IOException {
       try {
         byte[]   salt    = Util.getSecretBytes(32);
         byte[]   key     = getBackupKey(passphrase, salt);
@@ -367,7 +540,9 @@ public class FullBackupExporter extends FullBackupBase {
 
         byte[] header = BackupProtos.BackupFrame.newBuilder().setHeader(BackupProtos.Header.newBuilder()
                                                                                            .setIv(ByteString.copyFrom(iv))
-                                                                                           .setSalt(ByteString.copyFrom(salt)))
+                                                                                           .setSalt(ByteString.copyFrom(salt))
+                                                                                           .setChainId(chainId)
+                                                                                           .setChainSequence(chainSequence))
                                                 .build().toByteArray();
 
         outputStream.write(Conversions.intToByteArray(header.length));
@@ -381,6 +556,10 @@ public class FullBackupExporter extends FullBackupBase {
       write(outputStream, BackupProtos.BackupFrame.newBuilder().setPreference(preference).build());
     }
 
+    public void write(BackupProtos.Increment increment) throws IOException {
+      write(outputStream, BackupProtos.BackupFrame.newBuilder().setIncrement(increment).build());
+    }
+
     public void write(BackupProtos.SqlStatement statement) throws IOException {
       write(outputStream, BackupProtos.BackupFrame.newBuilder().setStatement(statement).build());
     }
@@ -10,16 +10,21 @@ import android.net.Uri;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.greenrobot.eventbus.EventBus;
 import org.signal.core.util.Conversions;
 import org.signal.core.util.StreamUtil;
+import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.backup.BackupProtos.Attachment;
 import org.thoughtcrime.securesms.backup.BackupProtos.BackupFrame;
 import org.thoughtcrime.securesms.backup.BackupProtos.DatabaseVersion;
+import org.thoughtcrime.securesms.backup.BackupProtos.Increment;
 import org.thoughtcrime.securesms.backup.BackupProtos.SharedPreference;
 import org.thoughtcrime.securesms.backup.BackupProtos.SqlStatement;
 import org.thoughtcrime.securesms.backup.BackupProtos.Sticker;
@@ -37,17 +42,22 @@ import org.whispersystems.libsignal.util.ByteUtil;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.DigestInputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -62,45 +72,123 @@ public class FullBackupImporter extends FullBackupBase {
   @SuppressWarnings("unused")
   private static final String TAG = FullBackupImporter.class.getSimpleName();
 
+  private static final long PROGRESS_INTERVAL_MS = 250;
+
+  /**
+   * Restores the provided backup. If it is part of a {@link BackupChain}, the rest of the chain is
+   * located and verified, and the attachment and sticker bodies stored in older files are restored
+   * as well.
+   */
   public static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
                                 @NonNull SQLiteDatabase db, @NonNull Uri uri, @NonNull String passphrase)
       throws IOException
   {
-    int count = 0;
+    importFile(context, attachmentSecret, db, uri, null, passphrase);
+  }
 
-    try (InputStream is = getInputStream(context, uri)) {
-      BackupRecordInputStream inputStream = new BackupRecordInputStream(is, passphrase);
+  /**
+   * @param backupDirectory An optional document tree containing the rest of the chain, for backups
+   *                        chosen with the document picker. See {@link BackupChain#resolve(Context, Uri, Uri)}.
+   */
+  public static void importFile(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret,
+                                @NonNull SQLiteDatabase db, @NonNull Uri uri, @Nullable Uri backupDirectory,
+                                @NonNull String passphrase)
+      throws IOException
+  {
+    List<Uri>        chain            = BackupChain.resolve(context, uri, backupDirectory);
+    ChainRestore     restore          = new ChainRestore();
+    StatementCache   statements       = new StatementCache(db);
+    AttachmentWriter attachmentWriter = new AttachmentWriter();
+    byte[]           expectedDigest   = null;
+    int              count            = 0;
+    long             lastProgress     = 0;
+    boolean          successful       = false;
 
-      db.beginTransaction();
+    db.beginTransaction();
 
+    try {
       dropAllTables(db);
 
-      BackupFrame frame;
+      for (int i = 0; i < chain.size(); i++) {
+        boolean       isTip  = i == 0;
+        MessageDigest digest = getDigest();
+
+        try (InputStream is = new DigestInputStream(BackupUtil.openBackupInputStream(context, chain.get(i)), digest)) {
+          BackupRecordInputStream inputStream = new BackupRecordInputStream(is, passphrase);
+          Increment               increment   = null;
+
+          BackupFrame frame;
+
+          while (!(frame = inputStream.readFrame()).getEnd()) {
+            if (count++ % 100 == 0 && System.currentTimeMillis() - lastProgress >= PROGRESS_INTERVAL_MS) {
+              EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
+              lastProgress = System.currentTimeMillis();
+            }
+
+            if (frame.hasIncrement()) {
+              processIncrement(inputStream.header, frame.getIncrement());
+              increment = frame.getIncrement();
+            } else if (frame.hasAttachment()) {
+              processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream, restore, attachmentWriter);
+            } else if (frame.hasSticker()) {
+              processSticker(context, attachmentSecret, db, frame.getSticker(), inputStream, restore);
+            } else if (isTip) {
+              if      (frame.hasVersion())    processVersion(db, frame.getVersion());
+              else if (frame.hasStatement())  processStatement(db, statements, frame.getStatement());
+              else if (frame.hasPreference()) processPreference(context, frame.getPreference());
+              else if (frame.hasAvatar())     processAvatar(context, db, frame.getAvatar(), inputStream);
+            } else if (frame.hasAvatar()) {
+              inputStream.skipAttachment(frame.getAvatar().getLength());
+            }
+          }
 
-      while (!(frame = inputStream.readFrame()).getEnd()) {
-        if (count++ % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
+          StreamUtil.readFully(is);
 
-        if      (frame.hasVersion())    processVersion(db, frame.getVersion());
-        else if (frame.hasStatement())  processStatement(db, frame.getStatement());
-        else if (frame.hasPreference()) processPreference(context, frame.getPreference());
-        else if (frame.hasAttachment()) processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream);
-        else if (frame.hasSticker())    processSticker(context, attachmentSecret, db, frame.getSticker(), inputStream);
-        else if (frame.hasAvatar())     processAvatar(context, db, frame.getAvatar(), inputStream);
+          if (expectedDigest != null && !MessageDigest.isEqual(expectedDigest, digest.digest())) {
+            throw new IOException("Backup chain digest mismatch at sequence " + inputStream.header.getChainSequence());
+          }
+
+          if (i < chain.size() - 1) {
+            if (increment == null || !increment.hasParentDigest()) {
+              throw new IOException("Backup chain is missing a parent digest!");
+            }
+
+            expectedDigest = increment.getParentDigest().toByteArray();
+          }
+        }
       }
 
+      attachmentWriter.awaitCompletion();
       db.setTransactionSuccessful();
+      successful = true;
     } finally {
+      if (!successful) {
+        attachmentWriter.awaitCompletionQuietly();
+      }
+
+      attachmentWriter.shutdown();
+      statements.close();
       db.endTransaction();
+
+      if (!successful) {
+        restore.deleteWrittenFiles();
+      }
     }
 
     EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, count));
   }
 
-  private static @NonNull InputStream getInputStream(@NonNull Context context, @NonNull Uri uri) throws IOException{
-    if (BackupUtil.isUserSelectionRequired(context)) {
-      return Objects.requireNonNull(context.getContentResolver().openInputStream(uri));
-    } else {
-      return new FileInputStream(new File(Objects.requireNonNull(uri.getPath())));
+  private static void processIncrement(@NonNull BackupProtos.Header header, @NonNull Increment increment) throws IOException {
+    if (!header.getChainId().equals(increment.getChainId()) || header.getChainSequence() != increment.getSequence()) {
+      throw new IOException("Backup header does not match its chain increment!");
+    }
+  }
+
+  private static @NonNull MessageDigest getDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
     }
   }
 
@@ -112,46 +200,77 @@ public class FullBackupImporter extends FullBackupBase {
     db.setVersion(version.getVersion());
   }
 
-  private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement) {
-    boolean isForSmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_");
-    boolean isForMmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_");
-    boolean isForSqliteSecretTable = statement.getStatement().toLowerCase().startsWith("create table sqlite_");
+  private static void processStatement(@NonNull SQLiteDatabase db, @NonNull StatementCache statements, SqlStatement statement) {
+    if (statement.getParametersCount() > 0) {
+      SQLiteStatement compiled = statements.get(statement.getStatement());
 
-    if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForSqliteSecretTable) {
-      Log.i(TAG, "Ignoring import for statement: " + statement.getStatement());
-      return;
+      if (compiled == null) {
+        return;
+      }
+
+      int index = 1;
+
+      for (SqlStatement.SqlParameter parameter : statement.getParametersList()) {
+        if      (parameter.hasStringParamter())   compiled.bindString(index++, parameter.getStringParamter());
+        else if (parameter.hasDoubleParameter())  compiled.bindDouble(index++, parameter.getDoubleParameter());
+        else if (parameter.hasIntegerParameter()) compiled.bindLong(index++, parameter.getIntegerParameter());
+        else if (parameter.hasBlobParameter())    compiled.bindBlob(index++, parameter.getBlobParameter().toByteArray());
+        else if (parameter.hasNullparameter())    compiled.bindNull(index++);
+      }
+
+      compiled.execute();
+      compiled.clearBindings();
+    } else if (!isIgnoredStatement(statement.getStatement())) {
+      statements.close();
+      db.execSQL(statement.getStatement());
     }
+  }
 
-    List<Object> parameters = new LinkedList<>();
+  private static boolean isIgnoredStatement(@NonNull String statement) {
+    boolean isForSmsFtsSecretTable = statement.contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_");
+    boolean isForMmsFtsSecretTable = statement.contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_");
+    boolean isForSqliteSecretTable = statement.toLowerCase().startsWith("create table sqlite_");
 
-    for (SqlStatement.SqlParameter parameter : statement.getParametersList()) {
-      if      (parameter.hasStringParamter())   parameters.add(parameter.getStringParamter());
-      else if (parameter.hasDoubleParameter())  parameters.add(parameter.getDoubleParameter());
-      else if (parameter.hasIntegerParameter()) parameters.add(parameter.getIntegerParameter());
-      else if (parameter.hasBlobParameter())    parameters.add(parameter.getBlobParameter().toByteArray());
-      else if (parameter.hasNullparameter())    parameters.add(null);
+    if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForSqliteSecretTable) {
+      Log.i(TAG, "Ignoring import for statement: " + statement);
+      return true;
     }
 
-    if (parameters.size() > 0) db.execSQL(statement.getStatement(), parameters.toArray());
-    else                       db.execSQL(statement.getStatement());
+    return false;
   }
 
-  private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream)
+  private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream, @NonNull ChainRestore restore, @NonNull AttachmentWriter attachmentWriter)
       throws IOException
   {
+    AttachmentId attachmentId = new AttachmentId(attachment.getRowId(), attachment.getAttachmentId());
+
+    if (!restore.restoredAttachments.add(attachmentId) || !rowExists(db, AttachmentDatabase.TABLE_NAME, AttachmentDatabase.ROW_ID + " = ? AND " + AttachmentDatabase.UNIQUE_ID + " = ?", attachment.getRowId(), attachment.getAttachmentId())) {
+      inputStream.skipAttachment(attachment.getLength());
+      return;
+    }
+
     File                       partsDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE);
     File                       dataFile       = File.createTempFile("part", ".mms", partsDirectory);
     Pair<byte[], OutputStream> output         = ModernEncryptingPartOutputStream.createFor(attachmentSecret, dataFile, false);
 
+    restore.writtenFiles.add(dataFile);
+
     ContentValues contentValues = new ContentValues();
 
     try {
-      inputStream.readAttachmentTo(output.second, attachment.getLength());
+      if (attachmentWriter.canWriteAsync(attachment.getLength())) {
+        ByteArrayOutputStream plaintext = new ByteArrayOutputStream(attachment.getLength());
+        inputStream.readAttachmentTo(plaintext, attachment.getLength());
+        attachmentWriter.write(plaintext.toByteArray(), output.second);
+      } else {
+        inputStream.readAttachmentTo(output.second, attachment.getLength());
+      }
 
       contentValues.put(AttachmentDatabase.DATA, dataFile.getAbsolutePath());
       contentValues.put(AttachmentDatabase.DATA_RANDOM, output.first);
     } catch (BadMacException e) {
       Log.w(TAG, "Bad MAC for attachment " + attachment.getAttachmentId() + "! Can't restore it.", e);
+      StreamUtil.close(output.second);
       dataFile.delete();
       contentValues.put(AttachmentDatabase.DATA, (String) null);
       contentValues.put(AttachmentDatabase.DATA_RANDOM, (String) null);
@@ -162,12 +281,19 @@ public class FullBackupImporter extends FullBackupBase {
               new String[] {String.valueOf(attachment.getRowId()), String.valueOf(attachment.getAttachmentId())});
   }
 
-  private static void processSticker(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Sticker sticker, BackupRecordInputStream inputStream)
+  private static void processSticker(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Sticker sticker, BackupRecordInputStream inputStream, @NonNull ChainRestore restore)
       throws IOException
   {
+    if (!restore.restoredStickers.add(sticker.getRowId()) || !rowExists(db, StickerDatabase.TABLE_NAME, StickerDatabase._ID + " = ?", sticker.getRowId())) {
+      inputStream.skipAttachment(sticker.getLength());
+      return;
+    }
+
     File stickerDirectory = context.getDir(StickerDatabase.DIRECTORY, Context.MODE_PRIVATE);
     File dataFile         = File.createTempFile("sticker", ".mms", stickerDirectory);
 
+    restore.writtenFiles.add(dataFile);
+
     Pair<byte[], OutputStream> output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, dataFile, false);
 
     inputStream.readAttachmentTo(output.second, sticker.getLength());
@@ -201,6 +327,12 @@ public class FullBackupImporter extends FullBackupBase {
     }
   }
 
+  private static boolean rowExists(@NonNull SQLiteDatabase db, @NonNull String table, @NonNull String where, Object... args) {
+    try (Cursor cursor = db.query(table, new String[] { "1" }, where, SqlUtil.buildArgs(args), null, null, null, "1")) {
+      return cursor != null && cursor.moveToFirst();
+    }
+  }
+
   @SuppressLint("ApplySharedPref")
   private static void processPreference(@NonNull Context context, SharedPreference preference) {
     SharedPreferences preferences = context.getSharedPreferences(preference.getFile(), 0);
@@ -220,9 +352,163 @@ public class FullBackupImporter extends FullBackupBase {
     }
   }
 
+  /**
+   * Tracks which bodies have been restored while walking a chain from its tip back to its base, so
+   * that only the most recent copy of a body is used.
+   */
+  private static final class ChainRestore {
+    private final Set<AttachmentId> restoredAttachments = new HashSet<>();
+    private final Set<Long>         restoredStickers    = new HashSet<>();
+    private final List<File>        writtenFiles        = new ArrayList<>();
+
+    /**
+     * Removes the attachment and sticker files written so far, once the rows that point at them
+     * have been rolled back.
+     */
+    void deleteWrittenFiles() {
+      Log.w(TAG, "Import failed. Deleting " + writtenFiles.size() + " restored file(s).");
+
+      for (File file : writtenFiles) {
+        if (!file.delete() && file.exists()) {
+          Log.w(TAG, "Failed to delete " + file.getName());
+        }
+      }
+
+      writtenFiles.clear();
+    }
+  }
+
+  /**
+   * Caches a compiled statement per distinct SQL string. A backup contains the same INSERT for
+   * every row of a table, so compiling it once and binding each row avoids re-parsing it for
+   * every frame.
+   */
+  private static final class StatementCache {
+
+    private static final int MAX_SIZE = 64;
+
+    private final SQLiteDatabase db;
+    private final Set<String>    ignored;
+
+    private final LinkedHashMap<String, SQLiteStatement> statements = new LinkedHashMap<String, SQLiteStatement>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+        if (size() > MAX_SIZE) {
+          eldest.getValue().close();
+          return true;
+        }
+        return false;
+      }
+    };
+
+    private StatementCache(@NonNull SQLiteDatabase db) {
+      this.db      = db;
+      this.ignored = new HashSet<>();
+    }
+
+    /**
+     * @return The compiled statement, or null if the statement should not be imported.
+     */
+    @Nullable SQLiteStatement get(@NonNull String sql) {
+      SQLiteStatement statement = statements.get(sql);
+
+      if (statement == null && !ignored.contains(sql)) {
+        if (isIgnoredStatement(sql)) {
+          ignored.add(sql);
+        } else {
+          statement = db.compileStatement(sql);
+          statements.put(sql, statement);
+        }
+      }
+
+      return statement;
+    }
+
+    /**
+     * Closes all compiled statements. Called before any schema change, as well as at the end of
+     * the import.
+     */
+    void close() {
+      for (SQLiteStatement statement : statements.values()) {
+        statement.close();
+      }
+
+      statements.clear();
+    }
+  }
+
+  /**
+   * Encrypts and writes restored attachments on a worker thread, so that the backup stream can be
+   * decrypted while the previous attachment is written to disk. Only attachments small enough to
+   * be held in memory are written this way, and the total amount of pending data is bounded.
+   */
+  private static final class AttachmentWriter {
+
+    private static final int MAX_ASYNC_LENGTH  = 4 * 1024 * 1024;
+    private static final int MAX_PENDING_BYTES = 16 * 1024 * 1024;
+
+    private final ExecutorService executor = SignalExecutors.newCachedSingleThreadExecutor("signal-backup-restore");
+    private final Semaphore       pending  = new Semaphore(MAX_PENDING_BYTES);
+
+    private volatile IOException error;
+
+    boolean canWriteAsync(int length) {
+      return length <= MAX_ASYNC_LENGTH;
+    }
+
+    void write(@NonNull byte[] plaintext, @NonNull OutputStream output) throws IOException {
+      throwIfFailed();
+      pending.acquireUninterruptibly(plaintext.length);
+
+      executor.execute(() -> {
+        try {
+          output.write(plaintext);
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to write restored attachment.", e);
+          error = e;
+        } catch (RuntimeException e) {
+          Log.w(TAG, "Failed to write restored attachment.", e);
+          error = new IOException(e);
+        } finally {
+          StreamUtil.close(output);
+          pending.release(plaintext.length);
+        }
+      });
+    }
+
+    void awaitCompletion() throws IOException {
+      pending.acquireUninterruptibly(MAX_PENDING_BYTES);
+      pending.release(MAX_PENDING_BYTES);
+      throwIfFailed();
+    }
+
+    /**
+     * Waits for pending writes on the failure path. Their error is only logged, the import has
+     * already failed for another reason.
+     */
+    void awaitCompletionQuietly() {
+      try {
+        awaitCompletion();
+      } catch (IOException e) {
+        Log.w(TAG, "Restored attachment write also failed.", e);
+      }
+    }
+
+    void shutdown() {
+      executor.shutdown();
+    }
+
+    private void throwIfFailed() throws IOException {
+      if (error != null) {
+        throw error;
+      }
+    }
+  }
+
   private static class BackupRecordInputStream extends BackupStream {
 
-    private final InputStream in;
+    private final InputStream         in;
+    private final BackupProtos.Header header;
     private final Cipher      cipher;
     private final Mac         mac;
 
@@ -234,22 +520,8 @@ public class FullBackupImporter extends FullBackupBase {
 
     private BackupRecordInputStream(@NonNull InputStream in, @NonNull String passphrase) throws IOException {
       try {
-        this.in = in;
-
-        byte[] headerLengthBytes = new byte[4];
-        StreamUtil.readFully(in, headerLengthBytes);
-
-        int headerLength = Conversions.byteArrayToInt(headerLengthBytes);
-        byte[] headerFrame = new byte[headerLength];
-        StreamUtil.readFully(in, headerFrame);
-
-        BackupFrame frame = BackupFrame.parseFrom(headerFrame);
-
-        if (!frame.hasHeader()) {
-          throw new IOException("Backup stream does not start with header!");
-        }
-
-        BackupProtos.Header header = frame.getHeader();
+        this.in     = in;
+        this.header = BackupChain.readHeader(in);
 
         this.iv = header.getIv().toByteArray();
 
@@ -278,6 +550,19 @@ public class FullBackupImporter extends FullBackupBase {
       return readFrame(in);
     }
 
+    /**
+     * Reads and verifies an attachment-like body without keeping it.
+     */
+    void skipAttachment(int length) throws IOException {
+      readAttachmentTo(new OutputStream() {
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) {}
+      }, length);
+    }
+
     void readAttachmentTo(OutputStream out, int length) throws IOException {
       try {
         Conversions.intToByteArray(iv, 0, counter++);
@@ -22,30 +22,48 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 
 import androidx.annotation.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Based in part on code from emoji-java
+ *
+ * Nodes are ints indexing into parallel arrays. Each node keeps its child characters sorted, so a
+ * lookup is a binary search over a char[] and matching text never allocates.
  */
 public class EmojiTree {
 
-  private final EmojiTreeNode root = new EmojiTreeNode();
-
   private static final char TERMINATOR = '\ufe0f';
 
+  private static final int ROOT    = 0;
+  private static final int NO_NODE = -1;
+
+  private static final char[] NO_KEYS     = new char[0];
+  private static final int[]  NO_CHILDREN = new int[0];
+
+  private char[][]        keys     = new char[1024][];
+  private int[][]         children = new int[1024][];
+  private EmojiDrawInfo[] emoji    = new EmojiDrawInfo[1024];
+  private int             size;
+
+  public EmojiTree() {
+    newNode();
+  }
+
   public void add(String emojiEncoding, EmojiDrawInfo emoji) {
-    EmojiTreeNode tree = root;
+    int node = ROOT;
+
+    for (int i = 0; i < emojiEncoding.length(); i++) {
+      char c     = emojiEncoding.charAt(i);
+      int  child = getChild(node, c);
 
-    for (char c: emojiEncoding.toCharArray()) {
-      if (!tree.hasChild(c)) {
-        tree.addChild(c);
+      if (child == NO_NODE) {
+        child = addChild(node, c);
       }
 
-      tree = tree.getChild(c);
+      node = child;
     }
 
-    tree.setEmoji(emoji);
+    this.emoji[node] = emoji;
   }
 
   public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
@@ -53,74 +71,130 @@ public class EmojiTree {
       return Matches.POSSIBLY;
     }
 
-    EmojiTreeNode tree = root;
-
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = sequence.charAt(i);
-
-      if (!tree.hasChild(character)) {
-        return Matches.IMPOSSIBLE;
-      }
-
-      tree = tree.getChild(character);
-    }
+    int node = walk(sequence, startPosition, endPosition);
 
-    if (tree.isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR) && tree.getChild(TERMINATOR).isEndOfEmoji()) {
+    if (node == NO_NODE) {
+      return Matches.IMPOSSIBLE;
+    } else if (isExactMatch(node, sequence.charAt(endPosition - 1))) {
       return Matches.EXACTLY;
     } else {
       return Matches.POSSIBLY;
     }
   }
 
-  public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
-    EmojiTreeNode tree = root;
+  /**
+   * Walks the text once from startPosition.
+   *
+   * @return The end of the longest emoji starting at startPosition, or -1 if there is none.
+   */
+  public int findEmojiEnd(CharSequence sequence, int startPosition) {
+    int node = ROOT;
+    int best = -1;
 
-    for (int i=startPosition; i<endPostiion; i++) {
-      char character = unicode.charAt(i);
+    for (int i = startPosition; i < sequence.length(); i++) {
+      char character = sequence.charAt(i);
 
-      if (!tree.hasChild(character)) {
-        return null;
+      node = getChild(node, character);
+
+      if (node == NO_NODE) {
+        return best;
       }
 
-      tree = tree.getChild(character);
+      if (isExactMatch(node, character)) {
+        best = i + 1;
+      }
     }
 
-    if      (tree.getEmoji() != null)                                                  return tree.getEmoji();
-    else if (unicode.charAt(endPostiion-1) != TERMINATOR && tree.hasChild(TERMINATOR)) return tree.getChild(TERMINATOR).getEmoji();
-    else    return null;
+    return best;
   }
 
+  public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
+    int node = walk(unicode, startPosition, endPostiion);
 
-  private static class EmojiTreeNode {
-
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
-    private EmojiDrawInfo emoji;
+    if (node == NO_NODE) {
+      return null;
+    }
 
-    public void setEmoji(EmojiDrawInfo emoji) {
-      this.emoji = emoji;
+    if (emoji[node] != null) {
+      return emoji[node];
     }
 
-    public @Nullable EmojiDrawInfo getEmoji() {
-      return emoji;
+    if (unicode.charAt(endPostiion - 1) != TERMINATOR) {
+      int terminator = getChild(node, TERMINATOR);
+
+      if (terminator != NO_NODE) {
+        return emoji[terminator];
+      }
     }
 
-    boolean hasChild(char child) {
-      return children.containsKey(child);
+    return null;
+  }
+
+  private int walk(CharSequence sequence, int startPosition, int endPosition) {
+    int node = ROOT;
+
+    for (int i = startPosition; i < endPosition && node != NO_NODE; i++) {
+      node = getChild(node, sequence.charAt(i));
     }
 
-    void addChild(char child) {
-      children.put(child, new EmojiTreeNode());
+    return node;
+  }
+
+  private boolean isExactMatch(int node, char lastCharacter) {
+    if (emoji[node] != null) {
+      return true;
     }
 
-    EmojiTreeNode getChild(char child) {
-      return children.get(child);
+    if (lastCharacter == TERMINATOR) {
+      return false;
     }
 
-    boolean isEndOfEmoji() {
-      return emoji != null;
+    int terminator = getChild(node, TERMINATOR);
+
+    return terminator != NO_NODE && emoji[terminator] != null;
+  }
+
+  private int getChild(int node, char character) {
+    int index = Arrays.binarySearch(keys[node], character);
+    return index >= 0 ? children[node][index] : NO_NODE;
+  }
+
+  private int addChild(int node, char character) {
+    char[] nodeKeys     = keys[node];
+    int[]  nodeChildren = children[node];
+    int    insert       = -(Arrays.binarySearch(nodeKeys, character) + 1);
+    int    child        = newNode();
+
+    char[] newKeys     = new char[nodeKeys.length + 1];
+    int[]  newChildren = new int[nodeChildren.length + 1];
+
+    System.arraycopy(nodeKeys, 0, newKeys, 0, insert);
+    System.arraycopy(nodeKeys, insert, newKeys, insert + 1, nodeKeys.length - insert);
+    System.arraycopy(nodeChildren, 0, newChildren, 0, insert);
+    System.arraycopy(nodeChildren, insert, newChildren, insert + 1, nodeChildren.length - insert);
+
+    newKeys[insert]     = character;
+    newChildren[insert] = child;
+
+    keys[node]     = newKeys;
+    children[node] = newChildren;
+
+    return child;
+  }
+
+  private int newNode() {
+    if (size == keys.length) {
+      int capacity = size * 2;
+
+      keys     = Arrays.copyOf(keys, capacity);
+      children = Arrays.copyOf(children, capacity);
+      emoji    = Arrays.copyOf(emoji, capacity);
     }
+
+    keys[size]     = NO_KEYS;
+    children[size] = NO_CHILDREN;
+
+    return size++;
   }
 
   public enum Matches {
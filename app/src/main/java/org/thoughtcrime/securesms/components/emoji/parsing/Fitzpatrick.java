@@ -32,22 +32,18 @@ public enum Fitzpatrick {
    */
   public final String unicode;
 
+  private static final Fitzpatrick[] VALUES = values();
+
   Fitzpatrick(String unicode) {
     this.unicode = unicode;
   }
 
 
   public static Fitzpatrick fitzpatrickFromUnicode(CharSequence unicode, int index) {
-    for (Fitzpatrick v : values()) {
-      boolean match = true;
-
-      for (int i=0;i<v.unicode.toCharArray().length;i++) {
-        if (v.unicode.toCharArray()[i] != unicode.charAt(index + i)) {
-          match = false;
-        }
+    for (Fitzpatrick v : VALUES) {
+      if (v.unicode.charAt(0) == unicode.charAt(index) && v.unicode.charAt(1) == unicode.charAt(index + 1)) {
+        return v;
       }
-
-      if (match) return v;
     }
 
     return null;
@@ -42,7 +42,7 @@ class ContactDiscoveryV2 {
 
   private static final String TAG = Log.tag(ContactDiscoveryV2.class);
 
-  private static final int MAX_NUMBERS = 20_500;
+  static final int MAX_NUMBERS = 20_500;
 
   @WorkerThread
   static DirectoryResult getDirectoryResult(@NonNull Context context,
@@ -25,6 +25,7 @@ import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.contacts.ContactAccessor;
 import org.thoughtcrime.securesms.contacts.ContactsDatabase;
 import org.thoughtcrime.securesms.crypto.SessionUtil;
+import org.thoughtcrime.securesms.database.CdsDatabase;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessageDatabase.InsertResult;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
@@ -98,7 +99,7 @@ public class DirectoryHelper {
     Set<String>       databaseNumbers   = sanitizeNumbers(recipientDatabase.getAllPhoneNumbers());
     Set<String>       systemNumbers     = sanitizeNumbers(ContactAccessor.getInstance().getAllContactsWithNumbers(context));
 
-    refreshNumbers(context, databaseNumbers, systemNumbers, notifyOfNewUsers);
+    refreshNumbersIncrementally(context, databaseNumbers, systemNumbers, notifyOfNewUsers);
 
     StorageSyncHelper.scheduleSyncForDataChange();
   }
@@ -210,8 +211,7 @@ public class DirectoryHelper {
 
   @WorkerThread
   private static void refreshNumbers(@NonNull Context context, @NonNull Set<String> databaseNumbers, @NonNull Set<String> systemNumbers, boolean notifyOfNewUsers) throws IOException {
-    RecipientDatabase recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
-    Set<String>       allNumbers        = SetUtil.union(databaseNumbers, systemNumbers);
+    Set<String> allNumbers = SetUtil.union(databaseNumbers, systemNumbers);
 
     if (allNumbers.isEmpty()) {
       Log.w(TAG, "No numbers to refresh!");
@@ -224,6 +224,58 @@ public class DirectoryHelper {
 
     stopwatch.split("network");
 
+    processResult(context, allNumbers, result, false, notifyOfNewUsers, stopwatch);
+
+    stopwatch.stop(TAG);
+  }
+
+  /**
+   * Like {@link #refreshNumbers(Context, Set, Set, boolean)}, but only looks up the numbers that
+   * {@link IncrementalContactDiscovery} picks, and leaves everyone else as they are.
+   */
+  @WorkerThread
+  private static void refreshNumbersIncrementally(@NonNull Context context, @NonNull Set<String> databaseNumbers, @NonNull Set<String> systemNumbers, boolean notifyOfNewUsers) throws IOException {
+    CdsDatabase cdsDatabase = DatabaseFactory.getCdsDatabase(context);
+
+    if (!TextSecurePreferences.hasSuccessfullyRetrievedDirectory(context)) {
+      cdsDatabase.clear();
+    }
+
+    Stopwatch                          stopwatch = new Stopwatch("refresh-incremental");
+    IncrementalContactDiscovery        discovery = new IncrementalContactDiscovery((database, system) -> ContactDiscoveryV2.getDirectoryResult(context, database, system), ContactDiscoveryV2.MAX_NUMBERS);
+    IncrementalContactDiscovery.Result result    = discovery.refresh(databaseNumbers, systemNumbers, cdsDatabase.getAll());
+
+    stopwatch.split("network");
+
+    Log.i(TAG, "Looked up " + result.getQueriedNumbers().size() + " of " + SetUtil.union(databaseNumbers, systemNumbers).size() + " numbers.");
+
+    if (!result.getQueriedNumbers().isEmpty()) {
+      processResult(context, result.getQueriedNumbers(), result.getDirectoryResult(), true, notifyOfNewUsers, stopwatch);
+    }
+
+    cdsDatabase.update(result.getCheckedNumbers(), System.currentTimeMillis(), result.getRemovedNumbers());
+
+    stopwatch.split("cds-state");
+    stopwatch.stop(TAG);
+  }
+
+  /**
+   * @param queriedNumbers The numbers that were looked up. Any of them that aren't in the result are
+   *                       considered unregistered.
+   * @param incremental    Whether numbers outside of queriedNumbers exist and kept their state, in
+   *                       which case the system contacts are updated with every registered user
+   *                       rather than only the ones in the result.
+   */
+  @WorkerThread
+  private static void processResult(@NonNull Context context,
+                                    @NonNull Set<String> queriedNumbers,
+                                    @NonNull DirectoryResult result,
+                                    boolean incremental,
+                                    boolean notifyOfNewUsers,
+                                    @NonNull Stopwatch stopwatch)
+  {
+    RecipientDatabase recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
+
     if (result.getNumberRewrites().size() > 0) {
       Log.i(TAG, "[getDirectoryResult] Need to rewrite some numbers.");
       recipientDatabase.updatePhoneNumbers(result.getNumberRewrites());
@@ -232,7 +284,7 @@ public class DirectoryHelper {
     Map<RecipientId, String> uuidMap       = recipientDatabase.bulkProcessCdsResult(result.getRegisteredNumbers());
     Set<String>              activeNumbers = result.getRegisteredNumbers().keySet();
     Set<RecipientId>         activeIds     = uuidMap.keySet();
-    Set<RecipientId>         inactiveIds   = Stream.of(allNumbers)
+    Set<RecipientId>         inactiveIds   = Stream.of(queriedNumbers)
                                                    .filterNot(activeNumbers::contains)
                                                    .filterNot(n -> result.getNumberRewrites().containsKey(n))
                                                    .filterNot(n -> result.getIgnoredNumbers().contains(n))
@@ -258,7 +310,7 @@ public class DirectoryHelper {
 
     stopwatch.split("update-registered");
 
-    updateContactsDatabase(context, activeIds, true, result.getNumberRewrites());
+    updateContactsDatabase(context, incremental ? recipientDatabase.getRegistered() : activeIds, true, result.getNumberRewrites());
 
     stopwatch.split("contacts-db");
 
@@ -277,11 +329,8 @@ public class DirectoryHelper {
     } else {
       TextSecurePreferences.setHasSuccessfullyRetrievedDirectory(context, true);
     }
-
-    stopwatch.stop(TAG);
   }
 
-
   private static boolean isUuidRegistered(@NonNull Context context, @NonNull Recipient recipient) throws IOException {
     try {
       ProfileUtil.retrieveProfileSync(context, recipient, SignalServiceProfile.RequestType.PROFILE);
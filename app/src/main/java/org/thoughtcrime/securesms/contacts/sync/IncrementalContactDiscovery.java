@@ -0,0 +1,163 @@
+package org.thoughtcrime.securesms.contacts.sync;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import org.thoughtcrime.securesms.contacts.sync.DirectoryHelper.DirectoryResult;
+import org.thoughtcrime.securesms.database.CdsDatabase.CheckedNumber;
+import org.thoughtcrime.securesms.util.SetUtil;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which numbers a directory refresh has to send to contact discovery, rather than sending
+ * all of them every time.
+ *
+ * Every number is remembered with a hash of the state it was last checked in, and when that was.
+ * A refresh looks up the numbers that are new or whose state changed, plus a slice of the ones that
+ * were checked longest ago, so that every number is still looked up at least once every
+ * {@link #ROTATION_REFRESHES} refreshes and registrations we weren't told about are noticed.
+ */
+final class IncrementalContactDiscovery {
+
+  static final int ROTATION_REFRESHES = 7;
+
+  private final Service service;
+  private final int     maxNumbers;
+
+  IncrementalContactDiscovery(@NonNull Service service, int maxNumbers) {
+    this.service    = service;
+    this.maxNumbers = maxNumbers;
+  }
+
+  /**
+   * @param previous What was remembered after the last refresh, keyed by number.
+   */
+  @WorkerThread
+  @NonNull Result refresh(@NonNull Set<String> databaseNumbers,
+                          @NonNull Set<String> systemNumbers,
+                          @NonNull Map<String, CheckedNumber> previous)
+      throws IOException
+  {
+    Set<String>       allNumbers = SetUtil.union(databaseNumbers, systemNumbers);
+    Map<String, Long> hashes     = new HashMap<>(allNumbers.size());
+    Set<String>       queried    = new HashSet<>();
+    List<String>      unchanged  = new ArrayList<>();
+
+    for (String number : allNumbers) {
+      long          hash    = stateHash(number, systemNumbers.contains(number));
+      CheckedNumber checked = previous.get(number);
+
+      hashes.put(number, hash);
+
+      if (checked == null || checked.getStateHash() != hash) {
+        queried.add(number);
+      } else {
+        unchanged.add(number);
+      }
+    }
+
+    Collections.sort(unchanged, (lhs, rhs) -> {
+      int result = Long.compare(previous.get(lhs).getLastChecked(), previous.get(rhs).getLastChecked());
+      return result != 0 ? result : lhs.compareTo(rhs);
+    });
+
+    int sliceSize = (unchanged.size() + ROTATION_REFRESHES - 1) / ROTATION_REFRESHES;
+
+    sliceSize = Math.min(sliceSize, Math.max(0, maxNumbers - queried.size()));
+
+    queried.addAll(unchanged.subList(0, sliceSize));
+
+    Set<String> removed = SetUtil.difference(previous.keySet(), allNumbers);
+
+    if (queried.isEmpty()) {
+      return new Result(new DirectoryResult(Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet()), queried, Collections.emptyMap(), removed);
+    }
+
+    DirectoryResult   result  = service.getDirectoryResult(SetUtil.intersection(databaseNumbers, queried), SetUtil.intersection(systemNumbers, queried));
+    Map<String, Long> checked = new HashMap<>(queried.size());
+
+    for (String number : queried) {
+      if (!result.getIgnoredNumbers().contains(number)) {
+        checked.put(number, hashes.get(number));
+      }
+    }
+
+    return new Result(result, queried, checked, removed);
+  }
+
+  /**
+   * A stable 64-bit FNV-1a hash of everything about a number that decides how it's looked up.
+   */
+  static long stateHash(@NonNull String number, boolean systemContact) {
+    long hash = 0xcbf29ce484222325L;
+
+    for (byte b : number.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+
+    hash ^= systemContact ? 1 : 0;
+    hash *= 0x100000001b3L;
+
+    return hash;
+  }
+
+  interface Service {
+    @WorkerThread
+    @NonNull DirectoryResult getDirectoryResult(@NonNull Set<String> databaseNumbers, @NonNull Set<String> systemNumbers) throws IOException;
+  }
+
+  static final class Result {
+    private final DirectoryResult   directoryResult;
+    private final Set<String>       queriedNumbers;
+    private final Map<String, Long> checkedNumbers;
+    private final Set<String>       removedNumbers;
+
+    private Result(@NonNull DirectoryResult directoryResult,
+                   @NonNull Set<String> queriedNumbers,
+                   @NonNull Map<String, Long> checkedNumbers,
+                   @NonNull Set<String> removedNumbers)
+    {
+      this.directoryResult = directoryResult;
+      this.queriedNumbers  = queriedNumbers;
+      this.checkedNumbers  = checkedNumbers;
+      this.removedNumbers  = removedNumbers;
+    }
+
+    @NonNull DirectoryResult getDirectoryResult() {
+      return directoryResult;
+    }
+
+    /**
+     * The numbers that were sent to contact discovery. Numbers outside of this set weren't looked
+     * up, and their registered state should be left as it is.
+     */
+    @NonNull Set<String> getQueriedNumbers() {
+      return queriedNumbers;
+    }
+
+    /**
+     * The state hash of every number that was actually looked up, to be remembered for the next
+     * refresh. Numbers that contact discovery ignored aren't included, so they're retried.
+     */
+    @NonNull Map<String, Long> getCheckedNumbers() {
+      return checkedNumbers;
+    }
+
+    /**
+     * Numbers that were remembered but are no longer in the database or the system contacts.
+     */
+    @NonNull Set<String> getRemovedNumbers() {
+      return removedNumbers;
+    }
+  }
+}
@@ -56,6 +56,10 @@ class ConversationDataSource implements PagedDataSource<ConversationMessage> {
     MentionHelper       mentionHelper = new MentionHelper();
 
     try (MmsSmsDatabase.Reader reader = db.readerFor(db.getConversation(threadId, start, length))) {
+      reader.resolveRecipients();
+
+      stopwatch.split("recipients");
+
       MessageRecord record;
       while ((record = reader.getNext()) != null && !cancellationSignal.isCanceled()) {
         records.add(record);
@@ -1,9 +1,6 @@
 package org.thoughtcrime.securesms.conversationlist;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.database.MatrixCursor;
-import android.database.MergeCursor;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
@@ -15,12 +12,9 @@ import org.thoughtcrime.securesms.conversationlist.model.ConversationReader;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
-import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
-import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.util.Stopwatch;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 abstract class ConversationListDataSource implements PagedDataSource<Conversation> {
@@ -51,22 +45,18 @@ abstract class ConversationListDataSource implements PagedDataSource<Conversatio
   public @NonNull List<Conversation> load(int start, int length, @NonNull CancellationSignal cancellationSignal) {
     Stopwatch stopwatch = new Stopwatch("load(" + start + ", " + length + "), " + getClass().getSimpleName());
 
-    List<Conversation> conversations  = new ArrayList<>(length);
-    List<Recipient>    recipients     = new LinkedList<>();
+    List<ThreadRecord> records       = getRecords(start, length);
+    List<Conversation> conversations = new ArrayList<>(records.size());
 
-    try (ConversationReader reader = new ConversationReader(getCursor(start, length))) {
-      ThreadRecord record;
-      while ((record = reader.getNext()) != null && !cancellationSignal.isCanceled()) {
-        conversations.add(new Conversation(record));
-        recipients.add(record.getRecipient());
-      }
-    }
-
-    stopwatch.split("cursor");
+    stopwatch.split("records");
 
-    ApplicationDependencies.getRecipientCache().addToCache(recipients);
+    for (ThreadRecord record : records) {
+      if (cancellationSignal.isCanceled()) {
+        break;
+      }
 
-    stopwatch.split("cache-recipients");
+      conversations.add(new Conversation(record));
+    }
 
     stopwatch.stop(TAG);
 
@@ -74,7 +64,7 @@ abstract class ConversationListDataSource implements PagedDataSource<Conversatio
   }
 
   protected abstract int getTotalCount();
-  protected abstract Cursor getCursor(long offset, long limit);
+  protected abstract @NonNull List<ThreadRecord> getRecords(long offset, long limit);
 
   private static class ArchivedConversationListDataSource extends ConversationListDataSource {
 
@@ -88,8 +78,8 @@ abstract class ConversationListDataSource implements PagedDataSource<Conversatio
     }
 
     @Override
-    protected Cursor getCursor(long offset, long limit) {
-      return threadDatabase.getArchivedConversationList(offset, limit);
+    protected @NonNull List<ThreadRecord> getRecords(long offset, long limit) {
+      return threadDatabase.getArchivedConversationRecords(offset, limit);
     }
   }
 
@@ -130,39 +120,32 @@ abstract class ConversationListDataSource implements PagedDataSource<Conversatio
     }
 
     @Override
-    protected Cursor getCursor(long offset, long limit) {
-      List<Cursor> cursors       = new ArrayList<>(5);
-      long         originalLimit = limit;
+    protected @NonNull List<ThreadRecord> getRecords(long offset, long limit) {
+      List<ThreadRecord> records       = new ArrayList<>();
+      long               originalLimit = limit;
 
       if (offset == 0 && hasPinnedHeader()) {
-        MatrixCursor pinnedHeaderCursor = new MatrixCursor(ConversationReader.HEADER_COLUMN);
-        pinnedHeaderCursor.addRow(ConversationReader.PINNED_HEADER);
-        cursors.add(pinnedHeaderCursor);
+        records.add(ConversationReader.createHeaderRecord(Conversation.Type.PINNED_HEADER, 0));
         limit--;
       }
 
-      Cursor pinnedCursor = threadDatabase.getUnarchivedConversationList(true, offset, limit);
-      cursors.add(pinnedCursor);
-      limit -= pinnedCursor.getCount();
+      List<ThreadRecord> pinned = threadDatabase.getUnarchivedConversationRecords(true, offset, limit);
+      records.addAll(pinned);
+      limit -= pinned.size();
 
       if (offset == 0 && hasUnpinnedHeader()) {
-        MatrixCursor unpinnedHeaderCursor = new MatrixCursor(ConversationReader.HEADER_COLUMN);
-        unpinnedHeaderCursor.addRow(ConversationReader.UNPINNED_HEADER);
-        cursors.add(unpinnedHeaderCursor);
+        records.add(ConversationReader.createHeaderRecord(Conversation.Type.UNPINNED_HEADER, 0));
         limit--;
       }
 
-      long   unpinnedOffset = Math.max(0, offset - pinnedCount - getHeaderOffset());
-      Cursor unpinnedCursor = threadDatabase.getUnarchivedConversationList(false, unpinnedOffset, limit);
-      cursors.add(unpinnedCursor);
+      long unpinnedOffset = Math.max(0, offset - pinnedCount - getHeaderOffset());
+      records.addAll(threadDatabase.getUnarchivedConversationRecords(false, unpinnedOffset, limit));
 
       if (offset + originalLimit >= totalCount && hasArchivedFooter()) {
-        MatrixCursor archivedFooterCursor = new MatrixCursor(ConversationReader.ARCHIVED_COLUMNS);
-        archivedFooterCursor.addRow(ConversationReader.createArchivedFooterRow(archivedCount));
-        cursors.add(archivedFooterCursor);
+        records.add(ConversationReader.createHeaderRecord(Conversation.Type.ARCHIVED_FOOTER, archivedCount));
       }
 
-      return new MergeCursor(cursors.toArray(new Cursor[]{}));
+      return records;
     }
 
     @VisibleForTesting
@@ -790,6 +790,63 @@ public class AttachmentDatabase extends Database {
     Log.i(TAG, "[updateAttachmentData] Updated " + updateCount + " rows.");
   }
 
+  /**
+   * Like {@link #updateAttachmentData(DatabaseAttachment, MediaStream, boolean)}, but the new data is
+   * an existing file, found by its hash, rather than a stream to write out.
+   *
+   * @return False if no attachment has data with that hash anymore, in which case nothing is changed.
+   */
+  public boolean updateAttachmentDataFromHash(@NonNull DatabaseAttachment databaseAttachment, @NonNull String dataHash)
+      throws MmsException
+  {
+    SQLiteDatabase database    = databaseHelper.getWritableDatabase();
+    DataInfo       oldDataInfo = getAttachmentDataFileInfo(databaseAttachment.getAttachmentId(), DATA);
+
+    if (oldDataInfo == null) {
+      throw new MmsException("No attachment data found!");
+    }
+
+    ContentValues contentValues = new ContentValues();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[]{DATA, DATA_RANDOM, SIZE, CONTENT_TYPE, WIDTH, HEIGHT}, DATA_HASH + " = ?", new String[]{dataHash}, null, null, null, "1")) {
+      if (cursor == null || !cursor.moveToFirst()) {
+        return false;
+      }
+
+      contentValues.put(SIZE, CursorUtil.requireLong(cursor, SIZE));
+      contentValues.put(CONTENT_TYPE, CursorUtil.requireString(cursor, CONTENT_TYPE));
+      contentValues.put(WIDTH, CursorUtil.requireInt(cursor, WIDTH));
+      contentValues.put(HEIGHT, CursorUtil.requireInt(cursor, HEIGHT));
+      contentValues.put(DATA, CursorUtil.requireString(cursor, DATA));
+      contentValues.put(DATA_RANDOM, CursorUtil.requireBlob(cursor, DATA_RANDOM));
+      contentValues.put(DATA_HASH, dataHash);
+    }
+
+    int updateCount = updateAttachmentAndMatchingHashes(database, databaseAttachment.getAttachmentId(), oldDataInfo.hash, contentValues);
+    Log.i(TAG, "[updateAttachmentDataFromHash] Updated " + updateCount + " rows.");
+
+    if (!fileReferencedByAnyAttachment(oldDataInfo.file) && oldDataInfo.file.delete()) {
+      Log.i(TAG, "[updateAttachmentDataFromHash] Deleted original file. " + oldDataInfo.file);
+    }
+
+    return true;
+  }
+
+  public @Nullable String getDataHash(@NonNull AttachmentId attachmentId) {
+    DataInfo dataInfo = getAttachmentDataFileInfo(attachmentId, DATA);
+    return dataInfo != null ? dataInfo.hash : null;
+  }
+
+  private boolean fileReferencedByAnyAttachment(@NonNull File file) {
+    SQLiteDatabase database  = databaseHelper.getReadableDatabase();
+    String         selection = DATA + " = ?";
+    String[]       args      = new String[]{file.getAbsolutePath()};
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[]{ROW_ID}, selection, args, null, null, null, "1")) {
+      return cursor != null && cursor.moveToFirst();
+    }
+  }
+
   /**
    * Returns true if the file referenced by two or more attachments.
    * Returns false if the file is referenced by zero or one attachments.
@@ -0,0 +1,110 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import net.sqlcipher.Cursor;
+
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers which numbers were last sent to contact discovery, when, and in what state, so that a
+ * directory refresh only has to look up the numbers that changed since.
+ */
+public class CdsDatabase extends Database {
+
+  public static final String TABLE_NAME = "cds";
+
+  private static final String ID           = "_id";
+  private static final String E164         = "e164";
+  private static final String STATE_HASH   = "state_hash";
+  private static final String LAST_CHECKED = "last_checked";
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID           + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                                                                                  E164         + " TEXT NOT NULL UNIQUE, " +
+                                                                                  STATE_HASH   + " INTEGER NOT NULL, " +
+                                                                                  LAST_CHECKED + " INTEGER NOT NULL)";
+
+  CdsDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  /**
+   * @return Every number that has been checked, keyed by number.
+   */
+  public @NonNull Map<String, CheckedNumber> getAll() {
+    Map<String, CheckedNumber> checked = new HashMap<>();
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, new String[] { E164, STATE_HASH, LAST_CHECKED }, null, null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        checked.put(CursorUtil.requireString(cursor, E164),
+                    new CheckedNumber(CursorUtil.requireLong(cursor, STATE_HASH), CursorUtil.requireLong(cursor, LAST_CHECKED)));
+      }
+    }
+
+    return checked;
+  }
+
+  /**
+   * Records that the given numbers were checked at the given time, in the given states, and forgets
+   * the numbers in removed.
+   */
+  public void update(@NonNull Map<String, Long> stateHashes, long checkedTime, @NonNull Collection<String> removed) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      for (Map.Entry<String, Long> entry : stateHashes.entrySet()) {
+        ContentValues values = new ContentValues(3);
+        values.put(E164, entry.getKey());
+        values.put(STATE_HASH, entry.getValue());
+        values.put(LAST_CHECKED, checkedTime);
+
+        db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+      }
+
+      if (!removed.isEmpty()) {
+        for (SqlUtil.Query query : SqlUtil.buildCollectionQuery(E164, removed, SqlUtil.MAX_QUERY_ARGS)) {
+          db.delete(TABLE_NAME, query.getWhere(), query.getWhereArgs());
+        }
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Forgets every number, so that the next refresh looks all of them up again.
+   */
+  public void clear() {
+    databaseHelper.getWritableDatabase().delete(TABLE_NAME, null, null);
+  }
+
+  public static final class CheckedNumber {
+    private final long stateHash;
+    private final long lastChecked;
+
+    public CheckedNumber(long stateHash, long lastChecked) {
+      this.stateHash   = stateHash;
+      this.lastChecked = lastChecked;
+    }
+
+    public long getStateHash() {
+      return stateHash;
+    }
+
+    public long getLastChecked() {
+      return lastChecked;
+    }
+  }
+}
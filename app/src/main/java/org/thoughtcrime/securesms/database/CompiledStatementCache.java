@@ -0,0 +1,130 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+
+import androidx.annotation.NonNull;
+
+import net.sqlcipher.database.SQLiteStatement;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the statements for hot, fixed-shape writes compiled on the writer connection, so that each
+ * execution only binds arguments instead of building and compiling its SQL again.
+ *
+ * A compiled statement belongs to the connection it was compiled on and holds its arguments until
+ * it is executed. Statements are therefore only handed out to a thread that holds the writer's
+ * lock, see {@link SQLiteDatabase#executeInsert(String, SQLiteDatabase.StatementBinder)}.
+ */
+public final class CompiledStatementCache {
+
+  private static final int MAX_SIZE = 32;
+
+  private final net.sqlcipher.database.SQLiteDatabase connection;
+
+  private final LinkedHashMap<String, SQLiteStatement> statements = new LinkedHashMap<String, SQLiteStatement>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+      if (size() > MAX_SIZE) {
+        eldest.getValue().close();
+        return true;
+      }
+      return false;
+    }
+  };
+
+  private boolean closed;
+
+  public CompiledStatementCache(@NonNull net.sqlcipher.database.SQLiteDatabase connection) {
+    this.connection = connection;
+  }
+
+  /**
+   * @return True if statements from this cache can be run on the provided connection.
+   */
+  synchronized boolean isFor(@NonNull net.sqlcipher.database.SQLiteDatabase connection) {
+    return !closed && this.connection == connection;
+  }
+
+  synchronized @NonNull SQLiteStatement get(@NonNull String sql) {
+    if (closed) {
+      throw new IllegalStateException("Statement cache is closed!");
+    }
+
+    SQLiteStatement statement = statements.get(sql);
+
+    if (statement == null) {
+      statement = connection.compileStatement(sql);
+      statements.put(sql, statement);
+    }
+
+    return statement;
+  }
+
+  public synchronized void close() {
+    for (SQLiteStatement statement : statements.values()) {
+      statement.close();
+    }
+
+    statements.clear();
+    closed = true;
+  }
+
+  /**
+   * @return An INSERT for the columns of the provided values, in the order {@link #bind} expects.
+   */
+  static @NonNull String buildInsert(@NonNull String table, @NonNull ContentValues values) {
+    String[]      columns = getSortedColumns(values);
+    StringBuilder sql     = new StringBuilder(32 + table.length() + columns.length * 16);
+
+    sql.append("INSERT INTO ").append(table).append(" (");
+
+    for (int i = 0; i < columns.length; i++) {
+      sql.append(i == 0 ? "" : ", ").append(columns[i]);
+    }
+
+    sql.append(") VALUES (");
+
+    for (int i = 0; i < columns.length; i++) {
+      sql.append(i == 0 ? "?" : ", ?");
+    }
+
+    return sql.append(")").toString();
+  }
+
+  /**
+   * Binds the provided values in the column order of {@link #buildInsert}, the same way
+   * {@link net.sqlcipher.database.SQLiteDatabase#insert} would.
+   */
+  static void bind(@NonNull SQLiteStatement statement, @NonNull ContentValues values) {
+    String[] columns = getSortedColumns(values);
+
+    for (int i = 0; i < columns.length; i++) {
+      bind(statement, i + 1, values.get(columns[i]));
+    }
+  }
+
+  static void bind(@NonNull SQLiteStatement statement, int index, Object value) {
+    if (value == null) {
+      statement.bindNull(index);
+    } else if (value instanceof Double || value instanceof Float) {
+      statement.bindDouble(index, ((Number) value).doubleValue());
+    } else if (value instanceof Number) {
+      statement.bindLong(index, ((Number) value).longValue());
+    } else if (value instanceof Boolean) {
+      statement.bindLong(index, (Boolean) value ? 1 : 0);
+    } else if (value instanceof byte[]) {
+      statement.bindBlob(index, (byte[]) value);
+    } else {
+      statement.bindString(index, value.toString());
+    }
+  }
+
+  private static @NonNull String[] getSortedColumns(@NonNull ContentValues values) {
+    String[] columns = values.keySet().toArray(new String[0]);
+    Arrays.sort(columns);
+    return columns;
+  }
+}
@@ -0,0 +1,192 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A sparse index of where messages sit in a conversation, so that a page or a position anywhere in
+ * the thread can be found by seeking from a nearby checkpoint instead of stepping over every message
+ * newer than it.
+ *
+ * Messages are ordered newest first by {@link Key}, and the key of every {@link #INTERVAL}th message
+ * is remembered. New messages arrive at the newest end of a thread, which moves every checkpoint down
+ * by the same amount, so an index stays usable as long as the thread only grew by the messages that
+ * are newer than its newest key. Anything else, like a deletion, means it has to be rebuilt.
+ */
+final class ConversationPositionIndex {
+
+  static final int INTERVAL = 500;
+
+  private final List<Key> checkpoints;
+  private final int       size;
+  private final int       shift;
+
+  /**
+   * @param checkpoints The keys at positions 0, {@link #INTERVAL}, 2 * {@link #INTERVAL}, ...
+   * @param size        The number of messages in the thread when the checkpoints were taken.
+   */
+  ConversationPositionIndex(@NonNull List<Key> checkpoints, int size) {
+    this(checkpoints, size, 0);
+  }
+
+  private ConversationPositionIndex(@NonNull List<Key> checkpoints, int size, int shift) {
+    this.checkpoints = Collections.unmodifiableList(checkpoints);
+    this.size        = size;
+    this.shift       = shift;
+  }
+
+  /**
+   * @return The key of the newest message when the index was built, or null if the thread was empty.
+   */
+  @Nullable Key getNewest() {
+    return checkpoints.isEmpty() ? null : checkpoints.get(0);
+  }
+
+  /**
+   * @param currentSize The number of messages in the thread now.
+   * @param newerCount  The number of messages in the thread that are newer than {@link #getNewest()}.
+   *
+   * @return True if the messages the index was built from are all still there, and few enough new
+   *         ones arrived that seeking past them is still cheap.
+   */
+  boolean isCurrent(int currentSize, int newerCount) {
+    return newerCount <= INTERVAL && currentSize == size + newerCount;
+  }
+
+  /**
+   * @return A copy of this index with every checkpoint moved down by the given number of new messages.
+   */
+  @NonNull ConversationPositionIndex shiftedBy(int newerCount) {
+    return new ConversationPositionIndex(checkpoints, size, newerCount);
+  }
+
+  /**
+   * @return The deepest checkpoint at or above the position, or null if the position is among the
+   *         messages newer than every checkpoint.
+   */
+  @Nullable Checkpoint getCheckpointAtOrBefore(long position) {
+    long indexed = position - shift;
+
+    if (indexed < 0 || checkpoints.isEmpty()) {
+      return null;
+    }
+
+    int index = (int) Math.min(indexed / INTERVAL, checkpoints.size() - 1);
+
+    return new Checkpoint(checkpoints.get(index), index * INTERVAL + shift);
+  }
+
+  /**
+   * @return The deepest checkpoint whose key is newer than the given key, or null if there is none.
+   */
+  @Nullable Checkpoint getCheckpointNewerThan(@NonNull Key key) {
+    int low   = 0;
+    int high  = checkpoints.size() - 1;
+    int found = -1;
+
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+
+      if (checkpoints.get(middle).compareTo(key) > 0) {
+        found = middle;
+        low   = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+
+    return found >= 0 ? new Checkpoint(checkpoints.get(found), found * INTERVAL + shift) : null;
+  }
+
+  /**
+   * The sort key of a message within a conversation: received date, then transport, then row ID.
+   * The row ID alone isn't unique, because SMS and MMS messages live in separate tables.
+   */
+  static final class Key implements Comparable<Key> {
+
+    private final long    dateReceived;
+    private final boolean mms;
+    private final long    id;
+
+    Key(long dateReceived, boolean mms, long id) {
+      this.dateReceived = dateReceived;
+      this.mms          = mms;
+      this.id           = id;
+    }
+
+    /**
+     * @return A key that is newer than any message received at the given time, and older than any
+     *         message received after it.
+     */
+    static @NonNull Key newestAt(long dateReceived) {
+      return new Key(dateReceived, false, Long.MAX_VALUE);
+    }
+
+    long getDateReceived() {
+      return dateReceived;
+    }
+
+    boolean isMms() {
+      return mms;
+    }
+
+    long getId() {
+      return id;
+    }
+
+    /**
+     * Matches {@code ORDER BY transport_type}, where {@code 'sms'} sorts after {@code 'mms'}.
+     */
+    static int transportRank(boolean mms) {
+      return mms ? 0 : 1;
+    }
+
+    @Override
+    public int compareTo(@NonNull Key other) {
+      int result = Long.compare(dateReceived, other.dateReceived);
+
+      if (result == 0) {
+        result = Integer.compare(transportRank(mms), transportRank(other.mms));
+      }
+
+      return result != 0 ? result : Long.compare(id, other.id);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Key key = (Key) o;
+      return dateReceived == key.dateReceived && mms == key.mms && id == key.id;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = (int) (dateReceived ^ (dateReceived >>> 32));
+      result = 31 * result + (mms ? 1 : 0);
+      return 31 * result + (int) (id ^ (id >>> 32));
+    }
+  }
+
+  static final class Checkpoint {
+
+    private final Key key;
+    private final int position;
+
+    Checkpoint(@NonNull Key key, int position) {
+      this.key      = key;
+      this.position = position;
+    }
+
+    @NonNull Key getKey() {
+      return key;
+    }
+
+    int getPosition() {
+      return position;
+    }
+  }
+}
@@ -23,6 +23,7 @@ import android.database.Cursor;
 import androidx.annotation.NonNull;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 
 import java.util.Set;
@@ -41,27 +42,34 @@ public abstract class Database {
 
   protected void notifyConversationListeners(Set<Long> threadIds) {
     ApplicationDependencies.getDatabaseObserver().notifyConversationListeners(threadIds);
-
-    for (long threadId : threadIds) {
-      notifyConversationListeners(threadId);
-    }
   }
 
   protected void notifyConversationListeners(long threadId) {
     ApplicationDependencies.getDatabaseObserver().notifyConversationListeners(threadId);
-
-    context.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
-    notifyVerboseConversationListeners(threadId);
   }
 
   protected void notifyVerboseConversationListeners(long threadId) {
     ApplicationDependencies.getDatabaseObserver().notifyVerboseConversationListeners(threadId);
-    context.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+  }
+
+  protected void notifyMessageInserted(long threadId, @NonNull MessageId messageId) {
+    ApplicationDependencies.getDatabaseObserver().notifyMessageInserted(threadId, messageId);
+  }
+
+  protected void notifyMessageUpdated(long threadId, @NonNull MessageId messageId) {
+    ApplicationDependencies.getDatabaseObserver().notifyMessageUpdated(threadId, messageId);
+  }
+
+  protected void notifyVerboseMessageUpdated(long threadId, @NonNull MessageId messageId) {
+    ApplicationDependencies.getDatabaseObserver().notifyVerboseMessageUpdated(threadId, messageId);
+  }
+
+  protected void notifyMessageDeleted(long threadId, @NonNull MessageId messageId) {
+    ApplicationDependencies.getDatabaseObserver().notifyMessageDeleted(threadId, messageId);
   }
 
   protected void notifyConversationListListeners() {
     ApplicationDependencies.getDatabaseObserver().notifyConversationListListeners();
-    context.getContentResolver().notifyChange(DatabaseContentProviders.ConversationList.CONTENT_URI, null);
   }
 
   protected void notifyStickerListeners() {
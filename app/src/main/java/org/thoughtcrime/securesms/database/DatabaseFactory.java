@@ -63,6 +63,10 @@ public class DatabaseFactory {
   private final StorageKeyDatabase      storageKeyDatabase;
   private final RemappedRecordsDatabase remappedRecordsDatabase;
   private final MentionDatabase         mentionDatabase;
+  private final CdsDatabase             cdsDatabase;
+  private final StorageIndexDatabase    storageIndexDatabase;
+  private final MessageIndexDatabase    messageIndexDatabase;
+  private final TranscodePlanDatabase   transcodePlanDatabase;
 
   public static DatabaseFactory getInstance(Context context) {
     if (instance == null) {
@@ -159,6 +163,22 @@ public class DatabaseFactory {
     return getInstance(context).mentionDatabase;
   }
 
+  public static CdsDatabase getCdsDatabase(Context context) {
+    return getInstance(context).cdsDatabase;
+  }
+
+  public static StorageIndexDatabase getStorageIndexDatabase(Context context) {
+    return getInstance(context).storageIndexDatabase;
+  }
+
+  public static MessageIndexDatabase getMessageIndexDatabase(Context context) {
+    return getInstance(context).messageIndexDatabase;
+  }
+
+  public static TranscodePlanDatabase getTranscodePlanDatabase(Context context) {
+    return getInstance(context).transcodePlanDatabase;
+  }
+
   public static SQLiteDatabase getBackupDatabase(Context context) {
     return getInstance(context).databaseHelper.getReadableDatabase().getSqlCipherDatabase();
   }
@@ -211,6 +231,10 @@ public class DatabaseFactory {
     this.storageKeyDatabase      = new StorageKeyDatabase(context, databaseHelper);
     this.remappedRecordsDatabase = new RemappedRecordsDatabase(context, databaseHelper);
     this.mentionDatabase         = new MentionDatabase(context, databaseHelper);
+    this.cdsDatabase             = new CdsDatabase(context, databaseHelper);
+    this.storageIndexDatabase    = new StorageIndexDatabase(context, databaseHelper);
+    this.messageIndexDatabase    = new MessageIndexDatabase(context, databaseHelper);
+    this.transcodePlanDatabase   = new TranscodePlanDatabase(context, databaseHelper);
   }
 
   public void onApplicationLevelUpgrade(@NonNull Context context, @NonNull MasterSecret masterSecret,
@@ -1,12 +1,13 @@
 package org.thoughtcrime.securesms.database;
 
 import android.app.Application;
-import android.database.ContentObserver;
-import android.database.Cursor;
+import android.os.Handler;
 
 import androidx.annotation.NonNull;
 
 import org.signal.core.util.concurrent.SignalExecutors;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.util.concurrent.SerialExecutor;
 
 import java.util.HashMap;
@@ -19,11 +20,21 @@ import java.util.concurrent.Executor;
  * Allows listening to database changes to varying degrees of specificity.
  *
  * A replacement for the observer system in {@link Database}. We should move to this over time.
+ *
+ * Notifications are held for a frame-sized window and folded together, so a burst of writes to
+ * one conversation results in a single notification for it, carrying the net {@link MessageChanges}.
  */
 public final class DatabaseObserver {
 
-  private final Application application;
-  private final Executor    executor;
+  private static final String TAG = Log.tag(DatabaseObserver.class);
+
+  private static final long COALESCE_WINDOW_MS       = 16;
+  private static final int  SUPPRESSED_LOG_THRESHOLD = 10;
+
+  private final Application           application;
+  private final Executor              executor;
+  private final Handler               flushHandler;
+  private final NotificationCoalescer pending;
 
   private final Set<Observer>            conversationListObservers;
   private final Map<Long, Set<Observer>> conversationObservers;
@@ -32,6 +43,8 @@ public final class DatabaseObserver {
   public DatabaseObserver(Application application) {
     this.application                  = application;
     this.executor                     = new SerialExecutor(SignalExecutors.BOUNDED);
+    this.flushHandler                 = new Handler(SignalExecutors.getAndStartHandlerThread("signal-DatabaseObserver").getLooper());
+    this.pending                      = new NotificationCoalescer();
     this.conversationListObservers    = new HashSet<>();
     this.conversationObservers        = new HashMap<>();
     this.verboseConversationObservers = new HashMap<>();
@@ -64,45 +77,95 @@ public final class DatabaseObserver {
   }
 
   public void notifyConversationListeners(Set<Long> threadIds) {
-    executor.execute(() -> {
-      for (long threadId : threadIds) {
-        notifyMapped(conversationObservers, threadId);
-        notifyMapped(verboseConversationObservers, threadId);
-      }
-    });
-
     for (long threadId : threadIds) {
-      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
-      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+      notifyConversationListeners(threadId);
     }
   }
 
   public void notifyConversationListeners(long threadId) {
-    executor.execute(() -> {
-      notifyMapped(conversationObservers, threadId);
-      notifyMapped(verboseConversationObservers, threadId);
-    });
-
-    application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
-    application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+    enqueue(pending.addConversation(threadId, false, null, null));
   }
 
   public void notifyVerboseConversationListeners(long threadId) {
-    executor.execute(() -> {
-      notifyMapped(verboseConversationObservers, threadId);
-    });
+    enqueue(pending.addConversation(threadId, true, null, null));
+  }
+
+  public void notifyMessageInserted(long threadId, @NonNull MessageId messageId) {
+    enqueue(pending.addConversation(threadId, false, MessageChanges.Type.INSERTED, messageId));
+  }
+
+  public void notifyMessageUpdated(long threadId, @NonNull MessageId messageId) {
+    enqueue(pending.addConversation(threadId, false, MessageChanges.Type.UPDATED, messageId));
+  }
 
-    application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+  /**
+   * For changes that only verbose observers care about, like receipt counts.
+   */
+  public void notifyVerboseMessageUpdated(long threadId, @NonNull MessageId messageId) {
+    enqueue(pending.addConversation(threadId, true, MessageChanges.Type.UPDATED, messageId));
+  }
+
+  public void notifyMessageDeleted(long threadId, @NonNull MessageId messageId) {
+    enqueue(pending.addConversation(threadId, false, MessageChanges.Type.DELETED, messageId));
   }
 
   public void notifyConversationListListeners() {
+    enqueue(pending.addConversationList());
+  }
+
+  /**
+   * @return The number of notifications that were folded into another one, since startup.
+   */
+  public long getSuppressedNotificationCount() {
+    return pending.getSuppressedCount();
+  }
+
+  private void enqueue(boolean first) {
+    if (first) {
+      flushHandler.postDelayed(this::flush, COALESCE_WINDOW_MS);
+    }
+  }
+
+  private void flush() {
+    NotificationCoalescer.Batch batch = pending.drain();
+
+    if (batch.isEmpty()) {
+      return;
+    }
+
     executor.execute(() -> {
-      for (Observer listener : conversationListObservers) {
-        listener.onChanged();
+      for (Map.Entry<Long, MessageChanges> entry : batch.getConversations().entrySet()) {
+        notifyMapped(conversationObservers, entry.getKey(), entry.getValue());
+        notifyMapped(verboseConversationObservers, entry.getKey(), entry.getValue());
+      }
+
+      for (Map.Entry<Long, MessageChanges> entry : batch.getVerboseOnly().entrySet()) {
+        notifyMapped(verboseConversationObservers, entry.getKey(), entry.getValue());
+      }
+
+      if (batch.hasConversationList()) {
+        for (Observer listener : conversationListObservers) {
+          listener.onChanged();
+        }
       }
     });
 
-    application.getContentResolver().notifyChange(DatabaseContentProviders.ConversationList.CONTENT_URI, null);
+    for (long threadId : batch.getConversations().keySet()) {
+      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
+      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+    }
+
+    for (long threadId : batch.getVerboseOnly().keySet()) {
+      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+    }
+
+    if (batch.hasConversationList()) {
+      application.getContentResolver().notifyChange(DatabaseContentProviders.ConversationList.CONTENT_URI, null);
+    }
+
+    if (batch.getSuppressed() >= SUPPRESSED_LOG_THRESHOLD) {
+      Log.d(TAG, "Coalesced " + batch.getSuppressed() + " notifications. Total suppressed: " + pending.getSuppressedCount());
+    }
   }
 
   private <K> void registerMapped(@NonNull Map<K, Set<Observer>> map, @NonNull K key, @NonNull Observer listener) {
@@ -122,12 +185,12 @@ public final class DatabaseObserver {
     }
   }
 
-  private static <K> void notifyMapped(@NonNull Map<K, Set<Observer>> map, @NonNull K key) {
+  private static <K> void notifyMapped(@NonNull Map<K, Set<Observer>> map, @NonNull K key, @NonNull MessageChanges changes) {
     Set<Observer> listeners = map.get(key);
 
     if (listeners != null) {
       for (Observer listener : listeners) {
-        listener.onChanged();
+        listener.onMessagesChanged(changes);
       }
     }
   }
@@ -138,5 +201,13 @@ public final class DatabaseObserver {
      * long-running tasks!
      */
     void onChanged();
+
+    /**
+     * Called instead of {@link #onChanged()} for conversation observers, with everything that
+     * changed in the conversation since the last call. Same threading rules apply.
+     */
+    default void onMessagesChanged(@NonNull MessageChanges changes) {
+      onChanged();
+    }
   }
 }
@@ -73,6 +73,31 @@ public class GroupReceiptDatabase extends Database {
               new String[] {String.valueOf(mmsId), recipientId.serialize(), String.valueOf(status)});
   }
 
+  /**
+   * Applies the same status to several recipients of one message, e.g. a batch of receipts.
+   */
+  public void update(@NonNull Collection<RecipientId> recipientIds, long mmsId, int status, long timestamp) {
+    SQLiteDatabase db    = databaseHelper.getWritableDatabase();
+    String         query = "UPDATE " + TABLE_NAME + " SET " + STATUS + " = ?, " + TIMESTAMP + " = ? " +
+                           "WHERE " + MMS_ID + " = ? AND " + RECIPIENT_ID + " = ? AND " + STATUS + " < ?";
+
+    db.beginTransaction();
+    try {
+      for (RecipientId recipientId : recipientIds) {
+        db.executeUpdateDelete(query, statement -> {
+          statement.bindLong(1, status);
+          statement.bindLong(2, timestamp);
+          statement.bindLong(3, mmsId);
+          statement.bindLong(4, recipientId.toLong());
+          statement.bindLong(5, status);
+        });
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
   public void setUnidentified(Collection<Pair<RecipientId, Boolean>> results, long mmsId) {
     SQLiteDatabase db  = databaseHelper.getWritableDatabase();
 
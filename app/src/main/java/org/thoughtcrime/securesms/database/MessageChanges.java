@@ -0,0 +1,114 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.model.MessageId;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * What happened to the messages of one conversation since its observers were last told.
+ *
+ * Writes that don't say which messages they touched, or more changes than are worth listing, make
+ * the changes unknown. Observers should then reload the whole conversation.
+ */
+public final class MessageChanges {
+
+  private static final int MAX_CHANGES = 1000;
+
+  private final Set<MessageId> inserted;
+  private final Set<MessageId> updated;
+  private final Set<MessageId> deleted;
+  private final boolean        unknown;
+
+  private MessageChanges(@NonNull Set<MessageId> inserted, @NonNull Set<MessageId> updated, @NonNull Set<MessageId> deleted, boolean unknown) {
+    this.inserted = Collections.unmodifiableSet(inserted);
+    this.updated  = Collections.unmodifiableSet(updated);
+    this.deleted  = Collections.unmodifiableSet(deleted);
+    this.unknown  = unknown;
+  }
+
+  public @NonNull Set<MessageId> getInserted() {
+    return inserted;
+  }
+
+  public @NonNull Set<MessageId> getUpdated() {
+    return updated;
+  }
+
+  public @NonNull Set<MessageId> getDeleted() {
+    return deleted;
+  }
+
+  /**
+   * @return True if the sets above don't describe everything that changed.
+   */
+  public boolean isUnknown() {
+    return unknown;
+  }
+
+  @Override
+  public @NonNull String toString() {
+    return unknown ? "MessageChanges::unknown"
+                   : "MessageChanges::inserted=" + inserted.size() + ",updated=" + updated.size() + ",deleted=" + deleted.size();
+  }
+
+  enum Type {
+    INSERTED, UPDATED, DELETED
+  }
+
+  /**
+   * Folds a sequence of changes into their net effect, e.g. a message that is inserted and then
+   * deleted in the same window isn't reported at all.
+   */
+  static final class Builder {
+
+    private final Set<MessageId> inserted = new LinkedHashSet<>();
+    private final Set<MessageId> updated  = new LinkedHashSet<>();
+    private final Set<MessageId> deleted  = new LinkedHashSet<>();
+
+    private boolean unknown;
+
+    void add(@NonNull Type type, @NonNull MessageId messageId) {
+      if (unknown) {
+        return;
+      }
+
+      switch (type) {
+        case INSERTED:
+          deleted.remove(messageId);
+          inserted.add(messageId);
+          break;
+        case UPDATED:
+          if (!inserted.contains(messageId)) {
+            updated.add(messageId);
+          }
+          break;
+        case DELETED:
+          updated.remove(messageId);
+
+          if (!inserted.remove(messageId)) {
+            deleted.add(messageId);
+          }
+          break;
+      }
+
+      if (inserted.size() + updated.size() + deleted.size() > MAX_CHANGES) {
+        markUnknown();
+      }
+    }
+
+    void markUnknown() {
+      unknown = true;
+      inserted.clear();
+      updated.clear();
+      deleted.clear();
+    }
+
+    @NonNull MessageChanges build() {
+      return new MessageChanges(new LinkedHashSet<>(inserted), new LinkedHashSet<>(updated), new LinkedHashSet<>(deleted), unknown);
+    }
+  }
+}
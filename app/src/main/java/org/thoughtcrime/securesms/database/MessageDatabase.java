@@ -20,6 +20,7 @@ import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatch;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatchList;
 import org.thoughtcrime.securesms.database.documents.NetworkFailure;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.ReactionRecord;
 import org.thoughtcrime.securesms.database.model.SmsMessageRecord;
@@ -46,9 +47,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -118,7 +124,7 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
   public abstract void markDownloadState(long messageId, long state);
   public abstract void markIncomingNotificationReceived(long threadId);
 
-  public abstract boolean incrementReceiptCount(SyncMessageId messageId, long timestamp, @NonNull ReceiptType receiptType);
+  public abstract @NonNull Set<SyncMessageId> incrementReceiptCounts(@NonNull Collection<SyncMessageId> messageIds, long timestamp, @NonNull ReceiptType receiptType, @NonNull ReceiptThreads threads);
   public abstract List<Pair<Long, Long>> setTimestampRead(SyncMessageId messageId, long proposedExpireStarted);
   public abstract List<MarkedMessageInfo> setEntireThreadRead(long threadId);
   public abstract List<MarkedMessageInfo> setMessagesReadSince(long threadId, long timestamp);
@@ -572,6 +578,124 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
     return -1;
   }
 
+  /**
+   * Applies a batch of receipts of one type. Outgoing messages are looked up with one query per
+   * chunk of timestamps, and each message's count is bumped once by the number of receipts that
+   * matched it. Threads are collected in {@link ReceiptThreads} rather than updated and notified
+   * here, so that the caller can do that once per thread.
+   *
+   * @param matchGroupMembers True if a receipt from anyone should count for a message sent to a
+   *                          group. Their per-member status is recorded in {@link GroupReceiptDatabase}.
+   * @return The receipts that matched a message.
+   */
+  protected @NonNull Set<SyncMessageId> applyReceipts(@NonNull Collection<SyncMessageId> messageIds,
+                                                      long timestamp,
+                                                      @NonNull ReceiptType receiptType,
+                                                      boolean matchGroupMembers,
+                                                      @NonNull ReceiptThreads threads)
+  {
+    Set<SyncMessageId> matched = new HashSet<>();
+
+    if (messageIds.isEmpty()) {
+      return matched;
+    }
+
+    Map<Long, List<SyncMessageId>> byTimestamp = new HashMap<>();
+
+    for (SyncMessageId messageId : messageIds) {
+      List<SyncMessageId> receipts = byTimestamp.get(messageId.getTimetamp());
+
+      if (receipts == null) {
+        receipts = new ArrayList<>(1);
+        byTimestamp.put(messageId.getTimetamp(), receipts);
+      }
+
+      receipts.add(messageId);
+    }
+
+    SQLiteDatabase               db           = databaseHelper.getWritableDatabase();
+    boolean                      mms          = MmsDatabase.TABLE_NAME.equals(getTableName());
+    String                       columnName   = receiptType.getColumnName();
+    String[]                     projection   = new String[] { ID, THREAD_ID, RECIPIENT_ID, getTypeField(), getDateSentColumnName(), columnName };
+    Map<Long, Integer>           increments   = new LinkedHashMap<>();
+    Map<Long, List<RecipientId>> groupMembers = new LinkedHashMap<>();
+    Map<RecipientId, Boolean>    groupCache   = new HashMap<>();
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQuery(getDateSentColumnName(), byTimestamp.keySet(), SqlUtil.MAX_QUERY_ARGS)) {
+      try (Cursor cursor = db.query(getTableName(), projection, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+        while (cursor.moveToNext()) {
+          if (!Types.isOutgoingMessageType(cursor.getLong(cursor.getColumnIndexOrThrow(getTypeField())))) {
+            continue;
+          }
+
+          long                id               = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
+          long                threadId         = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID));
+          RecipientId         outRecipientId   = RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(RECIPIENT_ID)));
+          boolean             isFirstIncrement = cursor.getLong(cursor.getColumnIndexOrThrow(columnName)) == 0;
+          List<SyncMessageId> receipts         = byTimestamp.get(cursor.getLong(cursor.getColumnIndexOrThrow(getDateSentColumnName())));
+
+          if (receipts == null) {
+            continue;
+          }
+
+          for (SyncMessageId receipt : receipts) {
+            boolean fromRecipient = receipt.getRecipientId().equals(outRecipientId);
+            boolean fromMember    = !fromRecipient && matchGroupMembers && isGroup(outRecipientId, groupCache);
+
+            if (!fromRecipient && !fromMember) {
+              continue;
+            }
+
+            Integer count = increments.get(id);
+            increments.put(id, count == null ? 1 : count + 1);
+
+            if (fromMember) {
+              List<RecipientId> members = groupMembers.get(id);
+
+              if (members == null) {
+                members = new ArrayList<>();
+                groupMembers.put(id, members);
+              }
+
+              members.add(receipt.getRecipientId());
+            }
+
+            matched.add(receipt);
+            threads.add(threadId, new MessageId(id, mms), isFirstIncrement);
+          }
+        }
+      }
+    }
+
+    String update = "UPDATE " + getTableName() + " SET " + columnName + " = " + columnName + " + ? WHERE " + ID + " = ?";
+
+    for (Map.Entry<Long, Integer> increment : increments.entrySet()) {
+      db.executeUpdateDelete(update, statement -> {
+        statement.bindLong(1, increment.getValue());
+        statement.bindLong(2, increment.getKey());
+      });
+    }
+
+    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
+
+    for (Map.Entry<Long, List<RecipientId>> members : groupMembers.entrySet()) {
+      groupReceiptDatabase.update(members.getValue(), members.getKey(), receiptType.getGroupStatus(), timestamp);
+    }
+
+    return matched;
+  }
+
+  private static boolean isGroup(@NonNull RecipientId recipientId, @NonNull Map<RecipientId, Boolean> cache) {
+    Boolean isGroup = cache.get(recipientId);
+
+    if (isGroup == null) {
+      isGroup = Recipient.resolved(recipientId).isGroup();
+      cache.put(recipientId, isGroup);
+    }
+
+    return isGroup;
+  }
+
   protected enum ReceiptType {
     READ(READ_RECEIPT_COUNT, GroupReceiptDatabase.STATUS_READ),
     DELIVERY(DELIVERY_RECEIPT_COUNT, GroupReceiptDatabase.STATUS_DELIVERED),
@@ -611,6 +735,60 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
     public long getTimetamp() {
       return timetamp;
     }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      SyncMessageId that = (SyncMessageId) o;
+
+      return timetamp == that.timetamp && recipientId.equals(that.recipientId);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * recipientId.hashCode() + (int) (timetamp ^ (timetamp >>> 32));
+    }
+  }
+
+  /**
+   * The threads and messages touched by a batch of receipts, and whether any of their messages got
+   * its first receipt of that type, which is the only case that changes how a conversation is
+   * displayed.
+   */
+  public static final class ReceiptThreads {
+
+    private final Map<Long, Set<MessageId>> messageIds     = new LinkedHashMap<>();
+    private final Set<Long>                 firstIncrement = new HashSet<>();
+
+    void add(long threadId, @NonNull MessageId messageId, boolean isFirstIncrement) {
+      Set<MessageId> messages = messageIds.get(threadId);
+
+      if (messages == null) {
+        messages = new LinkedHashSet<>();
+        messageIds.put(threadId, messages);
+      }
+
+      messages.add(messageId);
+
+      if (isFirstIncrement) {
+        firstIncrement.add(threadId);
+      }
+    }
+
+    public @NonNull Set<Long> getThreadIds() {
+      return messageIds.keySet();
+    }
+
+    public @NonNull Set<MessageId> getMessageIds(long threadId) {
+      Set<MessageId> messages = messageIds.get(threadId);
+      return messages != null ? messages : Collections.emptySet();
+    }
+
+    public boolean hasFirstIncrement(long threadId) {
+      return firstIncrement.contains(threadId);
+    }
   }
 
   public static class ExpirationInfo {
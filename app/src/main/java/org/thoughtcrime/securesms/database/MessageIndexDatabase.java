@@ -0,0 +1,189 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.thoughtcrime.securesms.database.ConversationPositionIndex.Key;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.CursorUtil;
+
+/**
+ * One row per message in either the SMS or MMS table, holding just what's needed to order, count and
+ * find unread messages. Kept in sync with both tables by triggers, like the FTS tables in
+ * {@link SearchDatabase}.
+ *
+ * Reading it is a single scan of one index in conversation order, where reading the message tables
+ * directly means merging two sorted scans and re-sorting the result.
+ */
+public class MessageIndexDatabase extends Database {
+
+  public static final String TABLE_NAME = "message_index";
+
+  private static final String ID               = "_id";
+  private static final String THREAD_ID        = MmsSmsColumns.THREAD_ID;
+          static final String DATE_RECEIVED    = MmsSmsColumns.NORMALIZED_DATE_RECEIVED;
+          static final String TRANSPORT_RANK   = "transport_rank";
+          static final String MESSAGE_ID       = "message_id";
+  private static final String READ             = MmsSmsColumns.READ;
+  private static final String NOTIFIED         = MmsSmsColumns.NOTIFIED;
+  private static final String REACTIONS_UNREAD = MmsSmsColumns.REACTIONS_UNREAD;
+
+  private static final String UNREAD_SELECTION = NOTIFIED + " = 0 AND (" + READ + " = 0 OR " + REACTIONS_UNREAD + " = 1)";
+          static final String KEY_ORDER        = DATE_RECEIVED + " DESC, " + TRANSPORT_RANK + " DESC, " + MESSAGE_ID + " DESC";
+
+  @VisibleForTesting
+  static final String UNREAD_SUMMARY_QUERY = "SELECT " + THREAD_ID + ", " +
+                                                    "COUNT(*) AS " + MmsSmsDatabase.UNREAD_SUMMARY_COUNT + ", " +
+                                                    "MAX(" + DATE_RECEIVED + ") AS " + MmsSmsDatabase.UNREAD_SUMMARY_LAST_RECEIVED +
+                                             " FROM " + TABLE_NAME +
+                                             " WHERE " + UNREAD_SELECTION +
+                                             " GROUP BY " + THREAD_ID;
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID               + " INTEGER PRIMARY KEY, " +
+                                                                                  THREAD_ID        + " INTEGER, " +
+                                                                                  DATE_RECEIVED    + " INTEGER, " +
+                                                                                  TRANSPORT_RANK   + " INTEGER, " +
+                                                                                  MESSAGE_ID       + " INTEGER, " +
+                                                                                  READ             + " INTEGER, " +
+                                                                                  NOTIFIED         + " INTEGER, " +
+                                                                                  REACTIONS_UNREAD + " INTEGER, " +
+                                                                                  "UNIQUE(" + TRANSPORT_RANK + ", " + MESSAGE_ID + "))";
+
+  public static final String[] CREATE_INDEXES = {
+      "CREATE INDEX IF NOT EXISTS message_index_thread_key_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ", " + TRANSPORT_RANK + ", " + MESSAGE_ID + ");",
+      "CREATE INDEX IF NOT EXISTS message_index_unread_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ") WHERE " + UNREAD_SELECTION + ";"
+  };
+
+  public static final String[] CREATE_TRIGGERS = {
+      buildInsertTrigger(false), buildDeleteTrigger(false), buildUpdateTrigger(false),
+      buildInsertTrigger(true),  buildDeleteTrigger(true),  buildUpdateTrigger(true)
+  };
+
+  MessageIndexDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  /**
+   * @param from  If set, only keys at or older than this one are returned.
+   *
+   * @return The keys of the thread's messages, newest first. Read them with {@link #readKey(Cursor)}.
+   */
+  @NonNull Cursor getKeys(long threadId, @Nullable Key from, @Nullable String limit) {
+    return databaseHelper.getReadableDatabase().rawQuery(buildKeysQuery(threadId, from, limit), null);
+  }
+
+  /**
+   * @param olderThan If set, only messages older than this key are counted.
+   *
+   * @return The number of messages in the thread that are newer than the key.
+   */
+  int getNewerCount(long threadId, @NonNull Key key, @Nullable Key olderThan) {
+    String selection = THREAD_ID + " = " + threadId + " AND " + keyCondition(key, true, false);
+
+    if (olderThan != null) {
+      selection += " AND " + keyCondition(olderThan, false, false);
+    }
+
+    return count(selection);
+  }
+
+  int getMessageCount(long threadId) {
+    return count(THREAD_ID + " = " + threadId);
+  }
+
+  int getUnreadCount(long threadId) {
+    return count(THREAD_ID + " = " + threadId + " AND " + READ + " = 0 AND " + NOTIFIED + " = 0");
+  }
+
+  /**
+   * @return One row per thread with unread messages, see {@link MmsSmsDatabase#getUnreadThreadSummary()}.
+   */
+  @NonNull Cursor getUnreadThreadSummary() {
+    return databaseHelper.getReadableDatabase().rawQuery(UNREAD_SUMMARY_QUERY, null);
+  }
+
+  static @NonNull Key readKey(@NonNull Cursor cursor) {
+    return new Key(CursorUtil.requireLong(cursor, DATE_RECEIVED),
+                   CursorUtil.requireInt(cursor, TRANSPORT_RANK) == Key.transportRank(true),
+                   CursorUtil.requireLong(cursor, MESSAGE_ID));
+  }
+
+  private int count(@NonNull String selection) {
+    try (Cursor cursor = databaseHelper.getReadableDatabase().rawQuery("SELECT COUNT(*) FROM " + TABLE_NAME + " WHERE " + selection, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getInt(0);
+      }
+    }
+
+    return 0;
+  }
+
+  @VisibleForTesting
+  static @NonNull String buildKeysQuery(long threadId, @Nullable Key from, @Nullable String limit) {
+    return "SELECT " + DATE_RECEIVED + ", " + TRANSPORT_RANK + ", " + MESSAGE_ID +
+           " FROM " + TABLE_NAME +
+           " WHERE " + THREAD_ID + " = " + threadId + (from != null ? " AND " + keyCondition(from, false, true) : "") +
+           " ORDER BY " + KEY_ORDER +
+           (limit != null ? " LIMIT " + limit : "");
+  }
+
+  /**
+   * Compares rows to the key in conversation order. Written as a range on the received date plus a
+   * filter for the rows received at the same time, so that it's always answered by a single range of
+   * the thread's index.
+   *
+   * @param newer     True to match the messages newer than the key, false for the older ones.
+   * @param inclusive True to match the key itself as well.
+   */
+  @VisibleForTesting
+  static @NonNull String keyCondition(@NonNull Key key, boolean newer, boolean inclusive) {
+    String range    = newer ? " >= " : " <= ";
+    String opposite = newer ? " < " : " > ";
+    String boundary = inclusive ? opposite : (newer ? " <= " : " >= ");
+    long   date     = key.getDateReceived();
+    int    rank     = Key.transportRank(key.isMms());
+
+    return DATE_RECEIVED + range + date + " AND NOT (" + DATE_RECEIVED + " = " + date + " AND (" +
+               TRANSPORT_RANK + opposite + rank + " OR (" + TRANSPORT_RANK + " = " + rank + " AND " + MESSAGE_ID + boundary + key.getId() + ")))";
+  }
+
+  private static @NonNull String buildInsertTrigger(boolean mms) {
+    return "CREATE TRIGGER " + triggerName(mms, "ai") + " AFTER INSERT ON " + tableName(mms) + " BEGIN\n" +
+           "  INSERT INTO " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ", " + TRANSPORT_RANK + ", " + MESSAGE_ID + ", " + READ + ", " + NOTIFIED + ", " + REACTIONS_UNREAD + ") " +
+               "VALUES (new." + MmsSmsColumns.THREAD_ID + ", new." + dateColumn(mms) + ", " + Key.transportRank(mms) + ", new." + MmsSmsColumns.ID + ", new." + MmsSmsColumns.READ + ", new." + MmsSmsColumns.NOTIFIED + ", new." + MmsSmsColumns.REACTIONS_UNREAD + ");\n" +
+           "END;";
+  }
+
+  private static @NonNull String buildDeleteTrigger(boolean mms) {
+    return "CREATE TRIGGER " + triggerName(mms, "ad") + " AFTER DELETE ON " + tableName(mms) + " BEGIN\n" +
+           "  DELETE FROM " + TABLE_NAME + " WHERE " + TRANSPORT_RANK + " = " + Key.transportRank(mms) + " AND " + MESSAGE_ID + " = old." + MmsSmsColumns.ID + ";\n" +
+           "END;";
+  }
+
+  private static @NonNull String buildUpdateTrigger(boolean mms) {
+    return "CREATE TRIGGER " + triggerName(mms, "au") + " AFTER UPDATE OF " + MmsSmsColumns.THREAD_ID + ", " + dateColumn(mms) + ", " + MmsSmsColumns.READ + ", " + MmsSmsColumns.NOTIFIED + ", " + MmsSmsColumns.REACTIONS_UNREAD + " ON " + tableName(mms) + " BEGIN\n" +
+           "  UPDATE " + TABLE_NAME + " SET " + THREAD_ID + " = new." + MmsSmsColumns.THREAD_ID + ", " +
+                                               DATE_RECEIVED + " = new." + dateColumn(mms) + ", " +
+                                               READ + " = new." + MmsSmsColumns.READ + ", " +
+                                               NOTIFIED + " = new." + MmsSmsColumns.NOTIFIED + ", " +
+                                               REACTIONS_UNREAD + " = new." + MmsSmsColumns.REACTIONS_UNREAD + " " +
+               "WHERE " + TRANSPORT_RANK + " = " + Key.transportRank(mms) + " AND " + MESSAGE_ID + " = old." + MmsSmsColumns.ID + ";\n" +
+           "END;";
+  }
+
+  private static @NonNull String tableName(boolean mms) {
+    return mms ? MmsDatabase.TABLE_NAME : SmsDatabase.TABLE_NAME;
+  }
+
+  private static @NonNull String dateColumn(boolean mms) {
+    return mms ? MmsDatabase.DATE_RECEIVED : SmsDatabase.DATE_RECEIVED;
+  }
+
+  private static @NonNull String triggerName(boolean mms, @NonNull String suffix) {
+    return TABLE_NAME + "_" + tableName(mms) + "_" + suffix;
+  }
+}
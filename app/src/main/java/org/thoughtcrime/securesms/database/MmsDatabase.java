@@ -47,6 +47,7 @@ import org.thoughtcrime.securesms.database.documents.NetworkFailureList;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.Mention;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.NotificationMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.Quote;
@@ -619,50 +620,18 @@ public class MmsDatabase extends MessageDatabase {
   }
 
   @Override
-  public boolean incrementReceiptCount(SyncMessageId messageId, long timestamp, @NonNull ReceiptType receiptType) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    boolean        found    = false;
+  public @NonNull Set<SyncMessageId> incrementReceiptCounts(@NonNull Collection<SyncMessageId> messageIds, long timestamp, @NonNull ReceiptType receiptType, @NonNull ReceiptThreads threads) {
+    Set<SyncMessageId> handled = applyReceipts(messageIds, timestamp, receiptType, true, threads);
 
-    try (Cursor cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, MESSAGE_BOX, RECIPIENT_ID, receiptType.getColumnName()},
-                                        DATE_SENT + " = ?", new String[] {String.valueOf(messageId.getTimetamp())},
-                                        null, null, null, null)) {
-      while (cursor.moveToNext()) {
-        if (Types.isOutgoingMessageType(cursor.getLong(cursor.getColumnIndexOrThrow(MESSAGE_BOX)))) {
-          RecipientId theirRecipientId = RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(RECIPIENT_ID)));
-          RecipientId ourRecipientId   = messageId.getRecipientId();
-          String      columnName       = receiptType.getColumnName();
-
-          if (ourRecipientId.equals(theirRecipientId) || Recipient.resolved(theirRecipientId).isGroup()) {
-            long    id               = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
-            long    threadId         = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID));
-            int     status           = receiptType.getGroupStatus();
-            boolean isFirstIncrement = cursor.getLong(cursor.getColumnIndexOrThrow(columnName)) == 0;
-
-            found = true;
-
-            database.execSQL("UPDATE " + TABLE_NAME + " SET " +
-                             columnName + " = " + columnName + " + 1 WHERE " + ID + " = ?",
-                             new String[] {String.valueOf(id)});
-
-            DatabaseFactory.getGroupReceiptDatabase(context).update(ourRecipientId, id, status, timestamp);
-            DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-
-            if (isFirstIncrement) {
-              notifyConversationListeners(threadId);
-            } else {
-              notifyVerboseConversationListeners(threadId);
-            }
-          }
+    if (receiptType == ReceiptType.DELIVERY) {
+      for (SyncMessageId messageId : messageIds) {
+        if (handled.add(messageId)) {
+          earlyDeliveryReceiptCache.increment(messageId.getTimetamp(), messageId.getRecipientId());
         }
       }
-
-      if (!found && receiptType == ReceiptType.DELIVERY) {
-        earlyDeliveryReceiptCache.increment(messageId.getTimetamp(), messageId.getRecipientId());
-        return true;
-      }
-
-      return found;
     }
+
+    return handled;
   }
 
   @Override
@@ -770,35 +739,35 @@ public class MmsDatabase extends MessageDatabase {
   public void markAsForcedSms(long messageId) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.PUSH_MESSAGE_BIT, Types.MESSAGE_FORCE_SMS_BIT, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyMessageUpdated(threadId, new MessageId(messageId, true));
   }
 
   @Override
   public void markAsPendingInsecureSmsFallback(long messageId) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.BASE_TYPE_MASK, Types.BASE_PENDING_INSECURE_SMS_FALLBACK, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyMessageUpdated(threadId, new MessageId(messageId, true));
   }
 
   @Override
   public void markAsSending(long messageId) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.BASE_TYPE_MASK, Types.BASE_SENDING_TYPE, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyMessageUpdated(threadId, new MessageId(messageId, true));
   }
 
   @Override
   public void markAsSentFailed(long messageId) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.BASE_TYPE_MASK, Types.BASE_SENT_FAILED_TYPE, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyMessageUpdated(threadId, new MessageId(messageId, true));
   }
 
   @Override
   public void markAsSent(long messageId, boolean secure) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.BASE_TYPE_MASK, Types.BASE_SENT_TYPE | (secure ? Types.PUSH_MESSAGE_BIT | Types.SECURE_MESSAGE_BIT : 0), Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyMessageUpdated(threadId, new MessageId(messageId, true));
   }
 
   @Override
@@ -822,7 +791,7 @@ public class MmsDatabase extends MessageDatabase {
 
     long threadId = getThreadIdForMessage(messageId);
     DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyMessageUpdated(threadId, new MessageId(messageId, true));
   }
 
   @Override
@@ -832,7 +801,7 @@ public class MmsDatabase extends MessageDatabase {
     contentValues.put(STATUS, state);
 
     database.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {messageId + ""});
-    notifyConversationListeners(getThreadIdForMessage(messageId));
+    notifyMessageUpdated(getThreadIdForMessage(messageId), new MessageId(messageId, true));
   }
 
   @Override
@@ -1310,7 +1279,7 @@ public class MmsDatabase extends MessageDatabase {
       DatabaseFactory.getThreadDatabase(context).update(threadId, true);
     }
 
-    notifyConversationListeners(threadId);
+    notifyMessageInserted(threadId, new MessageId(messageId, true));
 
     return Optional.of(new InsertResult(messageId, threadId));
   }
@@ -1535,9 +1504,11 @@ public class MmsDatabase extends MessageDatabase {
     contentValues.put(PART_COUNT, allAttachments.size());
     contentValues.put(MENTIONS_SELF, mentionsSelf ? 1 : 0);
 
+    long messageId = -1;
+
     db.beginTransaction();
     try {
-      long messageId = db.insert(TABLE_NAME, null, contentValues);
+      messageId = db.insertCached(TABLE_NAME, contentValues);
 
       mentionDatabase.insert(threadId, messageId, mentions);
 
@@ -1578,8 +1549,10 @@ public class MmsDatabase extends MessageDatabase {
         insertListener.onComplete();
       }
 
-      notifyConversationListeners(contentValues.getAsLong(THREAD_ID));
-      DatabaseFactory.getThreadDatabase(context).update(contentValues.getAsLong(THREAD_ID), true);
+      if (messageId > 0) notifyMessageInserted(threadId, new MessageId(messageId, true));
+      else               notifyConversationListeners(threadId);
+
+      DatabaseFactory.getThreadDatabase(context).update(threadId, true);
     }
   }
 
@@ -1600,7 +1573,7 @@ public class MmsDatabase extends MessageDatabase {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
     boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyMessageDeleted(threadId, new MessageId(messageId, true));
     notifyStickerListeners();
     notifyStickerPackListeners();
     return threadDeleted;
@@ -2012,7 +1985,7 @@ public class MmsDatabase extends MessageDatabase {
       List<LinkPreview>         previews           = getLinkPreviews(cursor, attachments);
       Set<Attachment>           previewAttachments = Stream.of(previews).filter(lp -> lp.getThumbnail().isPresent()).map(lp -> lp.getThumbnail().get()).collect(Collectors.toSet());
       SlideDeck                 slideDeck          = getSlideDeck(Stream.of(attachments).filterNot(contactAttachments::contains).filterNot(previewAttachments::contains).toList());
-      Quote                     quote              = getQuote(cursor);
+      Quote                     quote              = getQuote(cursor, attachments);
 
       return new MediaMmsMessageRecord(id, recipient, recipient,
                                        addressDeviceId, dateSent, dateReceived, dateServer, deliveryReceiptCount,
@@ -2031,7 +2004,7 @@ public class MmsDatabase extends MessageDatabase {
         }
       }
 
-      return new LinkedList<>();
+      return Collections.emptyList();
     }
 
     private List<NetworkFailure> getFailures(String document) {
@@ -2043,7 +2016,7 @@ public class MmsDatabase extends MessageDatabase {
         }
       }
 
-      return new LinkedList<>();
+      return Collections.emptyList();
     }
 
     private SlideDeck getSlideDeck(@NonNull List<DatabaseAttachment> attachments) {
@@ -2054,28 +2027,31 @@ public class MmsDatabase extends MessageDatabase {
       return new SlideDeck(context, messageAttachments);
     }
 
-    private @Nullable Quote getQuote(@NonNull Cursor cursor) {
-      long                       quoteId          = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_ID));
-      long                       quoteAuthor      = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_AUTHOR));
+    /**
+     * @param attachments All of the message's attachments, the quote's are picked out of these.
+     */
+    private @Nullable Quote getQuote(@NonNull Cursor cursor, @NonNull List<DatabaseAttachment> attachments) {
+      long quoteId     = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_ID));
+      long quoteAuthor = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_AUTHOR));
+
+      if (quoteId <= 0 || quoteAuthor <= 0) {
+        return null;
+      }
+
       CharSequence               quoteText        = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_BODY));
       boolean                    quoteMissing     = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_MISSING)) == 1;
       List<Mention>              quoteMentions    = parseQuoteMentions(context, cursor);
-      List<DatabaseAttachment>   attachments      = DatabaseFactory.getAttachmentDatabase(context).getAttachment(cursor);
       List<? extends Attachment> quoteAttachments = Stream.of(attachments).filter(Attachment::isQuote).toList();
       SlideDeck                  quoteDeck        = new SlideDeck(context, quoteAttachments);
 
-      if (quoteId > 0 && quoteAuthor > 0) {
-        if (quoteText != null && !quoteMentions.isEmpty()) {
-          MentionUtil.UpdatedBodyAndMentions updated = MentionUtil.updateBodyAndMentionsWithDisplayNames(context, quoteText, quoteMentions);
-
-          quoteText     = updated.getBody();
-          quoteMentions = updated.getMentions();
-        }
+      if (quoteText != null && !quoteMentions.isEmpty()) {
+        MentionUtil.UpdatedBodyAndMentions updated = MentionUtil.updateBodyAndMentionsWithDisplayNames(context, quoteText, quoteMentions);
 
-        return new Quote(quoteId, RecipientId.from(quoteAuthor), quoteText, quoteMissing, quoteDeck, quoteMentions);
-      } else {
-        return null;
+        quoteText     = updated.getBody();
+        quoteMentions = updated.getMentions();
       }
+
+      return new Quote(quoteId, RecipientId.from(quoteAuthor), quoteText, quoteMissing, quoteDeck, quoteMentions);
     }
 
     @Override
@@ -18,29 +18,38 @@ package org.thoughtcrime.securesms.database;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.annimon.stream.Stream;
 
 import net.sqlcipher.database.SQLiteQueryBuilder;
 
 import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.ConversationPositionIndex.Checkpoint;
+import org.thoughtcrime.securesms.database.ConversationPositionIndex.Key;
 import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.whispersystems.libsignal.util.Pair;
 
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class MmsSmsDatabase extends Database {
@@ -52,6 +61,15 @@ public class MmsSmsDatabase extends Database {
   public static final String MMS_TRANSPORT = "mms";
   public static final String SMS_TRANSPORT = "sms";
 
+  public static final String UNREAD_SUMMARY_COUNT         = "unread_count";
+  public static final String UNREAD_SUMMARY_LAST_RECEIVED = "unread_last_received";
+
+  private static final String UNREAD_SELECTION = MmsSmsColumns.NOTIFIED + " = 0 AND (" + MmsSmsColumns.READ + " = 0 OR " + MmsSmsColumns.REACTIONS_UNREAD + " = 1)";
+
+  private static final String CONVERSATION_ORDER = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC, " + TRANSPORT + " DESC, " + MmsSmsColumns.ID + " DESC";
+
+  private static final int MAX_POSITION_INDEXES = 4;
+
   private static final String[] PROJECTION = {MmsSmsColumns.ID,
                                               MmsSmsColumns.UNIQUE_ROW_ID,
                                               SmsDatabase.BODY,
@@ -102,6 +120,8 @@ public class MmsSmsDatabase extends Database {
                                               MmsSmsColumns.NOTIFIED_TIMESTAMP,
                                               MmsSmsColumns.VIEWED_RECEIPT_COUNT};
 
+  private final Map<Long, ConversationPositionIndex> positionIndexes = new LRUCache<>(MAX_POSITION_INDEXES);
+
   public MmsSmsDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -136,15 +156,7 @@ public class MmsSmsDatabase extends Database {
   }
 
   public int getMessagePositionOnOrAfterTimestamp(long threadId, long timestamp) {
-    String[] projection = new String[] { "COUNT(*)" };
-    String   selection  = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " >= " + timestamp;
-
-    try (Cursor cursor = queryTables(projection, selection, null, null)) {
-      if (cursor != null && cursor.moveToNext()) {
-        return cursor.getInt(0);
-      }
-    }
-    return 0;
+    return countNewerThan(threadId, Key.newestAt(timestamp - 1));
   }
 
   public @Nullable MessageRecord getMessageFor(long timestamp, RecipientId author) {
@@ -179,12 +191,27 @@ public class MmsSmsDatabase extends Database {
   }
 
 
+  /**
+   * Messages are ordered newest first, with ties broken by transport and ID so that every message
+   * has exactly one position.
+   *
+   * A page is found by seeking from the nearest checkpoint of the thread's
+   * {@link ConversationPositionIndex}, reading only the keys that the (thread, date) indexes cover.
+   * Only the messages on the page itself are then read in full, so a page deep in a long thread
+   * costs about the same as the first one.
+   */
   public Cursor getConversation(long threadId, long offset, long limit) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
-    String limitStr  = limit > 0 || offset > 0 ? offset + ", " + limit : null;
+    Cursor cursor;
+
+    if (limit > 0) {
+      cursor = queryConversationPage(threadId, offset, limit);
+    } else {
+      String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
+      String limitStr  = offset > 0 ? offset + ", " + limit : null;
+
+      cursor = queryTables(PROJECTION, selection, CONVERSATION_ORDER, limitStr);
+    }
 
-    Cursor cursor = queryTables(PROJECTION, selection, order, limitStr);
     setNotifyConversationListeners(cursor, threadId);
 
     return cursor;
@@ -213,20 +240,30 @@ public class MmsSmsDatabase extends Database {
 
   public Cursor getUnread() {
     String order           = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " ASC";
-    String selection       = MmsSmsColumns.NOTIFIED + " = 0 AND (" + MmsSmsColumns.READ + " = 0 OR " + MmsSmsColumns.REACTIONS_UNREAD + " = 1)";
+
+    return queryTables(PROJECTION, UNREAD_SELECTION, order, null);
+  }
+
+  /**
+   * Same as {@link #getUnread()}, but limited to a single thread.
+   */
+  public Cursor getUnread(long threadId) {
+    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " ASC";
+    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + UNREAD_SELECTION;
 
     return queryTables(PROJECTION, selection, order, null);
   }
 
-  public int getUnreadCount(long threadId) {
-    String selection = MmsSmsColumns.READ + " = 0 AND " + MmsSmsColumns.NOTIFIED + " = 0 AND " + MmsSmsColumns.THREAD_ID + " = " + threadId;
-    Cursor cursor    = queryTables(PROJECTION, selection, null, null);
+  /**
+   * Summarizes what {@link #getUnread()} would return without reading any of the messages: one row
+   * per thread, with {@link #UNREAD_SUMMARY_COUNT} and {@link #UNREAD_SUMMARY_LAST_RECEIVED}.
+   */
+  public @NonNull Cursor getUnreadThreadSummary() {
+    return DatabaseFactory.getMessageIndexDatabase(context).getUnreadThreadSummary();
+  }
 
-    try {
-      return cursor != null ? cursor.getCount() : 0;
-    } finally {
-      if (cursor != null) cursor.close();;
-    }
+  public int getUnreadCount(long threadId) {
+    return DatabaseFactory.getMessageIndexDatabase(context).getUnreadCount(threadId);
   }
 
   public boolean checkMessageExists(@NonNull MessageRecord messageRecord) {
@@ -261,10 +298,7 @@ public class MmsSmsDatabase extends Database {
   }
 
   public int getConversationCount(long threadId) {
-    int count = DatabaseFactory.getSmsDatabase(context).getMessageCountForThread(threadId);
-    count    += DatabaseFactory.getMmsDatabase(context).getMessageCountForThread(threadId);
-
-    return count;
+    return DatabaseFactory.getMessageIndexDatabase(context).getMessageCount(threadId);
   }
 
   public int getConversationCount(long threadId, long beforeTime) {
@@ -320,90 +354,54 @@ public class MmsSmsDatabase extends Database {
   }
 
   public void incrementDeliveryReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-
-    db.beginTransaction();
-    try {
-      for (SyncMessageId id : syncMessageIds) {
-        incrementDeliveryReceiptCount(id, timestamp);
-      }
-      db.setTransactionSuccessful();
-    } finally {
-      db.endTransaction();
-    }
+    incrementReceiptCounts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.DELIVERY);
   }
 
   public void incrementDeliveryReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-
-    db.beginTransaction();
-    try {
-      DatabaseFactory.getSmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, MessageDatabase.ReceiptType.DELIVERY);
-      DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, MessageDatabase.ReceiptType.DELIVERY);
-      db.setTransactionSuccessful();
-    } finally {
-      db.endTransaction();
-    }
+    incrementDeliveryReceiptCounts(Collections.singletonList(syncMessageId), timestamp);
   }
 
   /**
    * @return A list of ID's that were not updated.
    */
   public @NonNull Collection<SyncMessageId> incrementReadReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp) {
-    SQLiteDatabase      db        = databaseHelper.getWritableDatabase();
-    List<SyncMessageId> unhandled = new LinkedList<>();
-
-    db.beginTransaction();
-    try {
-      for (SyncMessageId id : syncMessageIds) {
-        boolean handled = incrementReadReceiptCount(id, timestamp);
-
-        if (!handled) {
-          unhandled.add(id);
-        }
-      }
-
-      db.setTransactionSuccessful();
-    } finally {
-      db.endTransaction();
-    }
-
-    return unhandled;
+    return incrementReceiptCounts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.READ);
   }
 
   public boolean incrementReadReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-
-    db.beginTransaction();
-    try {
-      boolean handled = false;
-
-      handled |= DatabaseFactory.getSmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, MessageDatabase.ReceiptType.READ);
-      handled |= DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, MessageDatabase.ReceiptType.READ);
-
-      db.setTransactionSuccessful();
-
-      return handled;
-    } finally {
-      db.endTransaction();
-    }
+    return incrementReadReceiptCounts(Collections.singletonList(syncMessageId), timestamp).isEmpty();
   }
 
   /**
    * @return A list of ID's that were not updated.
    */
   public @NonNull Collection<SyncMessageId> incrementViewedReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp) {
-    SQLiteDatabase      db        = databaseHelper.getWritableDatabase();
-    List<SyncMessageId> unhandled = new LinkedList<>();
+    return incrementReceiptCounts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.VIEWED);
+  }
+
+  public boolean incrementViewedReceiptCount(SyncMessageId syncMessageId, long timestamp) {
+    return incrementViewedReceiptCounts(Collections.singletonList(syncMessageId), timestamp).isEmpty();
+  }
+
+  /**
+   * Applies a batch of receipts to both message tables in one transaction. Every thread that was
+   * touched is updated and notified once, no matter how many receipts landed in it.
+   *
+   * @return The receipts that did not match a message.
+   */
+  private @NonNull Collection<SyncMessageId> incrementReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp, @NonNull MessageDatabase.ReceiptType receiptType) {
+    SQLiteDatabase                 db       = databaseHelper.getWritableDatabase();
+    ThreadDatabase                 threadDb = DatabaseFactory.getThreadDatabase(context);
+    MessageDatabase.ReceiptThreads threads  = new MessageDatabase.ReceiptThreads();
+    Set<SyncMessageId>             handled  = new HashSet<>();
 
     db.beginTransaction();
     try {
-      for (SyncMessageId id : syncMessageIds) {
-        boolean handled = incrementViewedReceiptCount(id, timestamp);
+      handled.addAll(DatabaseFactory.getSmsDatabase(context).incrementReceiptCounts(syncMessageIds, timestamp, receiptType, threads));
+      handled.addAll(DatabaseFactory.getMmsDatabase(context).incrementReceiptCounts(syncMessageIds, timestamp, receiptType, threads));
 
-        if (!handled) {
-          unhandled.add(id);
-        }
+      for (long threadId : threads.getThreadIds()) {
+        threadDb.update(threadId, false);
       }
 
       db.setTransactionSuccessful();
@@ -411,58 +409,38 @@ public class MmsSmsDatabase extends Database {
       db.endTransaction();
     }
 
-    return unhandled;
-  }
-
-  public boolean incrementViewedReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    return DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, MessageDatabase.ReceiptType.VIEWED);
-  }
-
-  public int getQuotedMessagePosition(long threadId, long quoteId, @NonNull RecipientId recipientId) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
+    for (long threadId : threads.getThreadIds()) {
+      boolean firstIncrement = threads.hasFirstIncrement(threadId);
 
-    try (Cursor cursor = queryTables(new String[]{ MmsSmsColumns.NORMALIZED_DATE_SENT, MmsSmsColumns.RECIPIENT_ID, MmsSmsColumns.REMOTE_DELETED}, selection, order, null)) {
-      boolean isOwnNumber = Recipient.resolved(recipientId).isSelf();
+      for (MessageId messageId : threads.getMessageIds(threadId)) {
+        if (firstIncrement) notifyMessageUpdated(threadId, messageId);
+        else                notifyVerboseMessageUpdated(threadId, messageId);
+      }
+    }
 
-      while (cursor != null && cursor.moveToNext()) {
-        boolean quoteIdMatches     = cursor.getLong(0) == quoteId;
-        boolean recipientIdMatches = recipientId.equals(RecipientId.from(cursor.getLong(1)));
+    List<SyncMessageId> unhandled = new LinkedList<>();
 
-        if (quoteIdMatches && (recipientIdMatches || isOwnNumber)) {
-          if (CursorUtil.requireBoolean(cursor, MmsSmsColumns.REMOTE_DELETED)) {
-            return -1;
-          } else {
-            return cursor.getPosition();
-          }
-        }
+    for (SyncMessageId id : syncMessageIds) {
+      if (!handled.contains(id)) {
+        unhandled.add(id);
       }
     }
-    return -1;
-  }
 
-  public int getMessagePositionInConversation(long threadId, long receivedTimestamp, @NonNull RecipientId recipientId) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
+    return unhandled;
+  }
 
-    try (Cursor cursor = queryTables(new String[]{ MmsSmsColumns.NORMALIZED_DATE_RECEIVED, MmsSmsColumns.RECIPIENT_ID, MmsSmsColumns.REMOTE_DELETED}, selection, order, null)) {
-      boolean isOwnNumber = Recipient.resolved(recipientId).isSelf();
+  public int getQuotedMessagePosition(long threadId, long quoteId, @NonNull RecipientId recipientId) {
+    String smsCondition = SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_SENT + " = " + quoteId;
+    String mmsCondition = MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_SENT + " = " + quoteId;
 
-      while (cursor != null && cursor.moveToNext()) {
-        boolean timestampMatches   = cursor.getLong(0) == receivedTimestamp;
-        boolean recipientIdMatches = recipientId.equals(RecipientId.from(cursor.getLong(1)));
+    return getPositionOfMessage(threadId, smsCondition, mmsCondition, recipientId);
+  }
 
+  public int getMessagePositionInConversation(long threadId, long receivedTimestamp, @NonNull RecipientId recipientId) {
+    String smsCondition = SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_RECEIVED + " = " + receivedTimestamp;
+    String mmsCondition = MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " = " + receivedTimestamp;
 
-        if (timestampMatches && (recipientIdMatches || isOwnNumber)) {
-          if (CursorUtil.requireBoolean(cursor, MmsSmsColumns.REMOTE_DELETED)) {
-            return -1;
-          } else {
-            return cursor.getPosition();
-          }
-        }
-      }
-    }
-    return -1;
+    return getPositionOfMessage(threadId, smsCondition, mmsCondition, recipientId);
   }
 
   boolean hasReceivedAnyCallsSince(long threadId, long timestamp) {
@@ -478,16 +456,7 @@ public class MmsSmsDatabase extends Database {
    * you'll still wind up in about the right spot.
    */
   public int getMessagePositionInConversation(long threadId, long receivedTimestamp) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " +
-                       MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " > " + receivedTimestamp;
-
-    try (Cursor cursor = queryTables(new String[]{ "COUNT(*)" }, selection, order, null)) {
-      if (cursor != null && cursor.moveToFirst()) {
-        return cursor.getInt(0);
-      }
-    }
-    return -1;
+    return countNewerThan(threadId, Key.newestAt(receivedTimestamp));
   }
 
   public long getTimestampForFirstMessageAfterDate(long date) {
@@ -520,7 +489,175 @@ public class MmsSmsDatabase extends Database {
     DatabaseFactory.getMmsDatabase(context).deleteAbandonedMessages();
   }
 
+  /**
+   * @return The position of the newest message in the thread that matches the conditions and was sent
+   *         by the recipient (or by anyone, if the recipient is us), or -1 if there is none or it was
+   *         remotely deleted.
+   */
+  private int getPositionOfMessage(long threadId, @NonNull String smsCondition, @NonNull String mmsCondition, @NonNull RecipientId recipientId) {
+    String query = matchSubQuery(false, threadId, smsCondition) +
+                   " UNION ALL " +
+                   matchSubQuery(true, threadId, mmsCondition) +
+                   " ORDER BY " + MessageIndexDatabase.KEY_ORDER;
+
+    Key match = null;
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().rawQuery(query, null)) {
+      boolean isOwnNumber = Recipient.resolved(recipientId).isSelf();
+
+      while (cursor != null && cursor.moveToNext()) {
+        boolean recipientIdMatches = recipientId.equals(RecipientId.from(CursorUtil.requireLong(cursor, MmsSmsColumns.RECIPIENT_ID)));
+
+        if (recipientIdMatches || isOwnNumber) {
+          if (CursorUtil.requireBoolean(cursor, MmsSmsColumns.REMOTE_DELETED)) {
+            return -1;
+          }
+
+          match = MessageIndexDatabase.readKey(cursor);
+          break;
+        }
+      }
+    }
+
+    return match != null ? countNewerThan(threadId, match) : -1;
+  }
+
+  private @NonNull Cursor queryConversationPage(long threadId, long offset, long limit) {
+    MessageIndexDatabase messageIndex = DatabaseFactory.getMessageIndexDatabase(context);
+    Checkpoint           checkpoint   = getPositionIndex(threadId).getCheckpointAtOrBefore(offset);
+    Key                  from         = checkpoint != null ? checkpoint.getKey() : null;
+    long                 skip         = checkpoint != null ? offset - checkpoint.getPosition() : offset;
+    Key                  first        = null;
+    Key                  last         = null;
+
+    try (Cursor cursor = messageIndex.getKeys(threadId, from, skip + ", " + limit)) {
+      if (cursor.moveToFirst()) {
+        first = MessageIndexDatabase.readKey(cursor);
+
+        cursor.moveToLast();
+        last = MessageIndexDatabase.readKey(cursor);
+      }
+    }
+
+    if (first == null) {
+      return new MatrixCursor(PROJECTION, 0);
+    }
+
+    String thread       = MmsSmsColumns.THREAD_ID + " = " + threadId;
+    String smsSelection = thread + " AND " + keyCondition(false, first, false, true) + " AND " + keyCondition(false, last, true, true);
+    String mmsSelection = thread + " AND " + keyCondition(true, first, false, true) + " AND " + keyCondition(true, last, true, true);
+
+    return queryTables(PROJECTION, smsSelection, mmsSelection, CONVERSATION_ORDER, null);
+  }
+
+  /**
+   * @return The number of messages in the thread that are newer than the key, which is also the
+   *         position the key has in {@link #getConversation(long)}. Only the messages between the key
+   *         and the checkpoint above it are counted.
+   */
+  private int countNewerThan(long threadId, @NonNull Key key) {
+    MessageIndexDatabase messageIndex = DatabaseFactory.getMessageIndexDatabase(context);
+    Checkpoint           checkpoint   = getPositionIndex(threadId).getCheckpointNewerThan(key);
+
+    if (checkpoint == null) {
+      return messageIndex.getNewerCount(threadId, key, null);
+    }
+
+    return checkpoint.getPosition() + 1 + messageIndex.getNewerCount(threadId, key, checkpoint.getKey());
+  }
+
+  private @NonNull ConversationPositionIndex getPositionIndex(long threadId) {
+    MessageIndexDatabase      messageIndex = DatabaseFactory.getMessageIndexDatabase(context);
+    ConversationPositionIndex index;
+
+    synchronized (positionIndexes) {
+      index = positionIndexes.get(threadId);
+    }
+
+    if (index != null) {
+      Key newest     = index.getNewest();
+      int size       = messageIndex.getMessageCount(threadId);
+      int newerCount = newest != null ? messageIndex.getNewerCount(threadId, newest, null) : size;
+
+      if (index.isCurrent(size, newerCount)) {
+        return index.shiftedBy(newerCount);
+      }
+    }
+
+    index = buildPositionIndex(threadId);
+
+    synchronized (positionIndexes) {
+      positionIndexes.put(threadId, index);
+    }
+
+    return index;
+  }
+
+  private @NonNull ConversationPositionIndex buildPositionIndex(long threadId) {
+    long      startTime   = System.currentTimeMillis();
+    List<Key> checkpoints = new ArrayList<>();
+    int       size        = 0;
+
+    try (Cursor cursor = DatabaseFactory.getMessageIndexDatabase(context).getKeys(threadId, null, null)) {
+      while (cursor.moveToNext()) {
+        if (size % ConversationPositionIndex.INTERVAL == 0) {
+          checkpoints.add(MessageIndexDatabase.readKey(cursor));
+        }
+        size++;
+      }
+    }
+
+    Log.d(TAG, "Indexed " + size + " messages in thread " + threadId + " in " + (System.currentTimeMillis() - startTime) + " ms");
+
+    return new ConversationPositionIndex(checkpoints, size);
+  }
+
+  /**
+   * The key, sender and remote deletion state of one table's messages in the thread, named so that
+   * {@link MessageIndexDatabase#readKey(Cursor)} can read them.
+   */
+  private static @NonNull String matchSubQuery(boolean mms, long threadId, @NonNull String condition) {
+    String table = mms ? MmsDatabase.TABLE_NAME : SmsDatabase.TABLE_NAME;
+    String date  = mms ? MmsDatabase.DATE_RECEIVED : SmsDatabase.DATE_RECEIVED;
+
+    return "SELECT " + date + " AS " + MessageIndexDatabase.DATE_RECEIVED + ", " +
+                       Key.transportRank(mms) + " AS " + MessageIndexDatabase.TRANSPORT_RANK + ", " +
+                       MmsSmsColumns.ID + " AS " + MessageIndexDatabase.MESSAGE_ID + ", " +
+                       MmsSmsColumns.RECIPIENT_ID + ", " +
+                       MmsSmsColumns.REMOTE_DELETED +
+           " FROM " + table +
+           " WHERE " + MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + condition;
+  }
+
+  /**
+   * @param newer     True to match the messages newer than the key, false for the older ones.
+   * @param inclusive True to match the key itself as well.
+   *
+   * @return A condition on one table's messages comparing them to the key, in {@link #CONVERSATION_ORDER}.
+   */
+  private static @NonNull String keyCondition(boolean mms, @NonNull Key key, boolean newer, boolean inclusive) {
+    String table    = mms ? MmsDatabase.TABLE_NAME : SmsDatabase.TABLE_NAME;
+    String date     = table + "." + (mms ? MmsDatabase.DATE_RECEIVED : SmsDatabase.DATE_RECEIVED);
+    String id       = table + "." + MmsSmsColumns.ID;
+    String strict   = newer ? " > " : " < ";
+    String orEqual  = newer ? " >= " : " <= ";
+    int    rank     = Key.transportRank(mms);
+    int    keyRank  = Key.transportRank(key.isMms());
+
+    if (rank == keyRank) {
+      return "(" + date + strict + key.getDateReceived() + " OR (" + date + " = " + key.getDateReceived() + " AND " + id + (inclusive ? orEqual : strict) + key.getId() + "))";
+    }
+
+    boolean tiesMatch = newer ? rank > keyRank : rank < keyRank;
+
+    return date + (tiesMatch ? orEqual : strict) + key.getDateReceived();
+  }
+
   private Cursor queryTables(String[] projection, String selection, String order, String limit) {
+    return queryTables(projection, selection, selection, order, limit);
+  }
+
+  private Cursor queryTables(String[] projection, String smsSelection, String mmsSelection, String order, String limit) {
     String[] mmsProjection = {MmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT,
                               MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED,
                               MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " AS " + MmsSmsColumns.ID,
@@ -705,9 +842,9 @@ public class MmsSmsDatabase extends Database {
     smsColumnsPresent.add(MmsSmsColumns.NOTIFIED_TIMESTAMP);
 
     @SuppressWarnings("deprecation")
-    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 4, MMS_TRANSPORT, selection, null, MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID, null);
+    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 4, MMS_TRANSPORT, mmsSelection, null, MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID, null);
     @SuppressWarnings("deprecation")
-    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 4, SMS_TRANSPORT, selection, null, null, null);
+    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 4, SMS_TRANSPORT, smsSelection, null, null, null);
 
     SQLiteQueryBuilder unionQueryBuilder = new SQLiteQueryBuilder();
     String unionQuery = unionQueryBuilder.buildUnionQuery(new String[] {smsSubQuery, mmsSubQuery}, order, limit);
@@ -752,6 +889,33 @@ public class MmsSmsDatabase extends Database {
       return mmsReader;
     }
 
+    /**
+     * Resolves the senders and quote authors of every message left in the cursor up front. Reading
+     * the records afterwards finds them resolved in the cache, instead of handing out unresolved
+     * recipients that are then each read from disk on their own.
+     */
+    @WorkerThread
+    public void resolveRecipients() {
+      if (cursor == null) return;
+
+      Set<RecipientId> ids               = new HashSet<>();
+      int              position          = cursor.getPosition();
+      int              recipientColumn   = cursor.getColumnIndexOrThrow(MmsSmsColumns.RECIPIENT_ID);
+      int              quoteAuthorColumn = cursor.getColumnIndex(MmsDatabase.QUOTE_AUTHOR);
+
+      while (cursor.moveToNext()) {
+        long recipientId = cursor.getLong(recipientColumn);
+        long quoteAuthor = quoteAuthorColumn >= 0 ? cursor.getLong(quoteAuthorColumn) : 0;
+
+        if (recipientId > 0) ids.add(RecipientId.from(recipientId));
+        if (quoteAuthor > 0) ids.add(RecipientId.from(quoteAuthor));
+      }
+
+      cursor.moveToPosition(position);
+
+      ApplicationDependencies.getRecipientCache().resolveAll(ids);
+    }
+
     public MessageRecord getNext() {
       if (cursor == null || !cursor.moveToNext())
         return null;
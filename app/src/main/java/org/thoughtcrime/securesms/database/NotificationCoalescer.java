@@ -0,0 +1,140 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.database.model.MessageId;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the notifications {@link DatabaseObserver} is asked to send until the next flush, so
+ * that each conversation and the conversation list are notified at most once per flush, no matter
+ * how many writes touched them.
+ */
+final class NotificationCoalescer {
+
+  private Map<Long, Pending> threads = new LinkedHashMap<>();
+  private boolean            conversationList;
+  private int                requested;
+  private long               suppressed;
+
+  /**
+   * @param messageId The message that changed, or null if the caller doesn't know which did.
+   * @return True if nothing was pending before, and a flush needs to be scheduled.
+   */
+  synchronized boolean addConversation(long threadId, boolean verboseOnly, @Nullable MessageChanges.Type type, @Nullable MessageId messageId) {
+    boolean first   = isEmpty();
+    Pending pending = threads.get(threadId);
+
+    if (pending == null) {
+      pending = new Pending();
+      threads.put(threadId, pending);
+    }
+
+    if (!verboseOnly) {
+      pending.conversation = true;
+    }
+
+    if (type != null && messageId != null) {
+      pending.changes.add(type, messageId);
+    } else {
+      pending.changes.markUnknown();
+    }
+
+    requested++;
+
+    return first;
+  }
+
+  /**
+   * @return True if nothing was pending before, and a flush needs to be scheduled.
+   */
+  synchronized boolean addConversationList() {
+    boolean first = isEmpty();
+
+    conversationList = true;
+    requested++;
+
+    return first;
+  }
+
+  synchronized @NonNull Batch drain() {
+    Map<Long, MessageChanges> conversations = new LinkedHashMap<>();
+    Map<Long, MessageChanges> verboseOnly   = new LinkedHashMap<>();
+
+    for (Map.Entry<Long, Pending> entry : threads.entrySet()) {
+      if (entry.getValue().conversation) conversations.put(entry.getKey(), entry.getValue().changes.build());
+      else                               verboseOnly.put(entry.getKey(), entry.getValue().changes.build());
+    }
+
+    Batch batch = new Batch(conversations, verboseOnly, conversationList, requested);
+
+    suppressed += batch.getSuppressed();
+
+    threads          = new LinkedHashMap<>();
+    conversationList = false;
+    requested        = 0;
+
+    return batch;
+  }
+
+  /**
+   * @return The number of notifications that were folded into another one since this was created.
+   */
+  synchronized long getSuppressedCount() {
+    return suppressed;
+  }
+
+  private boolean isEmpty() {
+    return requested == 0;
+  }
+
+  private static final class Pending {
+    private final MessageChanges.Builder changes = new MessageChanges.Builder();
+
+    private boolean conversation;
+  }
+
+  static final class Batch {
+    private final Map<Long, MessageChanges> conversations;
+    private final Map<Long, MessageChanges> verboseOnly;
+    private final boolean                   conversationList;
+    private final int                       requested;
+
+    private Batch(@NonNull Map<Long, MessageChanges> conversations, @NonNull Map<Long, MessageChanges> verboseOnly, boolean conversationList, int requested) {
+      this.conversations    = Collections.unmodifiableMap(conversations);
+      this.verboseOnly      = Collections.unmodifiableMap(verboseOnly);
+      this.conversationList = conversationList;
+      this.requested        = requested;
+    }
+
+    /**
+     * Threads whose conversation and verbose observers should both be notified.
+     */
+    @NonNull Map<Long, MessageChanges> getConversations() {
+      return conversations;
+    }
+
+    /**
+     * Threads that only changed in ways that verbose observers care about, like receipts.
+     */
+    @NonNull Map<Long, MessageChanges> getVerboseOnly() {
+      return verboseOnly;
+    }
+
+    boolean hasConversationList() {
+      return conversationList;
+    }
+
+    boolean isEmpty() {
+      return requested == 0;
+    }
+
+    int getSuppressed() {
+      return requested - conversations.size() - verboseOnly.size() - (conversationList ? 1 : 0);
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.util.LRUCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregates timings for every statement that goes through {@link SQLiteDatabase}. Statements are
+ * grouped by a fingerprint of their SQL with literals and IN lists collapsed, so the same query
+ * with different arguments lands in the same bucket and no message content is kept.
+ */
+public final class QueryMetrics {
+
+  private static final String TAG = Log.tag(QueryMetrics.class);
+
+  private static final long SLOW_QUERY_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static final int    MAX_FINGERPRINTS  = 500;
+  private static final int    SAMPLE_SIZE       = 128;
+  private static final int    FINGERPRINT_CACHE = 256;
+  private static final int    MAX_SQL_LENGTH    = 500;
+  private static final String OTHER             = "<other>";
+
+  private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+  private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?\\b");
+  private static final Pattern IN_LIST        = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+  private static final Pattern WHITESPACE     = Pattern.compile("\\s+");
+
+  private static final QueryMetrics INSTANCE = new QueryMetrics();
+
+  private final ConcurrentHashMap<String, Stats> stats        = new ConcurrentHashMap<>();
+  private final LRUCache<String, String>         fingerprints = new LRUCache<>(FINGERPRINT_CACHE);
+
+  public static @NonNull QueryMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  @VisibleForTesting
+  QueryMetrics() {}
+
+  /**
+   * @param rows          Rows returned or changed, or -1 if unknown.
+   * @param lockWaitNanos Time spent waiting on the writer's lock before the statement could run.
+   * @param contended     True if another thread held the lock when the statement started.
+   */
+  public void record(@NonNull String sql, long durationNanos, long lockWaitNanos, int rows, boolean contended) {
+    String fingerprint = getFingerprint(sql);
+    Stats  entry       = stats.get(fingerprint);
+
+    if (entry == null) {
+      if (stats.size() >= MAX_FINGERPRINTS) {
+        fingerprint = OTHER;
+      }
+
+      entry = stats.get(fingerprint);
+
+      if (entry == null) {
+        Stats created  = new Stats(fingerprint);
+        Stats existing = stats.putIfAbsent(fingerprint, created);
+
+        entry = existing != null ? existing : created;
+      }
+    }
+
+    entry.add(durationNanos, lockWaitNanos, rows, contended);
+
+    if (durationNanos + lockWaitNanos >= SLOW_QUERY_THRESHOLD_NANOS) {
+      Log.w(TAG, "Slow query on " + Thread.currentThread().getName() + ": " + TimeUnit.NANOSECONDS.toMillis(durationNanos) + " ms" +
+                 (lockWaitNanos > 0 ? " (+" + TimeUnit.NANOSECONDS.toMillis(lockWaitNanos) + " ms lock wait)" : "") +
+                 (rows >= 0 ? ", " + rows + " rows" : "") +
+                 ": " + fingerprint);
+    }
+  }
+
+  /**
+   * @return The statements that took the most time in total, including lock waits, worst first.
+   */
+  public @NonNull List<Snapshot> getTopOffenders(int limit) {
+    List<Snapshot> snapshots = new ArrayList<>(stats.size());
+
+    for (Stats entry : stats.values()) {
+      snapshots.add(entry.snapshot());
+    }
+
+    Collections.sort(snapshots, (lhs, rhs) -> Long.compare(rhs.getTotalNanos() + rhs.getLockWaitNanos(), lhs.getTotalNanos() + lhs.getLockWaitNanos()));
+
+    return snapshots.subList(0, Math.min(limit, snapshots.size()));
+  }
+
+  private @NonNull String getFingerprint(@NonNull String sql) {
+    synchronized (fingerprints) {
+      String cached = fingerprints.get(sql);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    String fingerprint = fingerprint(sql);
+
+    synchronized (fingerprints) {
+      fingerprints.put(sql, fingerprint);
+    }
+
+    return fingerprint;
+  }
+
+  @VisibleForTesting
+  static @NonNull String fingerprint(@NonNull String sql) {
+    String fingerprint = STRING_LITERAL.matcher(sql).replaceAll("?");
+
+    fingerprint = NUMBER_LITERAL.matcher(fingerprint).replaceAll("?");
+    fingerprint = IN_LIST.matcher(fingerprint).replaceAll("(?+)");
+    fingerprint = WHITESPACE.matcher(fingerprint).replaceAll(" ").trim();
+
+    if (fingerprint.length() > MAX_SQL_LENGTH) {
+      fingerprint = fingerprint.substring(0, MAX_SQL_LENGTH) + "...";
+    }
+
+    return fingerprint;
+  }
+
+  private static final class Stats {
+    private final String fingerprint;
+    private final long[] samples = new long[SAMPLE_SIZE];
+
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private long lockWaitNanos;
+    private long rows;
+    private long contended;
+
+    Stats(@NonNull String fingerprint) {
+      this.fingerprint = fingerprint;
+    }
+
+    synchronized void add(long durationNanos, long lockWaitNanos, int rows, boolean contended) {
+      samples[(int) (count % SAMPLE_SIZE)] = durationNanos;
+
+      this.count++;
+      this.totalNanos    += durationNanos;
+      this.maxNanos       = Math.max(maxNanos, durationNanos);
+      this.lockWaitNanos += lockWaitNanos;
+
+      if (rows > 0) {
+        this.rows += rows;
+      }
+
+      if (contended) {
+        this.contended++;
+      }
+    }
+
+    synchronized @NonNull Snapshot snapshot() {
+      long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, SAMPLE_SIZE));
+      Arrays.sort(sorted);
+
+      return new Snapshot(fingerprint, count, totalNanos, maxNanos, percentile(sorted, 50), percentile(sorted, 99), lockWaitNanos, rows, contended);
+    }
+
+    private static long percentile(@NonNull long[] sorted, int percentile) {
+      if (sorted.length == 0) {
+        return 0;
+      }
+
+      int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+  }
+
+  /**
+   * Percentiles are computed over the most recent {@link #SAMPLE_SIZE} executions.
+   */
+  public static final class Snapshot {
+    private final String fingerprint;
+    private final long   count;
+    private final long   totalNanos;
+    private final long   maxNanos;
+    private final long   p50Nanos;
+    private final long   p99Nanos;
+    private final long   lockWaitNanos;
+    private final long   rows;
+    private final long   contended;
+
+    Snapshot(@NonNull String fingerprint, long count, long totalNanos, long maxNanos, long p50Nanos, long p99Nanos, long lockWaitNanos, long rows, long contended) {
+      this.fingerprint   = fingerprint;
+      this.count         = count;
+      this.totalNanos    = totalNanos;
+      this.maxNanos      = maxNanos;
+      this.p50Nanos      = p50Nanos;
+      this.p99Nanos      = p99Nanos;
+      this.lockWaitNanos = lockWaitNanos;
+      this.rows          = rows;
+      this.contended     = contended;
+    }
+
+    public @NonNull String getFingerprint() {
+      return fingerprint;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getTotalNanos() {
+      return totalNanos;
+    }
+
+    public long getMaxNanos() {
+      return maxNanos;
+    }
+
+    public long getP50Nanos() {
+      return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+      return p99Nanos;
+    }
+
+    public long getLockWaitNanos() {
+      return lockWaitNanos;
+    }
+
+    public long getRows() {
+      return rows;
+    }
+
+    public long getContended() {
+      return contended;
+    }
+  }
+}
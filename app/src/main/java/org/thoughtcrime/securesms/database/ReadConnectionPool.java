@@ -0,0 +1,101 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.sqlcipher.database.SQLiteDatabaseHook;
+
+import org.signal.core.util.logging.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small set of extra connections to the database file that are only used for reads. With
+ * write-ahead logging enabled, reads on these connections run alongside the writer instead of
+ * waiting on its lock.
+ *
+ * SQLCipher connections serialize their own calls, so connections are shared rather than checked
+ * out. A read goes to the first connection that isn't busy on another thread, or to the next one in
+ * turn if they all are. Connections are opened lazily.
+ */
+public final class ReadConnectionPool {
+
+  private static final String TAG = Log.tag(ReadConnectionPool.class);
+
+  private final String                                  path;
+  private final String                                  password;
+  private final SQLiteDatabaseHook                      hook;
+  private final net.sqlcipher.database.SQLiteDatabase[] connections;
+  private final AtomicInteger                           next;
+
+  private boolean closed;
+  private boolean failed;
+
+  public ReadConnectionPool(@NonNull String path, @NonNull String password, @NonNull SQLiteDatabaseHook hook, int size) {
+    this.path        = path;
+    this.password    = password;
+    this.hook        = hook;
+    this.connections = new net.sqlcipher.database.SQLiteDatabase[size];
+    this.next        = new AtomicInteger(0);
+  }
+
+  public static int getDefaultSize() {
+    return Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+  }
+
+  /**
+   * @return A connection to read from, or null if the pool is unavailable and the caller should
+   *         read from the writer.
+   */
+  @Nullable net.sqlcipher.database.SQLiteDatabase getConnection() {
+    int start = (next.getAndIncrement() & Integer.MAX_VALUE) % connections.length;
+
+    for (int i = 0; i < connections.length; i++) {
+      net.sqlcipher.database.SQLiteDatabase connection = getOrOpen((start + i) % connections.length);
+
+      if (connection == null) {
+        return null;
+      }
+
+      if (!connection.isDbLockedByOtherThreads()) {
+        return connection;
+      }
+    }
+
+    return getOrOpen(start);
+  }
+
+  public synchronized void close() {
+    closed = true;
+
+    for (int i = 0; i < connections.length; i++) {
+      if (connections[i] != null) {
+        connections[i].close();
+        connections[i] = null;
+      }
+    }
+  }
+
+  private synchronized @Nullable net.sqlcipher.database.SQLiteDatabase getOrOpen(int index) {
+    if (closed || failed) {
+      return null;
+    }
+
+    if (connections[index] == null) {
+      try {
+        net.sqlcipher.database.SQLiteDatabase connection = net.sqlcipher.database.SQLiteDatabase.openDatabase(path, password, null, net.sqlcipher.database.SQLiteDatabase.OPEN_READWRITE, hook);
+
+        connection.rawExecSQL("PRAGMA query_only = 1;");
+        connections[index] = connection;
+
+        Log.i(TAG, "Opened read connection " + index);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to open a read connection. Reading from the writer from now on.", e);
+        failed = true;
+        return null;
+      }
+    }
+
+    return connections[index];
+  }
+}
@@ -8,6 +8,7 @@ import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Stream;
 import com.google.protobuf.ByteString;
@@ -79,6 +80,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -709,6 +711,33 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  /**
+   * Bulk version of {@link #getRecipientSettings(RecipientId)}. Recipients that can't be found are
+   * left out rather than looked up in the remapped records, callers can fall back to the single
+   * lookup for those.
+   */
+  public @NonNull Map<RecipientId, RecipientSettings> getRecipientSettings(@NonNull Collection<RecipientId> ids) {
+    SQLiteDatabase                      database = databaseHelper.getReadableDatabase();
+    Map<RecipientId, RecipientSettings> settings = new HashMap<>(ids.size());
+
+    if (ids.isEmpty()) {
+      return settings;
+    }
+
+    List<String> serializedIds = Stream.of(ids).map(RecipientId::serialize).toList();
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQuery(ID, serializedIds, SqlUtil.MAX_QUERY_ARGS)) {
+      try (Cursor cursor = database.query(TABLE_NAME, RECIPIENT_PROJECTION, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          RecipientSettings recipientSettings = getRecipientSettings(context, cursor);
+          settings.put(recipientSettings.getId(), recipientSettings);
+        }
+      }
+    }
+
+    return settings;
+  }
+
   public @NonNull DirtyState getDirtyState(@NonNull RecipientId recipientId) {
     SQLiteDatabase db = databaseHelper.getReadableDatabase();
 
@@ -769,6 +798,20 @@ public class RecipientDatabase extends Database {
     return null;
   }
 
+  /**
+   * @return True if a contact or group other than ourselves has the given storage ID, and isn't
+   *         waiting to be deleted from storage.
+   */
+  public boolean hasContactStorageSyncId(@NonNull byte[] storageId) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         query = STORAGE_SERVICE_ID + " = ? AND " + DIRTY + " != ? AND " + ID + " != ?";
+    String[]       args  = { Base64.encodeBytes(storageId), String.valueOf(DirtyState.DELETE.getId()), Recipient.self().getId().serialize() };
+
+    try (Cursor cursor = db.query(TABLE_NAME, ID_PROJECTION, query, args, null, null, null, "1")) {
+      return cursor != null && cursor.moveToFirst();
+    }
+  }
+
   public void markNeedsSync(@NonNull Collection<RecipientId> recipientIds) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
@@ -1579,19 +1622,23 @@ public class RecipientDatabase extends Database {
   }
 
   public void setCapabilities(@NonNull RecipientId id, @NonNull SignalServiceProfile.Capabilities capabilities) {
-    long value = 0;
-
-    value = Bitmask.update(value, Capabilities.GROUPS_V2,           Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isGv2()).serialize());
-    value = Bitmask.update(value, Capabilities.GROUPS_V1_MIGRATION, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isGv1Migration()).serialize());
-
     ContentValues values = new ContentValues(1);
-    values.put(CAPABILITIES, value);
+    values.put(CAPABILITIES, serializeCapabilities(capabilities));
 
     if (update(id, values)) {
       Recipient.live(id).refresh();
     }
   }
 
+  private static long serializeCapabilities(@NonNull SignalServiceProfile.Capabilities capabilities) {
+    long value = 0;
+
+    value = Bitmask.update(value, Capabilities.GROUPS_V2,           Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isGv2()).serialize());
+    value = Bitmask.update(value, Capabilities.GROUPS_V1_MIGRATION, Capabilities.BIT_LENGTH, Recipient.Capability.fromBoolean(capabilities.isGv1Migration()).serialize());
+
+    return value;
+  }
+
   public void setMentionSetting(@NonNull RecipientId id, @NonNull MentionSetting mentionSetting) {
     ContentValues values = new ContentValues();
     values.put(MENTION_SETTING, mentionSetting.getId());
@@ -1661,6 +1708,19 @@ public class RecipientDatabase extends Database {
   public boolean setProfileKeyCredential(@NonNull RecipientId id,
                                          @NonNull ProfileKey profileKey,
                                          @NonNull ProfileKeyCredential profileKeyCredential)
+  {
+    boolean updated = setProfileKeyCredentialInternal(id, profileKey, profileKeyCredential);
+
+    if (updated) {
+      Recipient.live(id).refresh();
+    }
+
+    return updated;
+  }
+
+  private boolean setProfileKeyCredentialInternal(@NonNull RecipientId id,
+                                                  @NonNull ProfileKey profileKey,
+                                                  @NonNull ProfileKeyCredential profileKeyCredential)
   {
     String        selection = ID + " = ? AND " + PROFILE_KEY + " = ?";
     String[]      args      = new String[]{id.serialize(), Base64.encodeBytes(profileKey.serialize())};
@@ -1675,13 +1735,7 @@ public class RecipientDatabase extends Database {
 
     SqlUtil.Query updateQuery = SqlUtil.buildTrueUpdateQuery(selection, args, values);
 
-    boolean updated = update(updateQuery, values);
-
-    if (updated) {
-      Recipient.live(id).refresh();
-    }
-
-    return updated;
+    return update(updateQuery, values);
   }
 
   private void clearProfileKeyCredential(@NonNull RecipientId id) {
@@ -2480,6 +2534,14 @@ public class RecipientDatabase extends Database {
                  .toList();
   }
 
+  /**
+   * For applying the results of many profile fetches at once. Nothing is written until
+   * {@link BulkProfileOperationsHandle#finish()}.
+   */
+  public @NonNull BulkProfileOperationsHandle beginBulkProfileUpdate() {
+    return new BulkProfileOperationsHandle(new BulkProfileWriter());
+  }
+
   public void markProfilesFetched(@NonNull Collection<RecipientId> ids, long time) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.beginTransaction();
@@ -2913,6 +2975,174 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  /**
+   * Collects profile changes per recipient, and writes them in a single transaction. Callers are
+   * expected to only pass values that differ from what the recipient currently has. Each recipient
+   * gets at most one UPDATE, and the changed recipients are refreshed together after the
+   * transaction commits.
+   */
+  public static final class BulkProfileOperationsHandle {
+
+    private final Writer                                                   writer;
+    private final Map<RecipientId, ContentValues>                          pendingValues      = new LinkedHashMap<>();
+    private final Set<RecipientId>                                         dirtyQualifying    = new HashSet<>();
+    private final Map<RecipientId, Pair<ProfileKey, ProfileKeyCredential>> pendingCredentials = new LinkedHashMap<>();
+
+    @VisibleForTesting
+    BulkProfileOperationsHandle(@NonNull Writer writer) {
+      this.writer = writer;
+    }
+
+    public void setProfileName(@NonNull RecipientId id, @NonNull ProfileName profileName) {
+      ContentValues values = getValues(id);
+      values.put(PROFILE_GIVEN_NAME, profileName.getGivenName());
+      values.put(PROFILE_FAMILY_NAME, profileName.getFamilyName());
+      values.put(PROFILE_JOINED_NAME, profileName.toString());
+
+      dirtyQualifying.add(id);
+    }
+
+    public void setAbout(@NonNull RecipientId id, @Nullable String about, @Nullable String emoji) {
+      ContentValues values = getValues(id);
+      values.put(ABOUT, about);
+      values.put(ABOUT_EMOJI, emoji);
+    }
+
+    public void setCapabilities(@NonNull RecipientId id, @NonNull SignalServiceProfile.Capabilities capabilities) {
+      getValues(id).put(CAPABILITIES, serializeCapabilities(capabilities));
+    }
+
+    public void setUnidentifiedAccessMode(@NonNull RecipientId id, @NonNull UnidentifiedAccessMode unidentifiedAccessMode) {
+      getValues(id).put(UNIDENTIFIED_ACCESS_MODE, unidentifiedAccessMode.getMode());
+      dirtyQualifying.add(id);
+    }
+
+    public void clearUsername(@NonNull RecipientId id) {
+      getValues(id).putNull(USERNAME);
+      dirtyQualifying.add(id);
+    }
+
+    public void setProfileKeyCredential(@NonNull RecipientId id, @NonNull ProfileKey profileKey, @NonNull ProfileKeyCredential profileKeyCredential) {
+      pendingCredentials.put(id, new Pair<>(profileKey, profileKeyCredential));
+    }
+
+    /**
+     * @return The recipients that actually changed.
+     */
+    public @NonNull Set<RecipientId> finish() {
+      Set<RecipientId> changed   = new LinkedHashSet<>();
+      boolean          needsSync = false;
+
+      writer.beginTransaction();
+      try {
+        for (Map.Entry<RecipientId, ContentValues> entry : pendingValues.entrySet()) {
+          RecipientId id = entry.getKey();
+
+          if (writer.update(id, entry.getValue())) {
+            changed.add(id);
+
+            if (dirtyQualifying.contains(id)) {
+              writer.markDirty(id);
+              needsSync = true;
+            }
+          }
+        }
+
+        for (Map.Entry<RecipientId, Pair<ProfileKey, ProfileKeyCredential>> entry : pendingCredentials.entrySet()) {
+          if (writer.setProfileKeyCredential(entry.getKey(), entry.getValue().first(), entry.getValue().second())) {
+            changed.add(entry.getKey());
+          }
+        }
+
+        writer.setTransactionSuccessful();
+      } finally {
+        writer.endTransaction();
+      }
+
+      Log.i(TAG, "[BulkProfileUpdate] " + pendingValues.size() + " recipient(s) had changes staged, " + changed.size() + " actually changed.");
+
+      if (!changed.isEmpty()) {
+        writer.refresh(changed);
+      }
+
+      if (needsSync) {
+        writer.scheduleSync();
+      }
+
+      return changed;
+    }
+
+    private @NonNull ContentValues getValues(@NonNull RecipientId id) {
+      ContentValues values = pendingValues.get(id);
+
+      if (values == null) {
+        values = new ContentValues();
+        pendingValues.put(id, values);
+      }
+
+      return values;
+    }
+
+    @VisibleForTesting
+    interface Writer {
+      void beginTransaction();
+      void setTransactionSuccessful();
+      void endTransaction();
+
+      /** @return True if the row actually changed. */
+      boolean update(@NonNull RecipientId id, @NonNull ContentValues values);
+      void markDirty(@NonNull RecipientId id);
+      boolean setProfileKeyCredential(@NonNull RecipientId id, @NonNull ProfileKey profileKey, @NonNull ProfileKeyCredential profileKeyCredential);
+
+      /** Called after the transaction, with every recipient that changed. */
+      void refresh(@NonNull Set<RecipientId> ids);
+      void scheduleSync();
+    }
+  }
+
+  private final class BulkProfileWriter implements BulkProfileOperationsHandle.Writer {
+
+    @Override
+    public void beginTransaction() {
+      databaseHelper.getWritableDatabase().beginTransaction();
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+      databaseHelper.getWritableDatabase().setTransactionSuccessful();
+    }
+
+    @Override
+    public void endTransaction() {
+      databaseHelper.getWritableDatabase().endTransaction();
+    }
+
+    @Override
+    public boolean update(@NonNull RecipientId id, @NonNull ContentValues values) {
+      return RecipientDatabase.this.update(id, values);
+    }
+
+    @Override
+    public void markDirty(@NonNull RecipientId id) {
+      RecipientDatabase.this.markDirty(id, DirtyState.UPDATE);
+    }
+
+    @Override
+    public boolean setProfileKeyCredential(@NonNull RecipientId id, @NonNull ProfileKey profileKey, @NonNull ProfileKeyCredential profileKeyCredential) {
+      return setProfileKeyCredentialInternal(id, profileKey, profileKeyCredential);
+    }
+
+    @Override
+    public void refresh(@NonNull Set<RecipientId> ids) {
+      ApplicationDependencies.getRecipientCache().refreshAll(ids);
+    }
+
+    @Override
+    public void scheduleSync() {
+      StorageSyncHelper.scheduleSyncForDataChange();
+    }
+  }
+
   private static @NonNull String nullIfEmpty(String column) {
     return "NULLIF(" + column + ", '')";
   }
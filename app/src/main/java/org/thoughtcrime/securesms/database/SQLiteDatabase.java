@@ -3,12 +3,16 @@ package org.thoughtcrime.securesms.database;
 
 import android.content.ContentValues;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import net.sqlcipher.Cursor;
 import net.sqlcipher.SQLException;
 import net.sqlcipher.database.SQLiteQueryStats;
 import net.sqlcipher.database.SQLiteStatement;
 import net.sqlcipher.database.SQLiteTransactionListener;
 
+import org.signal.core.util.logging.Log;
 import org.signal.core.util.tracing.Tracer;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 
@@ -20,9 +24,18 @@ import java.util.Map;
  * This is a wrapper around {@link net.sqlcipher.database.SQLiteDatabase}. There's difficulties
  * making a subclass, so instead we just match the interface. Callers should just need to change
  * their import statements.
+ *
+ * If a {@link ReadConnectionPool} is provided, queries are run on a read connection unless the
+ * current thread holds the writer's lock, e.g. because it is in a transaction and must see its own
+ * uncommitted writes. Everything else goes to the single writer.
+ *
+ * If a {@link CompiledStatementCache} is provided, statements run through
+ * {@link #executeInsert(String, StatementBinder)} and friends are compiled once per connection.
  */
 public class SQLiteDatabase {
 
+  private static final String TAG = Log.tag(SQLiteDatabase.class);
+
   public static final int CONFLICT_ROLLBACK = 1;
   public static final int CONFLICT_ABORT    = 2;
   public static final int CONFLICT_FAIL     = 3;
@@ -36,11 +49,30 @@ public class SQLiteDatabase {
   private static final String NAME_LOCK  = "LOCK";
 
   private final net.sqlcipher.database.SQLiteDatabase wrapped;
+  private final ReadConnectionPool                    readPool;
+  private final CompiledStatementCache                statementCache;
   private final Tracer                                tracer;
+  private final QueryMetrics                          metrics;
 
   public SQLiteDatabase(net.sqlcipher.database.SQLiteDatabase wrapped) {
-    this.wrapped = wrapped;
-    this.tracer  = Tracer.getInstance();
+    this(wrapped, null, null);
+  }
+
+  public SQLiteDatabase(net.sqlcipher.database.SQLiteDatabase wrapped, @Nullable ReadConnectionPool readPool, @Nullable CompiledStatementCache statementCache) {
+    this.wrapped        = wrapped;
+    this.readPool       = readPool;
+    this.statementCache = statementCache;
+    this.tracer         = Tracer.getInstance();
+    this.metrics        = QueryMetrics.getInstance();
+  }
+
+  private net.sqlcipher.database.SQLiteDatabase reader() {
+    if (readPool == null || wrapped.isDbLockedByCurrentThread()) {
+      return wrapped;
+    }
+
+    net.sqlcipher.database.SQLiteDatabase connection = readPool.getConnection();
+    return connection != null ? connection : wrapped;
   }
 
   private void traceLockStart() {
@@ -62,10 +94,15 @@ public class SQLiteDatabase {
       traceLockStart();
     }
 
+    boolean contended = locked && wrapped.isDbLockedByOtherThreads();
+    long    start     = System.nanoTime();
+
     tracer.start(methodName, KEY_QUERY, query);
     returnable.run();
     tracer.end(methodName);
 
+    metrics.record(query, System.nanoTime() - start, 0, -1, contended);
+
     if (locked) {
       traceLockEnd();
     }
@@ -88,10 +125,16 @@ public class SQLiteDatabase {
       params.put(KEY_TABLE, table);
     }
 
+    boolean contended = locked && wrapped.isDbLockedByOtherThreads();
+    long    start     = System.nanoTime();
+
     tracer.start(methodName, params);
-    E result = returnable.run();
+    E   result = returnable.run();
+    int rows   = getRowCount(result);
     tracer.end(methodName);
 
+    metrics.record(describe(methodName, table, query), System.nanoTime() - start, 0, rows, contended);
+
     if (locked) {
       traceLockEnd();
     }
@@ -99,6 +142,32 @@ public class SQLiteDatabase {
     return result;
   }
 
+  /**
+   * Cursors are filled lazily. Counting them here runs the query inside the timed block, which is
+   * no extra work since the first move on the cursor would count the rows anyway.
+   */
+  private static int getRowCount(Object result) {
+    if (result instanceof Cursor) {
+      return ((Cursor) result).getCount();
+    } else if (result instanceof Integer) {
+      return (Integer) result;
+    } else if (result instanceof Long) {
+      return (Long) result >= 0 ? 1 : 0;
+    } else {
+      return -1;
+    }
+  }
+
+  private static String describe(String methodName, String table, String query) {
+    if (table == null) {
+      return query != null ? query : methodName;
+    } else if (query == null) {
+      return methodName + " " + table;
+    } else {
+      return methodName + " " + table + " WHERE " + query;
+    }
+  }
+
   public net.sqlcipher.database.SQLiteDatabase getSqlCipherDatabase() {
     return wrapped;
   }
@@ -107,14 +176,74 @@ public class SQLiteDatabase {
     E run();
   }
 
+  /**
+   * Binds the arguments of a compiled statement. Indices start at 1.
+   */
+  public interface StatementBinder {
+    void bind(@NonNull SQLiteStatement statement);
+  }
+
+  /**
+   * Runs a statement from the cache, taking the writer's lock first if this thread doesn't hold it
+   * yet. Holding the lock while binding is what keeps two threads from sharing a statement.
+   */
+  private <E> E executeCached(@NonNull String sql, @NonNull StatementBinder binder, @NonNull StatementExecutor<E> executor) {
+    if (statementCache == null || !statementCache.isFor(wrapped)) {
+      SQLiteStatement statement = wrapped.compileStatement(sql);
+
+      try {
+        binder.bind(statement);
+        return executor.execute(statement);
+      } finally {
+        statement.close();
+      }
+    }
+
+    boolean locked = wrapped.isDbLockedByCurrentThread();
+
+    if (!locked) {
+      wrapped.beginTransaction();
+    }
+
+    try {
+      SQLiteStatement statement = statementCache.get(sql);
+
+      try {
+        binder.bind(statement);
+        E result = executor.execute(statement);
+
+        if (!locked) {
+          wrapped.setTransactionSuccessful();
+        }
+
+        return result;
+      } finally {
+        statement.clearBindings();
+      }
+    } finally {
+      if (!locked) {
+        wrapped.endTransaction();
+      }
+    }
+  }
+
+  private interface StatementExecutor<E> {
+    E execute(@NonNull SQLiteStatement statement);
+  }
+
 
   // =======================================================
   // Traced
   // =======================================================
 
   public void beginTransaction() {
+    boolean contended = wrapped.isDbLockedByOtherThreads();
+    long    start     = System.nanoTime();
+
     traceLockStart();
     trace("beginTransaction()", wrapped::beginTransaction);
+
+    metrics.record("BEGIN TRANSACTION", 0, System.nanoTime() - start, -1, contended);
   }
 
   public void endTransaction() {
@@ -127,31 +256,31 @@ public class SQLiteDatabase {
   }
 
   public Cursor query(boolean distinct, String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
-    return traceSql("query(9)", table, selection, false, () -> wrapped.query(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
+    return traceSql("query(9)", table, selection, false, () -> reader().query(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
   }
 
   public Cursor queryWithFactory(net.sqlcipher.database.SQLiteDatabase.CursorFactory cursorFactory, boolean distinct, String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
-    return traceSql("queryWithFactory()", table, selection, false, () -> wrapped.queryWithFactory(cursorFactory, distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
+    return traceSql("queryWithFactory()", table, selection, false, () -> reader().queryWithFactory(cursorFactory, distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
   }
 
   public Cursor query(String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy) {
-    return traceSql("query(7)", table, selection, false, () -> wrapped.query(table, columns, selection, selectionArgs, groupBy, having, orderBy));
+    return traceSql("query(7)", table, selection, false, () -> reader().query(table, columns, selection, selectionArgs, groupBy, having, orderBy));
   }
 
   public Cursor query(String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
-    return traceSql("query(8)", table, selection, false, () -> wrapped.query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
+    return traceSql("query(8)", table, selection, false, () -> reader().query(table, columns, selection, selectionArgs, groupBy, having, orderBy, limit));
   }
 
   public Cursor rawQuery(String sql, String[] selectionArgs) {
-    return traceSql("rawQuery(2a)", sql, false, () -> wrapped.rawQuery(sql, selectionArgs));
+    return traceSql("rawQuery(2a)", sql, false, () -> reader().rawQuery(sql, selectionArgs));
   }
 
   public Cursor rawQuery(String sql, Object[] args) {
-    return traceSql("rawQuery(2b)", sql, false,() -> wrapped.rawQuery(sql, args));
+    return traceSql("rawQuery(2b)", sql, false,() -> reader().rawQuery(sql, args));
   }
 
   public Cursor rawQueryWithFactory(net.sqlcipher.database.SQLiteDatabase.CursorFactory cursorFactory, String sql, String[] selectionArgs, String editTable) {
-    return traceSql("rawQueryWithFactory()", sql, false, () -> wrapped.rawQueryWithFactory(cursorFactory, sql, selectionArgs, editTable));
+    return traceSql("rawQueryWithFactory()", sql, false, () -> reader().rawQueryWithFactory(cursorFactory, sql, selectionArgs, editTable));
   }
 
   public Cursor rawQuery(String sql, String[] selectionArgs, int initialRead, int maxRead) {
@@ -202,6 +331,44 @@ public class SQLiteDatabase {
     traceSql("execSQL(2)", sql, true, () -> wrapped.execSQL(sql, bindArgs));
   }
 
+  /**
+   * Like {@link #insert(String, String, ContentValues)}, but for an INSERT with a fixed set of
+   * columns whose arguments are bound directly.
+   *
+   * @return The row ID of the new row, or -1 if an error occurred.
+   */
+  public long executeInsert(@NonNull String sql, @NonNull StatementBinder binder) {
+    return traceSql("executeInsert()", sql, true, () -> {
+      try {
+        return executeCached(sql, binder, SQLiteStatement::executeInsert);
+      } catch (SQLException e) {
+        Log.w(TAG, "Error inserting.", e);
+        return -1L;
+      }
+    });
+  }
+
+  /**
+   * Like {@link #executeInsert(String, StatementBinder)}, for an UPDATE or DELETE.
+   *
+   * @return The number of rows affected.
+   */
+  public int executeUpdateDelete(@NonNull String sql, @NonNull StatementBinder binder) {
+    return traceSql("executeUpdateDelete()", sql, true, () -> executeCached(sql, binder, SQLiteStatement::executeUpdateDelete));
+  }
+
+  /**
+   * Like {@link #insert(String, String, ContentValues)}, but the INSERT is compiled once for every
+   * distinct set of columns and reused for the next insert with the same set.
+   */
+  public long insertCached(@NonNull String table, @NonNull ContentValues values) {
+    if (values.size() == 0) {
+      return insert(table, null, values);
+    }
+
+    return executeInsert(CompiledStatementCache.buildInsert(table, values), statement -> CompiledStatementCache.bind(statement, values));
+  }
+
 
   // =======================================================
   // Ignored
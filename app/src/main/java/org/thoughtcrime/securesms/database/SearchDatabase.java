@@ -11,13 +11,26 @@ import net.sqlcipher.Cursor;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Contains all databases necessary for full-text search (FTS).
+ *
+ * New messages aren't indexed as they're inserted, which would put tokenizing every body on the
+ * path of draining a message backlog. Instead {@link #PROGRESS_TABLE_NAME} records, per FTS table,
+ * the message ID up to which everything is indexed, and the triggers only keep that part in sync.
+ * {@link #indexPendingMessages(int)} moves the mark forward in batches from a background job, and
+ * searches scan the messages past it directly so that their results are still complete.
  */
 public class SearchDatabase extends Database {
 
-  public static final String SMS_FTS_TABLE_NAME = "sms_fts";
-  public static final String MMS_FTS_TABLE_NAME = "mms_fts";
+  public static final String SMS_FTS_TABLE_NAME  = "sms_fts";
+  public static final String MMS_FTS_TABLE_NAME  = "mms_fts";
+  public static final String PROGRESS_TABLE_NAME = "search_index_progress";
+
+  private static final String FTS_TABLE  = "fts_table";
+  private static final String INDEXED_ID = "indexed_id";
 
   public static final String ID                     = "rowid";
   public static final String BODY                   = MmsSmsColumns.BODY;
@@ -27,70 +40,96 @@ public class SearchDatabase extends Database {
   public static final String MESSAGE_RECIPIENT      = "message_recipient";
   public static final String IS_MMS                 = "is_mms";
   public static final String MESSAGE_ID             = "message_id";
+  public static final String RANK                   = "rank";
 
   public static final String SNIPPET_WRAP = "...";
 
+  /**
+   * Every search is a prefix search, and the shortest prefixes are the ones typed first when
+   * searching as you type. Indexing them saves expanding the prefix to every matching term.
+   */
+  private static final String PREFIX_INDEX = "prefix='2 3'";
+
+  private static final int MESSAGE_LIMIT = 500;
+
+  private static final long ALL_THREADS = -1;
+
   public static final String[] CREATE_TABLE = {
-      "CREATE VIRTUAL TABLE " + SMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + SmsDatabase.TABLE_NAME + ", content_rowid=" + SmsDatabase.ID + ");",
+      "CREATE TABLE " + PROGRESS_TABLE_NAME + " (" + FTS_TABLE + " TEXT PRIMARY KEY, " + INDEXED_ID + " INTEGER NOT NULL);",
+      "INSERT INTO " + PROGRESS_TABLE_NAME + " VALUES ('" + SMS_FTS_TABLE_NAME + "', 0);",
+      "INSERT INTO " + PROGRESS_TABLE_NAME + " VALUES ('" + MMS_FTS_TABLE_NAME + "', 0);",
+
+      "CREATE VIRTUAL TABLE " + SMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + SmsDatabase.TABLE_NAME + ", content_rowid=" + SmsDatabase.ID + ", " + PREFIX_INDEX + ");",
 
-      "CREATE TRIGGER sms_ai AFTER INSERT ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
+      "CREATE TRIGGER sms_ai AFTER INSERT ON " + SmsDatabase.TABLE_NAME + " WHEN new." + SmsDatabase.ID + " <= " + indexedId(SMS_FTS_TABLE_NAME) + " BEGIN\n" +
           "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES (new." + SmsDatabase.ID + ", new." + SmsDatabase.BODY + ", new." + SmsDatabase.THREAD_ID + ");\n" +
           "END;\n",
-      "CREATE TRIGGER sms_ad AFTER DELETE ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
+      "CREATE TRIGGER sms_ad AFTER DELETE ON " + SmsDatabase.TABLE_NAME + " WHEN old." + SmsDatabase.ID + " <= " + indexedId(SMS_FTS_TABLE_NAME) + " BEGIN\n" +
           "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + SMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + SmsDatabase.ID + ", old." + SmsDatabase.BODY + ", old." + SmsDatabase.THREAD_ID + ");\n" +
           "END;\n",
-      "CREATE TRIGGER sms_au AFTER UPDATE ON " + SmsDatabase.TABLE_NAME + " BEGIN\n" +
+      "CREATE TRIGGER sms_au AFTER UPDATE OF " + SmsDatabase.BODY + " ON " + SmsDatabase.TABLE_NAME + " WHEN old." + SmsDatabase.ID + " <= " + indexedId(SMS_FTS_TABLE_NAME) + " BEGIN\n" +
           "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + SMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + SmsDatabase.ID + ", old." + SmsDatabase.BODY + ", old." + SmsDatabase.THREAD_ID + ");\n" +
           "  INSERT INTO " + SMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES(new." + SmsDatabase.ID + ", new." + SmsDatabase.BODY + ", new." + SmsDatabase.THREAD_ID + ");\n" +
           "END;",
 
 
-      "CREATE VIRTUAL TABLE " + MMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + MmsDatabase.TABLE_NAME + ", content_rowid=" + MmsDatabase.ID + ");",
+      "CREATE VIRTUAL TABLE " + MMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + MmsDatabase.TABLE_NAME + ", content_rowid=" + MmsDatabase.ID + ", " + PREFIX_INDEX + ");",
 
-      "CREATE TRIGGER mms_ai AFTER INSERT ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
+      "CREATE TRIGGER mms_ai AFTER INSERT ON " + MmsDatabase.TABLE_NAME + " WHEN new." + MmsDatabase.ID + " <= " + indexedId(MMS_FTS_TABLE_NAME) + " BEGIN\n" +
           "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES (new." + MmsDatabase.ID + ", new." + MmsDatabase.BODY + ", new." + MmsDatabase.THREAD_ID + ");\n" +
           "END;\n",
-      "CREATE TRIGGER mms_ad AFTER DELETE ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
+      "CREATE TRIGGER mms_ad AFTER DELETE ON " + MmsDatabase.TABLE_NAME + " WHEN old." + MmsDatabase.ID + " <= " + indexedId(MMS_FTS_TABLE_NAME) + " BEGIN\n" +
           "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + MMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + MmsDatabase.ID + ", old." + MmsDatabase.BODY + ", old." + MmsDatabase.THREAD_ID + ");\n" +
           "END;\n",
-      "CREATE TRIGGER mms_au AFTER UPDATE ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
+      "CREATE TRIGGER mms_au AFTER UPDATE OF " + MmsDatabase.BODY + " ON " + MmsDatabase.TABLE_NAME + " WHEN old." + MmsDatabase.ID + " <= " + indexedId(MMS_FTS_TABLE_NAME) + " BEGIN\n" +
           "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + MMS_FTS_TABLE_NAME + ", " + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES('delete', old." + MmsDatabase.ID + ", old." + MmsDatabase.BODY + ", old." + MmsDatabase.THREAD_ID + ");\n" +
           "  INSERT INTO " + MMS_FTS_TABLE_NAME + "(" + ID + ", " + BODY + ", " + THREAD_ID + ") VALUES (new." + MmsDatabase.ID + ", new." + MmsDatabase.BODY + ", new." + MmsDatabase.THREAD_ID + ");\n" +
           "END;"
   };
 
-  private static final String MESSAGES_QUERY =
+  /**
+   * Ranks the matches in each FTS table by bm25, which FTS5 can do without touching the message
+   * tables, and only joins and builds snippets for the best {@link #MESSAGE_LIMIT} of each. Each table
+   * keeps its own term statistics, so scores from the two are close to, but not exactly, comparable.
+   */
+  private static final String SMS_MATCHES =
       "SELECT " +
         ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
         MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-        "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '" + SNIPPET_WRAP + "', 7) AS " + SNIPPET + ", " +
+        "hits." + SNIPPET + ", " +
         SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-        SMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
-        SMS_FTS_TABLE_NAME + "." + BODY + ", " +
-        SMS_FTS_TABLE_NAME + "." + ID + " AS " + MESSAGE_ID + ", " +
-        "0 AS " + IS_MMS + " " +
-      "FROM " + SmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? " +
-      "UNION ALL " +
+        SmsDatabase.TABLE_NAME + "." + SmsDatabase.THREAD_ID + ", " +
+        SmsDatabase.TABLE_NAME + "." + SmsDatabase.BODY + ", " +
+        SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " AS " + MESSAGE_ID + ", " +
+        "0 AS " + IS_MMS + ", " +
+        "hits." + RANK + " " +
+      "FROM " + rankedMatches(SMS_FTS_TABLE_NAME) + " AS hits " +
+      "INNER JOIN " + SmsDatabase.TABLE_NAME + " ON " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " = hits." + MESSAGE_ID + " " +
+      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID;
+
+  private static final String MMS_MATCHES =
       "SELECT " +
         ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
         MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
-        "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '" + SNIPPET_WRAP + "', 7) AS " + SNIPPET + ", " +
+        "hits." + SNIPPET + ", " +
         MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
-        MMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
-        MMS_FTS_TABLE_NAME + "." + BODY + ", " +
-        MMS_FTS_TABLE_NAME + "." + ID + " AS " + MESSAGE_ID + ", " +
-        "1 AS " + IS_MMS + " " +
-      "FROM " + MmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? " +
-      "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
-      "LIMIT 500";
-
-  private static final String MESSAGES_FOR_THREAD_QUERY =
+        MmsDatabase.TABLE_NAME + "." + MmsDatabase.THREAD_ID + ", " +
+        MmsDatabase.TABLE_NAME + "." + MmsDatabase.BODY + ", " +
+        MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " AS " + MESSAGE_ID + ", " +
+        "1 AS " + IS_MMS + ", " +
+        "hits." + RANK + " " +
+      "FROM " + rankedMatches(MMS_FTS_TABLE_NAME) + " AS hits " +
+      "INNER JOIN " + MmsDatabase.TABLE_NAME + " ON " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " = hits." + MESSAGE_ID + " " +
+      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID;
+
+  /**
+   * Messages that haven't been indexed yet have no rank, and are deliberately listed ahead of the
+   * ranked ones, newest first. They're the newest messages, so they're the likeliest to be what's
+   * being looked for, and they're never crowded out of the limit by older ranked hits.
+   */
+  private static final String RANK_ORDER = " ORDER BY " + RANK + " IS NOT NULL, " + RANK + " ASC, " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC LIMIT " + MESSAGE_LIMIT;
+
+  private static final String SMS_MATCHES_IN_THREAD =
       "SELECT " +
           ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
           MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
@@ -103,8 +142,9 @@ public class SearchDatabase extends Database {
         "FROM " + SmsDatabase.TABLE_NAME + " " +
         "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
         "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-        "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? AND " + SmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = ? " +
-        "UNION ALL " +
+        "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? AND " + SmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = ?";
+
+  private static final String MMS_MATCHES_IN_THREAD =
         "SELECT " +
           ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
           MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
@@ -117,14 +157,17 @@ public class SearchDatabase extends Database {
         "FROM " + MmsDatabase.TABLE_NAME + " " +
         "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
         "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-        "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? AND " + MmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = ? " +
-        "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
-        "LIMIT 500";
+        "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? AND " + MmsDatabase.TABLE_NAME + "." + MmsSmsColumns.THREAD_ID + " = ?";
+
+  private static final String DATE_ORDER = " ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC LIMIT " + MESSAGE_LIMIT;
 
   public SearchDatabase(@NonNull Context context, @NonNull SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
+  /**
+   * @return Up to {@link #MESSAGE_LIMIT} messages matching the query, most relevant first.
+   */
   public Cursor queryMessages(@NonNull String query) {
     SQLiteDatabase db                  = databaseHelper.getReadableDatabase();
     String         fullTextSearchQuery = createFullTextSearchQuery(query);
@@ -133,8 +176,20 @@ public class SearchDatabase extends Database {
       return null;
     }
 
-    Cursor cursor = db.rawQuery(MESSAGES_QUERY, new String[] { fullTextSearchQuery,
-                                                               fullTextSearchQuery });
+    List<String> terms = getTerms(query);
+    List<String> args  = new ArrayList<>();
+
+    args.add(fullTextSearchQuery);
+    String smsPending = pendingMatches(false, terms, ALL_THREADS, args);
+
+    args.add(fullTextSearchQuery);
+    String mmsPending = pendingMatches(true, terms, ALL_THREADS, args);
+
+    String sql = SMS_MATCHES + " UNION ALL " + smsPending + " UNION ALL " +
+                 MMS_MATCHES + " UNION ALL " + mmsPending +
+                 RANK_ORDER;
+
+    Cursor cursor = db.rawQuery(sql, args.toArray(new String[0]));
 
     setNotifyConversationListListeners(cursor);
     return cursor;
@@ -148,19 +203,151 @@ public class SearchDatabase extends Database {
       return null;
     }
 
-    Cursor cursor = db.rawQuery(MESSAGES_FOR_THREAD_QUERY, new String[] { fullTextSearchQuery,
-                                                                          String.valueOf(threadId),
-                                                                          fullTextSearchQuery,
-                                                                          String.valueOf(threadId) });
+    List<String> terms = getTerms(query);
+    List<String> args  = new ArrayList<>();
+
+    args.add(fullTextSearchQuery);
+    args.add(String.valueOf(threadId));
+    String smsPending = pendingMatches(false, terms, threadId, args);
+
+    args.add(fullTextSearchQuery);
+    args.add(String.valueOf(threadId));
+    String mmsPending = pendingMatches(true, terms, threadId, args);
+
+    String sql = SMS_MATCHES_IN_THREAD + " UNION ALL " + smsPending + " UNION ALL " +
+                 MMS_MATCHES_IN_THREAD + " UNION ALL " + mmsPending +
+                 DATE_ORDER;
+
+    Cursor cursor = db.rawQuery(sql, args.toArray(new String[0]));
 
     setNotifyConversationListListeners(cursor);
     return cursor;
   }
 
-  private static String createFullTextSearchQuery(@NonNull String query) {
+  /**
+   * Indexes up to a batch of the messages in each table that are past the indexed mark.
+   *
+   * @return True if there are still messages left to index afterwards.
+   */
+  public boolean indexPendingMessages(int batchSize) {
+    boolean smsPending = indexPendingMessages(SMS_FTS_TABLE_NAME, SmsDatabase.TABLE_NAME, batchSize);
+    boolean mmsPending = indexPendingMessages(MMS_FTS_TABLE_NAME, MmsDatabase.TABLE_NAME, batchSize);
+
+    return smsPending || mmsPending;
+  }
+
+  private boolean indexPendingMessages(@NonNull String ftsTable, @NonNull String messageTable, int batchSize) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      long indexedId = getLong(db, "SELECT " + INDEXED_ID + " FROM " + PROGRESS_TABLE_NAME + " WHERE " + FTS_TABLE + " = ?", ftsTable);
+      long maxId     = getLong(db, "SELECT MAX(" + MmsSmsColumns.ID + ") FROM " + messageTable);
+      long end       = Math.min(indexedId + batchSize, maxId);
+
+      if (end > indexedId) {
+        db.execSQL("INSERT INTO " + ftsTable + " (" + ID + ", " + BODY + ", " + THREAD_ID + ") " +
+                   "SELECT " + MmsSmsColumns.ID + ", " + MmsSmsColumns.BODY + ", " + MmsSmsColumns.THREAD_ID + " FROM " + messageTable + " " +
+                   "WHERE " + MmsSmsColumns.ID + " > ? AND " + MmsSmsColumns.ID + " <= ?", new Object[] { indexedId, end });
+        db.execSQL("INSERT OR REPLACE INTO " + PROGRESS_TABLE_NAME + " (" + FTS_TABLE + ", " + INDEXED_ID + ") VALUES (?, ?)", new Object[] { ftsTable, end });
+      }
+
+      db.setTransactionSuccessful();
+
+      return end < maxId;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Finds the messages past the indexed mark without the index, by looking for each term at the start
+   * of a word. That's close to, though not exactly, how FTS matches a prefix, and is only used for
+   * the few messages that arrived since the last indexing pass.
+   *
+   * Unlike the index, LIKE only ignores case for ASCII letters and doesn't fold diacritics, so e.g.
+   * "Über" or "cafe" won't find "über" or "café" among these messages. Until
+   * {@link org.thoughtcrime.securesms.jobs.SearchIndexJob} catches up, such queries can miss recent
+   * messages that they'll find once indexed.
+   *
+   * @param threadId The thread to search, or {@link #ALL_THREADS}, in which case the rows are given
+   *                 a null {@link #RANK} so that they can be merged with the ranked matches.
+   * @param args     The arguments for the returned query are appended to this.
+   */
+  private static String pendingMatches(boolean mms, @NonNull List<String> terms, long threadId, @NonNull List<String> args) {
+    String table      = mms ? MmsDatabase.TABLE_NAME : SmsDatabase.TABLE_NAME;
+    String ftsTable   = mms ? MMS_FTS_TABLE_NAME : SMS_FTS_TABLE_NAME;
+    String dateColumn = mms ? MmsDatabase.DATE_RECEIVED : SmsDatabase.DATE_RECEIVED;
+
+    StringBuilder query = new StringBuilder("SELECT " +
+                                              ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " AS " + CONVERSATION_RECIPIENT + ", " +
+                                              MmsSmsColumns.RECIPIENT_ID + " AS " + MESSAGE_RECIPIENT + ", " +
+                                              table + "." + MmsSmsColumns.BODY + " AS " + SNIPPET + ", " +
+                                              table + "." + dateColumn + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + ", " +
+                                              table + "." + MmsSmsColumns.THREAD_ID + ", " +
+                                              table + "." + MmsSmsColumns.BODY + ", " +
+                                              table + "." + MmsSmsColumns.ID + " AS " + MESSAGE_ID + ", " +
+                                              (mms ? 1 : 0) + " AS " + IS_MMS +
+                                              (threadId == ALL_THREADS ? ", NULL AS " + RANK + " " : " ") +
+                                            "FROM " + table + " " +
+                                            "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + table + "." + MmsSmsColumns.THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
+                                            "WHERE " + table + "." + MmsSmsColumns.ID + " > IFNULL(" + indexedId(ftsTable) + ", 0)");
+
+    for (String term : terms) {
+      String escaped = term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+
+      query.append(" AND (").append(table).append(".").append(MmsSmsColumns.BODY).append(" LIKE ? ESCAPE '\\'")
+           .append(" OR ").append(table).append(".").append(MmsSmsColumns.BODY).append(" LIKE ? ESCAPE '\\')");
+
+      args.add(escaped + "%");
+      args.add("% " + escaped + "%");
+    }
+
+    if (threadId != ALL_THREADS) {
+      query.append(" AND ").append(table).append(".").append(MmsSmsColumns.THREAD_ID).append(" = ?");
+      args.add(String.valueOf(threadId));
+    }
+
+    return query.toString();
+  }
+
+  private static String indexedId(@NonNull String ftsTable) {
+    return "(SELECT " + INDEXED_ID + " FROM " + PROGRESS_TABLE_NAME + " WHERE " + FTS_TABLE + " = '" + ftsTable + "')";
+  }
+
+  /**
+   * FTS5 sorts by its rank column itself when asked for a limited number of rows, so snippets are only
+   * built for the rows that are returned rather than for every match.
+   */
+  private static String rankedMatches(@NonNull String ftsTable) {
+    return "(SELECT " + ID + " AS " + MESSAGE_ID + ", " +
+                        "snippet(" + ftsTable + ", -1, '', '', '" + SNIPPET_WRAP + "', 7) AS " + SNIPPET + ", " +
+                        RANK + " " +
+            "FROM " + ftsTable + " " +
+            "WHERE " + ftsTable + " MATCH ? " +
+            "ORDER BY " + RANK + " " +
+            "LIMIT " + MESSAGE_LIMIT + ")";
+  }
+
+  private static long getLong(@NonNull SQLiteDatabase db, @NonNull String query, @NonNull String... args) {
+    try (Cursor cursor = db.rawQuery(query, args)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getLong(0);
+      }
+    }
+
+    return 0;
+  }
+
+  private static List<String> getTerms(@NonNull String query) {
     return Stream.of(query.split(" "))
                  .map(String::trim)
                  .filter(s -> s.length() > 0)
+                 .toList();
+  }
+
+  private static String createFullTextSearchQuery(@NonNull String query) {
+    return Stream.of(getTerms(query))
                  .map(SearchDatabase::fullTextSearchEscape)
                  .collect(StringBuilder::new, (sb, s) -> sb.append(s).append("* "))
                  .toString();
@@ -170,4 +357,3 @@ public class SearchDatabase extends Database {
     return "\"" + s.replace("\"", "\"\"") + "\"";
   }
 }
-
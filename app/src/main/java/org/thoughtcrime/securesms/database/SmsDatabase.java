@@ -36,6 +36,7 @@ import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatchList;
 import org.thoughtcrime.securesms.database.documents.NetworkFailure;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.GroupCallUpdateDetailsUtil;
+import org.thoughtcrime.securesms.database.model.MessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.ReactionRecord;
 import org.thoughtcrime.securesms.database.model.SmsMessageRecord;
@@ -150,6 +151,13 @@ public class SmsDatabase extends MessageDatabase {
   private final String OUTGOING_INSECURE_MESSAGE_CLAUSE = "(" + TYPE + " & " + Types.BASE_TYPE_MASK + ") = " + Types.BASE_SENT_TYPE + " AND NOT (" + TYPE + " & " + Types.SECURE_MESSAGE_BIT + ")";
   private final String OUTGOING_SECURE_MESSAGE_CLAUSE   = "(" + TYPE + " & " + Types.BASE_TYPE_MASK + ") = " + Types.BASE_SENT_TYPE + " AND (" + TYPE + " & " + (Types.SECURE_MESSAGE_BIT | Types.PUSH_MESSAGE_BIT) + ")";
 
+  private static final String INSERT_INBOX = "INSERT INTO " + TABLE_NAME + " (" +
+                                             RECIPIENT_ID + ", " + ADDRESS_DEVICE_ID + ", " + DATE_RECEIVED + ", " + DATE_SENT + ", " +
+                                             DATE_SERVER + ", " + PROTOCOL + ", " + READ + ", " + SUBSCRIPTION_ID + ", " +
+                                             EXPIRES_IN + ", " + UNIDENTIFIED + ", " + SUBJECT + ", " + REPLY_PATH_PRESENT + ", " +
+                                             SERVICE_CENTER + ", " + BODY + ", " + TYPE + ", " + THREAD_ID +
+                                             ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
   private static final EarlyReceiptCache earlyDeliveryReceiptCache = new EarlyReceiptCache("SmsDelivery");
 
   public SmsDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
@@ -187,7 +195,7 @@ public class SmsDatabase extends MessageDatabase {
     long threadId = getThreadIdForMessage(id);
 
     DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyMessageUpdated(threadId, new MessageId(id, false));
   }
 
   @Override
@@ -387,7 +395,7 @@ public class SmsDatabase extends MessageDatabase {
     long threadId = getThreadIdForMessage(id);
 
     DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyMessageUpdated(threadId, new MessageId(id, false));
   }
 
   @Override
@@ -449,7 +457,7 @@ public class SmsDatabase extends MessageDatabase {
 
     long threadId = getThreadIdForMessage(id);
     DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyMessageUpdated(threadId, new MessageId(id, false));
   }
 
   @Override
@@ -468,53 +476,22 @@ public class SmsDatabase extends MessageDatabase {
   }
 
   @Override
-  public boolean incrementReceiptCount(SyncMessageId messageId, long timestamp, @NonNull ReceiptType receiptType) {
+  public @NonNull Set<SyncMessageId> incrementReceiptCounts(@NonNull Collection<SyncMessageId> messageIds, long timestamp, @NonNull ReceiptType receiptType, @NonNull ReceiptThreads threads) {
     if (receiptType == ReceiptType.VIEWED) {
-      return false;
+      return Collections.emptySet();
     }
 
-    SQLiteDatabase database     = databaseHelper.getWritableDatabase();
-    boolean        foundMessage = false;
-
-    try (Cursor cursor = database.query(TABLE_NAME, new String[] {ID, THREAD_ID, RECIPIENT_ID, TYPE, DELIVERY_RECEIPT_COUNT, READ_RECEIPT_COUNT},
-                              DATE_SENT + " = ?", new String[] {String.valueOf(messageId.getTimetamp())},
-                              null, null, null, null)) {
-
-      while (cursor.moveToNext()) {
-        if (Types.isOutgoingMessageType(cursor.getLong(cursor.getColumnIndexOrThrow(TYPE)))) {
-          RecipientId theirRecipientId = messageId.getRecipientId();
-          RecipientId outRecipientId   = RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(RECIPIENT_ID)));
-          String      columnName       = receiptType.getColumnName();
-          boolean     isFirstIncrement = cursor.getLong(cursor.getColumnIndexOrThrow(columnName)) == 0;
-
-          if (outRecipientId.equals(theirRecipientId)) {
-            long threadId = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID));
-
-            database.execSQL("UPDATE " + TABLE_NAME +
-                             " SET " + columnName + " = " + columnName + " + 1 WHERE " +
-                             ID + " = ?",
-                             new String[] {String.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ID)))});
-
-            DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    Set<SyncMessageId> handled = applyReceipts(messageIds, timestamp, receiptType, false, threads);
 
-            if (isFirstIncrement) {
-              notifyConversationListeners(threadId);
-            } else {
-              notifyVerboseConversationListeners(threadId);
-            }
-
-            foundMessage = true;
-          }
+    if (receiptType == ReceiptType.DELIVERY) {
+      for (SyncMessageId messageId : messageIds) {
+        if (handled.add(messageId)) {
+          earlyDeliveryReceiptCache.increment(messageId.getTimetamp(), messageId.getRecipientId());
         }
       }
-
-      if (!foundMessage && receiptType == ReceiptType.DELIVERY) {
-        earlyDeliveryReceiptCache.increment(messageId.getTimetamp(), messageId.getRecipientId());
-        return true;
-      }
-
-      return foundMessage;
     }
+
+    return handled;
   }
 
   @Override
@@ -1047,33 +1024,30 @@ public class SmsDatabase extends MessageDatabase {
     if (groupRecipient == null) threadId = DatabaseFactory.getThreadDatabase(context).getThreadIdFor(recipient);
     else                        threadId = DatabaseFactory.getThreadDatabase(context).getThreadIdFor(groupRecipient);
 
-    ContentValues values = new ContentValues();
-    values.put(RECIPIENT_ID, message.getSender().serialize());
-    values.put(ADDRESS_DEVICE_ID,  message.getSenderDeviceId());
-    values.put(DATE_RECEIVED, System.currentTimeMillis());
-    values.put(DATE_SENT, message.getSentTimestampMillis());
-    values.put(DATE_SERVER, message.getServerTimestampMillis());
-    values.put(PROTOCOL, message.getProtocol());
-    values.put(READ, unread ? 0 : 1);
-    values.put(SUBSCRIPTION_ID, message.getSubscriptionId());
-    values.put(EXPIRES_IN, message.getExpiresIn());
-    values.put(UNIDENTIFIED, message.isUnidentified());
-
-    if (!TextUtils.isEmpty(message.getPseudoSubject()))
-      values.put(SUBJECT, message.getPseudoSubject());
-
-    values.put(REPLY_PATH_PRESENT, message.isReplyPathPresent());
-    values.put(SERVICE_CENTER, message.getServiceCenterAddress());
-    values.put(BODY, message.getMessageBody());
-    values.put(TYPE, type);
-    values.put(THREAD_ID, threadId);
-
     if (message.isPush() && isDuplicate(message, threadId)) {
       Log.w(TAG, "Duplicate message (" + message.getSentTimestampMillis() + "), ignoring...");
       return Optional.absent();
     } else {
-      SQLiteDatabase db        = databaseHelper.getWritableDatabase();
-      long           messageId = db.insert(TABLE_NAME, null, values);
+      SQLiteDatabase db          = databaseHelper.getWritableDatabase();
+      long           messageType = type;
+      long           messageId   = db.executeInsert(INSERT_INBOX, statement -> {
+        statement.bindLong(1, message.getSender().toLong());
+        statement.bindLong(2, message.getSenderDeviceId());
+        statement.bindLong(3, System.currentTimeMillis());
+        statement.bindLong(4, message.getSentTimestampMillis());
+        statement.bindLong(5, message.getServerTimestampMillis());
+        statement.bindLong(6, message.getProtocol());
+        statement.bindLong(7, unread ? 0 : 1);
+        statement.bindLong(8, message.getSubscriptionId());
+        statement.bindLong(9, message.getExpiresIn());
+        statement.bindLong(10, message.isUnidentified() ? 1 : 0);
+        CompiledStatementCache.bind(statement, 11, TextUtils.isEmpty(message.getPseudoSubject()) ? null : message.getPseudoSubject());
+        statement.bindLong(12, message.isReplyPathPresent() ? 1 : 0);
+        CompiledStatementCache.bind(statement, 13, message.getServiceCenterAddress());
+        CompiledStatementCache.bind(statement, 14, message.getMessageBody());
+        statement.bindLong(15, messageType);
+        statement.bindLong(16, threadId);
+      });
 
       if (unread) {
         DatabaseFactory.getThreadDatabase(context).incrementUnread(threadId, 1);
@@ -1087,7 +1061,7 @@ public class SmsDatabase extends MessageDatabase {
         DatabaseFactory.getRecipientDatabase(context).setDefaultSubscriptionId(recipient.getId(), message.getSubscriptionId());
       }
 
-      notifyConversationListeners(threadId);
+      notifyMessageInserted(threadId, new MessageId(messageId, false));
 
       if (!silent) {
         ApplicationDependencies.getJobManager().add(new TrimThreadJob(threadId));
@@ -1175,7 +1149,7 @@ public class SmsDatabase extends MessageDatabase {
 
     DatabaseFactory.getThreadDatabase(context).setHasSent(threadId, true);
 
-    notifyConversationListeners(threadId);
+    notifyMessageInserted(threadId, new MessageId(messageId, false));
 
     if (!message.isIdentityVerified() && !message.isIdentityDefault()) {
       ApplicationDependencies.getJobManager().add(new TrimThreadJob(threadId));
@@ -1228,7 +1202,7 @@ public class SmsDatabase extends MessageDatabase {
 
     boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false, true);
 
-    notifyConversationListeners(threadId);
+    notifyMessageDeleted(threadId, new MessageId(messageId, false));
     return threadDeleted;
   }
 
@@ -1584,7 +1558,7 @@ public class SmsDatabase extends MessageDatabase {
         Log.w(TAG, e);
       }
 
-      return new LinkedList<>();
+      return Collections.emptyList();
     }
 
     @Override
@@ -0,0 +1,94 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.Base64;
+import org.thoughtcrime.securesms.util.SetUtil;
+import org.whispersystems.signalservice.api.storage.StorageId;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The storage IDs of the last storage manifest we synced with. Records get a new ID whenever their
+ * contents change, so comparing a newer manifest against this tells us exactly which records changed
+ * remotely, without having to look at all of our local data.
+ *
+ * Only meaningful for the manifest version it was last updated for, see
+ * {@link org.thoughtcrime.securesms.keyvalue.StorageServiceValues#getIndexVersion()}.
+ */
+public class StorageIndexDatabase extends Database {
+
+  public static final String TABLE_NAME = "storage_index";
+
+  private static final String ID         = "_id";
+  private static final String TYPE       = "type";
+  private static final String STORAGE_ID = "key";
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID         + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                                                                                  TYPE       + " INTEGER, " +
+                                                                                  STORAGE_ID + " TEXT UNIQUE)";
+
+  StorageIndexDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  public @NonNull Set<StorageId> getAllKeys() {
+    Set<StorageId> keys = new HashSet<>();
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, new String[] { TYPE, STORAGE_ID }, null, null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        String keyEncoded = cursor.getString(cursor.getColumnIndexOrThrow(STORAGE_ID));
+        int    type       = cursor.getInt(cursor.getColumnIndexOrThrow(TYPE));
+        try {
+          keys.add(StorageId.forType(Base64.decode(keyEncoded), type));
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+    }
+
+    return keys;
+  }
+
+  /**
+   * Makes the index match the given manifest keys, only writing the rows that differ.
+   */
+  public void setKeys(@NonNull Collection<StorageId> manifestKeys) {
+    SQLiteDatabase db       = databaseHelper.getWritableDatabase();
+    Set<StorageId> current  = getAllKeys();
+    Set<StorageId> manifest = new HashSet<>(manifestKeys);
+
+    db.beginTransaction();
+    try {
+      String deleteQuery = STORAGE_ID + " = ?";
+
+      for (StorageId removed : SetUtil.difference(current, manifest)) {
+        db.delete(TABLE_NAME, deleteQuery, new String[] { Base64.encodeBytes(removed.getRaw()) });
+      }
+
+      for (StorageId added : SetUtil.difference(manifest, current)) {
+        ContentValues values = new ContentValues(2);
+        values.put(TYPE, added.getType());
+        values.put(STORAGE_ID, Base64.encodeBytes(added.getRaw()));
+
+        db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  public void deleteAll() {
+    databaseHelper.getWritableDatabase().delete(TABLE_NAME, null, null);
+  }
+}
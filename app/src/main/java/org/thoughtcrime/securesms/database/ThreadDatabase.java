@@ -40,11 +40,13 @@ import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.MmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.groups.BadGroupIdException;
 import org.thoughtcrime.securesms.groups.GroupId;
 import org.thoughtcrime.securesms.mms.Slide;
 import org.thoughtcrime.securesms.mms.SlideDeck;
 import org.thoughtcrime.securesms.mms.StickerSlide;
+import org.thoughtcrime.securesms.recipients.LiveRecipientCache;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientDetails;
 import org.thoughtcrime.securesms.recipients.RecipientId;
@@ -155,8 +157,33 @@ public class ThreadDatabase extends Database {
 
   private static final String ORDER_BY_DEFAULT = TABLE_NAME + "." + DATE + " DESC";
 
+  private static final String UPDATE_THREAD = "UPDATE " + TABLE_NAME + " SET " +
+                                              DATE                   + " = ?, " +
+                                              SNIPPET                + " = ?, " +
+                                              SNIPPET_URI            + " = ?, " +
+                                              SNIPPET_TYPE           + " = ?, " +
+                                              SNIPPET_CONTENT_TYPE   + " = ?, " +
+                                              SNIPPET_EXTRAS         + " = ?, " +
+                                              MESSAGE_COUNT          + " = ?, " +
+                                              STATUS                 + " = ?, " +
+                                              DELIVERY_RECEIPT_COUNT + " = ?, " +
+                                              READ_RECEIPT_COUNT     + " = ?, " +
+                                              EXPIRES_IN             + " = ?, " +
+                                              ARCHIVED               + " = CASE WHEN ? THEN 0 ELSE " + ARCHIVED + " END, " +
+                                              LAST_SCROLLED          + " = CASE WHEN ? THEN 0 ELSE " + LAST_SCROLLED + " END " +
+                                              "WHERE " + ID + " = ?";
+
+  private final ThreadRecordCache recordCache;
+
   public ThreadDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
+    this.recordCache = new ThreadRecordCache(new RecordLoader());
+  }
+
+  @Override
+  public void reset(SQLCipherOpenHelper databaseHelper) {
+    super.reset(databaseHelper);
+    recordCache.invalidateAll();
   }
 
   private long createThreadForRecipient(@NonNull RecipientId recipientId, boolean group, int distributionType) {
@@ -175,8 +202,12 @@ public class ThreadDatabase extends Database {
 
     contentValues.put(MESSAGE_COUNT, 0);
 
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    return db.insert(TABLE_NAME, null, contentValues);
+    SQLiteDatabase db       = databaseHelper.getWritableDatabase();
+    long           threadId = db.insert(TABLE_NAME, null, contentValues);
+
+    recordCache.invalidate(threadId);
+
+    return threadId;
   }
 
   private void updateThread(long threadId, long count, String body, @Nullable Uri attachment,
@@ -194,29 +225,27 @@ public class ThreadDatabase extends Database {
       }
     }
 
-    ContentValues contentValues = new ContentValues();
-    contentValues.put(DATE, date - date % 1000);
-    contentValues.put(SNIPPET, body);
-    contentValues.put(SNIPPET_URI, attachment == null ? null : attachment.toString());
-    contentValues.put(SNIPPET_TYPE, type);
-    contentValues.put(SNIPPET_CONTENT_TYPE, contentType);
-    contentValues.put(SNIPPET_EXTRAS, extraSerialized);
-    contentValues.put(MESSAGE_COUNT, count);
-    contentValues.put(STATUS, status);
-    contentValues.put(DELIVERY_RECEIPT_COUNT, deliveryReceiptCount);
-    contentValues.put(READ_RECEIPT_COUNT, readReceiptCount);
-    contentValues.put(EXPIRES_IN, expiresIn);
-
-    if (unarchive) {
-      contentValues.put(ARCHIVED, 0);
-    }
-
-    if (count != getConversationMessageCount(threadId)) {
-      contentValues.put(LAST_SCROLLED, 0);
-    }
+    String  snippetExtras = extraSerialized;
+    boolean resetScroll   = count != getConversationMessageCount(threadId);
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
+    db.executeUpdateDelete(UPDATE_THREAD, statement -> {
+      statement.bindLong(1, date - date % 1000);
+      CompiledStatementCache.bind(statement, 2, body);
+      CompiledStatementCache.bind(statement, 3, attachment == null ? null : attachment.toString());
+      statement.bindLong(4, type);
+      CompiledStatementCache.bind(statement, 5, contentType);
+      CompiledStatementCache.bind(statement, 6, snippetExtras);
+      statement.bindLong(7, count);
+      statement.bindLong(8, status);
+      statement.bindLong(9, deliveryReceiptCount);
+      statement.bindLong(10, readReceiptCount);
+      statement.bindLong(11, expiresIn);
+      statement.bindLong(12, unarchive ? 1 : 0);
+      statement.bindLong(13, resetScroll ? 1 : 0);
+      statement.bindLong(14, threadId);
+    });
+    recordCache.invalidate(threadId);
     notifyConversationListListeners();
   }
 
@@ -237,12 +266,14 @@ public class ThreadDatabase extends Database {
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
+    recordCache.invalidate(threadId);
     notifyConversationListListeners();
   }
 
   private void deleteThread(long threadId) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.delete(TABLE_NAME, ID_WHERE, new String[] {threadId + ""});
+    recordCache.invalidate(threadId);
     notifyConversationListListeners();
     ConversationUtil.clearShortcuts(context, Collections.singleton(threadId));
   }
@@ -258,6 +289,7 @@ public class ThreadDatabase extends Database {
     where = where.substring(0, where.length() - 4);
 
     db.delete(TABLE_NAME, where, null);
+    recordCache.invalidate(threadIds);
     notifyConversationListListeners();
     ConversationUtil.clearShortcuts(context, threadIds);
   }
@@ -265,6 +297,7 @@ public class ThreadDatabase extends Database {
   private void deleteAllThreads() {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.delete(TABLE_NAME, null, null);
+    recordCache.invalidateAll();
     notifyConversationListListeners();
     ConversationUtil.clearAllShortcuts(context);
   }
@@ -274,11 +307,12 @@ public class ThreadDatabase extends Database {
       return;
     }
 
-    SQLiteDatabase       db                   = databaseHelper.getWritableDatabase();
-    AttachmentDatabase   attachmentDatabase   = DatabaseFactory.getAttachmentDatabase(context);
-    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
-    MmsSmsDatabase       mmsSmsDatabase       = DatabaseFactory.getMmsSmsDatabase(context);
-    MentionDatabase      mentionDatabase      = DatabaseFactory.getMentionDatabase(context);
+    SQLiteDatabase        db                    = databaseHelper.getWritableDatabase();
+    AttachmentDatabase    attachmentDatabase    = DatabaseFactory.getAttachmentDatabase(context);
+    GroupReceiptDatabase  groupReceiptDatabase  = DatabaseFactory.getGroupReceiptDatabase(context);
+    MmsSmsDatabase        mmsSmsDatabase        = DatabaseFactory.getMmsSmsDatabase(context);
+    MentionDatabase       mentionDatabase       = DatabaseFactory.getMentionDatabase(context);
+    TranscodePlanDatabase transcodePlanDatabase = DatabaseFactory.getTranscodePlanDatabase(context);
 
     try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, new String[] { ID }, null, null, null, null, null)) {
       while (cursor != null && cursor.moveToNext()) {
@@ -294,6 +328,7 @@ public class ThreadDatabase extends Database {
       groupReceiptDatabase.deleteAbandonedRows();
       mentionDatabase.deleteAbandonedMentions();
       attachmentDatabase.deleteAbandonedAttachmentFiles();
+      transcodePlanDatabase.deleteAbandonedPlans();
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -310,11 +345,12 @@ public class ThreadDatabase extends Database {
       return;
     }
 
-    SQLiteDatabase       db                   = databaseHelper.getWritableDatabase();
-    AttachmentDatabase   attachmentDatabase   = DatabaseFactory.getAttachmentDatabase(context);
-    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
-    MmsSmsDatabase       mmsSmsDatabase       = DatabaseFactory.getMmsSmsDatabase(context);
-    MentionDatabase      mentionDatabase      = DatabaseFactory.getMentionDatabase(context);
+    SQLiteDatabase        db                    = databaseHelper.getWritableDatabase();
+    AttachmentDatabase    attachmentDatabase    = DatabaseFactory.getAttachmentDatabase(context);
+    GroupReceiptDatabase  groupReceiptDatabase  = DatabaseFactory.getGroupReceiptDatabase(context);
+    MmsSmsDatabase        mmsSmsDatabase        = DatabaseFactory.getMmsSmsDatabase(context);
+    MentionDatabase       mentionDatabase       = DatabaseFactory.getMentionDatabase(context);
+    TranscodePlanDatabase transcodePlanDatabase = DatabaseFactory.getTranscodePlanDatabase(context);
 
     db.beginTransaction();
 
@@ -325,6 +361,7 @@ public class ThreadDatabase extends Database {
       groupReceiptDatabase.deleteAbandonedRows();
       mentionDatabase.deleteAbandonedMentions();
       attachmentDatabase.deleteAbandonedAttachmentFiles();
+      transcodePlanDatabase.deleteAbandonedPlans();
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -367,6 +404,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(UNREAD_COUNT, 0);
 
     db.update(TABLE_NAME, contentValues, null, null);
+    recordCache.invalidateAll();
 
     final List<MarkedMessageInfo> smsRecords = DatabaseFactory.getSmsDatabase(context).setAllMessagesRead();
     final List<MarkedMessageInfo> mmsRecords = DatabaseFactory.getMmsDatabase(context).setAllMessagesRead();
@@ -439,6 +477,7 @@ public class ThreadDatabase extends Database {
         contentValues.put(UNREAD_COUNT, unreadCount);
 
         db.update(TABLE_NAME, contentValues, ID_WHERE, SqlUtil.buildArgs(threadId));
+        recordCache.invalidate(threadId);
 
         if (previous != null && previous.isForcedUnread()) {
           DatabaseFactory.getRecipientDatabase(context).markNeedsSync(previous.getRecipient().getId());
@@ -473,6 +512,7 @@ public class ThreadDatabase extends Database {
       contentValues.put(READ, ReadStatus.FORCED_UNREAD.serialize());
 
       db.update(TABLE_NAME, contentValues, query.getWhere(), query.getWhereArgs());
+      recordCache.invalidate(threadIds);
       DatabaseFactory.getRecipientDatabase(context).markNeedsSync(recipientIds);
 
       db.setTransactionSuccessful();
@@ -491,6 +531,7 @@ public class ThreadDatabase extends Database {
                    UNREAD_COUNT + " = " + UNREAD_COUNT + " + ? WHERE " + ID + " = ?",
                new String[] {String.valueOf(amount),
                              String.valueOf(threadId)});
+    recordCache.invalidate(threadId);
   }
 
   public void setDistributionType(long threadId, int distributionType) {
@@ -499,6 +540,7 @@ public class ThreadDatabase extends Database {
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId + ""});
+    recordCache.invalidate(threadId);
     notifyConversationListListeners();
   }
 
@@ -656,6 +698,7 @@ public class ThreadDatabase extends Database {
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
+      recordCache.invalidateAll();
       notifyConversationListListeners();
     }
   }
@@ -679,6 +722,7 @@ public class ThreadDatabase extends Database {
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
+      recordCache.invalidate(threadIds);
       notifyConversationListListeners();
     }
   }
@@ -721,6 +765,68 @@ public class ThreadDatabase extends Database {
     return getConversationList(archived, 0, 0);
   }
 
+  /**
+   * Same as {@link #getUnarchivedConversationList(boolean, long, long)}, but served from memory
+   * when possible.
+   */
+  public @NonNull List<ThreadRecord> getUnarchivedConversationRecords(boolean pinned, long offset, long limit) {
+    List<ThreadRecord> cached = recordCache.getUnarchived(pinned, offset, limit);
+
+    if (cached != null) {
+      return withLiveRecipients(cached);
+    }
+
+    return readAll(getUnarchivedConversationList(pinned, offset, limit));
+  }
+
+  /**
+   * Same as {@link #getArchivedConversationList(long, long)}, but served from memory when possible.
+   */
+  public @NonNull List<ThreadRecord> getArchivedConversationRecords(long offset, long limit) {
+    List<ThreadRecord> cached = recordCache.getArchived(offset, limit);
+
+    if (cached != null) {
+      return withLiveRecipients(cached);
+    }
+
+    return readAll(getArchivedConversationList(offset, limit));
+  }
+
+  private @NonNull List<ThreadRecord> readAll(@NonNull Cursor cursor) {
+    List<ThreadRecord> records    = new ArrayList<>(cursor.getCount());
+    List<Recipient>    recipients = new ArrayList<>(cursor.getCount());
+
+    try (Reader reader = readerFor(cursor)) {
+      ThreadRecord record;
+
+      while ((record = reader.getNext()) != null) {
+        records.add(record);
+        recipients.add(record.getRecipient());
+      }
+    }
+
+    ApplicationDependencies.getRecipientCache().addToCache(recipients);
+
+    return records;
+  }
+
+  /**
+   * Cached records keep the recipient they were read with, which goes stale as soon as the
+   * recipient or its group changes. The live recipient is kept current, so that's the one we hand
+   * out. If it isn't resolved yet, the snapshot is still better than a placeholder.
+   */
+  private static @NonNull List<ThreadRecord> withLiveRecipients(@NonNull List<ThreadRecord> records) {
+    List<ThreadRecord> updated = new ArrayList<>(records.size());
+
+    for (ThreadRecord record : records) {
+      Recipient live = record.getRecipient().live().get();
+
+      updated.add(live.isResolving() ? record : record.withRecipient(live));
+    }
+
+    return updated;
+  }
+
   public Cursor getUnarchivedConversationList(boolean pinned, long offset, long limit) {
     SQLiteDatabase db          = databaseHelper.getReadableDatabase();
     String         pinnedWhere = PINNED + (pinned ? " != 0" : " = 0");
@@ -752,6 +858,12 @@ public class ThreadDatabase extends Database {
   }
 
   public int getArchivedConversationListCount() {
+    int[] cached = recordCache.getCounts();
+
+    if (cached != null) {
+      return cached[2];
+    }
+
     SQLiteDatabase db      = databaseHelper.getReadableDatabase();
     String[]       columns = new String[] { "COUNT(*)" };
     String         query   = ARCHIVED + " = ? AND " + MESSAGE_COUNT + " != 0";
@@ -767,6 +879,12 @@ public class ThreadDatabase extends Database {
   }
 
   public int getPinnedConversationListCount() {
+    int[] cached = recordCache.getCounts();
+
+    if (cached != null) {
+      return cached[1];
+    }
+
     SQLiteDatabase db      = databaseHelper.getReadableDatabase();
     String[]       columns = new String[] { "COUNT(*)" };
     String         query   = ARCHIVED + " = 0 AND " + PINNED + " != 0 AND " + MESSAGE_COUNT + " != 0";
@@ -781,6 +899,12 @@ public class ThreadDatabase extends Database {
   }
 
   public int getUnarchivedConversationListCount() {
+    int[] cached = recordCache.getCounts();
+
+    if (cached != null) {
+      return cached[0];
+    }
+
     SQLiteDatabase db      = databaseHelper.getReadableDatabase();
     String[]       columns = new String[] { "COUNT(*)" };
     String         query   = ARCHIVED + " = 0 AND " + MESSAGE_COUNT + " != 0";
@@ -879,6 +1003,7 @@ public class ThreadDatabase extends Database {
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
+      recordCache.invalidateAll();
       notifyConversationListListeners();
     }
 
@@ -897,6 +1022,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(PINNED, 0);
 
     db.update(TABLE_NAME, contentValues, selection, SqlUtil.buildArgs(Stream.of(threadIds).toArray()));
+    recordCache.invalidate(threadIds);
     notifyConversationListListeners();
 
     DatabaseFactory.getRecipientDatabase(context).markNeedsSync(Recipient.self().getId());
@@ -910,6 +1036,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(ARCHIVED, 1);
 
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId + ""});
+    recordCache.invalidate(threadId);
     notifyConversationListListeners();
 
     Recipient recipient = getRecipientForThreadId(threadId);
@@ -925,6 +1052,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(ARCHIVED, 0);
 
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId + ""});
+    recordCache.invalidate(threadId);
     notifyConversationListListeners();
 
     Recipient recipient = getRecipientForThreadId(threadId);
@@ -940,6 +1068,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(LAST_SEEN, System.currentTimeMillis());
 
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(threadId)});
+    recordCache.invalidate(threadId);
     notifyConversationListListeners();
   }
 
@@ -1125,6 +1254,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(UNREAD_COUNT, unreadCount);
 
     databaseHelper.getWritableDatabase().update(TABLE_NAME, contentValues, ID_WHERE, SqlUtil.buildArgs(threadId));
+    recordCache.invalidate(threadId);
 
     notifyConversationListListeners();
 
@@ -1195,6 +1325,7 @@ public class ThreadDatabase extends Database {
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
+      recordCache.invalidateAll();
     }
 
     notifyConversationListListeners();
@@ -1217,6 +1348,7 @@ public class ThreadDatabase extends Database {
     }
 
     databaseHelper.getWritableDatabase().update(TABLE_NAME, values, RECIPIENT_ID + " = ?", SqlUtil.buildArgs(recipientId));
+    recordCache.invalidateAll();
   }
 
   public boolean update(long threadId, boolean unarchive) {
@@ -1298,6 +1430,7 @@ public class ThreadDatabase extends Database {
       values.put(RECIPIENT_ID, primaryRecipientId.serialize());
 
       databaseHelper.getWritableDatabase().update(TABLE_NAME, values, ID_WHERE, SqlUtil.buildArgs(secondary.getThreadId()));
+      recordCache.invalidate(secondary.getThreadId());
       return new MergeResult(secondary.getThreadId(), -1, false);
     } else if (primary == null && secondary == null) {
       Log.w(TAG, "[merge] No thread for either.");
@@ -1308,6 +1441,7 @@ public class ThreadDatabase extends Database {
       SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
       db.delete(TABLE_NAME, ID_WHERE, SqlUtil.buildArgs(secondary.getThreadId()));
+      recordCache.invalidate(Arrays.asList(primary.getThreadId(), secondary.getThreadId()));
 
       if (primary.getExpiresIn() != secondary.getExpiresIn()) {
         ContentValues values = new ContentValues();
@@ -1326,11 +1460,6 @@ public class ThreadDatabase extends Database {
       draftValues.put(DraftDatabase.THREAD_ID, primary.getThreadId());
       db.update(DraftDatabase.TABLE_NAME, draftValues, DraftDatabase.THREAD_ID + " = ?", SqlUtil.buildArgs(secondary.getThreadId()));
 
-      ContentValues searchValues = new ContentValues();
-      searchValues.put(SearchDatabase.THREAD_ID, primary.getThreadId());
-      db.update(SearchDatabase.SMS_FTS_TABLE_NAME, searchValues, SearchDatabase.THREAD_ID + " = ?", SqlUtil.buildArgs(secondary.getThreadId()));
-      db.update(SearchDatabase.MMS_FTS_TABLE_NAME, searchValues, SearchDatabase.THREAD_ID + " = ?", SqlUtil.buildArgs(secondary.getThreadId()));
-
       RemappedRecords.getInstance().addThread(context, secondary.getThreadId(), primary.getThreadId());
 
       return new MergeResult(primary.getThreadId(), secondary.getThreadId(), true);
@@ -1483,6 +1612,63 @@ public class ThreadDatabase extends Database {
     public static final int INBOX_ZERO   = 4;
   }
 
+  /**
+   * Reads on the writer, so a thread that was just written to is only read back once that write
+   * has been committed.
+   */
+  private final class RecordLoader implements ThreadRecordCache.Loader {
+
+    @Override
+    public boolean canLoad() {
+      return !databaseHelper.getWritableDatabase().isDbLockedByCurrentThread();
+    }
+
+    @Override
+    public boolean isReadReceiptsEnabled() {
+      return TextSecurePreferences.isReadReceiptsEnabled(context);
+    }
+
+    @Override
+    public @NonNull List<ThreadRecordCache.Entry> loadAll() {
+      return load(createQuery(MESSAGE_COUNT + " != 0", 0, 0, false), null);
+    }
+
+    @Override
+    public @NonNull List<ThreadRecordCache.Entry> load(@NonNull Collection<Long> threadIds) {
+      List<ThreadRecordCache.Entry> entries = new ArrayList<>(threadIds.size());
+
+      for (SqlUtil.Query query : SqlUtil.buildCollectionQuery(TABLE_NAME + "." + ID, threadIds, SqlUtil.MAX_QUERY_ARGS)) {
+        entries.addAll(load(createQuery(query.getWhere(), 0), query.getWhereArgs()));
+      }
+
+      return entries;
+    }
+
+    /**
+     * Rows read here are fresh, so their recipients also seed the {@link LiveRecipientCache} that
+     * cached records are later served with.
+     */
+    private @NonNull List<ThreadRecordCache.Entry> load(@NonNull String query, @Nullable String[] args) {
+      List<ThreadRecordCache.Entry> entries    = new ArrayList<>();
+      List<Recipient>               recipients = new ArrayList<>();
+
+      try (Cursor cursor = databaseHelper.getWritableDatabase().getSqlCipherDatabase().rawQuery(query, args)) {
+        Reader reader = readerFor(cursor);
+
+        while (cursor != null && cursor.moveToNext()) {
+          ThreadRecord record = reader.getCurrent();
+
+          entries.add(new ThreadRecordCache.Entry(record, CursorUtil.requireInt(cursor, PINNED)));
+          recipients.add(record.getRecipient());
+        }
+      }
+
+      ApplicationDependencies.getRecipientCache().addToCache(recipients);
+
+      return entries;
+    }
+  }
+
   public class Reader extends StaticReader {
     public Reader(Cursor cursor) {
       super(cursor, context);
@@ -0,0 +1,258 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.model.ThreadRecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory copy of every thread that the conversation list shows, so that paging through it
+ * doesn't re-run the thread, recipient and group join for every page.
+ *
+ * The whole table is read once. After that, {@link ThreadDatabase} marks the threads it writes to
+ * as dirty, and only those rows are read again before the next page is served. Writes that touch
+ * an unknown set of threads drop the whole copy.
+ *
+ * Rows are re-read without holding this object's lock, so that a writer invalidating a thread is
+ * never blocked behind a reader waiting on the database. A re-read row is only kept if its thread
+ * wasn't invalidated again in the meantime.
+ */
+final class ThreadRecordCache {
+
+  private static final String TAG = Log.tag(ThreadRecordCache.class);
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  private static final Comparator<Entry> BY_PINNED = (lhs, rhs) -> Integer.compare(lhs.pinned, rhs.pinned);
+  private static final Comparator<Entry> BY_DATE   = (lhs, rhs) -> {
+    int result = Long.compare(rhs.record.getDate(), lhs.record.getDate());
+    return result != 0 ? result : Long.compare(rhs.record.getThreadId(), lhs.record.getThreadId());
+  };
+
+  private final Loader           loader;
+  private final Map<Long, Entry> entries = new HashMap<>();
+  private final Map<Long, Long>  dirty   = new HashMap<>();
+
+  private boolean populated;
+  private long    epoch;
+  private long    version;
+  private Views   views;
+
+  ThreadRecordCache(@NonNull Loader loader) {
+    this.loader = loader;
+  }
+
+  synchronized void invalidate(long threadId) {
+    dirty.put(threadId, ++version);
+  }
+
+  synchronized void invalidate(@NonNull Collection<Long> threadIds) {
+    for (long threadId : threadIds) {
+      invalidate(threadId);
+    }
+  }
+
+  synchronized void invalidateAll() {
+    epoch++;
+    populated = false;
+    entries.clear();
+    dirty.clear();
+    views = null;
+  }
+
+  /**
+   * @return The requested page, or null if the cache can't serve it right now and the caller
+   *         should query the database instead.
+   */
+  @Nullable List<ThreadRecord> getUnarchived(boolean pinned, long offset, long limit) {
+    Views current = refresh();
+    return current != null ? page(pinned ? current.pinned : current.unpinned, offset, limit) : null;
+  }
+
+  @Nullable List<ThreadRecord> getArchived(long offset, long limit) {
+    Views current = refresh();
+    return current != null ? page(current.archived, offset, limit) : null;
+  }
+
+  /**
+   * @return The number of unarchived, pinned and archived threads, or null if the cache can't
+   *         serve them right now.
+   */
+  @Nullable int[] getCounts() {
+    Views current = refresh();
+    return current != null ? new int[] { current.pinned.size() + current.unpinned.size(), current.pinned.size(), current.archived.size() }
+                           : null;
+  }
+
+  private @Nullable Views refresh() {
+    if (!loader.canLoad()) {
+      return null;
+    }
+
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      boolean         full;
+      long            startEpoch;
+      long            startVersion;
+      Map<Long, Long> pending;
+
+      synchronized (this) {
+        if (views != null && views.readReceiptsEnabled != loader.isReadReceiptsEnabled()) {
+          invalidateAll();
+        }
+
+        if (populated && dirty.isEmpty() && views != null) {
+          return views;
+        }
+
+        full         = !populated;
+        startEpoch   = epoch;
+        startVersion = version;
+        pending      = full ? Collections.emptyMap() : new HashMap<>(dirty);
+      }
+
+      List<Entry> loaded = full ? loader.loadAll() : loader.load(pending.keySet());
+
+      synchronized (this) {
+        if (epoch != startEpoch) {
+          continue;
+        }
+
+        if (full) {
+          entries.clear();
+
+          for (Entry entry : loaded) {
+            entries.put(entry.record.getThreadId(), entry);
+          }
+
+          Iterator<Long> invalidated = dirty.values().iterator();
+
+          while (invalidated.hasNext()) {
+            if (invalidated.next() <= startVersion) {
+              invalidated.remove();
+            }
+          }
+
+          populated = true;
+        } else {
+          Map<Long, Entry> byId = new HashMap<>(loaded.size());
+
+          for (Entry entry : loaded) {
+            byId.put(entry.record.getThreadId(), entry);
+          }
+
+          for (Map.Entry<Long, Long> invalidated : pending.entrySet()) {
+            long threadId = invalidated.getKey();
+
+            if (!invalidated.getValue().equals(dirty.get(threadId))) {
+              continue;
+            }
+
+            Entry entry = byId.get(threadId);
+
+            if (entry != null) entries.put(threadId, entry);
+            else               entries.remove(threadId);
+
+            dirty.remove(threadId);
+          }
+        }
+
+        views = buildViews(entries.values(), loader.isReadReceiptsEnabled());
+
+        if (dirty.isEmpty()) {
+          return views;
+        }
+      }
+    }
+
+    Log.w(TAG, "Threads kept changing while refreshing. Falling back to the database.");
+    return null;
+  }
+
+  @VisibleForTesting
+  static @NonNull Views buildViews(@NonNull Collection<Entry> entries, boolean readReceiptsEnabled) {
+    List<Entry> pinned   = new ArrayList<>();
+    List<Entry> unpinned = new ArrayList<>(entries.size());
+    List<Entry> archived = new ArrayList<>();
+
+    for (Entry entry : entries) {
+      if (entry.record.getCount() == 0) {
+        continue;
+      }
+
+      if      (entry.record.isArchived()) archived.add(entry);
+      else if (entry.pinned != 0)         pinned.add(entry);
+      else                                unpinned.add(entry);
+    }
+
+    Collections.sort(pinned, BY_PINNED);
+    Collections.sort(unpinned, BY_DATE);
+    Collections.sort(archived, BY_DATE);
+
+    return new Views(toRecords(pinned), toRecords(unpinned), toRecords(archived), readReceiptsEnabled);
+  }
+
+  private static @NonNull List<ThreadRecord> toRecords(@NonNull List<Entry> entries) {
+    List<ThreadRecord> records = new ArrayList<>(entries.size());
+
+    for (Entry entry : entries) {
+      records.add(entry.record);
+    }
+
+    return Collections.unmodifiableList(records);
+  }
+
+  private static @NonNull List<ThreadRecord> page(@NonNull List<ThreadRecord> records, long offset, long limit) {
+    int start = (int) Math.min(Math.max(0, offset), records.size());
+    int end   = limit > 0 ? (int) Math.min(records.size(), start + limit) : records.size();
+
+    return new ArrayList<>(records.subList(start, end));
+  }
+
+  interface Loader {
+    /** False if rows read now might not be committed yet, e.g. inside a transaction. */
+    boolean canLoad();
+    boolean isReadReceiptsEnabled();
+    @NonNull List<Entry> loadAll();
+    @NonNull List<Entry> load(@NonNull Collection<Long> threadIds);
+  }
+
+  static final class Entry {
+    private final ThreadRecord record;
+    private final int          pinned;
+
+    Entry(@NonNull ThreadRecord record, int pinned) {
+      this.record = record;
+      this.pinned = pinned;
+    }
+
+    @NonNull ThreadRecord getRecord() {
+      return record;
+    }
+  }
+
+  @VisibleForTesting
+  static final class Views {
+    final List<ThreadRecord> pinned;
+    final List<ThreadRecord> unpinned;
+    final List<ThreadRecord> archived;
+    final boolean            readReceiptsEnabled;
+
+    private Views(@NonNull List<ThreadRecord> pinned, @NonNull List<ThreadRecord> unpinned, @NonNull List<ThreadRecord> archived, boolean readReceiptsEnabled) {
+      this.pinned              = pinned;
+      this.unpinned            = unpinned;
+      this.archived            = archived;
+      this.readReceiptsEnabled = readReceiptsEnabled;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.video.TranscodePlan;
+
+/**
+ * The {@link TranscodePlan} for each video we've compressed, keyed by the hash of the data we started
+ * from, the size limit and the trim. Once a transcode has finished, the hash of its output is kept
+ * too, so sending the same video again can point straight at the existing data file in
+ * {@link AttachmentDatabase} rather than transcoding it a second time.
+ */
+public class TranscodePlanDatabase extends Database {
+
+  public static final String TABLE_NAME = "transcode_plan";
+
+  private static final String ID                   = "_id";
+  private static final String DATA_HASH            = "data_hash";
+  private static final String UPPER_SIZE_LIMIT     = "upper_size_limit";
+  private static final String TRIM_START_US        = "trim_start_us";
+  private static final String TRIM_END_US          = "trim_end_us";
+  private static final String INPUT_SIZE           = "input_size";
+  private static final String DURATION             = "duration";
+  private static final String CONTAINS_LOCATION    = "contains_location";
+  private static final String TARGET_VIDEO_BITRATE = "target_video_bitrate";
+  private static final String TARGET_AUDIO_BITRATE = "target_audio_bitrate";
+  private static final String OUTPUT_RESOLUTION    = "output_resolution";
+  private static final String FILE_SIZE_ESTIMATE   = "file_size_estimate";
+  private static final String TRANSCODE_REQUIRED   = "transcode_required";
+  private static final String OUTPUT_HASH          = "output_hash";
+
+  private static final String KEY_WHERE = DATA_HASH + " = ? AND " + UPPER_SIZE_LIMIT + " = ? AND " + TRIM_START_US + " = ? AND " + TRIM_END_US + " = ?";
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID                   + " INTEGER PRIMARY KEY, " +
+                                                                                  DATA_HASH            + " TEXT NOT NULL, " +
+                                                                                  UPPER_SIZE_LIMIT     + " INTEGER NOT NULL, " +
+                                                                                  TRIM_START_US        + " INTEGER NOT NULL, " +
+                                                                                  TRIM_END_US          + " INTEGER NOT NULL, " +
+                                                                                  INPUT_SIZE           + " INTEGER, " +
+                                                                                  DURATION             + " INTEGER, " +
+                                                                                  CONTAINS_LOCATION    + " INTEGER, " +
+                                                                                  TARGET_VIDEO_BITRATE + " INTEGER, " +
+                                                                                  TARGET_AUDIO_BITRATE + " INTEGER, " +
+                                                                                  OUTPUT_RESOLUTION    + " INTEGER, " +
+                                                                                  FILE_SIZE_ESTIMATE   + " INTEGER, " +
+                                                                                  TRANSCODE_REQUIRED   + " INTEGER, " +
+                                                                                  OUTPUT_HASH          + " TEXT DEFAULT NULL, " +
+                                                                                  "UNIQUE(" + DATA_HASH + ", " + UPPER_SIZE_LIMIT + ", " + TRIM_START_US + ", " + TRIM_END_US + "))";
+
+  /**
+   * Plans are only useful while either their input or their output is still around to be sent again.
+   */
+  private static final String DELETE_ABANDONED_WHERE = "(" + OUTPUT_HASH + " IS NULL OR " + OUTPUT_HASH + " NOT IN (SELECT " + AttachmentDatabase.DATA_HASH + " FROM " + AttachmentDatabase.TABLE_NAME + " WHERE " + AttachmentDatabase.DATA_HASH + " NOT NULL)) AND " +
+                                                       DATA_HASH + " NOT IN (SELECT " + AttachmentDatabase.DATA_HASH + " FROM " + AttachmentDatabase.TABLE_NAME + " WHERE " + AttachmentDatabase.DATA_HASH + " NOT NULL)";
+
+  TranscodePlanDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  public @Nullable TranscodePlan getPlan(@NonNull Key key) {
+    String[] projection = new String[] { INPUT_SIZE, DURATION, CONTAINS_LOCATION, TARGET_VIDEO_BITRATE, TARGET_AUDIO_BITRATE, OUTPUT_RESOLUTION, FILE_SIZE_ESTIMATE, TRANSCODE_REQUIRED };
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, projection, KEY_WHERE, key.toArgs(), null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return new TranscodePlan(key.upperSizeLimit,
+                                 CursorUtil.requireLong(cursor, INPUT_SIZE),
+                                 CursorUtil.requireLong(cursor, DURATION),
+                                 CursorUtil.requireBoolean(cursor, CONTAINS_LOCATION),
+                                 CursorUtil.requireInt(cursor, TARGET_VIDEO_BITRATE),
+                                 CursorUtil.requireInt(cursor, TARGET_AUDIO_BITRATE),
+                                 CursorUtil.requireInt(cursor, OUTPUT_RESOLUTION),
+                                 CursorUtil.requireLong(cursor, FILE_SIZE_ESTIMATE),
+                                 CursorUtil.requireBoolean(cursor, TRANSCODE_REQUIRED));
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Saves a freshly probed plan. Any output recorded for the same key is forgotten.
+   */
+  public void setPlan(@NonNull Key key, @NonNull TranscodePlan plan) {
+    ContentValues values = new ContentValues(12);
+    values.put(DATA_HASH, key.dataHash);
+    values.put(UPPER_SIZE_LIMIT, key.upperSizeLimit);
+    values.put(TRIM_START_US, key.trimStartUs);
+    values.put(TRIM_END_US, key.trimEndUs);
+    values.put(INPUT_SIZE, plan.getInputSize());
+    values.put(DURATION, plan.getDuration());
+    values.put(CONTAINS_LOCATION, plan.containsLocation() ? 1 : 0);
+    values.put(TARGET_VIDEO_BITRATE, plan.getTargetVideoBitRate());
+    values.put(TARGET_AUDIO_BITRATE, plan.getTargetAudioBitRate());
+    values.put(OUTPUT_RESOLUTION, plan.getOutputResolution());
+    values.put(FILE_SIZE_ESTIMATE, plan.getFileSizeEstimate());
+    values.put(TRANSCODE_REQUIRED, plan.isTranscodeRequired() ? 1 : 0);
+
+    databaseHelper.getWritableDatabase().insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+  }
+
+  /**
+   * @return The {@link AttachmentDatabase#DATA_HASH} of the last finished transcode for this key, if any.
+   */
+  public @Nullable String getOutputHash(@NonNull Key key) {
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, new String[] { OUTPUT_HASH }, KEY_WHERE, key.toArgs(), null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getString(cursor.getColumnIndexOrThrow(OUTPUT_HASH));
+      }
+    }
+
+    return null;
+  }
+
+  public void setOutputHash(@NonNull Key key, @NonNull String outputHash) {
+    ContentValues values = new ContentValues(1);
+    values.put(OUTPUT_HASH, outputHash);
+
+    databaseHelper.getWritableDatabase().update(TABLE_NAME, values, KEY_WHERE, key.toArgs());
+  }
+
+  public void deleteAbandonedPlans() {
+    databaseHelper.getWritableDatabase().delete(TABLE_NAME, DELETE_ABANDONED_WHERE, null);
+  }
+
+  public static final class Key {
+    private final String dataHash;
+    private final long   upperSizeLimit;
+    private final long   trimStartUs;
+    private final long   trimEndUs;
+
+    /**
+     * @param trimStartUs Zero, along with {@code trimEndUs}, if the video isn't trimmed.
+     */
+    public Key(@NonNull String dataHash, long upperSizeLimit, long trimStartUs, long trimEndUs) {
+      this.dataHash       = dataHash;
+      this.upperSizeLimit = upperSizeLimit;
+      this.trimStartUs    = trimStartUs;
+      this.trimEndUs      = trimEndUs;
+    }
+
+    private @NonNull String[] toArgs() {
+      return new String[] { dataHash, String.valueOf(upperSizeLimit), String.valueOf(trimStartUs), String.valueOf(trimEndUs) };
+    }
+  }
+}
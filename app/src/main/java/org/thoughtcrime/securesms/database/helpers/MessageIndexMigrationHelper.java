@@ -0,0 +1,92 @@
+package org.thoughtcrime.securesms.database.helpers;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.migrations.LegacyMigrationJob;
+
+/**
+ * Creates the message index and fills it from the existing SMS and MMS tables. Messages are copied
+ * in batches of IDs so that progress can be reported while a large database is being indexed. The
+ * indexes and triggers are only added once everything is copied, which is quicker than maintaining
+ * them row by row.
+ */
+public final class MessageIndexMigrationHelper {
+
+  private static final String TAG = Log.tag(MessageIndexMigrationHelper.class);
+
+  private static final int BATCH_SIZE = 10_000;
+
+  private MessageIndexMigrationHelper() {}
+
+  public static void execute(@NonNull SQLiteDatabase db, @NonNull LegacyMigrationJob.DatabaseUpgradeListener listener) {
+    long startTime = System.currentTimeMillis();
+
+    db.execSQL("CREATE TABLE message_index (_id INTEGER PRIMARY KEY, thread_id INTEGER, date_received INTEGER, transport_rank INTEGER, message_id INTEGER, read INTEGER, notified INTEGER, reactions_unread INTEGER, UNIQUE(transport_rank, message_id))");
+
+    long smsMaxId = getMaxId(db, "sms");
+    long mmsMaxId = getMaxId(db, "mms");
+    int  total    = (int) Math.min(Integer.MAX_VALUE, smsMaxId + mmsMaxId);
+
+    copy(db, "sms", "date", 1, 0, smsMaxId, total, listener);
+    copy(db, "mms", "date_received", 0, smsMaxId, mmsMaxId, total, listener);
+
+    db.execSQL("CREATE INDEX IF NOT EXISTS message_index_thread_key_index ON message_index (thread_id, date_received, transport_rank, message_id)");
+    db.execSQL("CREATE INDEX IF NOT EXISTS message_index_unread_index ON message_index (thread_id, date_received) WHERE notified = 0 AND (read = 0 OR reactions_unread = 1)");
+
+    createTriggers(db, "sms", "date", 1);
+    createTriggers(db, "mms", "date_received", 0);
+
+    Log.i(TAG, "Indexed messages in " + (System.currentTimeMillis() - startTime) + " ms.");
+  }
+
+  private static void copy(@NonNull SQLiteDatabase db,
+                           @NonNull String table,
+                           @NonNull String dateColumn,
+                           int transportRank,
+                           long progressOffset,
+                           long maxId,
+                           int total,
+                           @NonNull LegacyMigrationJob.DatabaseUpgradeListener listener)
+  {
+    for (long start = 0; start < maxId; start += BATCH_SIZE) {
+      long end = Math.min(start + BATCH_SIZE, maxId);
+
+      db.execSQL("INSERT INTO message_index (thread_id, date_received, transport_rank, message_id, read, notified, reactions_unread) " +
+                 "SELECT thread_id, " + dateColumn + ", " + transportRank + ", _id, read, notified, reactions_unread FROM " + table + " " +
+                 "WHERE _id > " + start + " AND _id <= " + end);
+
+      listener.setProgress((int) Math.min(progressOffset + end, total), total);
+    }
+  }
+
+  private static void createTriggers(@NonNull SQLiteDatabase db, @NonNull String table, @NonNull String dateColumn, int transportRank) {
+    db.execSQL("CREATE TRIGGER message_index_" + table + "_ai AFTER INSERT ON " + table + " BEGIN\n" +
+               "  INSERT INTO message_index (thread_id, date_received, transport_rank, message_id, read, notified, reactions_unread) " +
+                   "VALUES (new.thread_id, new." + dateColumn + ", " + transportRank + ", new._id, new.read, new.notified, new.reactions_unread);\n" +
+               "END;");
+
+    db.execSQL("CREATE TRIGGER message_index_" + table + "_ad AFTER DELETE ON " + table + " BEGIN\n" +
+               "  DELETE FROM message_index WHERE transport_rank = " + transportRank + " AND message_id = old._id;\n" +
+               "END;");
+
+    db.execSQL("CREATE TRIGGER message_index_" + table + "_au AFTER UPDATE OF thread_id, " + dateColumn + ", read, notified, reactions_unread ON " + table + " BEGIN\n" +
+               "  UPDATE message_index SET thread_id = new.thread_id, date_received = new." + dateColumn + ", read = new.read, notified = new.notified, reactions_unread = new.reactions_unread " +
+                   "WHERE transport_rank = " + transportRank + " AND message_id = old._id;\n" +
+               "END;");
+  }
+
+  private static long getMaxId(@NonNull SQLiteDatabase db, @NonNull String table) {
+    try (Cursor cursor = db.rawQuery("SELECT MAX(_id) FROM " + table, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getLong(0);
+      }
+    }
+
+    return 0;
+  }
+}
@@ -26,6 +26,7 @@ import org.thoughtcrime.securesms.contacts.avatars.ContactColorsLegacy;
 import org.thoughtcrime.securesms.crypto.DatabaseSecret;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.database.CdsDatabase;
 import org.thoughtcrime.securesms.database.DraftDatabase;
 import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.GroupReceiptDatabase;
@@ -34,9 +35,12 @@ import org.thoughtcrime.securesms.database.JobDatabase;
 import org.thoughtcrime.securesms.database.KeyValueDatabase;
 import org.thoughtcrime.securesms.database.MegaphoneDatabase;
 import org.thoughtcrime.securesms.database.MentionDatabase;
+import org.thoughtcrime.securesms.database.MessageIndexDatabase;
 import org.thoughtcrime.securesms.database.MmsDatabase;
 import org.thoughtcrime.securesms.database.OneTimePreKeyDatabase;
 import org.thoughtcrime.securesms.database.PushDatabase;
+import org.thoughtcrime.securesms.database.CompiledStatementCache;
+import org.thoughtcrime.securesms.database.ReadConnectionPool;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RemappedRecordsDatabase;
 import org.thoughtcrime.securesms.database.SearchDatabase;
@@ -46,8 +50,10 @@ import org.thoughtcrime.securesms.database.SignedPreKeyDatabase;
 import org.thoughtcrime.securesms.database.SmsDatabase;
 import org.thoughtcrime.securesms.database.SqlCipherDatabaseHook;
 import org.thoughtcrime.securesms.database.StickerDatabase;
+import org.thoughtcrime.securesms.database.StorageIndexDatabase;
 import org.thoughtcrime.securesms.database.StorageKeyDatabase;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
+import org.thoughtcrime.securesms.database.TranscodePlanDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.groups.GroupId;
 import org.thoughtcrime.securesms.jobs.RefreshPreKeysJob;
@@ -171,13 +177,22 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
   private static final int LAST_RESET_SESSION_TIME          = 87;
   private static final int WALLPAPER                        = 88;
   private static final int ABOUT                            = 89;
-
-  private static final int    DATABASE_VERSION = 89;
+  private static final int CDS_STATE                        = 90;
+  private static final int STORAGE_INDEX                    = 91;
+  private static final int MESSAGE_INDEX                    = 92;
+  private static final int FTS_PREFIX_INDEX                 = 93;
+  private static final int DEFERRED_SEARCH_INDEX            = 94;
+  private static final int TRANSCODE_PLAN                   = 95;
+
+  private static final int    DATABASE_VERSION = 95;
   private static final String DATABASE_NAME    = "signal.db";
 
   private final Context        context;
   private final DatabaseSecret databaseSecret;
 
+  private volatile ReadConnectionPool     readPool;
+  private volatile CompiledStatementCache statementCache;
+
   public SQLCipherOpenHelper(@NonNull Context context, @NonNull DatabaseSecret databaseSecret) {
     super(context, DATABASE_NAME, null, DATABASE_VERSION, new SqlCipherDatabaseHook());
 
@@ -185,6 +200,44 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     this.databaseSecret = databaseSecret;
   }
 
+  /**
+   * Reads only get their own connections once the journal is in WAL mode. Otherwise a reader would
+   * block the writer, and the single connection is the better choice.
+   */
+  @Override
+  public void onOpen(SQLiteDatabase db) {
+    String journalMode = null;
+
+    try (Cursor cursor = db.rawQuery("PRAGMA journal_mode = WAL", null)) {
+      if (cursor.moveToFirst()) {
+        journalMode = cursor.getString(0);
+      }
+    }
+
+    statementCache = new CompiledStatementCache(db);
+
+    if ("wal".equalsIgnoreCase(journalMode)) {
+      readPool = new ReadConnectionPool(db.getPath(), databaseSecret.asString(), new SqlCipherDatabaseHook(), ReadConnectionPool.getDefaultSize());
+    } else {
+      Log.w(TAG, "Unable to enable write-ahead logging. Journal mode: " + journalMode);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (readPool != null) {
+      readPool.close();
+      readPool = null;
+    }
+
+    if (statementCache != null) {
+      statementCache.close();
+      statementCache = null;
+    }
+
+    super.close();
+  }
+
   @Override
   public void onCreate(SQLiteDatabase db) {
     db.execSQL(SmsDatabase.CREATE_TABLE);
@@ -203,7 +256,12 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     db.execSQL(StickerDatabase.CREATE_TABLE);
     db.execSQL(StorageKeyDatabase.CREATE_TABLE);
     db.execSQL(MentionDatabase.CREATE_TABLE);
+    db.execSQL(CdsDatabase.CREATE_TABLE);
+    db.execSQL(StorageIndexDatabase.CREATE_TABLE);
+    db.execSQL(MessageIndexDatabase.CREATE_TABLE);
+    db.execSQL(TranscodePlanDatabase.CREATE_TABLE);
     executeStatements(db, SearchDatabase.CREATE_TABLE);
+    executeStatements(db, MessageIndexDatabase.CREATE_TRIGGERS);
     executeStatements(db, RemappedRecordsDatabase.CREATE_TABLE);
 
     executeStatements(db, RecipientDatabase.CREATE_INDEXS);
@@ -217,6 +275,7 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     executeStatements(db, StickerDatabase.CREATE_INDEXES);
     executeStatements(db, StorageKeyDatabase.CREATE_INDEXES);
     executeStatements(db, MentionDatabase.CREATE_INDEXES);
+    executeStatements(db, MessageIndexDatabase.CREATE_INDEXES);
 
     if (context.getDatabasePath(ClassicOpenHelper.NAME).exists()) {
       ClassicOpenHelper                      legacyHelper = new ClassicOpenHelper(context);
@@ -1258,6 +1317,85 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
         db.execSQL("ALTER TABLE recipient ADD COLUMN about_emoji TEXT DEFAULT NULL");
       }
 
+      if (oldVersion < CDS_STATE) {
+        db.execSQL("CREATE TABLE cds (_id INTEGER PRIMARY KEY AUTOINCREMENT, e164 TEXT NOT NULL UNIQUE, state_hash INTEGER NOT NULL, last_checked INTEGER NOT NULL)");
+      }
+
+      if (oldVersion < STORAGE_INDEX) {
+        db.execSQL("CREATE TABLE storage_index (_id INTEGER PRIMARY KEY AUTOINCREMENT, type INTEGER, key TEXT UNIQUE)");
+      }
+
+      if (oldVersion < MESSAGE_INDEX) {
+        MessageIndexMigrationHelper.execute(db, (progress, total) -> Log.i(TAG, "Indexing messages: " + progress + "/" + total));
+      }
+
+      if (oldVersion < FTS_PREFIX_INDEX) {
+        long start = SystemClock.elapsedRealtime();
+
+        db.execSQL("DROP TABLE sms_fts");
+        db.execSQL("DROP TABLE mms_fts");
+
+        db.execSQL("CREATE VIRTUAL TABLE sms_fts USING fts5(body, thread_id UNINDEXED, content=sms, content_rowid=_id, prefix='2 3')");
+        db.execSQL("CREATE VIRTUAL TABLE mms_fts USING fts5(body, thread_id UNINDEXED, content=mms, content_rowid=_id, prefix='2 3')");
+
+        db.execSQL("INSERT INTO sms_fts (sms_fts) VALUES ('rebuild')");
+        db.execSQL("INSERT INTO mms_fts (mms_fts) VALUES ('rebuild')");
+
+        Log.i(TAG, "Rebuilt search index with prefixes in " + (SystemClock.elapsedRealtime() - start) + " ms");
+      }
+
+      if (oldVersion < DEFERRED_SEARCH_INDEX) {
+        db.execSQL("CREATE TABLE search_index_progress (fts_table TEXT PRIMARY KEY, indexed_id INTEGER NOT NULL)");
+        db.execSQL("INSERT INTO search_index_progress SELECT 'sms_fts', IFNULL(MAX(_id), 0) FROM sms");
+        db.execSQL("INSERT INTO search_index_progress SELECT 'mms_fts', IFNULL(MAX(_id), 0) FROM mms");
+
+        db.execSQL("DROP TRIGGER IF EXISTS sms_ai");
+        db.execSQL("DROP TRIGGER IF EXISTS sms_ad");
+        db.execSQL("DROP TRIGGER IF EXISTS sms_au");
+        db.execSQL("DROP TRIGGER IF EXISTS mms_ai");
+        db.execSQL("DROP TRIGGER IF EXISTS mms_ad");
+        db.execSQL("DROP TRIGGER IF EXISTS mms_au");
+
+        db.execSQL("CREATE TRIGGER sms_ai AFTER INSERT ON sms WHEN new._id <= (SELECT indexed_id FROM search_index_progress WHERE fts_table = 'sms_fts') BEGIN\n" +
+                   "  INSERT INTO sms_fts(rowid, body, thread_id) VALUES (new._id, new.body, new.thread_id);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER sms_ad AFTER DELETE ON sms WHEN old._id <= (SELECT indexed_id FROM search_index_progress WHERE fts_table = 'sms_fts') BEGIN\n" +
+                   "  INSERT INTO sms_fts(sms_fts, rowid, body, thread_id) VALUES('delete', old._id, old.body, old.thread_id);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER sms_au AFTER UPDATE OF body ON sms WHEN old._id <= (SELECT indexed_id FROM search_index_progress WHERE fts_table = 'sms_fts') BEGIN\n" +
+                   "  INSERT INTO sms_fts(sms_fts, rowid, body, thread_id) VALUES('delete', old._id, old.body, old.thread_id);\n" +
+                   "  INSERT INTO sms_fts(rowid, body, thread_id) VALUES(new._id, new.body, new.thread_id);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER mms_ai AFTER INSERT ON mms WHEN new._id <= (SELECT indexed_id FROM search_index_progress WHERE fts_table = 'mms_fts') BEGIN\n" +
+                   "  INSERT INTO mms_fts(rowid, body, thread_id) VALUES (new._id, new.body, new.thread_id);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER mms_ad AFTER DELETE ON mms WHEN old._id <= (SELECT indexed_id FROM search_index_progress WHERE fts_table = 'mms_fts') BEGIN\n" +
+                   "  INSERT INTO mms_fts(mms_fts, rowid, body, thread_id) VALUES('delete', old._id, old.body, old.thread_id);\n" +
+                   "END;");
+        db.execSQL("CREATE TRIGGER mms_au AFTER UPDATE OF body ON mms WHEN old._id <= (SELECT indexed_id FROM search_index_progress WHERE fts_table = 'mms_fts') BEGIN\n" +
+                   "  INSERT INTO mms_fts(mms_fts, rowid, body, thread_id) VALUES('delete', old._id, old.body, old.thread_id);\n" +
+                   "  INSERT INTO mms_fts(rowid, body, thread_id) VALUES (new._id, new.body, new.thread_id);\n" +
+                   "END;");
+      }
+
+      if (oldVersion < TRANSCODE_PLAN) {
+        db.execSQL("CREATE TABLE transcode_plan (_id INTEGER PRIMARY KEY, " +
+                                                "data_hash TEXT NOT NULL, " +
+                                                "upper_size_limit INTEGER NOT NULL, " +
+                                                "trim_start_us INTEGER NOT NULL, " +
+                                                "trim_end_us INTEGER NOT NULL, " +
+                                                "input_size INTEGER, " +
+                                                "duration INTEGER, " +
+                                                "contains_location INTEGER, " +
+                                                "target_video_bitrate INTEGER, " +
+                                                "target_audio_bitrate INTEGER, " +
+                                                "output_resolution INTEGER, " +
+                                                "file_size_estimate INTEGER, " +
+                                                "transcode_required INTEGER, " +
+                                                "output_hash TEXT DEFAULT NULL, " +
+                                                "UNIQUE(data_hash, upper_size_limit, trim_start_us, trim_end_us))");
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -1271,11 +1409,13 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
   }
 
   public org.thoughtcrime.securesms.database.SQLiteDatabase getReadableDatabase() {
-    return new org.thoughtcrime.securesms.database.SQLiteDatabase(getReadableDatabase(databaseSecret.asString()));
+    SQLiteDatabase writer = getReadableDatabase(databaseSecret.asString());
+    return new org.thoughtcrime.securesms.database.SQLiteDatabase(writer, readPool, statementCache);
   }
 
   public org.thoughtcrime.securesms.database.SQLiteDatabase getWritableDatabase() {
-    return new org.thoughtcrime.securesms.database.SQLiteDatabase(getWritableDatabase(databaseSecret.asString()));
+    SQLiteDatabase writer = getWritableDatabase(databaseSecret.asString());
+    return new org.thoughtcrime.securesms.database.SQLiteDatabase(writer, readPool, statementCache);
   }
 
   @Override
@@ -0,0 +1,46 @@
+package org.thoughtcrime.securesms.database.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Identifies a message regardless of which table it lives in. SMS and MMS ids overlap, so the id
+ * alone isn't enough.
+ */
+public final class MessageId {
+
+  private final long    id;
+  private final boolean mms;
+
+  public MessageId(long id, boolean mms) {
+    this.id  = id;
+    this.mms = mms;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public boolean isMms() {
+    return mms;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    MessageId that = (MessageId) o;
+
+    return id == that.id && mms == that.mms;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (int) (id ^ (id >>> 32)) + (mms ? 1 : 0);
+  }
+
+  @Override
+  public @NonNull String toString() {
+    return "MessageId::" + (mms ? "mms" : "sms") + "::" + id;
+  }
+}
@@ -81,6 +81,36 @@ public final class ThreadRecord {
     this.isPinned             = builder.isPinned;
   }
 
+  private ThreadRecord(@NonNull ThreadRecord record, @NonNull Recipient recipient) {
+    this.threadId             = record.threadId;
+    this.body                 = record.body;
+    this.recipient            = recipient;
+    this.sender               = record.sender;
+    this.date                 = record.date;
+    this.type                 = record.type;
+    this.deliveryStatus       = record.deliveryStatus;
+    this.deliveryReceiptCount = record.deliveryReceiptCount;
+    this.readReceiptCount     = record.readReceiptCount;
+    this.snippetUri           = record.snippetUri;
+    this.contentType          = record.contentType;
+    this.extra                = record.extra;
+    this.count                = record.count;
+    this.unreadCount          = record.unreadCount;
+    this.forcedUnread         = record.forcedUnread;
+    this.distributionType     = record.distributionType;
+    this.archived             = record.archived;
+    this.expiresIn            = record.expiresIn;
+    this.lastSeen             = record.lastSeen;
+    this.isPinned             = record.isPinned;
+  }
+
+  /**
+   * @return A copy of this record with a newer snapshot of the same recipient.
+   */
+  public @NonNull ThreadRecord withRecipient(@NonNull Recipient recipient) {
+    return new ThreadRecord(this, recipient);
+  }
+
   public long getThreadId() {
     return threadId;
   }
@@ -163,17 +163,21 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
 
   @Override
   public @NonNull JobManager provideJobManager() {
-    JobManager.Configuration config = new JobManager.Configuration.Builder()
-                                                                  .setDataSerializer(new JsonDataSerializer())
-                                                                  .setJobFactories(JobManagerFactories.getJobFactories(context))
-                                                                  .setConstraintFactories(JobManagerFactories.getConstraintFactories(context))
-                                                                  .setConstraintObservers(JobManagerFactories.getConstraintObservers(context))
-                                                                  .setJobStorage(new FastJobStorage(JobDatabase.getInstance(context)))
-                                                                  .setJobMigrator(new JobMigrator(TextSecurePreferences.getJobManagerVersion(context), JobManager.CURRENT_VERSION, JobManagerFactories.getJobMigrations(context)))
-                                                                  .addReservedJobRunner(new FactoryJobPredicate(PushDecryptMessageJob.KEY, PushProcessMessageJob.KEY, MarkerJob.KEY))
-                                                                  .addReservedJobRunner(new FactoryJobPredicate(PushTextSendJob.KEY, PushMediaSendJob.KEY, PushGroupSendJob.KEY, ReactionSendJob.KEY, TypingSendJob.KEY, GroupCallUpdateSendJob.KEY))
-                                                                  .build();
-    return new JobManager(context, config);
+    JobManager.Configuration.Builder builder = new JobManager.Configuration.Builder()
+                                                                           .setDataSerializer(new JsonDataSerializer())
+                                                                           .setJobFactories(JobManagerFactories.getJobFactories(context))
+                                                                           .setConstraintFactories(JobManagerFactories.getConstraintFactories(context))
+                                                                           .setConstraintObservers(JobManagerFactories.getConstraintObservers(context))
+                                                                           .setJobStorage(new FastJobStorage(JobDatabase.getInstance(context)))
+                                                                           .setJobMigrator(new JobMigrator(TextSecurePreferences.getJobManagerVersion(context), JobManager.CURRENT_VERSION, JobManagerFactories.getJobMigrations(context)))
+                                                                           .addReservedJobRunner(new FactoryJobPredicate(PushDecryptMessageJob.KEY, PushProcessMessageJob.KEY, MarkerJob.KEY))
+                                                                           .addReservedJobRunner(new FactoryJobPredicate(PushTextSendJob.KEY, PushMediaSendJob.KEY, PushGroupSendJob.KEY, ReactionSendJob.KEY, TypingSendJob.KEY, GroupCallUpdateSendJob.KEY));
+
+    for (int i = 1; i < PushDecryptMessageJob.getRunnerCount(); i++) {
+      builder.addReservedJobRunner(new FactoryJobPredicate(PushDecryptMessageJob.KEY));
+    }
+
+    return new JobManager(context, builder.build());
   }
 
   @Override
@@ -9,6 +9,7 @@ import com.bumptech.glide.load.engine.Resource;
 
 import org.signal.glide.apng.decode.APNGDecoder;
 import org.signal.glide.apng.decode.APNGParser;
+import org.signal.glide.apng.decode.DecodedFrameContainer;
 import org.signal.glide.common.io.ByteBufferReader;
 import org.signal.glide.common.loader.ByteBufferLoader;
 import org.signal.glide.common.loader.Loader;
@@ -21,7 +22,7 @@ public class ApngBufferCacheDecoder implements ResourceDecoder<ByteBuffer, APNGD
   @Override
   public boolean handles(@NonNull ByteBuffer source, @NonNull Options options) {
     if (options.get(ApngOptions.ANIMATE)) {
-      return APNGParser.isAPNG(new ByteBufferReader(source));
+      return isApng(source);
     } else {
       return false;
     }
@@ -29,7 +30,7 @@ public class ApngBufferCacheDecoder implements ResourceDecoder<ByteBuffer, APNGD
 
   @Override
   public @Nullable Resource<APNGDecoder> decode(@NonNull final ByteBuffer source, int width, int height, @NonNull Options options) throws IOException {
-    if (!APNGParser.isAPNG(new ByteBufferReader(source))) {
+    if (!isApng(source)) {
       return null;
     }
 
@@ -41,7 +42,14 @@ public class ApngBufferCacheDecoder implements ResourceDecoder<ByteBuffer, APNGD
       }
     };
 
-    return new FrameSeqDecoderResource(new APNGDecoder(loader, null), source.limit());
+    APNGDecoder decoder = new APNGDecoder(loader, null);
+    decoder.setRequestedSize(width, height);
+
+    return new FrameSeqDecoderResource(decoder, source.limit());
+  }
+
+  private static boolean isApng(@NonNull ByteBuffer source) {
+    return DecodedFrameContainer.isContainer(new ByteBufferReader(source)) || APNGParser.isAPNG(new ByteBufferReader(source));
   }
 
   private static class FrameSeqDecoderResource implements Resource<APNGDecoder> {
@@ -9,12 +9,22 @@ import org.signal.core.util.Conversions;
  */
 public final class ApngOptions {
 
-  private static final String KEY = "org.signal.skip_apng";
+  private static final String KEY                       = "org.signal.skip_apng";
+  private static final String KEY_CACHE_DECODED_FRAMES = "org.signal.apng_cache_decoded_frames";
 
   public static Option<Boolean> ANIMATE = Option.disk(KEY, true, (keyBytes, value, messageDigest) -> {
     messageDigest.update(keyBytes);
     messageDigest.update(Conversions.intToByteArray(value ? 1 : 0));
   });
 
+  /**
+   * Cache the composited frames at the requested size instead of the original APNG. Worth it for
+   * stickers that are shown at a fixed size and come back on screen often.
+   */
+  public static Option<Boolean> CACHE_DECODED_FRAMES = Option.disk(KEY_CACHE_DECODED_FRAMES, false, (keyBytes, value, messageDigest) -> {
+    messageDigest.update(keyBytes);
+    messageDigest.update(Conversions.intToByteArray(value ? 1 : 0));
+  });
+
   private ApngOptions() {}
 }
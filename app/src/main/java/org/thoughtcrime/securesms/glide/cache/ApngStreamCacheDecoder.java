@@ -10,10 +10,13 @@ import com.bumptech.glide.load.engine.Resource;
 import org.signal.core.util.StreamUtil;
 import org.signal.glide.apng.decode.APNGDecoder;
 import org.signal.glide.apng.decode.APNGParser;
+import org.signal.glide.apng.decode.DecodedFrameContainer;
 import org.signal.glide.common.io.StreamReader;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.ByteBuffer;
 
 public class ApngStreamCacheDecoder implements ResourceDecoder<InputStream, APNGDecoder> {
@@ -27,7 +30,7 @@ public class ApngStreamCacheDecoder implements ResourceDecoder<InputStream, APNG
   @Override
   public boolean handles(@NonNull InputStream source, @NonNull Options options) {
     if (options.get(ApngOptions.ANIMATE)) {
-      return APNGParser.isAPNG(new StreamReader(source));
+      return isApng(source);
     } else {
       return false;
     }
@@ -44,5 +47,25 @@ public class ApngStreamCacheDecoder implements ResourceDecoder<InputStream, APNG
     ByteBuffer byteBuffer = ByteBuffer.wrap(data);
     return byteBufferDecoder.decode(byteBuffer, width, height, options);
   }
-}
 
+  /**
+   * The stream is not always rewindable, so the magic is read once and put back in front of the
+   * stream for the APNG check.
+   */
+  private static boolean isApng(@NonNull InputStream source) {
+    StreamReader reader = new StreamReader(source);
+    byte[]       magic  = new byte[DecodedFrameContainer.MAGIC_LENGTH];
+
+    try {
+      StreamUtil.readFully(reader, magic);
+    } catch (IOException e) {
+      return false;
+    }
+
+    if (DecodedFrameContainer.isContainer(magic)) {
+      return true;
+    }
+
+    return APNGParser.isAPNG(new StreamReader(new SequenceInputStream(new ByteArrayInputStream(magic), reader)));
+  }
+}
@@ -10,12 +10,15 @@ import com.bumptech.glide.load.engine.Resource;
 import org.signal.core.util.StreamUtil;
 import org.signal.core.util.logging.Log;
 import org.signal.glide.apng.decode.APNGDecoder;
+import org.signal.glide.apng.decode.DecodedFrameContainer;
+import org.signal.glide.common.loader.ByteBufferLoader;
 import org.signal.glide.common.loader.Loader;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class EncryptedApngCacheEncoder extends EncryptedCoder implements ResourceEncoder<APNGDecoder> {
 
@@ -29,11 +32,19 @@ public class EncryptedApngCacheEncoder extends EncryptedCoder implements Resourc
 
   @Override
   public @NonNull EncodeStrategy getEncodeStrategy(@NonNull Options options) {
-    return EncodeStrategy.SOURCE;
+    if (options.get(ApngOptions.CACHE_DECODED_FRAMES)) {
+      return EncodeStrategy.TRANSFORMED;
+    } else {
+      return EncodeStrategy.SOURCE;
+    }
   }
 
   @Override
   public boolean encode(@NonNull Resource<APNGDecoder> data, @NonNull File file, @NonNull Options options) {
+    if (options.get(ApngOptions.CACHE_DECODED_FRAMES)) {
+      return encodeDecodedFrames(data.get(), file);
+    }
+
     try {
       Loader       loader = data.get().getLoader();
       InputStream  input  = loader.obtain().toInputStream();
@@ -47,5 +58,35 @@ public class EncryptedApngCacheEncoder extends EncryptedCoder implements Resourc
 
     return false;
   }
-}
 
+  /**
+   * The decoder being encoded may already be playing, so the frames are rendered by a separate
+   * decoder over a copy of the source.
+   */
+  private boolean encodeDecodedFrames(@NonNull APNGDecoder decoder, @NonNull File file) {
+    try {
+      final byte[] source = StreamUtil.readFully(decoder.getLoader().obtain().toInputStream());
+
+      Loader loader = new ByteBufferLoader() {
+        @Override
+        public ByteBuffer getByteBuffer() {
+          return ByteBuffer.wrap(source);
+        }
+      };
+
+      try (OutputStream output = createEncryptedOutputStream(secret, file)) {
+        if (DecodedFrameContainer.isContainer(source)) {
+          output.write(source);
+        } else {
+          DecodedFrameContainer.write(new APNGDecoder(loader, null), decoder.getRequestedWidth(), decoder.getRequestedHeight(), output);
+        }
+      }
+
+      return true;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to cache decoded frames.", e);
+    }
+
+    return false;
+  }
+}
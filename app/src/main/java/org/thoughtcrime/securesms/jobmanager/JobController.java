@@ -104,7 +104,7 @@ class JobController {
   }
 
   @WorkerThread
-  synchronized void submitJobWithExistingDependencies(@NonNull Job job, @NonNull Collection<String> dependsOn, @Nullable String dependsOnQueue) {
+  synchronized void submitJobWithExistingDependencies(@NonNull Job job, @NonNull Collection<String> dependsOn, @NonNull Collection<String> dependsOnQueues) {
     List<List<Job>> chain = Collections.singletonList(Collections.singletonList(job));
 
     if (chainExceedsMaximumInstances(chain)) {
@@ -118,7 +118,7 @@ class JobController {
                                        .filter(id -> jobStorage.getJobSpec(id) != null)
                                        .collect(Collectors.toSet());
 
-    if (dependsOnQueue != null) {
+    for (String dependsOnQueue : dependsOnQueues) {
       List<String> inQueue = Stream.of(jobStorage.getJobsInQueue(dependsOnQueue))
                                    .map(JobSpec::getId)
                                    .toList();
@@ -160,6 +160,52 @@ public class JobManager implements ConstraintObserver.Notifier {
     new Chain(this, Collections.singletonList(job)).enqueue();
   }
 
+  /**
+   * Enqueues a single job to be run, only returning once it has been persisted. Unlike
+   * {@link #add(Job)}, the caller can rely on the job surviving process death as soon as this
+   * returns, e.g. before acknowledging whatever the job was created from.
+   *
+   * The job is still submitted through the executor, so it can't overtake jobs that were added
+   * before it. Must not be called from the executor itself.
+   */
+  @WorkerThread
+  public void addBlocking(@NonNull Job job) {
+    CountDownLatch                    latch = new CountDownLatch(1);
+    AtomicReference<RuntimeException> error = new AtomicReference<>();
+
+    jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
+
+    runOnExecutor(() -> {
+      try {
+        jobController.submitNewJobChain(Collections.singletonList(Collections.singletonList(job)));
+        jobController.wakeUp();
+      } catch (RuntimeException e) {
+        error.set(e);
+      } finally {
+        latch.countDown();
+      }
+    });
+
+    boolean interrupted = false;
+
+    while (true) {
+      try {
+        latch.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (error.get() != null) {
+      throw error.get();
+    }
+  }
+
   /**
    * Enqueues a single job that depends on a collection of job ID's.
    */
@@ -167,7 +213,7 @@ public class JobManager implements ConstraintObserver.Notifier {
     jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
 
     runOnExecutor(() -> {
-      jobController.submitJobWithExistingDependencies(job, dependsOn, null);
+      jobController.submitJobWithExistingDependencies(job, dependsOn, Collections.emptyList());
       jobController.wakeUp();
     });
   }
@@ -180,7 +226,7 @@ public class JobManager implements ConstraintObserver.Notifier {
     jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
 
     runOnExecutor(() -> {
-      jobController.submitJobWithExistingDependencies(job, Collections.emptyList(), dependsOnQueue);
+      jobController.submitJobWithExistingDependencies(job, Collections.emptyList(), toQueueList(dependsOnQueue));
       jobController.wakeUp();
     });
   }
@@ -193,7 +239,19 @@ public class JobManager implements ConstraintObserver.Notifier {
     jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
 
     runOnExecutor(() -> {
-      jobController.submitJobWithExistingDependencies(job, dependsOn, dependsOnQueue);
+      jobController.submitJobWithExistingDependencies(job, dependsOn, toQueueList(dependsOnQueue));
+      jobController.wakeUp();
+    });
+  }
+
+  /**
+   * Enqueues a single job that depends on any unfinished items in all of the specified queues.
+   */
+  public void addDependingOnQueues(@NonNull Job job, @NonNull Collection<String> dependsOnQueues) {
+    jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
+
+    runOnExecutor(() -> {
+      jobController.submitJobWithExistingDependencies(job, Collections.emptyList(), dependsOnQueues);
       jobController.wakeUp();
     });
   }
@@ -361,6 +419,10 @@ public class JobManager implements ConstraintObserver.Notifier {
     });
   }
 
+  private static @NonNull Collection<String> toQueueList(@Nullable String queue) {
+    return queue != null ? Collections.singletonList(queue) : Collections.emptyList();
+  }
+
   private void onEmptyQueue() {
     runOnExecutor(() -> {
       synchronized (emptyQueueListeners) {
@@ -5,6 +5,7 @@ import android.media.MediaDataSource;
 import android.net.Uri;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.google.android.exoplayer2.util.MimeTypes;
@@ -21,6 +22,7 @@ import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.TranscodePlanDatabase;
 import org.thoughtcrime.securesms.events.PartProgressEvent;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
@@ -40,6 +42,7 @@ import org.thoughtcrime.securesms.util.MemoryFileDescriptor;
 import org.thoughtcrime.securesms.util.MemoryFileDescriptor.MemoryFileException;
 import org.thoughtcrime.securesms.video.InMemoryTranscoder;
 import org.thoughtcrime.securesms.video.StreamingTranscoder;
+import org.thoughtcrime.securesms.video.TranscodePlan;
 import org.thoughtcrime.securesms.video.TranscoderCancelationSignal;
 import org.thoughtcrime.securesms.video.TranscoderOptions;
 import org.thoughtcrime.securesms.video.VideoSourceException;
@@ -203,6 +206,26 @@ public final class AttachmentCompressionJob extends BaseJob {
       return attachment;
     }
 
+    TranscodePlanDatabase     transcodePlanDatabase = DatabaseFactory.getTranscodePlanDatabase(context);
+    String                    dataHash              = attachmentDatabase.getDataHash(attachment.getAttachmentId());
+    long                      upperSizeLimit        = constraints.getCompressedVideoMaxSize(context);
+    long                      trimStartUs           = transformProperties.isVideoTrim() ? transformProperties.getVideoTrimStartTimeUs() : 0;
+    long                      trimEndUs             = transformProperties.isVideoTrim() ? transformProperties.getVideoTrimEndTimeUs() : 0;
+    TranscodePlanDatabase.Key planKey               = dataHash != null ? new TranscodePlanDatabase.Key(dataHash, upperSizeLimit, trimStartUs, trimEndUs) : null;
+
+    try {
+      String outputHash = planKey != null ? transcodePlanDatabase.getOutputHash(planKey) : null;
+
+      if (outputHash != null && attachmentDatabase.updateAttachmentDataFromHash(attachment, outputHash)) {
+        Log.i(TAG, "Reusing the output of an earlier transcode of the same video");
+        attachmentDatabase.markAttachmentAsTransformed(attachment.getAttachmentId());
+
+        return Objects.requireNonNull(attachmentDatabase.getAttachment(attachment.getAttachmentId()));
+      }
+    } catch (MmsException e) {
+      throw new UndeliverableMessageException("Failed to reuse transcode", e);
+    }
+
     try (NotificationController notification = GenericForegroundService.startForegroundTask(context, context.getString(R.string.AttachmentUploadJob_compressing_video_start))) {
 
       notification.setIndeterminateProgress();
@@ -218,8 +241,20 @@ public final class AttachmentCompressionJob extends BaseJob {
           options = new TranscoderOptions(transformProperties.getVideoTrimStartTimeUs(), transformProperties.getVideoTrimEndTimeUs());
         }
 
+        TranscodePlan plan = planKey != null ? transcodePlanDatabase.getPlan(planKey) : null;
+
+        if (plan == null) {
+          plan = TranscodePlan.probe(dataSource, options, upperSizeLimit);
+
+          if (planKey != null) {
+            transcodePlanDatabase.setPlan(planKey, plan);
+          }
+        } else {
+          Log.i(TAG, "Using the saved transcode plan");
+        }
+
         if (FeatureFlags.useStreamingVideoMuxer() || !MemoryFileDescriptor.supported()) {
-          StreamingTranscoder transcoder = new StreamingTranscoder(dataSource, options, constraints.getCompressedVideoMaxSize(context));
+          StreamingTranscoder transcoder = new StreamingTranscoder(dataSource, options, plan);
 
           if (transcoder.isTranscodeRequired()) {
             Log.i(TAG, "Compressing with streaming muxer");
@@ -249,13 +284,14 @@ public final class AttachmentCompressionJob extends BaseJob {
             }
 
             attachmentDatabase.markAttachmentAsTransformed(attachment.getAttachmentId());
+            setOutputHash(attachmentDatabase, transcodePlanDatabase, planKey, attachment.getAttachmentId());
 
             return Objects.requireNonNull(attachmentDatabase.getAttachment(attachment.getAttachmentId()));
           } else {
             Log.i(TAG, "Transcode was not required");
           }
         } else {
-          try (InMemoryTranscoder transcoder = new InMemoryTranscoder(context, dataSource, options, constraints.getCompressedVideoMaxSize(context))) {
+          try (InMemoryTranscoder transcoder = new InMemoryTranscoder(context, dataSource, options, plan)) {
             if (transcoder.isTranscodeRequired()) {
               Log.i(TAG, "Compressing with android in-memory muxer");
 
@@ -270,6 +306,7 @@ public final class AttachmentCompressionJob extends BaseJob {
               attachmentDatabase.updateAttachmentData(attachment, mediaStream, transformProperties.isVideoEdited());
 
               attachmentDatabase.markAttachmentAsTransformed(attachment.getAttachmentId());
+              setOutputHash(attachmentDatabase, transcodePlanDatabase, planKey, attachment.getAttachmentId());
 
               return Objects.requireNonNull(attachmentDatabase.getAttachment(attachment.getAttachmentId()));
             } else {
@@ -294,6 +331,18 @@ public final class AttachmentCompressionJob extends BaseJob {
     return attachment;
   }
 
+  private static void setOutputHash(@NonNull AttachmentDatabase attachmentDatabase,
+                                    @NonNull TranscodePlanDatabase transcodePlanDatabase,
+                                    @Nullable TranscodePlanDatabase.Key planKey,
+                                    @NonNull AttachmentId attachmentId)
+  {
+    String outputHash = attachmentDatabase.getDataHash(attachmentId);
+
+    if (planKey != null && outputHash != null) {
+      transcodePlanDatabase.setOutputHash(planKey, outputHash);
+    }
+  }
+
   /**
    * Compresses the images. Given that we compress every image, this has the fun side effect of
    * stripping all EXIF data.
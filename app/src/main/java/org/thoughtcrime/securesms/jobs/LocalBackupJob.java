@@ -2,13 +2,16 @@ package org.thoughtcrime.securesms.jobs;
 
 
 import android.Manifest;
+import android.net.Uri;
 
 import androidx.annotation.NonNull;
 
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.backup.BackupChain;
 import org.thoughtcrime.securesms.backup.BackupFileIOError;
 import org.thoughtcrime.securesms.backup.BackupPassphrase;
+import org.thoughtcrime.securesms.backup.BackupProtos.ChainState;
 import org.thoughtcrime.securesms.backup.FullBackupExporter;
 import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
@@ -18,6 +21,7 @@ import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.impl.ChargingConstraint;
+import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.notifications.NotificationChannels;
 import org.thoughtcrime.securesms.permissions.Permissions;
 import org.thoughtcrime.securesms.service.GenericForegroundService;
@@ -110,17 +114,27 @@ public final class LocalBackupJob extends BaseJob {
 
       File tempFile = File.createTempFile(TEMP_BACKUP_FILE_PREFIX, TEMP_BACKUP_FILE_SUFFIX, backupDirectory);
 
+      ChainState parent     = SignalStore.settings().getBackupChainState();
+      File       parentFile = parent != null && parent.hasFileName() ? new File(backupDirectory, parent.getFileName()) : null;
+
+      if (!BackupChain.canContinue(context, parent, parentFile != null && parentFile.exists() ? Uri.fromFile(parentFile) : null)) {
+        parent = null;
+      }
+
       try {
-        FullBackupExporter.export(context,
-                                  AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
-                                  DatabaseFactory.getBackupDatabase(context),
-                                  tempFile,
-                                  backupPassword);
+        ChainState state = FullBackupExporter.export(context,
+                                                     AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+                                                     DatabaseFactory.getBackupDatabase(context),
+                                                     tempFile,
+                                                     backupPassword,
+                                                     parent);
 
         if (!tempFile.renameTo(backupFile)) {
           Log.w(TAG, "Failed to rename temp file");
           throw new IOException("Renaming temporary backup file failed!");
         }
+
+        SignalStore.settings().setBackupChainState(state.toBuilder().setFileName(fileName).build());
       } catch (IOException e) {
         BackupFileIOError.postNotificationForException(context, e, getRunAttempt());
         throw e;
@@ -8,8 +8,10 @@ import androidx.documentfile.provider.DocumentFile;
 
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.backup.BackupChain;
 import org.thoughtcrime.securesms.backup.BackupFileIOError;
 import org.thoughtcrime.securesms.backup.BackupPassphrase;
+import org.thoughtcrime.securesms.backup.BackupProtos.ChainState;
 import org.thoughtcrime.securesms.backup.FullBackupExporter;
 import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
@@ -104,17 +106,27 @@ public final class LocalBackupJobApi29 extends BaseJob {
         throw new IOException("Backup password is null");
       }
 
+      ChainState   parent     = SignalStore.settings().getBackupChainState();
+      DocumentFile parentFile = parent != null && parent.hasFileName() ? backupDirectory.findFile(parent.getFileName()) : null;
+
+      if (!BackupChain.canContinue(context, parent, parentFile != null ? parentFile.getUri() : null)) {
+        parent = null;
+      }
+
       try {
-        FullBackupExporter.export(context,
-                                  AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
-                                  DatabaseFactory.getBackupDatabase(context),
-                                  temporaryFile,
-                                  backupPassword);
+        ChainState state = FullBackupExporter.export(context,
+                                                     AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
+                                                     DatabaseFactory.getBackupDatabase(context),
+                                                     temporaryFile,
+                                                     backupPassword,
+                                                     parent);
 
         if (!temporaryFile.renameTo(fileName)) {
           Log.w(TAG, "Failed to rename temp file");
           throw new IOException("Renaming temporary backup file failed!");
         }
+
+        SignalStore.settings().setBackupChainState(state.toBuilder().setFileName(fileName).build());
       } catch (IOException e) {
         Log.w(TAG, "Error during backup!", e);
         BackupFileIOError.postNotificationForException(context, e, getRunAttempt());
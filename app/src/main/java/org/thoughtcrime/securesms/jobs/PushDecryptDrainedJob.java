@@ -12,6 +12,9 @@ import org.thoughtcrime.securesms.jobmanager.Job;
  * the {@link org.thoughtcrime.securesms.messages.IncomingMessageObserver} when decryptions have
  * finished. This lets us know not just when the websocket is drained, but when all the decryptions
  * for the messages we pulled down from the websocket have been finished.
+ *
+ * Must be enqueued depending on {@link PushDecryptMessageJob#getLaneQueues()}, so that it also
+ * waits for the decryptions spread over the sender lanes.
  */
 public class PushDecryptDrainedJob extends BaseJob {
 
@@ -38,6 +41,7 @@ public class PushDecryptDrainedJob extends BaseJob {
   protected void onRun() throws Exception {
     Log.i(TAG, "Decryptions are caught-up.");
     ApplicationDependencies.getIncomingMessageObserver().notifyDecryptionsDrained();
+    SearchIndexJob.enqueue();
   }
 
   @Override
@@ -2,61 +2,55 @@ package org.thoughtcrime.securesms.jobs;
 
 import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
 import org.signal.core.util.logging.Log;
-import org.signal.libsignal.metadata.InvalidMetadataMessageException;
-import org.signal.libsignal.metadata.InvalidMetadataVersionException;
-import org.signal.libsignal.metadata.ProtocolDuplicateMessageException;
-import org.signal.libsignal.metadata.ProtocolException;
-import org.signal.libsignal.metadata.ProtocolInvalidKeyException;
-import org.signal.libsignal.metadata.ProtocolInvalidKeyIdException;
-import org.signal.libsignal.metadata.ProtocolInvalidMessageException;
-import org.signal.libsignal.metadata.ProtocolInvalidVersionException;
-import org.signal.libsignal.metadata.ProtocolLegacyMessageException;
-import org.signal.libsignal.metadata.ProtocolNoSessionException;
-import org.signal.libsignal.metadata.ProtocolUntrustedIdentityException;
-import org.signal.libsignal.metadata.SelfSendException;
 import org.thoughtcrime.securesms.MainActivity;
 import org.thoughtcrime.securesms.R;
-import org.thoughtcrime.securesms.crypto.IdentityKeyUtil;
-import org.thoughtcrime.securesms.crypto.UnidentifiedAccessUtil;
-import org.thoughtcrime.securesms.crypto.storage.SignalProtocolStoreImpl;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.NoSuchMessageException;
 import org.thoughtcrime.securesms.database.PushDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
-import org.thoughtcrime.securesms.groups.BadGroupIdException;
-import org.thoughtcrime.securesms.groups.GroupId;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
+import org.thoughtcrime.securesms.messages.MessageDecryptionUtil;
 import org.thoughtcrime.securesms.notifications.NotificationChannels;
-import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.transport.RetryLaterException;
-import org.thoughtcrime.securesms.util.GroupUtil;
-import org.thoughtcrime.securesms.util.TextSecurePreferences;
-import org.whispersystems.libsignal.state.SignalProtocolStore;
-import org.whispersystems.libsignal.util.guava.Optional;
-import org.whispersystems.signalservice.api.crypto.SignalServiceCipher;
-import org.whispersystems.signalservice.api.messages.SignalServiceContent;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
-import org.whispersystems.signalservice.api.push.SignalServiceAddress;
-import org.whispersystems.signalservice.internal.push.UnsupportedDataMessageException;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+/**
+ * Decrypts an envelope that was stored in the {@link PushDatabase}. Most envelopes are decrypted as
+ * soon as they're received by {@link org.thoughtcrime.securesms.messages.IncomingMessageProcessor}
+ * instead, and only end up here if we weren't able to decrypt them right away.
+ *
+ * Sessions only need envelopes from the same sender to be decrypted in order, so envelopes from
+ * identified senders are spread over {@link #LANE_COUNT} queues by sender. Sealed sender envelopes
+ * don't tell us who sent them until they're decrypted, so they stay in {@link #QUEUE} and are
+ * ordered against everything: they wait for all lanes, and the lanes wait for them.
+ */
 public final class PushDecryptMessageJob extends BaseJob {
 
   public static final String KEY   = "PushDecryptJob";
   public static final String QUEUE = "__PUSH_DECRYPT_JOB__";
 
+  /**
+   * The number of queues envelopes from identified senders are spread over. Envelopes we can't
+   * attribute to a sender before decrypting them stay in {@link #QUEUE}.
+   *
+   * Lane names are persisted with their jobs, so this must not depend on the device. Changing it
+   * needs a job migration that moves jobs out of lanes that no longer exist.
+   */
+  public static final int LANE_COUNT = 4;
+
   public static final String TAG = Log.tag(PushDecryptMessageJob.class);
 
   private static final String KEY_MESSAGE_ID     = "message_id";
@@ -70,8 +64,21 @@ public final class PushDecryptMessageJob extends BaseJob {
   }
 
   public PushDecryptMessageJob(Context context, long pushMessageId, long smsMessageId) {
+    this(context, pushMessageId, smsMessageId, QUEUE);
+  }
+
+  /**
+   * Creates a job that only has to be ordered against other envelopes from the same sender. It
+   * still has to wait for anything that's in {@link #QUEUE} at the time it's enqueued, see
+   * {@link #getLaneDependencies()}.
+   */
+  public PushDecryptMessageJob(Context context, long pushMessageId, @NonNull RecipientId sender) {
+    this(context, pushMessageId, -1, getLaneQueue(sender));
+  }
+
+  private PushDecryptMessageJob(Context context, long pushMessageId, long smsMessageId, @NonNull String queue) {
     this(new Parameters.Builder()
-                           .setQueue(QUEUE)
+                           .setQueue(queue)
                            .setMaxAttempts(Parameters.UNLIMITED)
                            .build(),
          pushMessageId,
@@ -86,6 +93,52 @@ public final class PushDecryptMessageJob extends BaseJob {
     this.smsMessageId = smsMessageId;
   }
 
+  /**
+   * @return The queues a job in {@link #QUEUE} has to wait for, so that it's decrypted after every
+   *         envelope that was enqueued before it, whoever sent it.
+   */
+  public static @NonNull List<String> getLaneQueues() {
+    List<String> queues = new ArrayList<>(LANE_COUNT);
+
+    for (int lane = 0; lane < LANE_COUNT; lane++) {
+      queues.add(QUEUE + lane);
+    }
+
+    return queues;
+  }
+
+  /**
+   * @return The queues a job in one of the sender lanes has to wait for, so that it's decrypted
+   *         after the envelopes enqueued before it that we couldn't attribute to a sender.
+   */
+  public static @NonNull List<String> getLaneDependencies() {
+    return Collections.singletonList(QUEUE);
+  }
+
+  /**
+   * @return Every queue decryptions can be in.
+   */
+  public static @NonNull List<String> getAllQueues() {
+    List<String> queues = new ArrayList<>(LANE_COUNT + 1);
+
+    queues.add(QUEUE);
+    queues.addAll(getLaneQueues());
+
+    return queues;
+  }
+
+  /**
+   * @return How many runners should be reserved for decryption. Unlike {@link #LANE_COUNT} this is
+   *         never persisted, so it can follow the number of cores.
+   */
+  public static int getRunnerCount() {
+    return Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), LANE_COUNT));
+  }
+
+  private static @NonNull String getLaneQueue(@NonNull RecipientId sender) {
+    return QUEUE + (int) (sender.toLong() % LANE_COUNT);
+  }
+
   @Override
   public @NonNull Data serialize() {
     return new Data.Builder().putLong(KEY_MESSAGE_ID, messageId)
@@ -100,7 +153,7 @@ public final class PushDecryptMessageJob extends BaseJob {
 
   @Override
   public void onRun() throws NoSuchMessageException, RetryLaterException {
-    if (needsMigration()) {
+    if (MessageDecryptionUtil.needsMigration(context)) {
       Log.w(TAG, "Migration is still needed.");
       postMigrationNotification();
       throw new RetryLaterException();
@@ -110,14 +163,8 @@ public final class PushDecryptMessageJob extends BaseJob {
     SignalServiceEnvelope envelope   = database.get(messageId);
     JobManager            jobManager = ApplicationDependencies.getJobManager();
 
-    try {
-      List<Job> jobs = handleMessage(envelope);
-
-      for (Job job: jobs) {
-        jobManager.add(job);
-      }
-    } catch (NoSenderException e) {
-      Log.w(TAG, "Invalid message, but no sender info!");
+    for (Job job : MessageDecryptionUtil.decrypt(context, envelope, messageId, smsMessageId)) {
+      jobManager.addBlocking(job);
     }
 
     database.delete(messageId);
@@ -132,10 +179,6 @@ public final class PushDecryptMessageJob extends BaseJob {
   public void onFailure() {
   }
 
-  private boolean needsMigration() {
-    return !IdentityKeyUtil.hasIdentityKey(context) || TextSecurePreferences.getNeedsSqlCipherMigration(context);
-  }
-
   private void postMigrationNotification() {
     // TODO [greyson] Navigation
     NotificationManagerCompat.from(context).notify(494949,
@@ -151,110 +194,10 @@ public final class PushDecryptMessageJob extends BaseJob {
 
   }
 
-  private @NonNull List<Job> handleMessage(@NonNull SignalServiceEnvelope envelope) throws NoSenderException {
-    Log.i(TAG, "Processing message ID " + envelope.getTimestamp());
-    try {
-      SignalProtocolStore  axolotlStore = new SignalProtocolStoreImpl(context);
-      SignalServiceAddress localAddress = new SignalServiceAddress(Optional.of(TextSecurePreferences.getLocalUuid(context)), Optional.of(TextSecurePreferences.getLocalNumber(context)));
-      SignalServiceCipher  cipher       = new SignalServiceCipher(localAddress, axolotlStore, UnidentifiedAccessUtil.getCertificateValidator());
-
-      SignalServiceContent content = cipher.decrypt(envelope);
-
-      List<Job> jobs = new ArrayList<>(2);
-
-      if (content != null) {
-        jobs.add(new PushProcessMessageJob(content, messageId, smsMessageId, envelope.getTimestamp()));
-      }
-
-      if (envelope.isPreKeySignalMessage()) {
-        jobs.add(new RefreshPreKeysJob());
-      }
-
-      return jobs;
-
-    } catch (ProtocolInvalidVersionException e) {
-      Log.w(TAG, String.valueOf(envelope.getTimestamp()), e);
-      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.INVALID_VERSION,
-                                                                 toExceptionMetadata(e),
-                                                                 messageId,
-                                                                 smsMessageId,
-                                                                 envelope.getTimestamp()));
-
-    } catch (ProtocolInvalidMessageException | ProtocolInvalidKeyIdException | ProtocolInvalidKeyException | ProtocolUntrustedIdentityException | ProtocolNoSessionException e) {
-      Log.w(TAG, String.valueOf(envelope.getTimestamp()), e);
-      return Collections.singletonList(new AutomaticSessionResetJob(Recipient.external(context, e.getSender()).getId(),
-                                                                    e.getSenderDevice(),
-                                                                    envelope.getTimestamp()));
-    } catch (ProtocolLegacyMessageException e) {
-      Log.w(TAG, String.valueOf(envelope.getTimestamp()), e);
-      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.LEGACY_MESSAGE,
-                                                                 toExceptionMetadata(e),
-                                                                 messageId,
-                                                                 smsMessageId,
-                                                                 envelope.getTimestamp()));
-
-    } catch (ProtocolDuplicateMessageException e) {
-      Log.w(TAG, String.valueOf(envelope.getTimestamp()), e);
-      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.DUPLICATE_MESSAGE,
-                                                                 toExceptionMetadata(e),
-                                                                 messageId,
-                                                                 smsMessageId,
-                                                                 envelope.getTimestamp()));
-
-    } catch (InvalidMetadataVersionException | InvalidMetadataMessageException e) {
-      Log.w(TAG, String.valueOf(envelope.getTimestamp()), e);
-      return Collections.emptyList();
-
-    } catch (SelfSendException e) {
-      Log.i(TAG, "Dropping UD message from self.");
-      return Collections.emptyList();
-
-    } catch (UnsupportedDataMessageException e) {
-      Log.w(TAG, String.valueOf(envelope.getTimestamp()), e);
-      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.UNSUPPORTED_DATA_MESSAGE,
-                                       toExceptionMetadata(e),
-                                       messageId,
-                                       smsMessageId,
-                                       envelope.getTimestamp()));
-    }
-  }
-
-  private static PushProcessMessageJob.ExceptionMetadata toExceptionMetadata(@NonNull UnsupportedDataMessageException e)
-      throws NoSenderException
-  {
-    String sender = e.getSender();
-
-    if (sender == null) throw new NoSenderException();
-
-    GroupId groupId = null;
-
-    if (e.getGroup().isPresent()) {
-      try {
-        groupId = GroupUtil.idFromGroupContext(e.getGroup().get());
-      } catch (BadGroupIdException ex) {
-        Log.w(TAG, "Bad group id found in unsupported data message", ex);
-      }
-    }
-
-    return new PushProcessMessageJob.ExceptionMetadata(sender,
-                                                       e.getSenderDevice(),
-                                                       groupId);
-  }
-
-  private static PushProcessMessageJob.ExceptionMetadata toExceptionMetadata(@NonNull ProtocolException e) throws NoSenderException {
-    String sender = e.getSender();
-
-    if (sender == null) throw new NoSenderException();
-
-    return new PushProcessMessageJob.ExceptionMetadata(sender, e.getSenderDevice());
-  }
-
   public static final class Factory implements Job.Factory<PushDecryptMessageJob> {
     @Override
     public @NonNull PushDecryptMessageJob create(@NonNull Parameters parameters, @NonNull Data data) {
       return new PushDecryptMessageJob(parameters, data.getLong(KEY_MESSAGE_ID), data.getLong(KEY_SMS_MESSAGE_ID));
     }
   }
-
-  private static class NoSenderException extends Exception {}
 }
@@ -82,6 +82,7 @@ import org.thoughtcrime.securesms.sms.OutgoingTextMessage;
 import org.thoughtcrime.securesms.stickers.StickerLocator;
 import org.thoughtcrime.securesms.storage.StorageSyncHelper;
 import org.thoughtcrime.securesms.util.Base64;
+import org.thoughtcrime.securesms.util.BubbleUtil;
 import org.thoughtcrime.securesms.util.FeatureFlags;
 import org.thoughtcrime.securesms.util.GroupUtil;
 import org.thoughtcrime.securesms.util.Hex;
@@ -162,10 +163,10 @@ public final class PushProcessMessageJob extends BaseJob {
             private final long                 timestamp;
 
   @WorkerThread
-  PushProcessMessageJob(@NonNull SignalServiceContent content,
-                        long pushMessageId,
-                        long smsMessageId,
-                        long timestamp)
+  public PushProcessMessageJob(@NonNull SignalServiceContent content,
+                               long pushMessageId,
+                               long smsMessageId,
+                               long timestamp)
   {
     this(MessageState.DECRYPTED_OK,
          content,
@@ -176,11 +177,11 @@ public final class PushProcessMessageJob extends BaseJob {
   }
 
   @WorkerThread
-  PushProcessMessageJob(@NonNull MessageState messageState,
-                        @NonNull ExceptionMetadata exceptionMetadata,
-                        long pushMessageId,
-                        long smsMessageId,
-                        long timestamp)
+  public PushProcessMessageJob(@NonNull MessageState messageState,
+                               @NonNull ExceptionMetadata exceptionMetadata,
+                               long pushMessageId,
+                               long smsMessageId,
+                               long timestamp)
   {
     this(messageState,
          null,
@@ -834,7 +835,7 @@ public final class PushProcessMessageJob extends BaseJob {
 
       if (reaction.isRemove()) {
         db.deleteReaction(targetMessage.getId(), reactionAuthor.getId());
-        ApplicationDependencies.getMessageNotifier().updateNotification(context);
+        ApplicationDependencies.getMessageNotifier().updateNotification(context, targetMessage.getThreadId(), false, 0, BubbleUtil.BubbleState.HIDDEN);
       } else {
         ReactionRecord reactionRecord = new ReactionRecord(reaction.getEmoji(), reactionAuthor.getId(), message.getTimestamp(), System.currentTimeMillis());
         db.addReaction(targetMessage.getId(), reactionRecord);
@@ -2050,18 +2051,18 @@ public final class PushProcessMessageJob extends BaseJob {
     UNSUPPORTED_DATA_MESSAGE
   }
 
-  static class ExceptionMetadata {
+  public static class ExceptionMetadata {
     @NonNull  private final String  sender;
               private final int     senderDevice;
     @Nullable private final GroupId groupId;
 
-    ExceptionMetadata(@NonNull String sender, int senderDevice, @Nullable GroupId groupId) {
+    public ExceptionMetadata(@NonNull String sender, int senderDevice, @Nullable GroupId groupId) {
       this.sender       = sender;
       this.senderDevice = senderDevice;
       this.groupId      = groupId;
     }
 
-    ExceptionMetadata(@NonNull String sender, int senderDevice) {
+    public ExceptionMetadata(@NonNull String sender, int senderDevice) {
       this(sender, senderDevice, null);
     }
   }
@@ -18,7 +18,9 @@ import org.signal.zkgroup.profiles.ProfileKeyCredential;
 import org.thoughtcrime.securesms.crypto.ProfileKeyUtil;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.GroupDatabase;
+import org.thoughtcrime.securesms.database.IdentityDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
+import org.thoughtcrime.securesms.database.RecipientDatabase.BulkProfileOperationsHandle;
 import org.thoughtcrime.securesms.database.RecipientDatabase.UnidentifiedAccessMode;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.Data;
@@ -282,10 +284,14 @@ public class RetrieveProfileJob extends BaseJob {
                                                                  .toList();
     stopwatch.split("network");
 
+    BulkProfileOperationsHandle profileUpdates = recipientDatabase.beginBulkProfileUpdate();
+
     for (Pair<Recipient, ProfileAndCredential> profile : profiles) {
-      process(profile.first(), profile.second());
+      process(profileUpdates, profile.first(), profile.second());
     }
 
+    profileUpdates.finish();
+
     Set<RecipientId> success = SetUtil.difference(recipientIds, retries);
     recipientDatabase.markProfilesFetched(success, System.currentTimeMillis());
 
@@ -323,34 +329,30 @@ public class RetrieveProfileJob extends BaseJob {
   @Override
   public void onFailure() {}
 
-  private void process(Recipient recipient, ProfileAndCredential profileAndCredential) {
+  /**
+   * Stages the parts of the profile that differ from what we have for the recipient. Database
+   * writes happen when the handle is finished.
+   */
+  private void process(BulkProfileOperationsHandle profileUpdates, Recipient recipient, ProfileAndCredential profileAndCredential) {
     SignalServiceProfile profile              = profileAndCredential.getProfile();
     ProfileKey           recipientProfileKey  = ProfileKeyUtil.profileKeyOrNull(recipient.getProfileKey());
 
-    setProfileName(recipient, profile.getName());
-    setProfileAbout(recipient, profile.getAbout(), profile.getAboutEmoji());
+    setProfileName(profileUpdates, recipient, profile.getName());
+    setProfileAbout(profileUpdates, recipient, profile.getAbout(), profile.getAboutEmoji());
     setProfileAvatar(recipient, profile.getAvatar());
-    clearUsername(recipient);
-    setProfileCapabilities(recipient, profile.getCapabilities());
+    clearUsername(profileUpdates, recipient);
+    setProfileCapabilities(profileUpdates, recipient, profile.getCapabilities());
     setIdentityKey(recipient, profile.getIdentityKey());
-    setUnidentifiedAccessMode(recipient, profile.getUnidentifiedAccess(), profile.isUnrestrictedUnidentifiedAccess());
+    setUnidentifiedAccessMode(profileUpdates, recipient, profile.getUnidentifiedAccess(), profile.isUnrestrictedUnidentifiedAccess());
 
     if (recipientProfileKey != null) {
       Optional<ProfileKeyCredential> profileKeyCredential = profileAndCredential.getProfileKeyCredential();
       if (profileKeyCredential.isPresent()) {
-        setProfileKeyCredential(recipient, recipientProfileKey, profileKeyCredential.get());
+        profileUpdates.setProfileKeyCredential(recipient.getId(), recipientProfileKey, profileKeyCredential.get());
       }
     }
   }
 
-  private void setProfileKeyCredential(@NonNull Recipient recipient,
-                                       @NonNull ProfileKey recipientProfileKey,
-                                       @NonNull ProfileKeyCredential credential)
-  {
-    RecipientDatabase recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
-    recipientDatabase.setProfileKeyCredential(recipient.getId(), recipientProfileKey, credential);
-  }
-
   private static SignalServiceProfile.RequestType getRequestType(@NonNull Recipient recipient) {
     return !recipient.hasProfileKeyCredential()
            ? SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL
@@ -364,35 +366,36 @@ public class RetrieveProfileJob extends BaseJob {
         return;
       }
 
-      IdentityKey identityKey = new IdentityKey(Base64.decode(identityKeyValue), 0);
+      IdentityKey                               identityKey = new IdentityKey(Base64.decode(identityKeyValue), 0);
+      Optional<IdentityDatabase.IdentityRecord> existing    = DatabaseFactory.getIdentityDatabase(context).getIdentity(recipient.getId());
 
-      if (!DatabaseFactory.getIdentityDatabase(context)
-                          .getIdentity(recipient.getId())
-                          .isPresent())
-      {
+      if (!existing.isPresent()) {
         Log.w(TAG, "Still first use...");
         return;
       }
 
+      if (existing.get().getIdentityKey().equals(identityKey)) {
+        return;
+      }
+
       IdentityUtil.saveIdentity(context, recipient.requireServiceId(), identityKey);
     } catch (InvalidKeyException | IOException e) {
       Log.w(TAG, e);
     }
   }
 
-  private void setUnidentifiedAccessMode(Recipient recipient, String unidentifiedAccessVerifier, boolean unrestrictedUnidentifiedAccess) {
-    RecipientDatabase recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
-    ProfileKey        profileKey        = ProfileKeyUtil.profileKeyOrNull(recipient.getProfileKey());
+  private void setUnidentifiedAccessMode(BulkProfileOperationsHandle profileUpdates, Recipient recipient, String unidentifiedAccessVerifier, boolean unrestrictedUnidentifiedAccess) {
+    ProfileKey profileKey = ProfileKeyUtil.profileKeyOrNull(recipient.getProfileKey());
 
     if (unrestrictedUnidentifiedAccess && unidentifiedAccessVerifier != null) {
       if (recipient.getUnidentifiedAccessMode() != UnidentifiedAccessMode.UNRESTRICTED) {
         Log.i(TAG, "Marking recipient UD status as unrestricted.");
-        recipientDatabase.setUnidentifiedAccessMode(recipient.getId(), UnidentifiedAccessMode.UNRESTRICTED);
+        profileUpdates.setUnidentifiedAccessMode(recipient.getId(), UnidentifiedAccessMode.UNRESTRICTED);
       }
     } else if (profileKey == null || unidentifiedAccessVerifier == null) {
       if (recipient.getUnidentifiedAccessMode() != UnidentifiedAccessMode.DISABLED) {
         Log.i(TAG, "Marking recipient UD status as disabled.");
-        recipientDatabase.setUnidentifiedAccessMode(recipient.getId(), UnidentifiedAccessMode.DISABLED);
+        profileUpdates.setUnidentifiedAccessMode(recipient.getId(), UnidentifiedAccessMode.DISABLED);
       }
     } else {
       ProfileCipher profileCipher = new ProfileCipher(profileKey);
@@ -409,12 +412,12 @@ public class RetrieveProfileJob extends BaseJob {
 
       if (recipient.getUnidentifiedAccessMode() != mode) {
         Log.i(TAG, "Marking recipient UD status as " + mode.name() + " after verification.");
-        recipientDatabase.setUnidentifiedAccessMode(recipient.getId(), mode);
+        profileUpdates.setUnidentifiedAccessMode(recipient.getId(), mode);
       }
     }
   }
 
-  private void setProfileName(Recipient recipient, String profileName) {
+  private void setProfileName(BulkProfileOperationsHandle profileUpdates, Recipient recipient, String profileName) {
     try {
       ProfileKey profileKey = ProfileKeyUtil.profileKeyOrNull(recipient.getProfileKey());
       if (profileKey == null) return;
@@ -426,7 +429,7 @@ public class RetrieveProfileJob extends BaseJob {
 
       if (!remoteProfileName.equals(localProfileName)) {
         Log.i(TAG, "Profile name updated. Writing new value.");
-        DatabaseFactory.getRecipientDatabase(context).setProfileName(recipient.getId(), remoteProfileName);
+        profileUpdates.setProfileName(recipient.getId(), remoteProfileName);
 
         String remoteDisplayName = remoteProfileName.toString();
         String localDisplayName  = localProfileName.toString();
@@ -455,7 +458,7 @@ public class RetrieveProfileJob extends BaseJob {
     }
   }
 
-  private void setProfileAbout(@NonNull Recipient recipient, @Nullable String encryptedAbout, @Nullable String encryptedEmoji) {
+  private void setProfileAbout(@NonNull BulkProfileOperationsHandle profileUpdates, @NonNull Recipient recipient, @Nullable String encryptedAbout, @Nullable String encryptedEmoji) {
     try {
       ProfileKey profileKey = ProfileKeyUtil.profileKeyOrNull(recipient.getProfileKey());
       if (profileKey == null) return;
@@ -463,7 +466,9 @@ public class RetrieveProfileJob extends BaseJob {
       String plaintextAbout = ProfileUtil.decryptName(profileKey, encryptedAbout);
       String plaintextEmoji = ProfileUtil.decryptName(profileKey, encryptedEmoji);
 
-      DatabaseFactory.getRecipientDatabase(context).setAbout(recipient.getId(), plaintextAbout, plaintextEmoji);
+      if (!Util.equals(plaintextAbout, recipient.getAbout()) || !Util.equals(plaintextEmoji, recipient.getAboutEmoji())) {
+        profileUpdates.setAbout(recipient.getId(), plaintextAbout, plaintextEmoji);
+      }
     } catch (InvalidCiphertextException | IOException e) {
       Log.w(TAG, e);
     }
@@ -477,16 +482,22 @@ public class RetrieveProfileJob extends BaseJob {
     }
   }
 
-  private void clearUsername(Recipient recipient) {
-    DatabaseFactory.getRecipientDatabase(context).setUsername(recipient.getId(), null);
+  private static void clearUsername(BulkProfileOperationsHandle profileUpdates, Recipient recipient) {
+    if (recipient.getUsername().isPresent()) {
+      profileUpdates.clearUsername(recipient.getId());
+    }
   }
 
-  private void setProfileCapabilities(@NonNull Recipient recipient, @Nullable SignalServiceProfile.Capabilities capabilities) {
+  private static void setProfileCapabilities(@NonNull BulkProfileOperationsHandle profileUpdates, @NonNull Recipient recipient, @Nullable SignalServiceProfile.Capabilities capabilities) {
     if (capabilities == null) {
       return;
     }
 
-    DatabaseFactory.getRecipientDatabase(context).setCapabilities(recipient.getId(), capabilities);
+    if (recipient.getGroupsV2Capability()          != Recipient.Capability.fromBoolean(capabilities.isGv2()) ||
+        recipient.getGroupsV1MigrationCapability() != Recipient.Capability.fromBoolean(capabilities.isGv1Migration()))
+    {
+      profileUpdates.setCapabilities(recipient.getId(), capabilities);
+    }
   }
 
   public static final class Factory implements Job.Factory<RetrieveProfileJob> {
@@ -0,0 +1,79 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.SearchDatabase;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.jobmanager.impl.DecryptionsDrainedConstraint;
+
+/**
+ * Adds the messages received since the last run to the full text search index, see
+ * {@link SearchDatabase#indexPendingMessages(int)}. Waits for decryptions to drain so that it
+ * doesn't compete with a burst of incoming messages for the database.
+ */
+public final class SearchIndexJob extends BaseJob {
+
+  public static final String KEY = "SearchIndexJob";
+
+  private static final String TAG = Log.tag(SearchIndexJob.class);
+
+  private static final int BATCH_SIZE = 1000;
+
+  /**
+   * Safe to call as often as needed, at most one run is ever waiting behind the current one.
+   */
+  public static void enqueue() {
+    ApplicationDependencies.getJobManager().add(new SearchIndexJob(new Parameters.Builder()
+                                                                                 .setQueue(KEY)
+                                                                                 .setMaxInstancesForQueue(2)
+                                                                                 .addConstraint(DecryptionsDrainedConstraint.KEY)
+                                                                                 .build()));
+  }
+
+  private SearchIndexJob(@NonNull Parameters parameters) {
+    super(parameters);
+  }
+
+  @Override
+  public @NonNull Data serialize() {
+    return Data.EMPTY;
+  }
+
+  @Override
+  protected void onRun() {
+    SearchDatabase searchDatabase = DatabaseFactory.getSearchDatabase(context);
+    long           startTime      = System.currentTimeMillis();
+    int            batches        = 1;
+
+    while (searchDatabase.indexPendingMessages(BATCH_SIZE)) {
+      batches++;
+    }
+
+    Log.i(TAG, "Indexed " + batches + " batch(es) in " + (System.currentTimeMillis() - startTime) + " ms.");
+  }
+
+  @Override
+  protected boolean onShouldRetry(@NonNull Exception e) {
+    return false;
+  }
+
+  @Override
+  public @NonNull String getFactoryKey() {
+    return KEY;
+  }
+
+  @Override
+  public void onFailure() {
+  }
+
+  public static final class Factory implements Job.Factory<SearchIndexJob> {
+    @Override
+    public @NonNull SearchIndexJob create(@NonNull Parameters parameters, @NonNull Data data) {
+      return new SearchIndexJob(parameters);
+    }
+  }
+}
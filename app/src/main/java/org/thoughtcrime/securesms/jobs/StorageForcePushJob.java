@@ -121,6 +121,7 @@ public class StorageForcePushJob extends BaseJob {
     recipientDatabase.applyStorageIdUpdates(newContactStorageIds);
     recipientDatabase.applyStorageIdUpdates(Collections.singletonMap(Recipient.self().getId(), accountRecord.getId()));
     storageKeyDatabase.deleteAll();
+    StorageSyncHelper.updateManifestIndex(context, newVersion, allNewStorageIds);
   }
 
   @Override
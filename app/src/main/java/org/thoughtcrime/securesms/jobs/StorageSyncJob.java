@@ -10,6 +10,7 @@ import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
+import org.thoughtcrime.securesms.database.StorageIndexDatabase;
 import org.thoughtcrime.securesms.database.StorageKeyDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.groups.GroupId;
@@ -70,6 +71,12 @@ public class StorageSyncJob extends BaseJob {
 
   private static final String TAG = Log.tag(StorageSyncJob.class);
 
+  /**
+   * How often a sync compares against every local key rather than just the ones that changed since
+   * the last manifest, to catch anything the index missed.
+   */
+  private static final long FULL_SYNC_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
   public StorageSyncJob() {
     this(new Job.Parameters.Builder().addConstraint(NetworkConstraint.KEY)
                                      .setQueue(QUEUE_KEY)
@@ -132,10 +139,11 @@ public class StorageSyncJob extends BaseJob {
   }
 
   private boolean performSync() throws IOException, RetryLaterException, InvalidKeyException {
-    SignalServiceAccountManager accountManager     = ApplicationDependencies.getSignalServiceAccountManager();
-    RecipientDatabase           recipientDatabase  = DatabaseFactory.getRecipientDatabase(context);
-    StorageKeyDatabase          storageKeyDatabase = DatabaseFactory.getStorageKeyDatabase(context);
-    StorageKey                  storageServiceKey  = SignalStore.storageServiceValues().getOrCreateStorageKey();
+    SignalServiceAccountManager accountManager       = ApplicationDependencies.getSignalServiceAccountManager();
+    RecipientDatabase           recipientDatabase    = DatabaseFactory.getRecipientDatabase(context);
+    StorageKeyDatabase          storageKeyDatabase   = DatabaseFactory.getStorageKeyDatabase(context);
+    StorageIndexDatabase        storageIndexDatabase = DatabaseFactory.getStorageIndexDatabase(context);
+    StorageKey                  storageServiceKey    = SignalStore.storageServiceValues().getOrCreateStorageKey();
 
     boolean                         needsMultiDeviceSync  = false;
     boolean                         needsForcePush        = false;
@@ -148,8 +156,32 @@ public class StorageSyncJob extends BaseJob {
     if (remoteManifest.isPresent() && remoteManifestVersion > localManifestVersion) {
       Log.i(TAG, "[Remote Newer] Newer manifest version found!");
 
-      List<StorageId>     allLocalStorageKeys = getAllLocalStorageIds(context, Recipient.self().fresh());
-      KeyDifferenceResult keyDifference       = StorageSyncHelper.findKeyDifference(remoteManifest.get().getStorageIds(), allLocalStorageKeys);
+      Recipient           self                = Recipient.self().fresh();
+      List<StorageId>     remoteKeys          = remoteManifest.get().getStorageIds();
+      KeyDifferenceResult keyDifference       = null;
+      List<StorageId>     allLocalStorageKeys = null;
+      boolean             fullSync            = true;
+
+      if (hasIndexFor(localManifestVersion) && !isFullSyncDue()) {
+        KeyDifferenceResult indexedDifference = StorageSyncHelper.findKeyDifference(remoteKeys,
+                                                                                    storageIndexDatabase.getAllKeys(),
+                                                                                    getPendingLocalStorageIds(context, self),
+                                                                                    id -> isPresentLocally(context, self, id));
+
+        if (indexedDifference.hasTypeMismatches()) {
+          Log.w(TAG, "[Remote Newer] Found type mismatches against the index. Falling back to a full comparison.");
+        } else {
+          Log.i(TAG, "[Remote Newer] Compared against the index of version " + localManifestVersion + ".");
+          keyDifference       = indexedDifference;
+          allLocalStorageKeys = StorageSyncHelper.getLocalKeys(remoteKeys, indexedDifference);
+          fullSync            = false;
+        }
+      }
+
+      if (fullSync) {
+        allLocalStorageKeys = getAllLocalStorageIds(context, self);
+        keyDifference       = StorageSyncHelper.findKeyDifference(remoteKeys, allLocalStorageKeys);
+      }
 
       if (keyDifference.hasTypeMismatches()) {
         Log.w(TAG, "Found type mismatches in the key sets! Scheduling a force push after this sync completes.");
@@ -204,10 +236,16 @@ public class StorageSyncJob extends BaseJob {
 
         Log.i(TAG, "[Remote Newer] Updating local manifest version to: " + remoteManifestVersion);
         TextSecurePreferences.setStorageManifestVersion(context, remoteManifestVersion);
+        StorageSyncHelper.updateManifestIndex(context, remoteManifestVersion, writeOperationResult.isEmpty() ? remoteKeys : writeOperationResult.getManifest().getStorageIds());
       } else {
         Log.i(TAG, "[Remote Newer] Remote version was newer, but our local data matched.");
         Log.i(TAG, "[Remote Newer] Updating local manifest version to: " + remoteManifest.get().getVersion());
         TextSecurePreferences.setStorageManifestVersion(context, remoteManifest.get().getVersion());
+        StorageSyncHelper.updateManifestIndex(context, remoteManifest.get().getVersion(), remoteKeys);
+      }
+
+      if (fullSync) {
+        SignalStore.storageServiceValues().onFullSyncCompleted();
       }
     }
 
@@ -215,19 +253,30 @@ public class StorageSyncJob extends BaseJob {
 
     Recipient self = Recipient.self().fresh();
 
-    List<StorageId>               allLocalStorageKeys  = getAllLocalStorageIds(context, self);
     List<RecipientSettings>       pendingUpdates       = recipientDatabase.getPendingRecipientSyncUpdates();
     List<RecipientSettings>       pendingInsertions    = recipientDatabase.getPendingRecipientSyncInsertions();
     List<RecipientSettings>       pendingDeletions     = recipientDatabase.getPendingRecipientSyncDeletions();
     Optional<SignalAccountRecord> pendingAccountInsert = StorageSyncHelper.getPendingAccountSyncInsert(context, self);
     Optional<SignalAccountRecord> pendingAccountUpdate = StorageSyncHelper.getPendingAccountSyncUpdate(context, self);
-    Optional<LocalWriteResult>    localWriteResult     = StorageSyncHelper.buildStorageUpdatesForLocal(localManifestVersion,
-                                                                                                       allLocalStorageKeys,
-                                                                                                       pendingUpdates,
-                                                                                                       pendingInsertions,
-                                                                                                       pendingDeletions,
-                                                                                                       pendingAccountUpdate,
-                                                                                                       pendingAccountInsert);
+    boolean                       hasPendingChanges    = !pendingUpdates.isEmpty()        ||
+                                                         !pendingInsertions.isEmpty()     ||
+                                                         !pendingDeletions.isEmpty()      ||
+                                                         pendingAccountInsert.isPresent() ||
+                                                         pendingAccountUpdate.isPresent();
+    Optional<LocalWriteResult>    localWriteResult     = Optional.absent();
+
+    if (hasPendingChanges) {
+      List<StorageId> allLocalStorageKeys = hasIndexFor(localManifestVersion) ? new ArrayList<>(storageIndexDatabase.getAllKeys())
+                                                                              : getAllLocalStorageIds(context, self);
+
+      localWriteResult = StorageSyncHelper.buildStorageUpdatesForLocal(localManifestVersion,
+                                                                       allLocalStorageKeys,
+                                                                       pendingUpdates,
+                                                                       pendingInsertions,
+                                                                       pendingDeletions,
+                                                                       pendingAccountUpdate,
+                                                                       pendingAccountInsert);
+    }
 
     if (localWriteResult.isPresent()) {
       Log.i(TAG, String.format(Locale.ENGLISH, "[Local Changes] Local changes present. %d updates, %d inserts, %d deletes, account update: %b, account insert: %b.", pendingUpdates.size(), pendingInsertions.size(), pendingDeletions.size(), pendingAccountUpdate.isPresent(), pendingAccountInsert.isPresent()));
@@ -260,8 +309,9 @@ public class StorageSyncJob extends BaseJob {
 
       needsMultiDeviceSync = true;
 
-      Log.i(TAG, "[Local Changes] Updating local manifest version to: " + localWriteResult.get().getWriteResult().getManifest().getVersion());
-      TextSecurePreferences.setStorageManifestVersion(context, localWriteResult.get().getWriteResult().getManifest().getVersion());
+      Log.i(TAG, "[Local Changes] Updating local manifest version to: " + localWrite.getManifest().getVersion());
+      TextSecurePreferences.setStorageManifestVersion(context, localWrite.getManifest().getVersion());
+      StorageSyncHelper.updateManifestIndex(context, localWrite.getManifest().getVersion(), localWrite.getManifest().getStorageIds());
     } else {
       Log.i(TAG, "[Local Changes] No local changes.");
     }
@@ -295,6 +345,49 @@ public class StorageSyncJob extends BaseJob {
     }
   }
 
+  private static boolean hasIndexFor(long manifestVersion) {
+    return manifestVersion > 0 && SignalStore.storageServiceValues().getIndexVersion() == manifestVersion;
+  }
+
+  private static boolean isFullSyncDue() {
+    return System.currentTimeMillis() - SignalStore.storageServiceValues().getLastFullSyncTime() > FULL_SYNC_INTERVAL;
+  }
+
+  /**
+   * @return Local keys that can't be part of any manifest yet, because they were created locally
+   *         and haven't been uploaded.
+   */
+  private static @NonNull List<StorageId> getPendingLocalStorageIds(@NonNull Context context, @NonNull Recipient self) {
+    List<StorageId> ids = new ArrayList<>();
+
+    for (RecipientSettings insert : DatabaseFactory.getRecipientDatabase(context).getPendingRecipientSyncInsertions()) {
+      switch (insert.getGroupType()) {
+        case NONE:      ids.add(StorageId.forContact(insert.getStorageId())); break;
+        case SIGNAL_V1: ids.add(StorageId.forGroupV1(insert.getStorageId())); break;
+        case SIGNAL_V2: ids.add(StorageId.forGroupV2(insert.getStorageId())); break;
+      }
+    }
+
+    if (StorageSyncHelper.getPendingAccountSyncInsert(context, self).isPresent()) {
+      ids.add(StorageId.forAccount(self.getStorageServiceId()));
+    }
+
+    return ids;
+  }
+
+  private static boolean isPresentLocally(@NonNull Context context, @NonNull Recipient self, @NonNull StorageId id) {
+    switch (id.getType()) {
+      case ManifestRecord.Identifier.Type.CONTACT_VALUE:
+      case ManifestRecord.Identifier.Type.GROUPV1_VALUE:
+      case ManifestRecord.Identifier.Type.GROUPV2_VALUE:
+        return DatabaseFactory.getRecipientDatabase(context).hasContactStorageSyncId(id.getRaw());
+      case ManifestRecord.Identifier.Type.ACCOUNT_VALUE:
+        return Arrays.equals(self.getStorageServiceId(), id.getRaw());
+      default:
+        return DatabaseFactory.getStorageKeyDatabase(context).getById(id.getRaw()) != null;
+    }
+  }
+
   private static @NonNull List<StorageId> getAllLocalStorageIds(@NonNull Context context, @NonNull Recipient self) {
     return Util.concatenatedList(DatabaseFactory.getRecipientDatabase(context).getContactStorageSyncIds(),
                                  Collections.singletonList(StorageId.forAccount(self.getStorageServiceId())),
@@ -6,10 +6,16 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.backup.BackupProtos;
 import org.thoughtcrime.securesms.webrtc.CallBandwidthMode;
 
 public final class SettingsValues extends SignalStoreValues {
 
+  private static final String TAG = Log.tag(SettingsValues.class);
+
   public static final String LINK_PREVIEWS          = "settings.link_previews";
   public static final String KEEP_MESSAGES_DURATION = "settings.keep_messages_duration";
 
@@ -18,6 +24,8 @@ public final class SettingsValues extends SignalStoreValues {
   private static final String SIGNAL_BACKUP_DIRECTORY        = "settings.signal.backup.directory";
   private static final String SIGNAL_LATEST_BACKUP_DIRECTORY = "settings.signal.backup.directory,latest";
 
+  private static final String SIGNAL_BACKUP_CHAIN_STATE      = "settings.signal.backup.chain.state";
+
   private static final String CALL_BANDWIDTH_MODE = "settings.signal.call.bandwidth.mode";
 
   public static final String THREAD_TRIM_LENGTH     = "pref_trim_length";
@@ -91,6 +99,29 @@ public final class SettingsValues extends SignalStoreValues {
     putString(SIGNAL_BACKUP_DIRECTORY, null);
   }
 
+  public @Nullable BackupProtos.ChainState getBackupChainState() {
+    byte[] blob = getBlob(SIGNAL_BACKUP_CHAIN_STATE, null);
+
+    if (blob == null) {
+      return null;
+    }
+
+    try {
+      return BackupProtos.ChainState.parseFrom(blob);
+    } catch (InvalidProtocolBufferException e) {
+      Log.w(TAG, "Unable to parse backup chain state.", e);
+      return null;
+    }
+  }
+
+  public void setBackupChainState(@NonNull BackupProtos.ChainState state) {
+    putBlob(SIGNAL_BACKUP_CHAIN_STATE, state.toByteArray());
+  }
+
+  public void clearBackupChainState() {
+    getStore().beginWrite().remove(SIGNAL_BACKUP_CHAIN_STATE).apply();
+  }
+
   public void setCallBandwidthMode(@NonNull CallBandwidthMode callBandwidthMode) {
     putInteger(CALL_BANDWIDTH_MODE, callBandwidthMode.getCode());
   }
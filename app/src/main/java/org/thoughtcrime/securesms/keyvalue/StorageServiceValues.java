@@ -7,6 +7,8 @@ import org.whispersystems.signalservice.api.storage.StorageKey;
 public class StorageServiceValues extends SignalStoreValues {
 
   private static final String LAST_SYNC_TIME        = "storage.last_sync_time";
+  private static final String LAST_FULL_SYNC_TIME   = "storage.last_full_sync_time";
+  private static final String INDEX_VERSION         = "storage.index_version";
   private static final String NEEDS_ACCOUNT_RESTORE = "storage.needs_account_restore";
 
   StorageServiceValues(@NonNull KeyValueStore store) {
@@ -29,6 +31,26 @@ public class StorageServiceValues extends SignalStoreValues {
     putLong(LAST_SYNC_TIME, System.currentTimeMillis());
   }
 
+  public long getLastFullSyncTime() {
+    return getLong(LAST_FULL_SYNC_TIME, 0);
+  }
+
+  public void onFullSyncCompleted() {
+    putLong(LAST_FULL_SYNC_TIME, System.currentTimeMillis());
+  }
+
+  /**
+   * @return The manifest version that {@link org.thoughtcrime.securesms.database.StorageIndexDatabase}
+   *         currently describes, or -1 if it doesn't describe any.
+   */
+  public long getIndexVersion() {
+    return getLong(INDEX_VERSION, -1);
+  }
+
+  public void setIndexVersion(long version) {
+    putLong(INDEX_VERSION, version);
+  }
+
   public boolean needsAccountRestore() {
     return getBoolean(NEEDS_ACCOUNT_RESTORE, false);
   }
@@ -0,0 +1,52 @@
+package org.thoughtcrime.securesms.logsubmit;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.QueryMetrics;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The statements that have taken the most database time since the process started.
+ */
+public class LogSectionDatabaseQueries implements LogSection {
+
+  private static final int LIMIT = 25;
+
+  @Override
+  public @NonNull String getTitle() {
+    return "DATABASE QUERIES";
+  }
+
+  @Override
+  public @NonNull CharSequence getContent(@NonNull Context context) {
+    List<QueryMetrics.Snapshot> offenders = QueryMetrics.getInstance().getTopOffenders(LIMIT);
+
+    if (offenders.isEmpty()) {
+      return "None";
+    }
+
+    StringBuilder builder = new StringBuilder();
+
+    builder.append(String.format(Locale.US, "%8s %10s %8s %8s %8s %10s %10s %8s  %s\n", "count", "total ms", "p50 ms", "p99 ms", "max ms", "lock ms", "rows", "contend", "query"));
+
+    for (QueryMetrics.Snapshot snapshot : offenders) {
+      builder.append(String.format(Locale.US, "%8d %10d %8.1f %8.1f %8d %10d %10d %8d  %s\n",
+                                   snapshot.getCount(),
+                                   TimeUnit.NANOSECONDS.toMillis(snapshot.getTotalNanos()),
+                                   snapshot.getP50Nanos() / 1_000_000f,
+                                   snapshot.getP99Nanos() / 1_000_000f,
+                                   TimeUnit.NANOSECONDS.toMillis(snapshot.getMaxNanos()),
+                                   TimeUnit.NANOSECONDS.toMillis(snapshot.getLockWaitNanos()),
+                                   snapshot.getRows(),
+                                   snapshot.getContended(),
+                                   snapshot.getFingerprint()));
+    }
+
+    return builder;
+  }
+}
@@ -64,6 +64,7 @@ public class SubmitDebugLogRepository {
     add(new LogSectionKeyPreferences());
     add(new LogSectionPermissions());
     add(new LogSectionTrace());
+    add(new LogSectionDatabaseQueries());
     add(new LogSectionThreads());
     add(new LogSectionBlockedThreads());
     add(new LogSectionLogcat());
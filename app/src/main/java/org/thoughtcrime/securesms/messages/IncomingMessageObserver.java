@@ -20,6 +20,7 @@ import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
 import org.thoughtcrime.securesms.jobs.PushDecryptDrainedJob;
+import org.thoughtcrime.securesms.jobs.PushDecryptMessageJob;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.messages.IncomingMessageProcessor.Processor;
 import org.thoughtcrime.securesms.notifications.NotificationChannels;
@@ -245,7 +246,7 @@ public class IncomingMessageObserver {
               if (!result.isPresent() && !networkDrained) {
                 Log.i(TAG, "Network was newly-drained. Enqueuing a job to listen for decryption draining.");
                 networkDrained = true;
-                ApplicationDependencies.getJobManager().add(new PushDecryptDrainedJob());
+                ApplicationDependencies.getJobManager().addDependingOnQueues(new PushDecryptDrainedJob(), PushDecryptMessageJob.getLaneQueues());
               }
             } catch (TimeoutException e) {
               Log.w(TAG, "Application level read timeout...");
@@ -12,12 +12,14 @@ import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.PushDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobs.PushDecryptMessageJob;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
 
 import java.io.Closeable;
+import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -64,8 +66,9 @@ public class IncomingMessageProcessor {
     }
 
     /**
-     * @return The id of the {@link PushDecryptMessageJob} that was scheduled to process the message, if
-     *         one was created. Otherwise null.
+     * @return The id of the job that was scheduled to process the message, if one was created. This
+     *         is either a {@link PushDecryptMessageJob}, or the job handling the already-decrypted
+     *         message. Otherwise null.
      */
     public @Nullable String processEnvelope(@NonNull SignalServiceEnvelope envelope) {
       if (envelope.hasSource()) {
@@ -84,14 +87,28 @@ public class IncomingMessageProcessor {
     }
 
     private @Nullable String processMessage(@NonNull SignalServiceEnvelope envelope) {
+      if (canDecryptInProcess()) {
+        return decryptInProcess(envelope);
+      }
+
       Log.i(TAG, "Received message " + envelope.getTimestamp() + ". Inserting in PushDatabase.");
 
+      return insertForDecryption(envelope);
+    }
+
+    private @Nullable String insertForDecryption(@NonNull SignalServiceEnvelope envelope) {
       long id  = pushDatabase.insert(envelope);
 
       if (id > 0) {
-        PushDecryptMessageJob job = new PushDecryptMessageJob(context, id);
+        PushDecryptMessageJob job;
 
-        jobManager.add(job);
+        if (envelope.hasSource()) {
+          job = new PushDecryptMessageJob(context, id, Recipient.externalHighTrustPush(context, envelope.getSourceAddress()).getId());
+          jobManager.addDependingOnQueues(job, PushDecryptMessageJob.getLaneDependencies());
+        } else {
+          job = new PushDecryptMessageJob(context, id);
+          jobManager.addDependingOnQueues(job, PushDecryptMessageJob.getLaneQueues());
+        }
 
         return job.getId();
       } else {
@@ -100,6 +117,41 @@ public class IncomingMessageProcessor {
       }
     }
 
+    /**
+     * Skipping the {@link PushDatabase} is only safe while nothing is waiting in it, otherwise this
+     * message could be processed before ones that were received earlier.
+     */
+    private boolean canDecryptInProcess() {
+      return !MessageDecryptionUtil.needsMigration(context) && !pushDatabase.hasPending();
+    }
+
+    /**
+     * Decrypts the message right away and only returns once the resulting jobs have been persisted,
+     * so that the envelope isn't acknowledged before its decrypted contents are safe.
+     *
+     * If decrypting blows up unexpectedly, the envelope goes through the {@link PushDatabase} like
+     * it would have otherwise. The failure then stays in its {@link PushDecryptMessageJob}, rather
+     * than failing the read and having the server redeliver the same envelope forever.
+     */
+    private @Nullable String decryptInProcess(@NonNull SignalServiceEnvelope envelope) {
+      Log.i(TAG, "Received message " + envelope.getTimestamp() + ". Decrypting in-process.");
+
+      List<Job> jobs;
+
+      try {
+        jobs = MessageDecryptionUtil.decrypt(context, envelope, -1, -1);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to decrypt message " + envelope.getTimestamp() + " in-process. Inserting in PushDatabase.", e);
+        return insertForDecryption(envelope);
+      }
+
+      for (Job job : jobs) {
+        jobManager.addBlocking(job);
+      }
+
+      return jobs.isEmpty() ? null : jobs.get(0).getId();
+    }
+
     private void processReceipt(@NonNull SignalServiceEnvelope envelope) {
       Log.i(TAG, "Received server receipt for " + envelope.getTimestamp());
       mmsSmsDatabase.incrementDeliveryReceiptCount(new SyncMessageId(Recipient.externalHighTrustPush(context, envelope.getSourceAddress()).getId(), envelope.getTimestamp()),
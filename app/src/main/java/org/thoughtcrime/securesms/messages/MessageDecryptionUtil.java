@@ -0,0 +1,181 @@
+package org.thoughtcrime.securesms.messages;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.logging.Log;
+import org.signal.libsignal.metadata.InvalidMetadataMessageException;
+import org.signal.libsignal.metadata.InvalidMetadataVersionException;
+import org.signal.libsignal.metadata.ProtocolDuplicateMessageException;
+import org.signal.libsignal.metadata.ProtocolException;
+import org.signal.libsignal.metadata.ProtocolInvalidKeyException;
+import org.signal.libsignal.metadata.ProtocolInvalidKeyIdException;
+import org.signal.libsignal.metadata.ProtocolInvalidMessageException;
+import org.signal.libsignal.metadata.ProtocolInvalidVersionException;
+import org.signal.libsignal.metadata.ProtocolLegacyMessageException;
+import org.signal.libsignal.metadata.ProtocolNoSessionException;
+import org.signal.libsignal.metadata.ProtocolUntrustedIdentityException;
+import org.signal.libsignal.metadata.SelfSendException;
+import org.thoughtcrime.securesms.crypto.IdentityKeyUtil;
+import org.thoughtcrime.securesms.crypto.UnidentifiedAccessUtil;
+import org.thoughtcrime.securesms.crypto.storage.SignalProtocolStoreImpl;
+import org.thoughtcrime.securesms.groups.BadGroupIdException;
+import org.thoughtcrime.securesms.groups.GroupId;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.jobs.AutomaticSessionResetJob;
+import org.thoughtcrime.securesms.jobs.PushProcessMessageJob;
+import org.thoughtcrime.securesms.jobs.RefreshPreKeysJob;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.util.GroupUtil;
+import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.whispersystems.libsignal.state.SignalProtocolStore;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.crypto.SignalServiceCipher;
+import org.whispersystems.signalservice.api.messages.SignalServiceContent;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.internal.push.UnsupportedDataMessageException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decrypts envelopes into the jobs that will process them. Shared by the in-process decryption in
+ * {@link IncomingMessageProcessor} and {@link org.thoughtcrime.securesms.jobs.PushDecryptMessageJob}.
+ */
+public final class MessageDecryptionUtil {
+
+  private static final String TAG = Log.tag(MessageDecryptionUtil.class);
+
+  private MessageDecryptionUtil() {}
+
+  /**
+   * @return True if we're not able to decrypt anything yet, because we're missing our identity key
+   *         or still have to migrate our database.
+   */
+  public static boolean needsMigration(@NonNull Context context) {
+    return !IdentityKeyUtil.hasIdentityKey(context) || TextSecurePreferences.getNeedsSqlCipherMigration(context);
+  }
+
+  /**
+   * Decrypts the envelope, updating our sessions as a side effect.
+   *
+   * @param pushMessageId The id of the envelope in the PushDatabase, or -1 if it was never stored.
+   * @param smsMessageId  The id of an existing message this envelope should replace, or -1.
+   *
+   * @return The jobs that should be enqueued to process the result. The job processing the message
+   *         itself, if there is one, always comes first.
+   */
+  @WorkerThread
+  public static @NonNull List<Job> decrypt(@NonNull Context context, @NonNull SignalServiceEnvelope envelope, long pushMessageId, long smsMessageId) {
+    try {
+      return handleMessage(context, envelope, pushMessageId, smsMessageId);
+    } catch (NoSenderException e) {
+      Log.w(TAG, "Invalid message, but no sender info!");
+      return Collections.emptyList();
+    }
+  }
+
+  private static @NonNull List<Job> handleMessage(@NonNull Context context, @NonNull SignalServiceEnvelope envelope, long messageId, long smsMessageId) throws NoSenderException {
+    Log.i(TAG, "Processing message ID " + envelope.getTimestamp());
+    try {
+      SignalProtocolStore  axolotlStore = new SignalProtocolStoreImpl(context);
+      SignalServiceAddress localAddress = new SignalServiceAddress(Optional.of(TextSecurePreferences.getLocalUuid(context)), Optional.of(TextSecurePreferences.getLocalNumber(context)));
+      SignalServiceCipher  cipher       = new SignalServiceCipher(localAddress, axolotlStore, UnidentifiedAccessUtil.getCertificateValidator());
+
+      SignalServiceContent content = cipher.decrypt(envelope);
+
+      List<Job> jobs = new ArrayList<>(2);
+
+      if (content != null) {
+        jobs.add(new PushProcessMessageJob(content, messageId, smsMessageId, envelope.getTimestamp()));
+      }
+
+      if (envelope.isPreKeySignalMessage()) {
+        jobs.add(new RefreshPreKeysJob());
+      }
+
+      return jobs;
+
+    } catch (ProtocolInvalidVersionException e) {
+      Log.w(TAG, String.valueOf(envelope.getTimestamp()), e);
+      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.INVALID_VERSION,
+                                                                 toExceptionMetadata(e),
+                                                                 messageId,
+                                                                 smsMessageId,
+                                                                 envelope.getTimestamp()));
+
+    } catch (ProtocolInvalidMessageException | ProtocolInvalidKeyIdException | ProtocolInvalidKeyException | ProtocolUntrustedIdentityException | ProtocolNoSessionException e) {
+      Log.w(TAG, String.valueOf(envelope.getTimestamp()), e);
+      return Collections.singletonList(new AutomaticSessionResetJob(Recipient.external(context, e.getSender()).getId(),
+                                                                    e.getSenderDevice(),
+                                                                    envelope.getTimestamp()));
+    } catch (ProtocolLegacyMessageException e) {
+      Log.w(TAG, String.valueOf(envelope.getTimestamp()), e);
+      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.LEGACY_MESSAGE,
+                                                                 toExceptionMetadata(e),
+                                                                 messageId,
+                                                                 smsMessageId,
+                                                                 envelope.getTimestamp()));
+
+    } catch (ProtocolDuplicateMessageException e) {
+      Log.w(TAG, String.valueOf(envelope.getTimestamp()), e);
+      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.DUPLICATE_MESSAGE,
+                                                                 toExceptionMetadata(e),
+                                                                 messageId,
+                                                                 smsMessageId,
+                                                                 envelope.getTimestamp()));
+
+    } catch (InvalidMetadataVersionException | InvalidMetadataMessageException e) {
+      Log.w(TAG, String.valueOf(envelope.getTimestamp()), e);
+      return Collections.emptyList();
+
+    } catch (SelfSendException e) {
+      Log.i(TAG, "Dropping UD message from self.");
+      return Collections.emptyList();
+
+    } catch (UnsupportedDataMessageException e) {
+      Log.w(TAG, String.valueOf(envelope.getTimestamp()), e);
+      return Collections.singletonList(new PushProcessMessageJob(PushProcessMessageJob.MessageState.UNSUPPORTED_DATA_MESSAGE,
+                                       toExceptionMetadata(e),
+                                       messageId,
+                                       smsMessageId,
+                                       envelope.getTimestamp()));
+    }
+  }
+
+  private static PushProcessMessageJob.ExceptionMetadata toExceptionMetadata(@NonNull UnsupportedDataMessageException e)
+      throws NoSenderException
+  {
+    String sender = e.getSender();
+
+    if (sender == null) throw new NoSenderException();
+
+    GroupId groupId = null;
+
+    if (e.getGroup().isPresent()) {
+      try {
+        groupId = GroupUtil.idFromGroupContext(e.getGroup().get());
+      } catch (BadGroupIdException ex) {
+        Log.w(TAG, "Bad group id found in unsupported data message", ex);
+      }
+    }
+
+    return new PushProcessMessageJob.ExceptionMetadata(sender,
+                                                       e.getSenderDevice(),
+                                                       groupId);
+  }
+
+  private static PushProcessMessageJob.ExceptionMetadata toExceptionMetadata(@NonNull ProtocolException e) throws NoSenderException {
+    String sender = e.getSender();
+
+    if (sender == null) throw new NoSenderException();
+
+    return new PushProcessMessageJob.ExceptionMetadata(sender, e.getSenderDevice());
+  }
+
+  private static class NoSenderException extends Exception {}
+}
@@ -45,7 +45,7 @@ public class RestStrategy extends MessageRetrievalStrategy {
         Log.d(TAG, jobCount + " PushDecryptMessageJob(s) were enqueued.");
       }
 
-      long        timeRemainingMs = blockUntilQueueDrained(PushDecryptMessageJob.QUEUE, TimeUnit.SECONDS.toMillis(10));
+      long        timeRemainingMs = blockUntilDecryptionsDrained(TimeUnit.SECONDS.toMillis(10));
       Set<String> processQueues   = queueListener.getQueues();
 
       Log.d(TAG, "Discovered " + processQueues.size() + " queue(s): " + processQueues);
@@ -95,6 +95,16 @@ public class RestStrategy extends MessageRetrievalStrategy {
     return jobCount.get();
   }
 
+  private static long blockUntilDecryptionsDrained(long timeoutMs) {
+    Iterator<String> iter = PushDecryptMessageJob.getAllQueues().iterator();
+
+    while (iter.hasNext() && timeoutMs > 0) {
+      timeoutMs = blockUntilQueueDrained(iter.next(), timeoutMs);
+    }
+
+    return timeoutMs;
+  }
+
   private static long blockUntilQueueDrained(@NonNull String queue, long timeoutMs) {
     long             startTime  = System.currentTimeMillis();
     final JobManager jobManager = ApplicationDependencies.getJobManager();
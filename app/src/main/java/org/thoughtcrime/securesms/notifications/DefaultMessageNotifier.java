@@ -67,6 +67,7 @@ import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientUtil;
 import org.thoughtcrime.securesms.service.KeyCachingService;
 import org.thoughtcrime.securesms.util.BubbleUtil;
+import org.thoughtcrime.securesms.util.CursorUtil;
 import org.thoughtcrime.securesms.util.MediaUtil;
 import org.thoughtcrime.securesms.util.MessageRecordUtil;
 import org.thoughtcrime.securesms.util.ServiceUtil;
@@ -75,10 +76,12 @@ import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.webrtc.CallNotificationBuilder;
 import org.whispersystems.signalservice.internal.util.Util;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -105,10 +108,11 @@ public class DefaultMessageNotifier implements MessageNotifier {
   private static final long   MIN_AUDIBLE_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(2);
   private static final long   DESKTOP_ACTIVITY_PERIOD   = TimeUnit.MINUTES.toMillis(1);
 
-  private volatile long                     visibleThread                = -1;
-  private volatile long                     lastDesktopActivityTimestamp = -1;
-  private volatile long                     lastAudibleNotification      = -1;
-  private          final CancelableExecutor executor                     = new CancelableExecutor();
+  private volatile long                         visibleThread                = -1;
+  private volatile long                         lastDesktopActivityTimestamp = -1;
+  private volatile long                         lastAudibleNotification      = -1;
+  private          final CancelableExecutor     executor                     = new CancelableExecutor();
+  private          final NotificationStateCache stateCache                   = new NotificationStateCache();
 
   @Override
   public void setVisibleThread(long threadId) {
@@ -275,24 +279,31 @@ public class DefaultMessageNotifier implements MessageNotifier {
       return;
     }
 
-    boolean isReminder  = reminderCount > 0;
-    Cursor  telcoCursor = null;
-    Cursor  pushCursor  = null;
+    boolean isReminder = reminderCount > 0;
+    Cursor  pushCursor = null;
+
+    if (isReminder) {
+      stateCache.invalidateAll();
+    } else if (targetThread > 0) {
+      stateCache.invalidate(targetThread);
+    }
 
     try {
-      telcoCursor = DatabaseFactory.getMmsSmsDatabase(context).getUnread();
-      pushCursor  = DatabaseFactory.getPushDatabase(context).getPending();
+      NotificationStateCache.Update update = stateCache.refresh(new StateLoader(context));
 
-      if ((telcoCursor == null || telcoCursor.isAfterLast()) &&
+      pushCursor = DatabaseFactory.getPushDatabase(context).getPending();
+
+      if (update.getItems().isEmpty() &&
           (pushCursor == null || pushCursor.isAfterLast()))
       {
         NotificationCancellationHelper.cancelAllMessageNotifications(context);
+        stateCache.invalidateAll();
         updateBadge(context, 0);
         clearReminder(context);
         return;
       }
 
-      NotificationState notificationState = constructNotificationState(context, telcoCursor);
+      NotificationState notificationState = new NotificationState(update.getItems());
 
       if (signal && (System.currentTimeMillis() - lastAudibleNotification) < MIN_AUDIBLE_PERIOD_MILLIS) {
         signal = false;
@@ -305,7 +316,7 @@ public class DefaultMessageNotifier implements MessageNotifier {
       if (notificationState.hasMultipleThreads()) {
         if (Build.VERSION.SDK_INT >= 23) {
           for (long threadId : notificationState.getThreads()) {
-            if (targetThread < 1 || targetThread == threadId) {
+            if (targetThread < 1 || update.getChangedThreads().contains(threadId)) {
               sendSingleThreadNotification(context,
                                            new NotificationState(notificationState.getNotificationsForThread(threadId)),
                                            signal && (threadId == targetThread),
@@ -331,23 +342,32 @@ public class DefaultMessageNotifier implements MessageNotifier {
       cancelOrphanedNotifications(context, notificationState);
       updateBadge(context, notificationState.getMessageCount());
 
-      List<Long> smsIds = new LinkedList<>();
-      List<Long> mmsIds = new LinkedList<>();
+      List<NotificationItem> notified = new LinkedList<>();
+      List<Long>             smsIds   = new LinkedList<>();
+      List<Long>             mmsIds   = new LinkedList<>();
       for (NotificationItem item : notificationState.getNotifications()) {
+        if (item.getNotifiedTimestamp() != 0) {
+          continue;
+        }
+
+        notified.add(item);
+
         if (item.isMms()) {
           mmsIds.add(item.getId());
         } else {
           smsIds.add(item.getId());
         }
       }
-      DatabaseFactory.getMmsSmsDatabase(context).setNotifiedTimestamp(System.currentTimeMillis(), smsIds, mmsIds);
+
+      long notifiedTimestamp = System.currentTimeMillis();
+      DatabaseFactory.getMmsSmsDatabase(context).setNotifiedTimestamp(notifiedTimestamp, smsIds, mmsIds);
+      stateCache.markNotified(notified, notifiedTimestamp);
 
       if (shouldScheduleReminder) {
         scheduleReminder(context, reminderCount);
       }
     } finally {
-      if (telcoCursor != null) telcoCursor.close();
-      if (pushCursor != null)  pushCursor.close();
+      if (pushCursor != null) pushCursor.close();
     }
   }
 
@@ -557,11 +577,12 @@ public class DefaultMessageNotifier implements MessageNotifier {
     ringtone.play();
   }
 
-  private static NotificationState constructNotificationState(@NonNull  Context context,
-                                                              @NonNull  Cursor cursor)
+  private static List<NotificationItem> constructNotificationItems(@NonNull  Context context,
+                                                                   @NonNull  Cursor cursor)
   {
-    NotificationState     notificationState = new NotificationState();
-    MmsSmsDatabase.Reader reader            = DatabaseFactory.getMmsSmsDatabase(context).readerFor(cursor);
+    List<NotificationItem> notificationItems  = new LinkedList<>();
+    Map<Long, Recipient>   threadRecipientMap = new HashMap<>();
+    MmsSmsDatabase.Reader  reader             = DatabaseFactory.getMmsSmsDatabase(context).readerFor(cursor);
 
     MessageRecord record;
 
@@ -582,7 +603,11 @@ public class DefaultMessageNotifier implements MessageNotifier {
       long         notifiedTimestamp     = record.getNotifiedTimestamp();
 
       if (threadId != -1) {
-        threadRecipients = DatabaseFactory.getThreadDatabase(context).getRecipientForThreadId(threadId);
+        if (!threadRecipientMap.containsKey(threadId)) {
+          threadRecipientMap.put(threadId, DatabaseFactory.getThreadDatabase(context).getRecipientForThreadId(threadId));
+        }
+
+        threadRecipients = threadRecipientMap.get(threadId);
       }
 
       if (isUnreadMessage) {
@@ -616,7 +641,7 @@ public class DefaultMessageNotifier implements MessageNotifier {
         }
 
         if (threadRecipients == null || includeMessage) {
-          notificationState.addNotification(new NotificationItem(id, mms, recipient, conversationRecipient, threadRecipients, threadId, body, timestamp, receivedTimestamp, slideDeck, false, record.isJoined(), canReply, notifiedTimestamp));
+          notificationItems.add(new NotificationItem(id, mms, recipient, conversationRecipient, threadRecipients, threadId, body, timestamp, receivedTimestamp, slideDeck, false, record.isJoined(), canReply, notifiedTimestamp));
         }
       }
 
@@ -651,14 +676,14 @@ public class DefaultMessageNotifier implements MessageNotifier {
           }
 
           if (threadRecipients == null || !threadRecipients.isMuted()) {
-            notificationState.addNotification(new NotificationItem(id, mms, reactionSender, conversationRecipient, threadRecipients, threadId, body, reaction.getDateReceived(), receivedTimestamp, null, true, record.isJoined(), false, 0));
+            notificationItems.add(new NotificationItem(id, mms, reactionSender, conversationRecipient, threadRecipients, threadId, body, reaction.getDateReceived(), receivedTimestamp, null, true, record.isJoined(), false, 0));
           }
         }
       }
     }
 
     reader.close();
-    return notificationState;
+    return notificationItems;
   }
 
   private static CharSequence getReactionMessageBody(@NonNull Context context, @NonNull MessageRecord record, @NonNull CharSequence body) {
@@ -752,6 +777,47 @@ public class DefaultMessageNotifier implements MessageNotifier {
     alarmManager.cancel(pendingIntent);
   }
 
+  /**
+   * Reads notification items for {@link NotificationStateCache}, one thread at a time.
+   */
+  private static final class StateLoader implements NotificationStateCache.Loader {
+
+    private final Context context;
+    private final boolean locked;
+
+    private StateLoader(@NonNull Context context) {
+      this.context = context;
+      this.locked  = KeyCachingService.isLocked(context);
+    }
+
+    @Override
+    public @NonNull Map<Long, NotificationStateCache.Signature> loadSignatures() {
+      Map<Long, NotificationStateCache.Signature> signatures = new HashMap<>();
+
+      try (Cursor cursor = DatabaseFactory.getMmsSmsDatabase(context).getUnreadThreadSummary()) {
+        while (cursor.moveToNext()) {
+          long      threadId  = CursorUtil.requireLong(cursor, MmsSmsColumns.THREAD_ID);
+          Recipient recipient = DatabaseFactory.getThreadDatabase(context).getRecipientForThreadId(threadId);
+
+          signatures.put(threadId, new NotificationStateCache.Signature(CursorUtil.requireLong(cursor, MmsSmsDatabase.UNREAD_SUMMARY_COUNT),
+                                                                        CursorUtil.requireLong(cursor, MmsSmsDatabase.UNREAD_SUMMARY_LAST_RECEIVED),
+                                                                        recipient != null && recipient.isMuted(),
+                                                                        recipient != null && recipient.getMentionSetting() == RecipientDatabase.MentionSetting.ALWAYS_NOTIFY,
+                                                                        locked));
+        }
+      }
+
+      return signatures;
+    }
+
+    @Override
+    public @NonNull List<NotificationItem> loadThread(long threadId) {
+      try (Cursor cursor = DatabaseFactory.getMmsSmsDatabase(context).getUnread(threadId)) {
+        return constructNotificationItems(context, cursor);
+      }
+    }
+  }
+
   private static class DelayedNotification implements Runnable {
 
     private static final long DELAY = TimeUnit.SECONDS.toMillis(5);
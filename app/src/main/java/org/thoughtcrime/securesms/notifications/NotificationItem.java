@@ -128,4 +128,8 @@ public class NotificationItem {
   public long getNotifiedTimestamp() {
     return notifiedTimestamp;
   }
+
+  @NonNull NotificationItem withNotifiedTimestamp(long notifiedTimestamp) {
+    return new NotificationItem(id, mms, individualRecipient, conversationRecipient, threadRecipient, threadId, text, timestamp, messageReceivedTimestamp, slideDeck, jumpToMessage, isJoin, canReply, notifiedTimestamp);
+  }
 }
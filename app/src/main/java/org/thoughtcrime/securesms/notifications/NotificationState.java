@@ -14,6 +14,7 @@ import org.thoughtcrime.securesms.conversation.ConversationIntents;
 import org.thoughtcrime.securesms.database.RecipientDatabase.VibrateState;
 import org.thoughtcrime.securesms.recipients.Recipient;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -26,14 +27,20 @@ public class NotificationState {
   private static final String TAG = NotificationState.class.getSimpleName();
 
   private final Comparator<NotificationItem> notificationItemComparator = (a, b) -> -Long.compare(a.getTimestamp(), b.getTimestamp());
-  private final List<NotificationItem>       notifications              = new LinkedList<>();
+  private final List<NotificationItem>       notifications              = new ArrayList<>();
   private final LinkedHashSet<Long>          threads                    = new LinkedHashSet<>();
 
   public NotificationState() {}
 
   public NotificationState(@NonNull List<NotificationItem> items) {
-    for (NotificationItem item : items) {
-      addNotification(item);
+    notifications.addAll(items);
+    Collections.sort(notifications, notificationItemComparator);
+
+    for (int i = notifications.size() - 1; i >= 0; i--) {
+      long threadId = notifications.get(i).getThreadId();
+
+      threads.remove(threadId);
+      threads.add(threadId);
     }
   }
 
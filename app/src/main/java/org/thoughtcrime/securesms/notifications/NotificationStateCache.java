@@ -0,0 +1,184 @@
+package org.thoughtcrime.securesms.notifications;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the {@link NotificationItem}s of every thread with unread messages between notification
+ * updates, so that an update only rebuilds the threads that changed since the previous one, rather
+ * than every unread message.
+ *
+ * A thread is rebuilt when it's invalidated, e.g. because a message arrived in it, or when its
+ * {@link Signature} no longer matches the one it was built with. Reads, deletes and mute changes are
+ * picked up that way, without their callers having to say which threads they touched. Anything
+ * that isn't in the signature, like reactions, has to invalidate its thread.
+ */
+final class NotificationStateCache {
+
+  private final Map<Long, Entry> threads = new HashMap<>();
+  private final Set<Long>        dirty   = new HashSet<>();
+
+  synchronized void invalidate(long threadId) {
+    dirty.add(threadId);
+  }
+
+  /**
+   * Forgets every thread, so the next {@link #refresh(Loader)} rebuilds all of them. Used for
+   * reminders, which re-post everything, and once all notifications have been cleared.
+   */
+  synchronized void invalidateAll() {
+    threads.clear();
+    dirty.clear();
+  }
+
+  /**
+   * Brings the cache up to date with the database, rebuilding only the threads that need it.
+   */
+  synchronized @NonNull Update refresh(@NonNull Loader loader) {
+    Map<Long, Signature> signatures = loader.loadSignatures();
+    Set<Long>            changed    = new HashSet<>();
+
+    threads.keySet().retainAll(signatures.keySet());
+
+    for (Map.Entry<Long, Signature> signature : signatures.entrySet()) {
+      long  threadId = signature.getKey();
+      Entry cached   = threads.get(threadId);
+
+      if (cached == null || dirty.contains(threadId) || !cached.signature.equals(signature.getValue())) {
+        threads.put(threadId, new Entry(signature.getValue(), loader.loadThread(threadId)));
+        changed.add(threadId);
+      }
+    }
+
+    dirty.clear();
+
+    List<NotificationItem> items = new ArrayList<>();
+
+    for (Entry entry : threads.values()) {
+      items.addAll(entry.items);
+    }
+
+    return new Update(items, changed);
+  }
+
+  /**
+   * Records that the given items have been shown, so they won't alert again when their thread is
+   * next rendered from the cache.
+   */
+  synchronized void markNotified(@NonNull List<NotificationItem> notified, long timestamp) {
+    Set<Long> threadIds = new HashSet<>();
+
+    for (NotificationItem item : notified) {
+      threadIds.add(item.getThreadId());
+    }
+
+    for (long threadId : threadIds) {
+      Entry entry = threads.get(threadId);
+
+      if (entry == null) {
+        continue;
+      }
+
+      List<NotificationItem> items = new ArrayList<>(entry.items.size());
+
+      for (NotificationItem item : entry.items) {
+        items.add(item.getNotifiedTimestamp() == 0 ? item.withNotifiedTimestamp(timestamp) : item);
+      }
+
+      threads.put(threadId, new Entry(entry.signature, items));
+    }
+  }
+
+  interface Loader {
+    /**
+     * @return A signature for every thread that currently has notifications.
+     */
+    @NonNull Map<Long, Signature> loadSignatures();
+
+    @NonNull List<NotificationItem> loadThread(long threadId);
+  }
+
+  /**
+   * Everything about a thread that decides which notification items it has. If any of it changes,
+   * the thread is rebuilt.
+   */
+  static final class Signature {
+    private final long    count;
+    private final long    lastReceived;
+    private final boolean muted;
+    private final boolean mentionsOverrideMute;
+    private final boolean locked;
+
+    Signature(long count, long lastReceived, boolean muted, boolean mentionsOverrideMute, boolean locked) {
+      this.count                = count;
+      this.lastReceived         = lastReceived;
+      this.muted                = muted;
+      this.mentionsOverrideMute = mentionsOverrideMute;
+      this.locked               = locked;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Signature that = (Signature) o;
+
+      return count                == that.count                &&
+             lastReceived         == that.lastReceived         &&
+             muted                == that.muted                &&
+             mentionsOverrideMute == that.mentionsOverrideMute &&
+             locked               == that.locked;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = (int) (count ^ (count >>> 32));
+      result = 31 * result + (int) (lastReceived ^ (lastReceived >>> 32));
+      result = 31 * result + (muted ? 1 : 0);
+      result = 31 * result + (mentionsOverrideMute ? 1 : 0);
+      result = 31 * result + (locked ? 1 : 0);
+      return result;
+    }
+  }
+
+  static final class Update {
+    private final List<NotificationItem> items;
+    private final Set<Long>              changedThreads;
+
+    private Update(@NonNull List<NotificationItem> items, @NonNull Set<Long> changedThreads) {
+      this.items          = Collections.unmodifiableList(items);
+      this.changedThreads = Collections.unmodifiableSet(changedThreads);
+    }
+
+    @NonNull List<NotificationItem> getItems() {
+      return items;
+    }
+
+    /**
+     * Threads that were rebuilt by this update. Threads that no longer have notifications aren't
+     * included.
+     */
+    @NonNull Set<Long> getChangedThreads() {
+      return changedThreads;
+    }
+  }
+
+  private static final class Entry {
+    private final Signature              signature;
+    private final List<NotificationItem> items;
+
+    private Entry(@NonNull Signature signature, @NonNull List<NotificationItem> items) {
+      this.signature = signature;
+      this.items     = items;
+    }
+  }
+}
@@ -21,6 +21,7 @@ import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.livedata.LiveDataUtil;
 import org.whispersystems.libsignal.util.guava.Optional;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -147,6 +148,22 @@ public final class LiveRecipient {
     return updated;
   }
 
+  /**
+   * Resolves an individual recipient from settings that were already read from disk, e.g. in bulk
+   * by {@link LiveRecipientCache#resolveAll(Collection)}.
+   */
+  @WorkerThread
+  void resolve(@NonNull RecipientSettings settings) {
+    if (!recipient.get().isResolving()) {
+      return;
+    }
+
+    Recipient updated = new Recipient(getId(), RecipientDetails.forIndividual(context, settings), true);
+    RecipientIdCache.INSTANCE.put(updated);
+
+    set(updated);
+  }
+
   @WorkerThread
   public void refresh() {
     refresh(getId());
@@ -181,6 +198,19 @@ public final class LiveRecipient {
     refreshForceNotify.postValue(new Object());
   }
 
+  /**
+   * Same as {@link #refresh()} for an individual, with settings that were already read from disk,
+   * e.g. in bulk by {@link LiveRecipientCache#refreshAll(Collection)}.
+   */
+  @WorkerThread
+  void refresh(@NonNull RecipientSettings settings) {
+    Recipient recipient = new Recipient(getId(), RecipientDetails.forIndividual(context, settings), true);
+    RecipientIdCache.INSTANCE.put(recipient);
+
+    set(recipient);
+    refreshForceNotify.postValue(new Object());
+  }
+
   public @NonNull LiveData<Recipient> getLiveData() {
     return observableLiveData;
   }
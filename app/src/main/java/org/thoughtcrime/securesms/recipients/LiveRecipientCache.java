@@ -6,12 +6,16 @@ import android.content.Context;
 import androidx.annotation.AnyThread;
 import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.annimon.stream.Stream;
 
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase.MissingRecipientException;
+import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.util.LRUCache;
@@ -110,6 +114,87 @@ public final class LiveRecipientCache {
     }
   }
 
+  /**
+   * Resolves every recipient in the collection that isn't resolved yet. Individuals are read with a
+   * single query rather than one per recipient, groups still need their members and are resolved
+   * one at a time.
+   */
+  @WorkerThread
+  public void resolveAll(@NonNull Collection<RecipientId> ids) {
+    List<LiveRecipient> unresolved = new ArrayList<>(ids.size());
+
+    synchronized (this) {
+      for (RecipientId id : ids) {
+        if (id.isUnknown()) continue;
+
+        LiveRecipient live = recipients.get(id);
+
+        if (live == null) {
+          live = new LiveRecipient(context, new Recipient(id));
+          recipients.put(id, live);
+        }
+
+        if (live.get().isResolving()) {
+          unresolved.add(live);
+        }
+      }
+    }
+
+    if (unresolved.isEmpty()) {
+      return;
+    }
+
+    Map<RecipientId, RecipientSettings> settings = recipientDatabase.getRecipientSettings(Stream.of(unresolved).map(LiveRecipient::getId).toList());
+
+    for (LiveRecipient live : unresolved) {
+      RecipientSettings recipientSettings = settings.get(live.getId());
+
+      if (recipientSettings != null && recipientSettings.getGroupId() == null) {
+        live.resolve(recipientSettings);
+      } else {
+        live.resolve();
+      }
+    }
+  }
+
+  /**
+   * Bulk version of {@link LiveRecipient#refresh()}. Only recipients that are in the cache are
+   * refreshed, anything else is read fresh when it's first asked for. Individuals are re-read with a
+   * single query, groups still need their members and are refreshed one at a time.
+   */
+  @WorkerThread
+  public void refreshAll(@NonNull Collection<RecipientId> ids) {
+    List<LiveRecipient> cached = new ArrayList<>(ids.size());
+
+    synchronized (this) {
+      for (RecipientId id : ids) {
+        if (id.isUnknown()) continue;
+
+        LiveRecipient live = recipients.get(id);
+
+        if (live != null) {
+          cached.add(live);
+        }
+      }
+    }
+
+    if (cached.isEmpty()) {
+      return;
+    }
+
+    Map<RecipientId, RecipientSettings> settings = recipientDatabase.getRecipientSettings(Stream.of(cached).map(LiveRecipient::getId).toList());
+
+    for (LiveRecipient live : cached) {
+      RecipientSettings recipientSettings = settings.get(live.getId());
+
+      if (recipientSettings != null && recipientSettings.getGroupId() == null) {
+        live.refresh(recipientSettings);
+      } else {
+        live.refresh();
+      }
+    }
+  }
+
   @NonNull Recipient getSelf() {
     synchronized (SELF_LOCK) {
       if (localRecipientId == null) {
@@ -9,6 +9,7 @@ import android.graphics.Paint;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.provider.DocumentsContract;
 import android.text.Editable;
 import android.text.Spanned;
 import android.text.TextWatcher;
@@ -38,6 +39,7 @@ import org.greenrobot.eventbus.ThreadMode;
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.AppInitialization;
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.backup.BackupChain;
 import org.thoughtcrime.securesms.backup.BackupPassphrase;
 import org.thoughtcrime.securesms.backup.FullBackupBase;
 import org.thoughtcrime.securesms.backup.FullBackupImporter;
@@ -58,14 +60,17 @@ import java.util.Locale;
 
 public final class RestoreBackupFragment extends BaseRegistrationFragment {
 
-  private static final String TAG                            = Log.tag(RestoreBackupFragment.class);
-  private static final short  OPEN_DOCUMENT_TREE_RESULT_CODE = 13782;
+  private static final String TAG                             = Log.tag(RestoreBackupFragment.class);
+  private static final short  OPEN_DOCUMENT_TREE_RESULT_CODE  = 13782;
+  private static final short  CHOOSE_CHAIN_FOLDER_RESULT_CODE = 13783;
 
   private TextView               restoreBackupSize;
   private TextView               restoreBackupTime;
   private TextView               restoreBackupProgress;
   private CircularProgressButton restoreButton;
   private View                   skipRestoreButton;
+  private BackupUtil.BackupInfo  pendingBackup;
+  private Uri                    chainDirectory;
 
   @Override
   public View onCreateView(LayoutInflater inflater, ViewGroup container,
@@ -139,6 +144,19 @@ public final class RestoreBackupFragment extends BaseRegistrationFragment {
 
       Navigation.findNavController(requireView())
                 .navigate(RestoreBackupFragmentDirections.actionBackupRestored());
+    } else if (requestCode == CHOOSE_CHAIN_FOLDER_RESULT_CODE && resultCode == Activity.RESULT_OK && data != null && data.getData() != null) {
+      Uri backupDirectoryUri = data.getData();
+      int takeFlags          = Intent.FLAG_GRANT_READ_URI_PERMISSION |
+                               Intent.FLAG_GRANT_WRITE_URI_PERMISSION;
+
+      requireContext().getContentResolver()
+                      .takePersistableUriPermission(backupDirectoryUri, takeFlags);
+
+      chainDirectory = backupDirectoryUri;
+
+      if (pendingBackup != null) {
+        handleRestore(requireContext(), pendingBackup);
+      }
     }
   }
 
@@ -207,6 +225,52 @@ public final class RestoreBackupFragment extends BaseRegistrationFragment {
   }
 
   private void handleRestore(@NonNull Context context, @NonNull BackupUtil.BackupInfo backup) {
+    if (!BackupUtil.isUserSelectionRequired(context)) {
+      promptForPassphrase(context, backup);
+      return;
+    }
+
+    Uri backupDirectory = chainDirectory;
+
+    SimpleTask.run(getViewLifecycleOwner().getLifecycle(),
+                   () -> BackupChain.canResolve(context, backup.getUri(), backupDirectory),
+                   canResolve -> {
+                     if (canResolve) {
+                       promptForPassphrase(context, backup);
+                     } else {
+                       displayChooseChainFolderDialog(context, backup);
+                     }
+                   });
+  }
+
+  /**
+   * An incremental backup chosen with the document picker can't be restored on its own, so we ask
+   * for the folder holding the rest of its chain.
+   */
+  @RequiresApi(29)
+  private void displayChooseChainFolderDialog(@NonNull Context context, @NonNull BackupUtil.BackupInfo backup) {
+    Log.i(TAG, "Backup chain is incomplete. Asking for the backup folder.");
+
+    pendingBackup = backup;
+
+    new AlertDialog.Builder(context)
+                   .setTitle(R.string.RestoreBackupFragment__choose_backup_folder)
+                   .setMessage(R.string.RestoreBackupFragment__this_backup_depends_on_older_backups)
+                   .setPositiveButton(R.string.RestoreBackupFragment__choose_folder, (dialog, which) -> {
+                     Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE);
+
+                     intent.putExtra(DocumentsContract.EXTRA_INITIAL_URI, SignalStore.settings().getLatestSignalBackupDirectory());
+                     intent.addFlags(Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION |
+                                     Intent.FLAG_GRANT_WRITE_URI_PERMISSION       |
+                                     Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
+                     startActivityForResult(intent, CHOOSE_CHAIN_FOLDER_RESULT_CODE);
+                   })
+                   .setNegativeButton(android.R.string.cancel, null)
+                   .show();
+  }
+
+  private void promptForPassphrase(@NonNull Context context, @NonNull BackupUtil.BackupInfo backup) {
     View     view   = LayoutInflater.from(context).inflate(R.layout.enter_backup_passphrase_dialog, null);
     EditText prompt = view.findViewById(R.id.restore_passphrase_input);
 
@@ -237,6 +301,8 @@ public final class RestoreBackupFragment extends BaseRegistrationFragment {
                                      @NonNull BackupUtil.BackupInfo backup,
                                      @NonNull String passphrase)
   {
+    Uri backupDirectory = chainDirectory;
+
     new AsyncTask<Void, Void, BackupImportResult>() {
       @Override
       protected BackupImportResult doInBackground(Void... voids) {
@@ -250,11 +316,16 @@ public final class RestoreBackupFragment extends BaseRegistrationFragment {
                                         AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret(),
                                         database,
                                         backup.getUri(),
+                                        backupDirectory,
                                         passphrase);
 
           DatabaseFactory.upgradeRestored(context, database);
           NotificationChannels.restoreContactNotificationChannels(context);
 
+          if (backupDirectory != null && SignalStore.settings().getSignalBackupDirectory() == null) {
+            SignalStore.settings().setSignalBackupDirectory(backupDirectory);
+          }
+
           enableBackups(context);
 
           AppInitialization.onPostBackupRestore(context);
@@ -30,6 +30,7 @@ import org.thoughtcrime.securesms.database.model.Mention;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobs.SearchIndexJob;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.CursorUtil;
@@ -95,6 +96,8 @@ public class SearchRepository {
     this.contactAccessor   = ContactAccessor.getInstance();
     this.serialExecutor    = SignalExecutors.SERIAL;
     this.parallelExecutor  = SignalExecutors.BOUNDED;
+
+    SearchIndexJob.enqueue();
   }
 
   public void query(@NonNull String query, @NonNull Callback<SearchResult> callback) {
@@ -113,7 +116,7 @@ public class SearchRepository {
 
       try {
         long         startTime = System.currentTimeMillis();
-        SearchResult result    = new SearchResult(cleanQuery, contacts.get(), conversations.get(), mergeMessagesAndMentions(messages.get(), mentionMessages.get()));
+        SearchResult result    = new SearchResult(cleanQuery, contacts.get(), conversations.get(), appendMentions(messages.get(), mentionMessages.get()));
 
         Log.d(TAG, "Total time: " + (System.currentTimeMillis() - startTime) + " ms");
 
@@ -378,25 +381,48 @@ public class SearchRepository {
   }
 
   private static @NonNull List<MessageResult> mergeMessagesAndMentions(@NonNull List<MessageResult> messages, @NonNull List<MessageResult> mentionMessages) {
+    List<MessageResult> combined = new ArrayList<>(messages.size() + mentionMessages.size());
+    combined.addAll(messages);
+    combined.addAll(withoutMessages(mentionMessages, messages));
+
+    Collections.sort(combined, Collections.reverseOrder((left, right) -> Long.compare(left.receivedTimestampMs, right.receivedTimestampMs)));
+
+    return combined;
+  }
+
+  /**
+   * Message results are ranked by relevance, so they keep their order and the mentions they didn't
+   * already include follow them, newest first.
+   */
+  private static @NonNull List<MessageResult> appendMentions(@NonNull List<MessageResult> messages, @NonNull List<MessageResult> mentionMessages) {
+    List<MessageResult> mentionsOnly = withoutMessages(mentionMessages, messages);
+
+    Collections.sort(mentionsOnly, Collections.reverseOrder((left, right) -> Long.compare(left.receivedTimestampMs, right.receivedTimestampMs)));
+
+    List<MessageResult> combined = new ArrayList<>(messages.size() + mentionsOnly.size());
+    combined.addAll(messages);
+    combined.addAll(mentionsOnly);
+
+    return combined;
+  }
+
+  private static @NonNull List<MessageResult> withoutMessages(@NonNull List<MessageResult> mentionMessages, @NonNull List<MessageResult> messages) {
     Set<Long> includedMmsMessages = new HashSet<>();
 
-    List<MessageResult> combined = new ArrayList<>(messages.size() + mentionMessages.size());
     for (MessageResult result : messages) {
-      combined.add(result);
       if (result.isMms) {
         includedMmsMessages.add(result.messageId);
       }
     }
 
+    List<MessageResult> remaining = new ArrayList<>(mentionMessages.size());
     for (MessageResult result : mentionMessages) {
       if (!includedMmsMessages.contains(result.messageId)) {
-        combined.add(result);
+        remaining.add(result);
       }
     }
 
-    Collections.sort(combined, Collections.reverseOrder((left, right) -> Long.compare(left.receivedTimestampMs, right.receivedTimestampMs)));
-
-    return combined;
+    return remaining;
   }
 
   private static class RecipientModelBuilder implements CursorList.ModelBuilder<Recipient> {
@@ -107,6 +107,7 @@ final class StickerKeyboardPageAdapter extends RecyclerView.Adapter<StickerKeybo
 
       glideRequests.load(new DecryptableUri(sticker.getUri()))
                    .set(ApngOptions.ANIMATE, allowApngAnimation)
+                   .set(ApngOptions.CACHE_DECODED_FRAMES, true)
                    .transition(DrawableTransitionOptions.withCrossFade())
                    .into(image);
 
@@ -6,7 +6,6 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
-import com.annimon.stream.Collectors;
 import com.annimon.stream.Stream;
 
 import org.signal.core.util.logging.Log;
@@ -20,8 +19,6 @@ import org.thoughtcrime.securesms.keyvalue.PhoneNumberPrivacyValues;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
-import org.thoughtcrime.securesms.util.Base64;
-import org.thoughtcrime.securesms.util.SetUtil;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
@@ -39,6 +36,7 @@ import org.whispersystems.signalservice.internal.storage.protos.ManifestRecord;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -213,32 +211,109 @@ public final class StorageSyncHelper {
   public static @NonNull KeyDifferenceResult findKeyDifference(@NonNull Collection<StorageId> remoteKeys,
                                                                @NonNull Collection<StorageId> localKeys)
   {
-    Map<String, StorageId> remoteByRawId = Stream.of(remoteKeys).collect(Collectors.toMap(id -> Base64.encodeBytes(id.getRaw()), id -> id));
-    Map<String, StorageId> localByRawId  = Stream.of(localKeys).collect(Collectors.toMap(id -> Base64.encodeBytes(id.getRaw()), id -> id));
+    Map<ByteBuffer, StorageId> remoteByRawId = mapByRawId(remoteKeys);
+    Map<ByteBuffer, StorageId> localByRawId  = mapByRawId(localKeys);
 
     boolean hasTypeMismatch = remoteByRawId.size() != remoteKeys.size() || localByRawId.size() != localKeys.size();
 
-    Set<String> remoteOnlyRawIds = SetUtil.difference(remoteByRawId.keySet(), localByRawId.keySet());
-    Set<String> localOnlyRawIds  = SetUtil.difference(localByRawId.keySet(), remoteByRawId.keySet());
-    Set<String> sharedRawIds     = SetUtil.intersection(localByRawId.keySet(), remoteByRawId.keySet());
+    List<StorageId> remoteOnlyKeys = new ArrayList<>();
+    List<StorageId> localOnlyKeys  = new ArrayList<>();
 
-    for (String rawId : sharedRawIds) {
-      StorageId remote = Objects.requireNonNull(remoteByRawId.get(rawId));
-      StorageId local  = Objects.requireNonNull(localByRawId.get(rawId));
+    for (Map.Entry<ByteBuffer, StorageId> remote : remoteByRawId.entrySet()) {
+      StorageId local = localByRawId.get(remote.getKey());
 
-      if (remote.getType() != local.getType()) {
-        remoteOnlyRawIds.remove(rawId);
-        localOnlyRawIds.remove(rawId);
+      if (local == null) {
+        remoteOnlyKeys.add(remote.getValue());
+      } else if (local.getType() != remote.getValue().getType()) {
         hasTypeMismatch = true;
       }
     }
 
-    List<StorageId> remoteOnlyKeys = Stream.of(remoteOnlyRawIds).map(remoteByRawId::get).toList();
-    List<StorageId> localOnlyKeys  = Stream.of(localOnlyRawIds).map(localByRawId::get).toList();
+    for (Map.Entry<ByteBuffer, StorageId> local : localByRawId.entrySet()) {
+      if (!remoteByRawId.containsKey(local.getKey())) {
+        localOnlyKeys.add(local.getValue());
+      }
+    }
 
     return new KeyDifferenceResult(remoteOnlyKeys, localOnlyKeys, hasTypeMismatch);
   }
 
+  /**
+   * Like {@link #findKeyDifference(Collection, Collection)}, but works from the keys of the last
+   * manifest we synced with rather than from every local key. Only the keys that changed remotely
+   * since then, and the local keys that haven't been uploaded yet, are looked up locally.
+   *
+   * @param remoteKeys All remote keys available.
+   * @param indexedKeys The keys of the last manifest we synced with.
+   * @param pendingLocalKeys Local keys that were created since that manifest, and aren't part of it.
+   * @param localKeyChecker Tells whether a key is still present locally.
+   *
+   * @return The same result that comparing against every local key would give, provided that local
+   *         keys only changed through pendingLocalKeys since the indexed manifest. If there are type
+   *         mismatches between the remote and the indexed keys, only those are reported, and the
+   *         caller should fall back to a full comparison.
+   */
+  public static @NonNull KeyDifferenceResult findKeyDifference(@NonNull Collection<StorageId> remoteKeys,
+                                                               @NonNull Collection<StorageId> indexedKeys,
+                                                               @NonNull Collection<StorageId> pendingLocalKeys,
+                                                               @NonNull LocalKeyChecker localKeyChecker)
+  {
+    KeyDifferenceResult remoteChanges = findKeyDifference(remoteKeys, indexedKeys);
+
+    if (remoteChanges.hasTypeMismatches()) {
+      return new KeyDifferenceResult(Collections.emptyList(), Collections.emptyList(), true);
+    }
+
+    List<StorageId> remoteOnlyKeys = new ArrayList<>();
+    Set<StorageId>  localOnlyKeys  = new LinkedHashSet<>();
+
+    for (StorageId added : remoteChanges.getRemoteOnlyKeys()) {
+      if (!localKeyChecker.isPresent(added)) {
+        remoteOnlyKeys.add(added);
+      }
+    }
+
+    for (StorageId removed : remoteChanges.getLocalOnlyKeys()) {
+      if (localKeyChecker.isPresent(removed)) {
+        localOnlyKeys.add(removed);
+      }
+    }
+
+    if (!pendingLocalKeys.isEmpty()) {
+      Set<StorageId> remote = new HashSet<>(remoteKeys);
+
+      for (StorageId pending : pendingLocalKeys) {
+        if (!remote.contains(pending)) {
+          localOnlyKeys.add(pending);
+        }
+      }
+    }
+
+    return new KeyDifferenceResult(remoteOnlyKeys, new ArrayList<>(localOnlyKeys), false);
+  }
+
+  /**
+   * @return All local keys, given the remote keys and the difference between them and local data.
+   */
+  public static @NonNull List<StorageId> getLocalKeys(@NonNull Collection<StorageId> remoteKeys, @NonNull KeyDifferenceResult keyDifference) {
+    Set<StorageId> localKeys = new LinkedHashSet<>(remoteKeys);
+
+    localKeys.removeAll(keyDifference.getRemoteOnlyKeys());
+    localKeys.addAll(keyDifference.getLocalOnlyKeys());
+
+    return new ArrayList<>(localKeys);
+  }
+
+  private static @NonNull Map<ByteBuffer, StorageId> mapByRawId(@NonNull Collection<StorageId> keys) {
+    Map<ByteBuffer, StorageId> byRawId = new HashMap<>(keys.size());
+
+    for (StorageId key : keys) {
+      byRawId.put(ByteBuffer.wrap(key.getRaw()), key);
+    }
+
+    return byRawId;
+  }
+
   /**
    * Given two sets of storage records, this will resolve the data into a set of actions that need
    * to be applied to resolve the differences. This will handle discovering which records between
@@ -468,6 +543,16 @@ public final class StorageSyncHelper {
     ApplicationDependencies.getJobManager().add(new StorageSyncJob());
   }
 
+  /**
+   * Records the keys of a manifest we're now in sync with, so that the next sync only has to look at
+   * what changed since.
+   */
+  public static void updateManifestIndex(@NonNull Context context, long manifestVersion, @NonNull List<StorageId> manifestKeys) {
+    SignalStore.storageServiceValues().setIndexVersion(-1);
+    DatabaseFactory.getStorageIndexDatabase(context).setKeys(manifestKeys);
+    SignalStore.storageServiceValues().setIndexVersion(manifestVersion);
+  }
+
   public static void scheduleRoutineSync() {
     long timeSinceLastSync = System.currentTimeMillis() - SignalStore.storageServiceValues().getLastSyncTime();
 
@@ -765,6 +850,10 @@ public final class StorageSyncHelper {
     @NonNull byte[] generate();
   }
 
+  public interface LocalKeyChecker {
+    boolean isPresent(@NonNull StorageId id);
+  }
+
   private static final class MultipleExistingAccountsException extends IllegalArgumentException {}
   private static final class InvalidAccountInsertException extends IllegalArgumentException {}
   private static final class InvalidAccountUpdateException extends IllegalArgumentException {}
@@ -15,6 +15,7 @@ import androidx.documentfile.provider.DocumentFile;
 
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.backup.BackupChain;
 import org.thoughtcrime.securesms.backup.BackupPassphrase;
 import org.thoughtcrime.securesms.database.NoExternalStorageException;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
@@ -23,13 +24,18 @@ import org.thoughtcrime.securesms.permissions.Permissions;
 import org.whispersystems.libsignal.util.ByteUtil;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 
 public class BackupUtil {
 
@@ -87,14 +93,26 @@ public class BackupUtil {
     }
   }
 
+  /**
+   * Keeps the two most recent restore points. Since an incremental backup can only be restored
+   * together with the rest of its {@link BackupChain}, every file of a kept chain is kept.
+   */
   public static void deleteOldBackups() {
     Log.i(TAG, "Deleting older backups");
 
     try {
-      List<BackupInfo> backups = getAllBackupsNewestFirst();
+      Context          context    = ApplicationDependencies.getApplication();
+      List<BackupInfo> backups    = getAllBackupsNewestFirst();
+      Set<String>      keptChains = new HashSet<>();
+
+      for (int i = 0; i < backups.size(); i++) {
+        String chainKey = BackupChain.getChainKey(context, backups.get(i).getUri());
 
-      for (int i = 2; i < backups.size(); i++) {
-        backups.get(i).delete();
+        if (i < 2) {
+          keptChains.add(chainKey);
+        } else if (!keptChains.contains(chainKey)) {
+          backups.get(i).delete();
+        }
       }
     } catch (NoExternalStorageException e) {
       Log.w(TAG, e);
@@ -104,6 +122,7 @@ public class BackupUtil {
   public static void disableBackups(@NonNull Context context) {
     BackupPassphrase.set(context, null);
     TextSecurePreferences.setBackupEnabled(context, false);
+    SignalStore.settings().clearBackupChainState();
     BackupUtil.deleteAllBackups();
 
     if (BackupUtil.isUserSelectionRequired(context)) {
@@ -126,7 +145,21 @@ public class BackupUtil {
     }
   }
 
-  private static List<BackupInfo> getAllBackupsNewestFirst() throws NoExternalStorageException {
+  public static @NonNull InputStream openBackupInputStream(@NonNull Context context, @NonNull Uri uri) throws IOException {
+    if ("file".equals(uri.getScheme())) {
+      return new FileInputStream(new File(Objects.requireNonNull(uri.getPath())));
+    } else {
+      InputStream inputStream = context.getContentResolver().openInputStream(uri);
+
+      if (inputStream == null) {
+        throw new IOException("Unable to open " + uri);
+      }
+
+      return inputStream;
+    }
+  }
+
+  public static List<BackupInfo> getAllBackupsNewestFirst() throws NoExternalStorageException {
     if (isUserSelectionRequired(ApplicationDependencies.getApplication())) {
       return getAllBackupsNewestFirstApi29();
     } else {
@@ -142,6 +175,15 @@ public class BackupUtil {
       return Collections.emptyList();
     }
 
+    return getAllBackupsNewestFirst(backupDirectoryUri);
+  }
+
+  /**
+   * @return The backups in the provided document tree, which does not need to be the configured
+   *         backup directory.
+   */
+  @RequiresApi(29)
+  public static @NonNull List<BackupInfo> getAllBackupsNewestFirst(@NonNull Uri backupDirectoryUri) {
     DocumentFile backupDirectory = DocumentFile.fromTreeUri(ApplicationDependencies.getApplication(), backupDirectoryUri);
     if (backupDirectory == null || !backupDirectory.exists() || !backupDirectory.canRead()) {
       Log.w(TAG, "Backup directory is inaccessible. Returning an empty list.");
@@ -18,6 +18,10 @@ import java.util.Map;
 import java.util.Set;
 
 public final class SqlUtil {
+
+  /** SQLite's default limit on the number of arguments in a single statement. */
+  public static final int MAX_QUERY_ARGS = 999;
+
   private SqlUtil() {}
 
 
@@ -126,6 +130,29 @@ public final class SqlUtil {
     return new Query(column + " IN (" + query.toString() + ")", buildArgs(args));
   }
 
+  /**
+   * Splits the values into several IN queries, none of which has more than maxSize arguments.
+   */
+  public static @NonNull List<Query> buildCollectionQuery(@NonNull String column, @NonNull Collection<? extends Object> values, int maxSize) {
+    List<Query>  queries = new ArrayList<>(values.size() / maxSize + 1);
+    List<Object> chunk   = new ArrayList<>(Math.min(values.size(), maxSize));
+
+    for (Object value : values) {
+      chunk.add(value);
+
+      if (chunk.size() == maxSize) {
+        queries.add(buildCollectionQuery(column, chunk));
+        chunk.clear();
+      }
+    }
+
+    if (!chunk.isEmpty()) {
+      queries.add(buildCollectionQuery(column, chunk));
+    }
+
+    return queries;
+  }
+
   public static String[] appendArg(@NonNull String[] args, String addition) {
     String[] output = new String[args.length + 1];
 
@@ -1,7 +1,6 @@
 package org.thoughtcrime.securesms.video;
 
 import android.media.MediaDataSource;
-import android.media.MediaMetadataRetriever;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -28,44 +27,27 @@ public final class StreamingTranscoder {
   private final           long                           inSize;
   private final           long                           duration;
   private final           int                            inputBitRate;
-  private final           VideoBitRateCalculator.Quality targetQuality;
+  private final           TranscodePlan                  plan;
   private final           long                           memoryFileEstimate;
   private final           boolean                        transcodeRequired;
   private final           long                           fileSizeEstimate;
   private final @Nullable TranscoderOptions              options;
 
-  /**
-   * @param upperSizeLimit A upper size to transcode to. The actual output size can be up to 10% smaller.
-   */
   public StreamingTranscoder(@NonNull MediaDataSource dataSource,
                              @Nullable TranscoderOptions options,
-                             long upperSizeLimit)
-      throws IOException, VideoSourceException
+                             @NonNull TranscodePlan plan)
   {
     this.dataSource = dataSource;
     this.options    = options;
-
-    final MediaMetadataRetriever mediaMetadataRetriever = new MediaMetadataRetriever();
-    try {
-      mediaMetadataRetriever.setDataSource(dataSource);
-    } catch (RuntimeException e) {
-      Log.w(TAG, "Unable to read datasource", e);
-      throw new VideoSourceException("Unable to read datasource", e);
-    }
-
-    this.inSize         = dataSource.getSize();
-    this.duration       = getDuration(mediaMetadataRetriever);
-    this.inputBitRate   = VideoBitRateCalculator.bitRate(inSize, duration);
-    this.targetQuality  = new VideoBitRateCalculator(upperSizeLimit).getTargetQuality(duration, inputBitRate);
-    this.upperSizeLimit = upperSizeLimit;
-
-    this.transcodeRequired = inputBitRate >= targetQuality.getTargetTotalBitRate() * 1.2 || inSize > upperSizeLimit || containsLocation(mediaMetadataRetriever) || options != null;
-    if (!transcodeRequired) {
-      Log.i(TAG, "Video is within 20% of target bitrate, below the size limit, contained no location metadata or custom options.");
-    }
-
-    this.fileSizeEstimate   = targetQuality.getFileSizeEstimate();
-    this.memoryFileEstimate = (long) (fileSizeEstimate * 1.1);
+    this.plan       = plan;
+
+    this.inSize             = plan.getInputSize();
+    this.duration           = plan.getDuration();
+    this.inputBitRate       = plan.getInputBitRate();
+    this.upperSizeLimit     = plan.getUpperSizeLimit();
+    this.transcodeRequired  = plan.isTranscodeRequired();
+    this.fileSizeEstimate   = plan.getFileSizeEstimate();
+    this.memoryFileEstimate = plan.getMemoryFileEstimate();
   }
 
   public void transcode(@NonNull Progress progress,
@@ -86,10 +68,10 @@ public final class StreamingTranscoder {
                              "Estimate       : %s kB\n" +
                              "Input size     : %s kB\n" +
                              "Input bitrate  : %s bps",
-                             numberFormat.format(targetQuality.getTargetVideoBitRate()),
-                             numberFormat.format(targetQuality.getTargetAudioBitRate()),
-                             numberFormat.format(targetQuality.getTargetTotalBitRate()),
-                             targetQuality.getOutputResolution(),
+                             numberFormat.format(plan.getTargetVideoBitRate()),
+                             numberFormat.format(plan.getTargetAudioBitRate()),
+                             numberFormat.format(plan.getTargetTotalBitRate()),
+                             plan.getOutputResolution(),
                              durationSec,
                              numberFormat.format(upperSizeLimit / 1024),
                              numberFormat.format(fileSizeEstimate / 1024),
@@ -107,9 +89,9 @@ public final class StreamingTranscoder {
 
     converter.setInput(new MediaInput.MediaDataSourceMediaInput(dataSource));
     converter.setOutput(limitedSizeOutputStream);
-    converter.setVideoResolution(targetQuality.getOutputResolution());
-    converter.setVideoBitrate(targetQuality.getTargetVideoBitRate());
-    converter.setAudioBitrate(targetQuality.getTargetAudioBitRate());
+    converter.setVideoResolution(plan.getOutputResolution());
+    converter.setVideoBitrate(plan.getTargetVideoBitRate());
+    converter.setAudioBitrate(plan.getTargetAudioBitRate());
 
     if (options != null) {
       if (options.endTimeUs > 0) {
@@ -157,27 +139,6 @@ public final class StreamingTranscoder {
     return transcodeRequired;
   }
 
-  private static long getDuration(MediaMetadataRetriever mediaMetadataRetriever) throws VideoSourceException {
-    String durationString = mediaMetadataRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
-    if (durationString == null) {
-      throw new VideoSourceException("Cannot determine duration of video, null meta data");
-    }
-    try {
-      long duration = Long.parseLong(durationString);
-      if (duration <= 0) {
-        throw new VideoSourceException("Cannot determine duration of video, meta data: " + durationString);
-      }
-      return duration;
-    } catch (NumberFormatException e) {
-      throw new VideoSourceException("Cannot determine duration of video, meta data: " + durationString, e);
-    }
-  }
-
-  private static boolean containsLocation(MediaMetadataRetriever mediaMetadataRetriever) {
-    String locationString = mediaMetadataRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_LOCATION);
-    return locationString != null;
-  }
-
   public interface Progress {
     void onProgress(int percent);
   }
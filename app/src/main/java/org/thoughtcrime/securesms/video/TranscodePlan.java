@@ -0,0 +1,171 @@
+package org.thoughtcrime.securesms.video;
+
+import android.media.MediaDataSource;
+import android.media.MediaMetadataRetriever;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
+
+import org.signal.core.util.logging.Log;
+
+import java.io.IOException;
+
+/**
+ * What probing a video told us about it, and the output we decided to transcode it to. Probing opens
+ * a {@link MediaMetadataRetriever} on the input, so plans are kept in
+ * {@link org.thoughtcrime.securesms.database.TranscodePlanDatabase} and reused when a compression job
+ * is retried or the same video is sent again with the same size limit and trim.
+ *
+ * Nothing in here depends on the device's codecs, only on the input and the size limit.
+ */
+public final class TranscodePlan {
+
+  private static final String TAG = Log.tag(TranscodePlan.class);
+
+  private final long    upperSizeLimit;
+  private final long    inputSize;
+  private final long    duration;
+  private final boolean containsLocation;
+  private final int     targetVideoBitRate;
+  private final int     targetAudioBitRate;
+  private final int     outputResolution;
+  private final long    fileSizeEstimate;
+  private final boolean transcodeRequired;
+
+  public TranscodePlan(long upperSizeLimit,
+                       long inputSize,
+                       long duration,
+                       boolean containsLocation,
+                       int targetVideoBitRate,
+                       int targetAudioBitRate,
+                       int outputResolution,
+                       long fileSizeEstimate,
+                       boolean transcodeRequired)
+  {
+    this.upperSizeLimit     = upperSizeLimit;
+    this.inputSize          = inputSize;
+    this.duration           = duration;
+    this.containsLocation   = containsLocation;
+    this.targetVideoBitRate = targetVideoBitRate;
+    this.targetAudioBitRate = targetAudioBitRate;
+    this.outputResolution   = outputResolution;
+    this.fileSizeEstimate   = fileSizeEstimate;
+    this.transcodeRequired  = transcodeRequired;
+  }
+
+  /**
+   * @param upperSizeLimit A upper size to transcode to. The actual output size can be up to 10% smaller.
+   */
+  @RequiresApi(26)
+  public static @NonNull TranscodePlan probe(@NonNull MediaDataSource dataSource,
+                                             @Nullable TranscoderOptions options,
+                                             long upperSizeLimit)
+      throws IOException, VideoSourceException
+  {
+    final MediaMetadataRetriever mediaMetadataRetriever = new MediaMetadataRetriever();
+    try {
+      mediaMetadataRetriever.setDataSource(dataSource);
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Unable to read datasource", e);
+      throw new VideoSourceException("Unable to read datasource", e);
+    }
+
+    try {
+      return create(upperSizeLimit, dataSource.getSize(), getDuration(mediaMetadataRetriever), containsLocation(mediaMetadataRetriever), options != null);
+    } finally {
+      mediaMetadataRetriever.release();
+    }
+  }
+
+  @VisibleForTesting
+  static @NonNull TranscodePlan create(long upperSizeLimit, long inputSize, long duration, boolean containsLocation, boolean hasOptions) {
+    int                            inputBitRate  = VideoBitRateCalculator.bitRate(inputSize, duration);
+    VideoBitRateCalculator.Quality targetQuality = new VideoBitRateCalculator(upperSizeLimit).getTargetQuality(duration, inputBitRate);
+
+    boolean transcodeRequired = inputBitRate >= targetQuality.getTargetTotalBitRate() * 1.2 || inputSize > upperSizeLimit || containsLocation || hasOptions;
+    if (!transcodeRequired) {
+      Log.i(TAG, "Video is within 20% of target bitrate, below the size limit, contained no location metadata or custom options.");
+    }
+
+    return new TranscodePlan(upperSizeLimit,
+                             inputSize,
+                             duration,
+                             containsLocation,
+                             targetQuality.getTargetVideoBitRate(),
+                             targetQuality.getTargetAudioBitRate(),
+                             targetQuality.getOutputResolution(),
+                             targetQuality.getFileSizeEstimate(),
+                             transcodeRequired);
+  }
+
+  public long getUpperSizeLimit() {
+    return upperSizeLimit;
+  }
+
+  public long getInputSize() {
+    return inputSize;
+  }
+
+  public long getDuration() {
+    return duration;
+  }
+
+  public int getInputBitRate() {
+    return VideoBitRateCalculator.bitRate(inputSize, duration);
+  }
+
+  public boolean containsLocation() {
+    return containsLocation;
+  }
+
+  public int getTargetVideoBitRate() {
+    return targetVideoBitRate;
+  }
+
+  public int getTargetAudioBitRate() {
+    return targetAudioBitRate;
+  }
+
+  public int getTargetTotalBitRate() {
+    return targetVideoBitRate + targetAudioBitRate;
+  }
+
+  public int getOutputResolution() {
+    return outputResolution;
+  }
+
+  public long getFileSizeEstimate() {
+    return fileSizeEstimate;
+  }
+
+  public long getMemoryFileEstimate() {
+    return (long) (fileSizeEstimate * 1.1);
+  }
+
+  public boolean isTranscodeRequired() {
+    return transcodeRequired;
+  }
+
+  private static long getDuration(MediaMetadataRetriever mediaMetadataRetriever) throws VideoSourceException {
+    String durationString = mediaMetadataRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+    if (durationString == null) {
+      throw new VideoSourceException("Cannot determine duration of video, null meta data");
+    }
+    try {
+      long duration = Long.parseLong(durationString);
+      if (duration <= 0) {
+        throw new VideoSourceException("Cannot determine duration of video, meta data: " + durationString);
+      }
+      return duration;
+    } catch (NumberFormatException e) {
+      throw new VideoSourceException("Cannot determine duration of video, meta data: " + durationString, e);
+    }
+  }
+
+  private static boolean containsLocation(MediaMetadataRetriever mediaMetadataRetriever) {
+    String locationString = mediaMetadataRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_LOCATION);
+    return locationString != null;
+  }
+}
@@ -0,0 +1,105 @@
+package org.signal.glide.apng.decode;
+
+import org.junit.Test;
+import org.signal.glide.apng.io.APNGReader;
+import org.signal.glide.common.io.ByteBufferReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class DecodedFrameContainerTest {
+
+  private static final int WIDTH  = 16;
+  private static final int HEIGHT = 8;
+
+  @Test
+  public void frames_round_trip_in_order_and_on_loop() throws IOException, DataFormatException {
+    byte[][] pixels    = randomFrames(4);
+    byte[]   container = encode(pixels, new int[] { 10, 20, 30, 40 });
+
+    assertTrue(DecodedFrameContainer.isContainer(new ByteBufferReader(ByteBuffer.wrap(container))));
+
+    DecodedFrameContainer                    decoded = DecodedFrameContainer.read(new APNGReader(new ByteBufferReader(ByteBuffer.wrap(container))));
+    List<DecodedFrameContainer.DecodedFrame> frames  = decoded.getFrames();
+    ByteBuffer                               canvas  = ByteBuffer.allocate((WIDTH * HEIGHT + 1) * 4);
+
+    assertEquals(WIDTH, decoded.getWidth());
+    assertEquals(HEIGHT, decoded.getHeight());
+    assertEquals(3, decoded.getLoopCount());
+    assertEquals(4, frames.size());
+
+    for (int loop = 0; loop < 2; loop++) {
+      for (int i = 0; i < frames.size(); i++) {
+        decoded.render(frames.get(i), canvas);
+
+        assertArrayEquals(pixels[i], Arrays.copyOf(canvas.array(), WIDTH * HEIGHT * 4));
+        assertEquals((i + 1) * 10, frames.get(i).frameDuration);
+      }
+    }
+
+    decoded.release();
+  }
+
+  @Test
+  public void png_is_not_a_container() {
+    byte[] png = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+    assertFalse(DecodedFrameContainer.isContainer(png));
+    assertFalse(DecodedFrameContainer.isContainer(new ByteBufferReader(ByteBuffer.wrap(png))));
+  }
+
+  @Test(expected = IOException.class)
+  public void truncated_container_is_rejected() throws IOException {
+    byte[] container = encode(randomFrames(2), new int[] { 10, 10 });
+    byte[] truncated = Arrays.copyOf(container, container.length - 8);
+
+    DecodedFrameContainer.read(new APNGReader(new ByteBufferReader(ByteBuffer.wrap(truncated))));
+  }
+
+  private static byte[] encode(byte[][] pixels, int[] durations) throws IOException {
+    ByteArrayOutputStream         output  = new ByteArrayOutputStream();
+    DecodedFrameContainer.Encoder encoder = new DecodedFrameContainer.Encoder(output);
+
+    encoder.onStart(WIDTH, HEIGHT, 3, pixels.length);
+
+    for (int i = 0; i < pixels.length; i++) {
+      ByteBuffer frameBuffer = ByteBuffer.allocate((WIDTH * HEIGHT + 1) * 4);
+      frameBuffer.put(pixels[i]);
+      frameBuffer.rewind();
+
+      encoder.onFrame(frameBuffer, durations[i]);
+    }
+
+    encoder.flush();
+    encoder.release();
+
+    return output.toByteArray();
+  }
+
+  private static byte[][] randomFrames(int count) {
+    Random   random = new Random(42);
+    byte[][] frames = new byte[count][WIDTH * HEIGHT * 4];
+
+    random.nextBytes(frames[0]);
+
+    for (int i = 1; i < count; i++) {
+      frames[i] = frames[i - 1].clone();
+
+      for (int j = 0; j < 32; j++) {
+        frames[i][random.nextInt(frames[i].length)] = (byte) random.nextInt();
+      }
+    }
+
+    return frames;
+  }
+}
@@ -0,0 +1,100 @@
+package org.signal.glide.common.executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class FrameDecoderExecutorTest {
+
+  private ScheduledThreadPoolExecutor executor;
+
+  @Before
+  public void setUp() {
+    executor = new ScheduledThreadPoolExecutor(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void lane_runs_tasks_in_order_and_never_concurrently() throws InterruptedException {
+    FrameDecoderExecutor.Lane lane     = new FrameDecoderExecutor.Lane(executor);
+    List<Integer>             order    = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger             running  = new AtomicInteger(0);
+    AtomicBoolean             overlap  = new AtomicBoolean(false);
+    CountDownLatch            finished = new CountDownLatch(1000);
+
+    for (int i = 0; i < 1000; i++) {
+      final int value = i;
+      lane.post(() -> {
+        if (running.incrementAndGet() > 1) overlap.set(true);
+        assertTrue(lane.isCurrentThread());
+        order.add(value);
+        running.decrementAndGet();
+        finished.countDown();
+      });
+    }
+
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    assertFalse(overlap.get());
+
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, (int) order.get(i));
+    }
+  }
+
+  @Test
+  public void lanes_share_the_pool() throws InterruptedException {
+    CountDownLatch allRunning = new CountDownLatch(4);
+    CountDownLatch finished   = new CountDownLatch(4);
+
+    for (int i = 0; i < 4; i++) {
+      new FrameDecoderExecutor.Lane(executor).post(() -> {
+        allRunning.countDown();
+        try {
+          allRunning.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+        finished.countDown();
+      });
+    }
+
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void removeCallbacks_cancels_delayed_and_queued_tasks() throws InterruptedException {
+    FrameDecoderExecutor.Lane lane    = new FrameDecoderExecutor.Lane(executor);
+    AtomicInteger             counter = new AtomicInteger(0);
+    Runnable                  task    = counter::incrementAndGet;
+    CountDownLatch            drained = new CountDownLatch(1);
+
+    lane.postDelayed(task, 50);
+    lane.removeCallbacks(task);
+    lane.postDelayed(drained::countDown, 100);
+
+    assertTrue(drained.await(5, TimeUnit.SECONDS));
+    assertEquals(0, counter.get());
+  }
+
+  @Test
+  public void isCurrentThread_false_outside_of_lane() {
+    assertFalse(new FrameDecoderExecutor.Lane(executor).isCurrentThread());
+  }
+}
@@ -0,0 +1,134 @@
+package org.thoughtcrime.securesms.backup;
+
+import android.app.Application;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.backup.BackupProtos.Header;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class BackupChainTest {
+
+  private static final ByteString CHAIN       = ByteString.copyFromUtf8("chain");
+  private static final ByteString OTHER_CHAIN = ByteString.copyFromUtf8("other");
+
+  private static final Uri BASE      = documentUri("signal-2021-01-01-00-00-00.backup");
+  private static final Uri FIRST     = documentUri("signal-2021-01-02-00-00-00.backup");
+  private static final Uri SECOND    = documentUri("signal-2021-01-03-00-00-00.backup");
+  private static final Uri UNRELATED = documentUri("signal-2021-01-04-00-00-00.backup");
+
+  @Test
+  public void resolve_baseSnapshot_isItsOwnChain() throws IOException {
+    FakeSource source = new FakeSource();
+    source.add(BASE, CHAIN, 0);
+
+    assertEquals(Collections.singletonList(BASE), BackupChain.resolve(BASE, source));
+  }
+
+  @Test
+  public void resolve_legacyBackupWithoutChain_isItsOwnChain() throws IOException {
+    FakeSource source = new FakeSource();
+    source.headers.put(BASE, Header.getDefaultInstance());
+
+    assertEquals(Collections.singletonList(BASE), BackupChain.resolve(BASE, source));
+  }
+
+  @Test
+  public void resolve_secondIncrementFromDocumentUri_ordersChainFromTipToBase() throws IOException {
+    FakeSource source = new FakeSource();
+    source.add(UNRELATED, OTHER_CHAIN, 1);
+    source.add(SECOND, CHAIN, 2);
+    source.add(BASE, CHAIN, 0);
+    source.add(FIRST, CHAIN, 1);
+
+    assertEquals(Arrays.asList(SECOND, FIRST, BASE), BackupChain.resolve(SECOND, source));
+  }
+
+  @Test
+  public void resolve_secondIncrementWithoutSiblings_throws() {
+    FakeSource source = new FakeSource();
+    source.headers.put(SECOND, header(CHAIN, 2));
+
+    assertIncomplete(source, SECOND);
+  }
+
+  @Test
+  public void resolve_missingParent_throws() {
+    FakeSource source = new FakeSource();
+    source.add(SECOND, CHAIN, 2);
+    source.add(BASE, CHAIN, 0);
+
+    assertIncomplete(source, SECOND);
+  }
+
+  @Test
+  public void resolve_parentFromOtherChain_throws() {
+    FakeSource source = new FakeSource();
+    source.add(SECOND, CHAIN, 2);
+    source.add(UNRELATED, OTHER_CHAIN, 1);
+    source.add(BASE, CHAIN, 0);
+
+    assertIncomplete(source, SECOND);
+  }
+
+  private static void assertIncomplete(@NonNull FakeSource source, @NonNull Uri tip) {
+    try {
+      BackupChain.resolve(tip, source);
+      fail();
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  private static @NonNull Uri documentUri(@NonNull String name) {
+    return Uri.parse("content://com.android.externalstorage.documents/tree/primary%3ASignal/document/primary%3ASignal%2F" + name);
+  }
+
+  private static @NonNull Header header(@NonNull ByteString chainId, int sequence) {
+    return Header.newBuilder()
+                 .setChainId(chainId)
+                 .setChainSequence(sequence)
+                 .build();
+  }
+
+  private static final class FakeSource implements BackupChain.Source {
+
+    private final Map<Uri, Header> headers  = new HashMap<>();
+    private final List<Uri>        siblings = new ArrayList<>();
+
+    void add(@NonNull Uri uri, @NonNull ByteString chainId, int sequence) {
+      headers.put(uri, header(chainId, sequence));
+      siblings.add(uri);
+    }
+
+    @Override
+    public @Nullable Header readHeader(@NonNull Uri uri) {
+      return headers.get(uri);
+    }
+
+    @Override
+    public @NonNull List<Uri> getSiblings(@NonNull Uri uri) {
+      return siblings;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public final class EmojiParserTest {
+
+  private static final String HEART        = "\u2764";
+  private static final String HEART_FE0F   = "\u2764\uFE0F";
+  private static final String THUMBS_UP    = "\uD83D\uDC4D";
+  private static final String MEDIUM_SKIN  = "\uD83C\uDFFD";
+  private static final String FAMILY       = "\uD83D\uDC68\u200D\uD83D\uDC69\u200D\uD83D\uDC67";
+  private static final String FAMILY_START = "\uD83D\uDC68";
+
+  private EmojiTree     tree;
+  private EmojiDrawInfo heart;
+  private EmojiDrawInfo thumbsUp;
+  private EmojiDrawInfo family;
+  private EmojiDrawInfo man;
+
+  @Before
+  public void setUp() {
+    EmojiPageBitmap page = mock(EmojiPageBitmap.class);
+
+    heart    = new EmojiDrawInfo(page, 0);
+    thumbsUp = new EmojiDrawInfo(page, 1);
+    family   = new EmojiDrawInfo(page, 2);
+    man      = new EmojiDrawInfo(page, 3);
+
+    tree = new EmojiTree();
+    tree.add(HEART_FE0F, heart);
+    tree.add(THUMBS_UP, thumbsUp);
+    tree.add(FAMILY, family);
+    tree.add(FAMILY_START, man);
+  }
+
+  @Test
+  public void getEmoji_exact_and_without_variation_selector() {
+    assertSame(heart, tree.getEmoji(HEART_FE0F, 0, HEART_FE0F.length()));
+    assertSame(heart, tree.getEmoji(HEART, 0, HEART.length()));
+    assertSame(thumbsUp, tree.getEmoji(THUMBS_UP, 0, THUMBS_UP.length()));
+    assertNull(tree.getEmoji("a", 0, 1));
+  }
+
+  @Test
+  public void isEmoji_reports_prefixes_as_possible() {
+    assertEquals(EmojiTree.Matches.POSSIBLY, tree.isEmoji(THUMBS_UP, 0, 1));
+    assertEquals(EmojiTree.Matches.EXACTLY, tree.isEmoji(THUMBS_UP, 0, 2));
+    assertEquals(EmojiTree.Matches.EXACTLY, tree.isEmoji(HEART, 0, 1));
+    assertEquals(EmojiTree.Matches.IMPOSSIBLE, tree.isEmoji("x", 0, 1));
+  }
+
+  @Test
+  public void findEmojiEnd_prefers_the_longest_match() {
+    String text = "a" + FAMILY + "b";
+
+    assertEquals(1 + FAMILY.length(), tree.findEmojiEnd(text, 1));
+    assertEquals(1 + FAMILY_START.length(), tree.findEmojiEnd("a" + FAMILY_START + "\u200Db", 1));
+    assertEquals(-1, tree.findEmojiEnd(text, 0));
+  }
+
+  @Test
+  public void findCandidates_with_skin_tone_and_text() {
+    String                      text       = "hi " + THUMBS_UP + MEDIUM_SKIN + " " + HEART;
+    EmojiParser.CandidateList   candidates = new EmojiParser(tree).findCandidates(text);
+    List<EmojiParser.Candidate> list       = candidates.list;
+
+    assertEquals(2, list.size());
+    assertFalse(candidates.allEmojis);
+
+    assertSame(thumbsUp, list.get(0).getDrawInfo());
+    assertEquals(3, list.get(0).getStartIndex());
+    assertEquals(7, list.get(0).getEndIndex());
+
+    assertSame(heart, list.get(1).getDrawInfo());
+    assertEquals(8, list.get(1).getStartIndex());
+    assertEquals(9, list.get(1).getEndIndex());
+  }
+
+  @Test
+  public void findCandidates_only_emoji() {
+    EmojiParser.CandidateList candidates = new EmojiParser(tree).findCandidates(THUMBS_UP + " " + HEART_FE0F);
+
+    assertEquals(2, candidates.size());
+    assertTrue(candidates.allEmojis);
+  }
+}
@@ -0,0 +1,199 @@
+package org.thoughtcrime.securesms.contacts.sync;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.contacts.sync.DirectoryHelper.DirectoryResult;
+import org.thoughtcrime.securesms.database.CdsDatabase.CheckedNumber;
+import org.thoughtcrime.securesms.util.SetUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class IncrementalContactDiscoveryTest {
+
+  private FakeService                 service;
+  private IncrementalContactDiscovery testSubject;
+  private Map<String, CheckedNumber>  state;
+  private long                        time;
+
+  @Before
+  public void setUp() {
+    service     = new FakeService();
+    testSubject = new IncrementalContactDiscovery(service, 20_500);
+    state       = new HashMap<>();
+    time        = 0;
+  }
+
+  @Test
+  public void refresh_looksUpEveryNumberWhenCold() throws IOException {
+    Set<String> numbers = numbers(0, 10);
+
+    service.registered.add("+10");
+
+    IncrementalContactDiscovery.Result result = refresh(numbers, numbers);
+
+    assertEquals(numbers, result.getQueriedNumbers());
+    assertEquals(numbers, result.getCheckedNumbers().keySet());
+    assertEquals(Collections.singleton("+10"), result.getDirectoryResult().getRegisteredNumbers().keySet());
+    assertEquals(1, service.calls.size());
+  }
+
+  @Test
+  public void refresh_onlyLooksUpSliceWhenNothingChanged() throws IOException {
+    Set<String> numbers = numbers(0, 70);
+
+    refresh(numbers, numbers);
+    service.calls.clear();
+
+    IncrementalContactDiscovery.Result result = refresh(numbers, numbers);
+
+    assertEquals(70 / IncrementalContactDiscovery.ROTATION_REFRESHES, result.getQueriedNumbers().size());
+    assertEquals(result.getQueriedNumbers(), service.calls.get(0));
+  }
+
+  @Test
+  public void refresh_looksUpNewAndChangedNumbers() throws IOException {
+    Set<String> databaseNumbers = numbers(0, 70);
+    Set<String> systemNumbers   = numbers(0, 35);
+
+    refresh(databaseNumbers, systemNumbers);
+
+    databaseNumbers.add("+100");
+    systemNumbers.add("+60");
+
+    IncrementalContactDiscovery.Result result = refresh(databaseNumbers, systemNumbers);
+
+    assertTrue(result.getQueriedNumbers().contains("+100"));
+    assertTrue(result.getQueriedNumbers().contains("+60"));
+    assertEquals(12, result.getQueriedNumbers().size());
+  }
+
+  @Test
+  public void refresh_rotatesThroughEveryNumber() throws IOException {
+    Set<String> numbers = numbers(0, 100);
+    Set<String> seen    = new HashSet<>();
+
+    refresh(numbers, numbers);
+
+    for (int i = 0; i < IncrementalContactDiscovery.ROTATION_REFRESHES; i++) {
+      seen.addAll(refresh(numbers, numbers).getQueriedNumbers());
+    }
+
+    assertEquals(numbers, seen);
+  }
+
+  @Test
+  public void refresh_retriesIgnoredNumbers() throws IOException {
+    Set<String> numbers = numbers(0, 70);
+
+    service.ignored.add("+10");
+
+    IncrementalContactDiscovery.Result result = refresh(numbers, numbers);
+
+    assertFalse(result.getCheckedNumbers().containsKey("+10"));
+
+    service.ignored.clear();
+
+    assertTrue(refresh(numbers, numbers).getQueriedNumbers().contains("+10"));
+  }
+
+  @Test
+  public void refresh_reportsRemovedNumbers() throws IOException {
+    Set<String> numbers = numbers(0, 10);
+
+    refresh(numbers, numbers);
+    numbers.remove("+10");
+
+    assertEquals(Collections.singleton("+10"), refresh(numbers, numbers).getRemovedNumbers());
+  }
+
+  @Test
+  public void refresh_sliceIsCappedByMaxNumbers() throws IOException {
+    testSubject = new IncrementalContactDiscovery(service, 12);
+
+    Set<String> numbers = numbers(0, 70);
+
+    refresh(numbers, numbers);
+
+    Set<String> more = numbers(0, 80);
+
+    assertEquals(12, refresh(more, more).getQueriedNumbers().size());
+  }
+
+  @Test
+  public void refresh_skipsServiceWhenNothingToLookUp() throws IOException {
+    refresh(new HashSet<>(), new HashSet<>());
+
+    assertTrue(service.calls.isEmpty());
+  }
+
+  @Test
+  public void stateHash_dependsOnSystemContact() {
+    assertEquals(IncrementalContactDiscovery.stateHash("+10", true), IncrementalContactDiscovery.stateHash("+10", true));
+    assertFalse(IncrementalContactDiscovery.stateHash("+10", true) == IncrementalContactDiscovery.stateHash("+10", false));
+  }
+
+  /**
+   * Runs a refresh and remembers its result, the way {@link DirectoryHelper} does.
+   */
+  private @NonNull IncrementalContactDiscovery.Result refresh(@NonNull Set<String> databaseNumbers, @NonNull Set<String> systemNumbers) throws IOException {
+    IncrementalContactDiscovery.Result result = testSubject.refresh(databaseNumbers, systemNumbers, new HashMap<>(state));
+
+    time++;
+
+    for (Map.Entry<String, Long> entry : result.getCheckedNumbers().entrySet()) {
+      state.put(entry.getKey(), new CheckedNumber(entry.getValue(), time));
+    }
+
+    state.keySet().removeAll(result.getRemovedNumbers());
+
+    return result;
+  }
+
+  private static @NonNull Set<String> numbers(int start, int count) {
+    Set<String> numbers = new HashSet<>();
+
+    for (int i = start; i < start + count; i++) {
+      numbers.add("+" + (10 + i));
+    }
+
+    return numbers;
+  }
+
+  private static final class FakeService implements IncrementalContactDiscovery.Service {
+
+    private final Set<String>       registered = new HashSet<>();
+    private final Set<String>       ignored    = new HashSet<>();
+    private final List<Set<String>> calls      = new ArrayList<>();
+
+    @Override
+    public @NonNull DirectoryResult getDirectoryResult(@NonNull Set<String> databaseNumbers, @NonNull Set<String> systemNumbers) {
+      Set<String>       all     = new HashSet<>(databaseNumbers);
+      Map<String, UUID> results = new HashMap<>();
+
+      all.addAll(systemNumbers);
+      calls.add(all);
+
+      for (String number : all) {
+        if (registered.contains(number) && !ignored.contains(number)) {
+          results.put(number, UUID.randomUUID());
+        }
+      }
+
+      return new DirectoryResult(results, Collections.emptyMap(), SetUtil.intersection(all, ignored));
+    }
+  }
+}
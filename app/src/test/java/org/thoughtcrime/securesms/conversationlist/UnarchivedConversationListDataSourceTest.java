@@ -1,7 +1,6 @@
 package org.thoughtcrime.securesms.conversationlist;
 
 import android.app.Application;
-import android.database.Cursor;
 
 import androidx.test.core.app.ApplicationProvider;
 
@@ -14,13 +13,17 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
-import org.thoughtcrime.securesms.conversationlist.model.ConversationReader;
+import org.thoughtcrime.securesms.conversationlist.model.Conversation;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.DatabaseObserver;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
+import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.util.paging.Invalidator;
 
+import java.util.Collections;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -140,134 +143,131 @@ public class UnarchivedConversationListDataSourceTest {
   }
 
   @Test
-  public void givenNoConversations_whenIGetCursor_thenIExpectAnEmptyCursor() {
+  public void givenNoConversations_whenIGetRecords_thenIExpectAnEmptyList() {
     // GIVEN
-    setupThreadDatabaseCursors(0, 0);
+    setupThreadDatabaseRecords(0, 0);
 
     // WHEN
-    Cursor cursor = testSubject.getCursor(0, 100);
+    List<ThreadRecord> records = testSubject.getRecords(0, 100);
 
     // THEN
-    verify(threadDatabase).getUnarchivedConversationList(true, 0, 100);
-    verify(threadDatabase).getUnarchivedConversationList(false, 0, 100);
-    assertEquals(0, cursor.getCount());
+    verify(threadDatabase).getUnarchivedConversationRecords(true, 0, 100);
+    verify(threadDatabase).getUnarchivedConversationRecords(false, 0, 100);
+    assertEquals(0, records.size());
   }
 
   @Test
-  public void givenArchivedConversations_whenIGetCursor_thenIExpectOne() {
+  public void givenArchivedConversations_whenIGetRecords_thenIExpectOne() {
     // GIVEN
-    setupThreadDatabaseCursors(0, 0);
+    setupThreadDatabaseRecords(0, 0);
     when(threadDatabase.getArchivedConversationListCount()).thenReturn(12);
     testSubject.getTotalCount();
 
     // WHEN
-    Cursor cursor = testSubject.getCursor(0, 100);
+    List<ThreadRecord> records = testSubject.getRecords(0, 100);
 
     // THEN
-    verify(threadDatabase).getUnarchivedConversationList(true, 0, 100);
-    verify(threadDatabase).getUnarchivedConversationList(false, 0, 100);
-    assertEquals(1, cursor.getCount());
+    verify(threadDatabase).getUnarchivedConversationRecords(true, 0, 100);
+    verify(threadDatabase).getUnarchivedConversationRecords(false, 0, 100);
+    assertEquals(1, records.size());
   }
 
   @Test
-  public void givenSinglePinnedAndArchivedConversations_whenIGetCursor_thenIExpectThree() {
+  public void givenSinglePinnedAndArchivedConversations_whenIGetRecords_thenIExpectThree() {
     // GIVEN
-    setupThreadDatabaseCursors(1, 0);
+    setupThreadDatabaseRecords(1, 0);
     when(threadDatabase.getPinnedConversationListCount()).thenReturn(1);
     when(threadDatabase.getUnarchivedConversationListCount()).thenReturn(1);
     when(threadDatabase.getArchivedConversationListCount()).thenReturn(12);
     testSubject.getTotalCount();
 
     // WHEN
-    Cursor cursor = testSubject.getCursor(0, 100);
+    List<ThreadRecord> records = testSubject.getRecords(0, 100);
 
     // THEN
-    verify(threadDatabase).getUnarchivedConversationList(true, 0, 99);
-    verify(threadDatabase).getUnarchivedConversationList(false, 0, 98);
-    assertEquals(3, cursor.getCount());
+    verify(threadDatabase).getUnarchivedConversationRecords(true, 0, 99);
+    verify(threadDatabase).getUnarchivedConversationRecords(false, 0, 98);
+    assertEquals(3, records.size());
   }
 
   @Test
-  public void givenSingleUnpinnedAndArchivedConversations_whenIGetCursor_thenIExpectTwo() {
+  public void givenSingleUnpinnedAndArchivedConversations_whenIGetRecords_thenIExpectTwo() {
     // GIVEN
-    setupThreadDatabaseCursors(0, 1);
+    setupThreadDatabaseRecords(0, 1);
     when(threadDatabase.getUnarchivedConversationListCount()).thenReturn(1);
     when(threadDatabase.getArchivedConversationListCount()).thenReturn(12);
     testSubject.getTotalCount();
 
     // WHEN
-    Cursor cursor = testSubject.getCursor(0, 100);
+    List<ThreadRecord> records = testSubject.getRecords(0, 100);
 
     // THEN
-    verify(threadDatabase).getUnarchivedConversationList(true, 0, 100);
-    verify(threadDatabase).getUnarchivedConversationList(false, 0, 100);
-    assertEquals(2, cursor.getCount());
+    verify(threadDatabase).getUnarchivedConversationRecords(true, 0, 100);
+    verify(threadDatabase).getUnarchivedConversationRecords(false, 0, 100);
+    assertEquals(2, records.size());
   }
 
   @Test
-  public void givenSinglePinnedAndSingleUnpinned_whenIGetCursor_thenIExpectFour() {
+  public void givenSinglePinnedAndSingleUnpinned_whenIGetRecords_thenIExpectFour() {
     // GIVEN
-    setupThreadDatabaseCursors(1, 1);
+    setupThreadDatabaseRecords(1, 1);
     when(threadDatabase.getPinnedConversationListCount()).thenReturn(1);
     when(threadDatabase.getUnarchivedConversationListCount()).thenReturn(2);
     testSubject.getTotalCount();
 
     // WHEN
-    Cursor cursor = testSubject.getCursor(0, 100);
+    List<ThreadRecord> records = testSubject.getRecords(0, 100);
 
     // THEN
-    verify(threadDatabase).getUnarchivedConversationList(true, 0, 99);
-    verify(threadDatabase).getUnarchivedConversationList(false, 0, 97);
-    assertEquals(4, cursor.getCount());
+    verify(threadDatabase).getUnarchivedConversationRecords(true, 0, 99);
+    verify(threadDatabase).getUnarchivedConversationRecords(false, 0, 97);
+    assertEquals(4, records.size());
   }
 
   @Test
-  public void givenLoadingSecondPage_whenIGetCursor_thenIExpectProperOffsetAndCursorCount() {
+  public void givenLoadingSecondPage_whenIGetRecords_thenIExpectProperOffsetAndRecordCount() {
     // GIVEN
-    setupThreadDatabaseCursors(0, 100);
+    setupThreadDatabaseRecords(0, 100);
     when(threadDatabase.getPinnedConversationListCount()).thenReturn(4);
     when(threadDatabase.getUnarchivedConversationListCount()).thenReturn(104);
     testSubject.getTotalCount();
 
     // WHEN
-    Cursor cursor = testSubject.getCursor(50, 100);
+    List<ThreadRecord> records = testSubject.getRecords(50, 100);
 
     // THEN
-    verify(threadDatabase).getUnarchivedConversationList(true, 50, 100);
-    verify(threadDatabase).getUnarchivedConversationList(false, 44, 100);
-    assertEquals(100, cursor.getCount());
+    verify(threadDatabase).getUnarchivedConversationRecords(true, 50, 100);
+    verify(threadDatabase).getUnarchivedConversationRecords(false, 44, 100);
+    assertEquals(100, records.size());
   }
 
   @Test
-  public void givenHasArchivedAndLoadingLastPage_whenIGetCursor_thenIExpectProperOffsetAndCursorCount() {
+  public void givenHasArchivedAndLoadingLastPage_whenIGetRecords_thenIExpectProperOffsetAndRecordCount() {
     // GIVEN
-    setupThreadDatabaseCursors(0, 99);
+    setupThreadDatabaseRecords(0, 99);
     when(threadDatabase.getPinnedConversationListCount()).thenReturn(4);
     when(threadDatabase.getUnarchivedConversationListCount()).thenReturn(103);
     when(threadDatabase.getArchivedConversationListCount()).thenReturn(12);
     testSubject.getTotalCount();
 
     // WHEN
-    Cursor cursor = testSubject.getCursor(50, 100);
+    List<ThreadRecord> records = testSubject.getRecords(50, 100);
 
     // THEN
-    verify(threadDatabase).getUnarchivedConversationList(true, 50, 100);
-    verify(threadDatabase).getUnarchivedConversationList(false, 44, 100);
-    assertEquals(100, cursor.getCount());
+    verify(threadDatabase).getUnarchivedConversationRecords(true, 50, 100);
+    verify(threadDatabase).getUnarchivedConversationRecords(false, 44, 100);
+    assertEquals(100, records.size());
 
-    cursor.moveToLast();
-    assertEquals(0, cursor.getColumnIndex(ConversationReader.HEADER_COLUMN[0]));
+    assertEquals(Conversation.Type.ARCHIVED_FOOTER, new Conversation(records.get(records.size() - 1)).getType());
   }
 
 
-  private void setupThreadDatabaseCursors(int pinned, int unpinned) {
-    Cursor pinnedCursor = mock(Cursor.class);
-    when(pinnedCursor.getCount()).thenReturn(pinned);
-
-    Cursor unpinnedCursor = mock(Cursor.class);
-    when(unpinnedCursor.getCount()).thenReturn(unpinned);
+  private void setupThreadDatabaseRecords(int pinned, int unpinned) {
+    ThreadRecord       record          = new ThreadRecord.Builder(1).build();
+    List<ThreadRecord> pinnedRecords   = Collections.nCopies(pinned, record);
+    List<ThreadRecord> unpinnedRecords = Collections.nCopies(unpinned, record);
 
-    when(threadDatabase.getUnarchivedConversationList(eq(true), anyLong(), anyLong())).thenReturn(pinnedCursor);
-    when(threadDatabase.getUnarchivedConversationList(eq(false), anyLong(), anyLong())).thenReturn(unpinnedCursor);
+    when(threadDatabase.getUnarchivedConversationRecords(eq(true), anyLong(), anyLong())).thenReturn(pinnedRecords);
+    when(threadDatabase.getUnarchivedConversationRecords(eq(false), anyLong(), anyLong())).thenReturn(unpinnedRecords);
   }
-}
\ No newline at end of file
+}
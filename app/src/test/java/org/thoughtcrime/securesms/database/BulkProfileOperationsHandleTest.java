@@ -0,0 +1,215 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.content.ContentValues;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.signal.zkgroup.profiles.ProfileKey;
+import org.signal.zkgroup.profiles.ProfileKeyCredential;
+import org.thoughtcrime.securesms.database.RecipientDatabase.BulkProfileOperationsHandle;
+import org.thoughtcrime.securesms.database.RecipientDatabase.UnidentifiedAccessMode;
+import org.thoughtcrime.securesms.profiles.ProfileName;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class BulkProfileOperationsHandleTest {
+
+  private static final RecipientId ALICE = RecipientId.from(1);
+  private static final RecipientId BOB   = RecipientId.from(2);
+  private static final RecipientId CAROL = RecipientId.from(3);
+
+  private FakeWriter                  writer;
+  private BulkProfileOperationsHandle testSubject;
+
+  @Before
+  public void setUp() {
+    writer      = new FakeWriter();
+    testSubject = new BulkProfileOperationsHandle(writer);
+  }
+
+  @Test
+  public void finish_nothingStaged_writesNothing() {
+    Set<RecipientId> changed = testSubject.finish();
+
+    assertTrue(changed.isEmpty());
+    assertTrue(writer.updates.isEmpty());
+    assertTrue(writer.refreshed.isEmpty());
+    assertFalse(writer.syncScheduled);
+    assertEquals(Arrays.asList("begin", "success", "end"), writer.calls);
+  }
+
+  @Test
+  public void finish_mergesChangesIntoOneUpdatePerRecipient() {
+    testSubject.setProfileName(ALICE, ProfileName.fromParts("Alice", "Smith"));
+    testSubject.setAbout(ALICE, "About", "🙂");
+    testSubject.setAbout(BOB, "Other", null);
+
+    testSubject.finish();
+
+    assertEquals(2, writer.updates.size());
+    assertEquals(Arrays.asList(ALICE, BOB), new ArrayList<>(writer.updates.keySet()));
+
+    ContentValues alice = writer.updates.get(ALICE);
+    assertEquals("Alice", alice.getAsString("signal_profile_name"));
+    assertEquals("Smith", alice.getAsString("profile_family_name"));
+    assertEquals("About", alice.getAsString("about"));
+    assertEquals("🙂", alice.getAsString("about_emoji"));
+  }
+
+  @Test
+  public void finish_onlyChangedRecipientsAreRefreshedTogether() {
+    testSubject.setAbout(ALICE, "About", null);
+    testSubject.setAbout(BOB, "About", null);
+    writer.unchanged.add(BOB);
+
+    Set<RecipientId> changed = testSubject.finish();
+
+    assertEquals(Collections.singleton(ALICE), changed);
+    assertEquals(Collections.singletonList(Collections.singleton(ALICE)), writer.refreshed);
+  }
+
+  @Test
+  public void finish_storageRelevantChanges_markDirtyAndScheduleOneSync() {
+    testSubject.setProfileName(ALICE, ProfileName.fromParts("Alice", null));
+    testSubject.setUnidentifiedAccessMode(BOB, UnidentifiedAccessMode.ENABLED);
+    testSubject.setAbout(CAROL, "About", null);
+
+    testSubject.finish();
+
+    assertEquals(new HashSet<>(Arrays.asList(ALICE, BOB)), writer.dirty);
+    assertTrue(writer.syncScheduled);
+  }
+
+  @Test
+  public void finish_clearUsername_schedulesSync() {
+    testSubject.clearUsername(ALICE);
+
+    testSubject.finish();
+
+    assertTrue(writer.updates.get(ALICE).containsKey("username"));
+    assertNull(writer.updates.get(ALICE).getAsString("username"));
+    assertEquals(Collections.singleton(ALICE), writer.dirty);
+    assertTrue(writer.syncScheduled);
+  }
+
+  @Test
+  public void finish_unchangedStorageRelevantRecipient_doesNotScheduleSync() {
+    testSubject.setProfileName(ALICE, ProfileName.fromParts("Alice", null));
+    writer.unchanged.add(ALICE);
+
+    testSubject.finish();
+
+    assertTrue(writer.dirty.isEmpty());
+    assertFalse(writer.syncScheduled);
+    assertTrue(writer.refreshed.isEmpty());
+  }
+
+  @Test
+  public void finish_refreshesAndSyncsOnlyAfterTransactionEnds() {
+    testSubject.setProfileName(ALICE, ProfileName.fromParts("Alice", null));
+
+    testSubject.finish();
+
+    assertEquals(Arrays.asList("begin", "update " + ALICE, "dirty " + ALICE, "success", "end", "refresh", "sync"), writer.calls);
+  }
+
+  @Test
+  public void finish_writeFails_endsTransactionWithoutRefreshing() {
+    testSubject.setAbout(ALICE, "About", null);
+    writer.failUpdates = true;
+
+    try {
+      testSubject.finish();
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    assertEquals(Arrays.asList("begin", "end"), writer.calls);
+    assertTrue(writer.refreshed.isEmpty());
+  }
+
+  private static final class FakeWriter implements BulkProfileOperationsHandle.Writer {
+
+    private final List<String>                    calls     = new ArrayList<>();
+    private final Map<RecipientId, ContentValues> updates   = new LinkedHashMap<>();
+    private final Set<RecipientId>                unchanged = new HashSet<>();
+    private final Set<RecipientId>                dirty     = new HashSet<>();
+    private final List<Set<RecipientId>>          refreshed = new ArrayList<>();
+
+    private boolean syncScheduled;
+    private boolean failUpdates;
+
+    @Override
+    public void beginTransaction() {
+      calls.add("begin");
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+      calls.add("success");
+    }
+
+    @Override
+    public void endTransaction() {
+      calls.add("end");
+    }
+
+    @Override
+    public boolean update(@NonNull RecipientId id, @NonNull ContentValues values) {
+      if (failUpdates) {
+        throw new IllegalStateException();
+      }
+
+      calls.add("update " + id);
+      updates.put(id, values);
+      return !unchanged.contains(id);
+    }
+
+    @Override
+    public void markDirty(@NonNull RecipientId id) {
+      calls.add("dirty " + id);
+      dirty.add(id);
+    }
+
+    @Override
+    public boolean setProfileKeyCredential(@NonNull RecipientId id, @NonNull ProfileKey profileKey, @NonNull ProfileKeyCredential profileKeyCredential) {
+      calls.add("credential " + id);
+      return true;
+    }
+
+    @Override
+    public void refresh(@NonNull Set<RecipientId> ids) {
+      calls.add("refresh");
+      refreshed.add(new HashSet<>(ids));
+    }
+
+    @Override
+    public void scheduleSync() {
+      calls.add("sync");
+      syncScheduled = true;
+    }
+  }
+}
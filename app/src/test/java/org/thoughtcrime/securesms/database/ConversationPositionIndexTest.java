@@ -0,0 +1,128 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.ConversationPositionIndex.Checkpoint;
+import org.thoughtcrime.securesms.database.ConversationPositionIndex.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class ConversationPositionIndexTest {
+
+  private static final int INTERVAL = ConversationPositionIndex.INTERVAL;
+
+  @Test
+  public void key_ordersByDateThenTransportThenId() {
+    List<Key> keys = new ArrayList<>();
+    keys.add(new Key(2, true, 1));
+    keys.add(new Key(1, false, 5));
+    keys.add(new Key(1, true, 9));
+    keys.add(new Key(1, false, 3));
+
+    Collections.sort(keys);
+
+    assertEquals(new Key(1, true, 9), keys.get(0));
+    assertEquals(new Key(1, false, 3), keys.get(1));
+    assertEquals(new Key(1, false, 5), keys.get(2));
+    assertEquals(new Key(2, true, 1), keys.get(3));
+  }
+
+  @Test
+  public void newestAt_isBetweenMessagesAtAndAfterTime() {
+    Key key = Key.newestAt(10);
+
+    assertTrue(key.compareTo(new Key(10, false, Long.MAX_VALUE - 1)) > 0);
+    assertTrue(key.compareTo(new Key(10, true, Long.MAX_VALUE)) > 0);
+    assertTrue(key.compareTo(new Key(11, true, 0)) < 0);
+  }
+
+  @Test
+  public void getCheckpointAtOrBefore_findsNearestCheckpoint() {
+    ConversationPositionIndex index = index(3 * INTERVAL + 10);
+
+    assertCheckpoint(index.getCheckpointAtOrBefore(0), 0);
+    assertCheckpoint(index.getCheckpointAtOrBefore(INTERVAL - 1), 0);
+    assertCheckpoint(index.getCheckpointAtOrBefore(INTERVAL), INTERVAL);
+    assertCheckpoint(index.getCheckpointAtOrBefore(3 * INTERVAL + 5), 3 * INTERVAL);
+    assertCheckpoint(index.getCheckpointAtOrBefore(10 * INTERVAL), 3 * INTERVAL);
+  }
+
+  @Test
+  public void getCheckpointAtOrBefore_accountsForNewMessages() {
+    ConversationPositionIndex index = index(2 * INTERVAL).shiftedBy(7);
+
+    assertNull(index.getCheckpointAtOrBefore(6));
+    assertCheckpoint(index.getCheckpointAtOrBefore(7), 0, 7);
+    assertCheckpoint(index.getCheckpointAtOrBefore(INTERVAL + 7), INTERVAL, INTERVAL + 7);
+  }
+
+  @Test
+  public void getCheckpointAtOrBefore_emptyIndex() {
+    assertNull(index(0).getCheckpointAtOrBefore(0));
+  }
+
+  @Test
+  public void getCheckpointNewerThan_findsDeepestNewerCheckpoint() {
+    ConversationPositionIndex index = index(3 * INTERVAL);
+
+    assertNull(index.getCheckpointNewerThan(keyAt(3 * INTERVAL, 0)));
+    assertNull(index.getCheckpointNewerThan(Key.newestAt(Long.MAX_VALUE)));
+    assertCheckpoint(index.getCheckpointNewerThan(keyAt(3 * INTERVAL, 1)), 0);
+    assertCheckpoint(index.getCheckpointNewerThan(keyAt(3 * INTERVAL, INTERVAL)), 0);
+    assertCheckpoint(index.getCheckpointNewerThan(keyAt(3 * INTERVAL, INTERVAL + 1)), INTERVAL);
+    assertCheckpoint(index.getCheckpointNewerThan(new Key(-1, true, 0)), 2 * INTERVAL);
+  }
+
+  @Test
+  public void getCheckpointNewerThan_accountsForNewMessages() {
+    ConversationPositionIndex index = index(2 * INTERVAL).shiftedBy(3);
+
+    assertCheckpoint(index.getCheckpointNewerThan(keyAt(2 * INTERVAL, 2)), 0, 3);
+  }
+
+  @Test
+  public void isCurrent_onlyWhenThreadOnlyGrewAtTheTop() {
+    ConversationPositionIndex index = index(2 * INTERVAL);
+
+    assertTrue(index.isCurrent(2 * INTERVAL, 0));
+    assertTrue(index.isCurrent(2 * INTERVAL + 5, 5));
+    assertFalse(index.isCurrent(2 * INTERVAL - 1, 0));
+    assertFalse(index.isCurrent(2 * INTERVAL + 5, 4));
+    assertFalse(index.isCurrent(3 * INTERVAL + 1, INTERVAL + 1));
+  }
+
+  /**
+   * An index over a thread with one message per millisecond, newest first, the way
+   * {@link MmsSmsDatabase} builds it.
+   */
+  private static @NonNull ConversationPositionIndex index(int size) {
+    List<Key> checkpoints = new ArrayList<>();
+
+    for (int position = 0; position < size; position += INTERVAL) {
+      checkpoints.add(keyAt(size, position));
+    }
+
+    return new ConversationPositionIndex(checkpoints, size);
+  }
+
+  private static @NonNull Key keyAt(int size, int position) {
+    return new Key(size - position, position % 2 == 0, position);
+  }
+
+  private static void assertCheckpoint(Checkpoint checkpoint, int position) {
+    assertCheckpoint(checkpoint, position, position);
+  }
+
+  private static void assertCheckpoint(Checkpoint checkpoint, int indexedPosition, int position) {
+    assertEquals(indexedPosition, checkpoint.getKey().getId());
+    assertEquals(position, checkpoint.getPosition());
+  }
+}
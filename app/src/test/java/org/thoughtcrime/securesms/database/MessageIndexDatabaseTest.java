@@ -0,0 +1,172 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.database.ConversationPositionIndex.Key;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class MessageIndexDatabaseTest {
+
+  private static final String UNION_KEYS_QUERY = "SELECT date AS date_received, 1 AS transport_rank, _id AS message_id FROM sms WHERE thread_id = 1" +
+                                                 " UNION ALL " +
+                                                 "SELECT date_received, 0 AS transport_rank, _id AS message_id FROM mms WHERE thread_id = 1" +
+                                                 " ORDER BY date_received DESC, transport_rank DESC, message_id DESC LIMIT 50";
+
+  private static final String UNION_UNREAD_QUERY = "SELECT thread_id, SUM(unread_count), MAX(unread_last_received) FROM (" +
+                                                   "SELECT thread_id, COUNT(*) AS unread_count, MAX(date) AS unread_last_received FROM sms WHERE notified = 0 AND (read = 0 OR reactions_unread = 1) GROUP BY thread_id" +
+                                                   " UNION ALL " +
+                                                   "SELECT thread_id, COUNT(*) AS unread_count, MAX(date_received) AS unread_last_received FROM mms WHERE notified = 0 AND (read = 0 OR reactions_unread = 1) GROUP BY thread_id" +
+                                                   ") GROUP BY thread_id";
+
+  private SQLiteDatabase db;
+
+  @Before
+  public void setUp() {
+    db = SQLiteDatabase.create(null);
+
+    db.execSQL(SmsDatabase.CREATE_TABLE);
+    db.execSQL(MmsDatabase.CREATE_TABLE);
+    db.execSQL(MessageIndexDatabase.CREATE_TABLE);
+
+    execute(SmsDatabase.CREATE_INDEXS);
+    execute(MmsDatabase.CREATE_INDEXS);
+    execute(MessageIndexDatabase.CREATE_INDEXES);
+    execute(MessageIndexDatabase.CREATE_TRIGGERS);
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  @Test
+  public void triggers_keepIndexInSyncWithBothTables() {
+    db.execSQL("INSERT INTO sms (_id, thread_id, date, read, notified, reactions_unread) VALUES (1, 1, 100, 0, 0, 0)");
+    db.execSQL("INSERT INTO mms (_id, thread_id, date_received, read, notified, reactions_unread) VALUES (1, 1, 200, 0, 0, 0)");
+    db.execSQL("INSERT INTO mms (_id, thread_id, date_received, read, notified, reactions_unread) VALUES (2, 2, 300, 1, 0, 0)");
+
+    assertEquals(Arrays.asList(new Key(200, true, 1), new Key(100, false, 1)), keys(1));
+
+    db.execSQL("UPDATE sms SET date = 250 WHERE _id = 1");
+    db.execSQL("UPDATE mms SET thread_id = 1 WHERE _id = 2");
+    db.execSQL("DELETE FROM mms WHERE _id = 1");
+
+    assertEquals(Arrays.asList(new Key(300, true, 2), new Key(250, false, 1)), keys(1));
+    assertEquals(0, keys(2).size());
+  }
+
+  @Test
+  public void triggers_trackUnreadState() {
+    db.execSQL("INSERT INTO sms (_id, thread_id, date, read, notified, reactions_unread) VALUES (1, 1, 100, 0, 0, 0)");
+    db.execSQL("INSERT INTO mms (_id, thread_id, date_received, read, notified, reactions_unread) VALUES (1, 1, 200, 0, 0, 0)");
+    db.execSQL("INSERT INTO mms (_id, thread_id, date_received, read, notified, reactions_unread) VALUES (2, 2, 300, 0, 0, 0)");
+
+    db.execSQL("UPDATE mms SET read = 1 WHERE _id = 1");
+    db.execSQL("UPDATE mms SET read = 1, reactions_unread = 1 WHERE _id = 2");
+
+    try (Cursor cursor = db.rawQuery(MessageIndexDatabase.UNREAD_SUMMARY_QUERY, null)) {
+      assertTrue(cursor.moveToNext());
+      assertEquals(1, cursor.getLong(0));
+      assertEquals(1, cursor.getInt(1));
+      assertEquals(100, cursor.getLong(2));
+
+      assertTrue(cursor.moveToNext());
+      assertEquals(2, cursor.getLong(0));
+      assertEquals(1, cursor.getInt(1));
+      assertEquals(300, cursor.getLong(2));
+
+      assertFalse(cursor.moveToNext());
+    }
+  }
+
+  @Test
+  public void keyCondition_seeksInConversationOrder() {
+    for (int i = 1; i <= 4; i++) {
+      db.execSQL("INSERT INTO sms (_id, thread_id, date) VALUES (" + i + ", 1, 100)");
+      db.execSQL("INSERT INTO mms (_id, thread_id, date_received) VALUES (" + i + ", 1, 100)");
+    }
+
+    List<Key> all = keys(1);
+
+    assertEquals(new Key(100, false, 4), all.get(0));
+    assertEquals(new Key(100, true, 1), all.get(7));
+
+    for (int i = 0; i < all.size(); i++) {
+      assertEquals(all.subList(i, all.size()), keys(MessageIndexDatabase.buildKeysQuery(1, all.get(i), null)));
+    }
+  }
+
+  @Test
+  public void queryPlan_keysBeforeUsesTempSortAfterUsesIndexOrder() {
+    String before = queryPlan(UNION_KEYS_QUERY);
+    String after  = queryPlan(MessageIndexDatabase.buildKeysQuery(1, new Key(100, false, 5), "50"));
+
+    assertTrue(before, before.contains("TEMP B-TREE"));
+    assertFalse(after, after.contains("TEMP B-TREE"));
+    assertTrue(after, after.contains("message_index_thread_key_index"));
+  }
+
+  @Test
+  public void queryPlan_unreadSummaryBeforeMergesTablesAfterScansOneIndex() {
+    String before = queryPlan(UNION_UNREAD_QUERY);
+    String after  = queryPlan(MessageIndexDatabase.UNREAD_SUMMARY_QUERY);
+
+    assertTrue(before, before.contains(SmsDatabase.TABLE_NAME) && before.contains(MmsDatabase.TABLE_NAME));
+    assertFalse(after, after.contains(SmsDatabase.TABLE_NAME + " ") || after.contains(MmsDatabase.TABLE_NAME + " "));
+    assertFalse(after, after.contains("TEMP B-TREE"));
+    assertTrue(after, after.contains("INDEX message_index_"));
+  }
+
+  private void execute(@NonNull String[] statements) {
+    for (String statement : statements) {
+      db.execSQL(statement);
+    }
+  }
+
+  private @NonNull List<Key> keys(long threadId) {
+    return keys(MessageIndexDatabase.buildKeysQuery(threadId, null, null));
+  }
+
+  private @NonNull List<Key> keys(@NonNull String query) {
+    List<Key> keys = new ArrayList<>();
+
+    try (Cursor cursor = db.rawQuery(query, null)) {
+      while (cursor.moveToNext()) {
+        keys.add(MessageIndexDatabase.readKey(cursor));
+      }
+    }
+
+    return keys;
+  }
+
+  private @NonNull String queryPlan(@NonNull String query) {
+    StringBuilder plan = new StringBuilder();
+
+    try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, null)) {
+      while (cursor.moveToNext()) {
+        plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+      }
+    }
+
+    return plan.toString();
+  }
+}
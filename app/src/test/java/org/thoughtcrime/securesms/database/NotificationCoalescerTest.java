@@ -0,0 +1,108 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.model.MessageId;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class NotificationCoalescerTest {
+
+  private NotificationCoalescer testSubject;
+
+  @Before
+  public void setUp() {
+    testSubject = new NotificationCoalescer();
+  }
+
+  @Test
+  public void onlyFirstNotificationSchedulesFlush() {
+    assertTrue(testSubject.addConversation(1, false, null, null));
+    assertFalse(testSubject.addConversation(2, false, null, null));
+    assertFalse(testSubject.addConversationList());
+
+    testSubject.drain();
+
+    assertTrue(testSubject.addConversationList());
+  }
+
+  @Test
+  public void notificationsAreDedupedPerThread() {
+    for (int i = 0; i < 500; i++) {
+      testSubject.addConversation(1, false, MessageChanges.Type.INSERTED, new MessageId(i, false));
+      testSubject.addConversationList();
+    }
+
+    testSubject.addConversation(2, true, null, null);
+
+    NotificationCoalescer.Batch batch = testSubject.drain();
+
+    assertEquals(Collections.singleton(1L), batch.getConversations().keySet());
+    assertEquals(Collections.singleton(2L), batch.getVerboseOnly().keySet());
+    assertTrue(batch.hasConversationList());
+    assertEquals(500, batch.getConversations().get(1L).getInserted().size());
+    assertEquals(998, batch.getSuppressed());
+    assertEquals(998, testSubject.getSuppressedCount());
+  }
+
+  @Test
+  public void verboseNotificationIsFoldedIntoConversationNotification() {
+    testSubject.addConversation(1, true, MessageChanges.Type.UPDATED, new MessageId(1, true));
+    testSubject.addConversation(1, false, MessageChanges.Type.UPDATED, new MessageId(2, true));
+
+    NotificationCoalescer.Batch batch = testSubject.drain();
+
+    assertTrue(batch.getVerboseOnly().isEmpty());
+    assertEquals(new HashSet<>(Arrays.asList(new MessageId(1, true), new MessageId(2, true))), batch.getConversations().get(1L).getUpdated());
+  }
+
+  @Test
+  public void changesAreNetted() {
+    MessageId inserted = new MessageId(1, false);
+    MessageId existing = new MessageId(2, false);
+
+    testSubject.addConversation(1, false, MessageChanges.Type.INSERTED, inserted);
+    testSubject.addConversation(1, false, MessageChanges.Type.UPDATED, inserted);
+    testSubject.addConversation(1, false, MessageChanges.Type.UPDATED, existing);
+    testSubject.addConversation(1, false, MessageChanges.Type.DELETED, inserted);
+    testSubject.addConversation(1, false, MessageChanges.Type.DELETED, existing);
+
+    MessageChanges changes = testSubject.drain().getConversations().get(1L);
+
+    assertFalse(changes.isUnknown());
+    assertTrue(changes.getInserted().isEmpty());
+    assertTrue(changes.getUpdated().isEmpty());
+    assertEquals(Collections.singleton(existing), changes.getDeleted());
+  }
+
+  @Test
+  public void notificationWithoutMessageMakesChangesUnknown() {
+    testSubject.addConversation(1, false, MessageChanges.Type.INSERTED, new MessageId(1, false));
+    testSubject.addConversation(1, false, null, null);
+    testSubject.addConversation(1, false, MessageChanges.Type.INSERTED, new MessageId(2, false));
+
+    MessageChanges changes = testSubject.drain().getConversations().get(1L);
+
+    assertTrue(changes.isUnknown());
+    assertTrue(changes.getInserted().isEmpty());
+  }
+
+  @Test
+  public void drainResets() {
+    testSubject.addConversation(1, false, null, null);
+    testSubject.drain();
+
+    NotificationCoalescer.Batch batch = testSubject.drain();
+
+    assertTrue(batch.isEmpty());
+    assertTrue(batch.getConversations().isEmpty());
+    assertFalse(batch.hasConversationList());
+    assertEquals(0, batch.getSuppressed());
+  }
+}
@@ -0,0 +1,57 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public final class QueryMetricsTest {
+
+  @Test
+  public void fingerprint_replaces_literals() {
+    assertEquals("SELECT * FROM sms WHERE thread_id = ? AND body = ?",
+                 QueryMetrics.fingerprint("SELECT * FROM sms WHERE thread_id = 12 AND body = 'it''s 3 o''clock'"));
+  }
+
+  @Test
+  public void fingerprint_collapses_in_lists_and_whitespace() {
+    assertEquals("UPDATE thread SET read = ? WHERE _id IN (?+)",
+                 QueryMetrics.fingerprint("UPDATE thread\n   SET read = 1\n WHERE _id IN (1, 2,3 ,  4)"));
+    assertEquals("DELETE FROM part WHERE mid IN (?+)",
+                 QueryMetrics.fingerprint("DELETE FROM part WHERE mid IN (?, ?, ?)"));
+  }
+
+  @Test
+  public void fingerprint_keeps_identifiers_with_digits() {
+    assertEquals("SELECT v2_field FROM groups_v2 WHERE t1.x = ?",
+                 QueryMetrics.fingerprint("SELECT v2_field FROM groups_v2 WHERE t1.x = 5"));
+  }
+
+  @Test
+  public void record_groups_by_fingerprint_and_orders_by_total_time() {
+    QueryMetrics metrics = new QueryMetrics();
+
+    for (int i = 1; i <= 100; i++) {
+      metrics.record("SELECT * FROM sms WHERE _id = " + i, i * 1000, 0, 1, false);
+    }
+
+    metrics.record("SELECT * FROM mms WHERE _id = 1", 10, 500, 0, true);
+
+    List<QueryMetrics.Snapshot> top = metrics.getTopOffenders(10);
+
+    assertEquals(2, top.size());
+
+    QueryMetrics.Snapshot sms = top.get(0);
+    assertEquals("SELECT * FROM sms WHERE _id = ?", sms.getFingerprint());
+    assertEquals(100, sms.getCount());
+    assertEquals(100, sms.getRows());
+    assertEquals(50_000, sms.getP50Nanos());
+    assertEquals(99_000, sms.getP99Nanos());
+    assertEquals(100_000, sms.getMaxNanos());
+
+    QueryMetrics.Snapshot mms = top.get(1);
+    assertEquals(500, mms.getLockWaitNanos());
+    assertEquals(1, mms.getContended());
+  }
+}
@@ -0,0 +1,191 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.model.ThreadRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public final class ThreadRecordCacheTest {
+
+  private FakeLoader        loader;
+  private ThreadRecordCache testSubject;
+
+  @Before
+  public void setUp() {
+    loader      = new FakeLoader();
+    testSubject = new ThreadRecordCache(loader);
+  }
+
+  @Test
+  public void buildViews_splitsAndOrdersThreads() {
+    List<ThreadRecordCache.Entry> entries = Arrays.asList(entry(1, 100, 1, false, 0),
+                                                          entry(2, 300, 1, false, 0),
+                                                          entry(3, 200, 1, false, 2),
+                                                          entry(4, 400, 1, false, 1),
+                                                          entry(5, 500, 1, true,  0),
+                                                          entry(6, 600, 0, false, 0),
+                                                          entry(7, 300, 1, false, 0));
+
+    ThreadRecordCache.Views views = ThreadRecordCache.buildViews(entries, true);
+
+    assertEquals(Arrays.asList(4L, 3L), ids(views.pinned));
+    assertEquals(Arrays.asList(7L, 2L, 1L), ids(views.unpinned));
+    assertEquals(Collections.singletonList(5L), ids(views.archived));
+  }
+
+  @Test
+  public void getUnarchived_pagesFromSingleFullLoad() {
+    loader.put(entry(1, 100, 1, false, 0), entry(2, 200, 1, false, 0), entry(3, 300, 1, false, 0));
+
+    assertEquals(Arrays.asList(3L, 2L), ids(testSubject.getUnarchived(false, 0, 2)));
+    assertEquals(Collections.singletonList(1L), ids(testSubject.getUnarchived(false, 2, 2)));
+    assertArrayEquals(new int[] { 3, 0, 0 }, testSubject.getCounts());
+    assertEquals(1, loader.fullLoads);
+    assertEquals(0, loader.partialLoads);
+  }
+
+  @Test
+  public void invalidate_reloadsOnlyDirtyThreads() {
+    loader.put(entry(1, 100, 1, false, 0), entry(2, 200, 1, false, 0));
+    testSubject.getUnarchived(false, 0, 0);
+
+    loader.put(entry(1, 300, 1, false, 0), entry(3, 250, 1, false, 0));
+    testSubject.invalidate(Arrays.asList(1L, 3L));
+
+    assertEquals(Arrays.asList(1L, 3L, 2L), ids(testSubject.getUnarchived(false, 0, 0)));
+    assertEquals(1, loader.fullLoads);
+    assertEquals(Collections.singletonList(Arrays.asList(1L, 3L)), loader.requested);
+  }
+
+  @Test
+  public void invalidate_dropsDeletedThreads() {
+    loader.put(entry(1, 100, 1, false, 0), entry(2, 200, 1, false, 0));
+    testSubject.getUnarchived(false, 0, 0);
+
+    loader.remove(2);
+    testSubject.invalidate(2);
+
+    assertEquals(Collections.singletonList(1L), ids(testSubject.getUnarchived(false, 0, 0)));
+  }
+
+  @Test
+  public void invalidateAll_reloadsEverything() {
+    loader.put(entry(1, 100, 1, false, 0));
+    testSubject.getUnarchived(false, 0, 0);
+
+    loader.put(entry(1, 100, 1, true, 0));
+    testSubject.invalidateAll();
+
+    assertEquals(Collections.singletonList(1L), ids(testSubject.getArchived(0, 0)));
+    assertEquals(2, loader.fullLoads);
+  }
+
+  @Test
+  public void readReceiptPreferenceChange_reloadsEverything() {
+    loader.put(entry(1, 100, 1, false, 0));
+    testSubject.getUnarchived(false, 0, 0);
+
+    loader.readReceipts = false;
+    testSubject.getUnarchived(false, 0, 0);
+
+    assertEquals(2, loader.fullLoads);
+  }
+
+  @Test
+  public void cannotLoad_fallsBackToDatabase() {
+    loader.put(entry(1, 100, 1, false, 0));
+    loader.canLoad = false;
+
+    assertNull(testSubject.getUnarchived(false, 0, 0));
+    assertNull(testSubject.getCounts());
+    assertEquals(0, loader.fullLoads);
+  }
+
+  private static @NonNull ThreadRecordCache.Entry entry(long threadId, long date, long count, boolean archived, int pinned) {
+    ThreadRecord record = new ThreadRecord.Builder(threadId).setDate(date)
+                                                            .setCount(count)
+                                                            .setArchived(archived)
+                                                            .setPinned(pinned != 0)
+                                                            .build();
+    return new ThreadRecordCache.Entry(record, pinned);
+  }
+
+  private static @NonNull List<Long> ids(@NonNull List<ThreadRecord> records) {
+    List<Long> ids = new ArrayList<>(records.size());
+
+    for (ThreadRecord record : records) {
+      ids.add(record.getThreadId());
+    }
+
+    return ids;
+  }
+
+  private static final class FakeLoader implements ThreadRecordCache.Loader {
+
+    private final Map<Long, ThreadRecordCache.Entry> rows      = new HashMap<>();
+    private final List<List<Long>>                   requested = new ArrayList<>();
+
+    private boolean canLoad      = true;
+    private boolean readReceipts = true;
+    private int     fullLoads;
+    private int     partialLoads;
+
+    void put(@NonNull ThreadRecordCache.Entry... entries) {
+      for (ThreadRecordCache.Entry entry : entries) {
+        rows.put(entry.getRecord().getThreadId(), entry);
+      }
+    }
+
+    void remove(long threadId) {
+      rows.remove(threadId);
+    }
+
+    @Override
+    public boolean canLoad() {
+      return canLoad;
+    }
+
+    @Override
+    public boolean isReadReceiptsEnabled() {
+      return readReceipts;
+    }
+
+    @Override
+    public @NonNull List<ThreadRecordCache.Entry> loadAll() {
+      fullLoads++;
+      return new ArrayList<>(rows.values());
+    }
+
+    @Override
+    public @NonNull List<ThreadRecordCache.Entry> load(@NonNull Collection<Long> threadIds) {
+      List<Long> sorted = new ArrayList<>(threadIds);
+      Collections.sort(sorted);
+
+      partialLoads++;
+      requested.add(sorted);
+
+      List<ThreadRecordCache.Entry> loaded = new ArrayList<>();
+
+      for (long threadId : sorted) {
+        if (rows.containsKey(threadId)) {
+          loaded.add(rows.get(threadId));
+        }
+      }
+
+      return loaded;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package org.thoughtcrime.securesms.notifications;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.recipients.Recipient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public final class NotificationStateCacheTest {
+
+  private static final Recipient RECIPIENT = mock(Recipient.class);
+
+  private FakeLoader             loader;
+  private NotificationStateCache testSubject;
+
+  @Before
+  public void setUp() {
+    loader      = new FakeLoader();
+    testSubject = new NotificationStateCache();
+  }
+
+  @Test
+  public void refresh_loadsEveryThreadWhenCold() {
+    loader.put(1, signature(1, 100), item(1, 1, 100));
+    loader.put(2, signature(2, 200), item(2, 2, 150), item(3, 2, 200));
+
+    NotificationStateCache.Update update = testSubject.refresh(loader);
+
+    assertEquals(3, update.getItems().size());
+    assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), update.getChangedThreads());
+    assertEquals(Arrays.asList(1L, 2L), loader.sortedLoads());
+  }
+
+  @Test
+  public void refresh_reusesUnchangedThreads() {
+    loader.put(1, signature(1, 100), item(1, 1, 100));
+    loader.put(2, signature(1, 200), item(2, 2, 200));
+    testSubject.refresh(loader);
+    loader.loads.clear();
+
+    loader.put(2, signature(2, 300), item(2, 2, 200), item(3, 2, 300));
+
+    NotificationStateCache.Update update = testSubject.refresh(loader);
+
+    assertEquals(3, update.getItems().size());
+    assertEquals(Collections.singleton(2L), update.getChangedThreads());
+    assertEquals(Collections.singletonList(2L), loader.loads);
+  }
+
+  @Test
+  public void refresh_dropsThreadsWithoutSignature() {
+    loader.put(1, signature(1, 100), item(1, 1, 100));
+    loader.put(2, signature(1, 200), item(2, 2, 200));
+    testSubject.refresh(loader);
+    loader.loads.clear();
+
+    loader.remove(1);
+
+    NotificationStateCache.Update update = testSubject.refresh(loader);
+
+    assertEquals(1, update.getItems().size());
+    assertEquals(2L, update.getItems().get(0).getThreadId());
+    assertTrue(update.getChangedThreads().isEmpty());
+    assertTrue(loader.loads.isEmpty());
+  }
+
+  @Test
+  public void invalidate_reloadsThreadWithSameSignature() {
+    loader.put(1, signature(1, 100), item(1, 1, 100));
+    loader.put(2, signature(1, 200), item(2, 2, 200));
+    testSubject.refresh(loader);
+    loader.loads.clear();
+
+    testSubject.invalidate(1);
+
+    assertEquals(Collections.singleton(1L), testSubject.refresh(loader).getChangedThreads());
+    assertEquals(Collections.singletonList(1L), loader.loads);
+
+    loader.loads.clear();
+
+    assertTrue(testSubject.refresh(loader).getChangedThreads().isEmpty());
+    assertTrue(loader.loads.isEmpty());
+  }
+
+  @Test
+  public void invalidateAll_reloadsEveryThread() {
+    loader.put(1, signature(1, 100), item(1, 1, 100));
+    loader.put(2, signature(1, 200), item(2, 2, 200));
+    testSubject.refresh(loader);
+    loader.loads.clear();
+
+    testSubject.invalidateAll();
+    testSubject.refresh(loader);
+
+    assertEquals(Arrays.asList(1L, 2L), loader.sortedLoads());
+  }
+
+  @Test
+  public void markNotified_updatesCachedItems() {
+    loader.put(1, signature(1, 100), item(1, 1, 100));
+    List<NotificationItem> items = testSubject.refresh(loader).getItems();
+
+    testSubject.markNotified(items, 500);
+
+    assertEquals(500, testSubject.refresh(loader).getItems().get(0).getNotifiedTimestamp());
+  }
+
+  private static @NonNull NotificationStateCache.Signature signature(long count, long lastReceived) {
+    return new NotificationStateCache.Signature(count, lastReceived, false, false, false);
+  }
+
+  private static @NonNull NotificationItem item(long id, long threadId, long timestamp) {
+    return new NotificationItem(id, false, RECIPIENT, RECIPIENT, null, threadId, "", timestamp, timestamp, null, false, false, true, 0);
+  }
+
+  private static final class FakeLoader implements NotificationStateCache.Loader {
+
+    private final Map<Long, NotificationStateCache.Signature> signatures = new HashMap<>();
+    private final Map<Long, List<NotificationItem>>           items      = new HashMap<>();
+    private final List<Long>                                  loads      = new ArrayList<>();
+
+    void put(long threadId, @NonNull NotificationStateCache.Signature signature, @NonNull NotificationItem... threadItems) {
+      signatures.put(threadId, signature);
+      items.put(threadId, Arrays.asList(threadItems));
+    }
+
+    void remove(long threadId) {
+      signatures.remove(threadId);
+      items.remove(threadId);
+    }
+
+    @NonNull List<Long> sortedLoads() {
+      List<Long> sorted = new ArrayList<>(loads);
+      Collections.sort(sorted);
+      return sorted;
+    }
+
+    @Override
+    public @NonNull Map<Long, NotificationStateCache.Signature> loadSignatures() {
+      return new HashMap<>(signatures);
+    }
+
+    @Override
+    public @NonNull List<NotificationItem> loadThread(long threadId) {
+      loads.add(threadId);
+      return items.get(threadId);
+    }
+  }
+}
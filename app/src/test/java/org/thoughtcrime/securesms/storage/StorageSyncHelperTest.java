@@ -28,11 +28,13 @@ import org.whispersystems.signalservice.api.storage.SignalStorageRecord;
 import org.whispersystems.signalservice.api.storage.StorageId;
 import org.whispersystems.signalservice.api.util.UuidUtil;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -71,6 +73,8 @@ public final class StorageSyncHelperTest {
 
   private static final int UNKNOWN_TYPE = Integer.MAX_VALUE;
 
+  private static final int SCALE = 10_000;
+
   private static final Recipient SELF = mock(Recipient.class);
   static {
     when(SELF.getUuid()).thenReturn(Optional.of(UUID_SELF));
@@ -144,6 +148,104 @@ public final class StorageSyncHelperTest {
     assertTrue(result.hasTypeMismatches());
   }
 
+  @Test
+  public void findKeyDifference_scale() {
+    List<StorageId> remote = contactKeyRange(0, SCALE);
+    List<StorageId> local  = contactKeyRange(100, SCALE);
+
+    KeyDifferenceResult result = StorageSyncHelper.findKeyDifference(remote, local);
+
+    assertContentsEqual(contactKeyRange(0, 100), result.getRemoteOnlyKeys());
+    assertContentsEqual(contactKeyRange(SCALE, 100), result.getLocalOnlyKeys());
+    assertFalse(result.hasTypeMismatches());
+  }
+
+  @Test
+  public void findKeyDifference_indexed_scale_matchesFullComparison() {
+    List<StorageId> indexed = contactKeyRange(0, SCALE);
+    List<StorageId> pending = contactKeyRange(2 * SCALE, 20);
+
+    Set<StorageId> remote = new LinkedHashSet<>(indexed);
+    remote.removeAll(contactKeyRange(0, 110));
+    remote.addAll(contactKeyRange(SCALE, 100));
+
+    Set<StorageId> local = new LinkedHashSet<>(indexed);
+    local.removeAll(contactKeyRange(100, 10));
+    local.addAll(pending);
+
+    int[]               checks = new int[1];
+    KeyDifferenceResult result = StorageSyncHelper.findKeyDifference(remote, indexed, pending, id -> {
+      checks[0]++;
+      return local.contains(id);
+    });
+
+    KeyDifferenceResult expected = StorageSyncHelper.findKeyDifference(remote, local);
+
+    assertContentsEqual(new HashSet<>(expected.getRemoteOnlyKeys()), result.getRemoteOnlyKeys());
+    assertContentsEqual(new HashSet<>(expected.getLocalOnlyKeys()), result.getLocalOnlyKeys());
+    assertContentsEqual(local, StorageSyncHelper.getLocalKeys(remote, result));
+    assertFalse(result.hasTypeMismatches());
+    assertEquals(210, checks[0]);
+  }
+
+  @Test
+  public void findKeyDifference_indexed_noRemoteChanges_checksNothing() {
+    List<StorageId> indexed = contactKeyRange(0, SCALE);
+
+    KeyDifferenceResult result = StorageSyncHelper.findKeyDifference(indexed, indexed, keyListOf(), id -> {
+      throw new AssertionError();
+    });
+
+    assertTrue(result.isEmpty());
+  }
+
+  @Test
+  public void findKeyDifference_indexed_typeMismatch() {
+    KeyDifferenceResult result = StorageSyncHelper.findKeyDifference(keyListOf(new HashMap<Integer, Integer>() {{
+                                                                       put(100, 1);
+                                                                       put(200, 2);
+                                                                     }}),
+                                                                     keyListOf(new HashMap<Integer, Integer>() {{
+                                                                       put(100, 1);
+                                                                       put(200, 1);
+                                                                     }}),
+                                                                     keyListOf(),
+                                                                     id -> true);
+
+    assertTrue(result.isEmpty());
+    assertTrue(result.hasTypeMismatches());
+  }
+
+  @Test
+  public void resolveConflict_contact_scale() {
+    Set<SignalStorageRecord> remoteOnly      = new LinkedHashSet<>();
+    Set<SignalStorageRecord> localOnly       = new LinkedHashSet<>();
+    Set<SignalContactRecord> expectedInserts = new HashSet<>();
+
+    for (int i = 0; i < SCALE; i++) {
+      UUID   uuid = new UUID(0, i);
+      String e164 = String.format(Locale.US, "+1555%07d", i);
+
+      SignalContactRecord remote = contact(i, uuid, e164, "remote");
+
+      remoteOnly.add(record(remote));
+
+      if (i % 2 == 0) {
+        localOnly.add(record(contact(SCALE + i, uuid, e164, "remote")));
+      } else {
+        expectedInserts.add(remote);
+      }
+    }
+
+    MergeResult result = StorageSyncHelper.resolveConflict(remoteOnly, localOnly, r -> false);
+
+    assertEquals(expectedInserts, result.getLocalContactInserts());
+    assertEquals(SCALE / 2, result.getLocalContactUpdates().size());
+    assertTrue(result.getRemoteInserts().isEmpty());
+    assertTrue(result.getRemoteUpdates().isEmpty());
+    assertTrue(result.getRemoteDeletes().isEmpty());
+  }
+
   @Test
   public void resolveConflict_noOverlap() {
     SignalContactRecord remote1 = contact(1, UUID_A, E164_A, "a");
@@ -505,6 +607,16 @@ public final class StorageSyncHelperTest {
     return Stream.of(vals).map(e -> StorageId.forType(byteArray(e.getKey()), e.getValue())).toList();
   }
 
+  private static List<StorageId> contactKeyRange(int start, int count) {
+    List<StorageId> keys = new ArrayList<>(count);
+
+    for (int i = start; i < start + count; i++) {
+      keys.add(contactKey(i));
+    }
+
+    return keys;
+  }
+
   private static StorageId contactKey(int val) {
     return StorageId.forContact(byteArray(val));
   }
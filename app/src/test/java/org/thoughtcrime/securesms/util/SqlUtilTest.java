@@ -10,9 +10,11 @@ import org.robolectric.annotation.Config;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE, application = Application.class)
@@ -114,4 +116,22 @@ public final class SqlUtilTest {
   public void buildCollectionQuery_none() {
     SqlUtil.buildCollectionQuery("a", Collections.emptyList());
   }
+
+  @Test
+  public void buildCollectionQuery_chunked() {
+    List<SqlUtil.Query> queries = SqlUtil.buildCollectionQuery("a", Arrays.asList(1, 2, 3, 4, 5), 2);
+
+    assertEquals(3, queries.size());
+    assertEquals("a IN (?, ?)", queries.get(0).getWhere());
+    assertArrayEquals(new String[] { "1", "2" }, queries.get(0).getWhereArgs());
+    assertEquals("a IN (?, ?)", queries.get(1).getWhere());
+    assertArrayEquals(new String[] { "3", "4" }, queries.get(1).getWhereArgs());
+    assertEquals("a IN (?)", queries.get(2).getWhere());
+    assertArrayEquals(new String[] { "5" }, queries.get(2).getWhereArgs());
+  }
+
+  @Test
+  public void buildCollectionQuery_chunked_none() {
+    assertTrue(SqlUtil.buildCollectionQuery("a", Collections.emptyList(), 2).isEmpty());
+  }
 }
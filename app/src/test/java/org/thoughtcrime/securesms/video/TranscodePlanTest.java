@@ -0,0 +1,51 @@
+package org.thoughtcrime.securesms.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class TranscodePlanTest {
+
+  private static final long MB = 1024 * 1024;
+
+  private static final long SIZE_LIMIT = 100 * MB;
+
+  @Test
+  public void create_matchesBitRateCalculator() {
+    long          inputSize = 400 * MB;
+    long          duration  = 600_000;
+    TranscodePlan plan      = TranscodePlan.create(SIZE_LIMIT, inputSize, duration, false, false);
+
+    VideoBitRateCalculator.Quality quality = new VideoBitRateCalculator(SIZE_LIMIT).getTargetQuality(duration, VideoBitRateCalculator.bitRate(inputSize, duration));
+
+    assertTrue(plan.isTranscodeRequired());
+    assertEquals(quality.getTargetVideoBitRate(), plan.getTargetVideoBitRate());
+    assertEquals(quality.getTargetAudioBitRate(), plan.getTargetAudioBitRate());
+    assertEquals(quality.getOutputResolution(), plan.getOutputResolution());
+    assertEquals(quality.getFileSizeEstimate(), plan.getFileSizeEstimate());
+    assertEquals((long) (quality.getFileSizeEstimate() * 1.1), plan.getMemoryFileEstimate());
+  }
+
+  @Test
+  public void create_smallVideo_noTranscodeRequired() {
+    TranscodePlan plan = TranscodePlan.create(SIZE_LIMIT, MB, 10_000, false, false);
+
+    assertFalse(plan.isTranscodeRequired());
+  }
+
+  @Test
+  public void create_smallVideoWithLocation_transcodeRequired() {
+    TranscodePlan plan = TranscodePlan.create(SIZE_LIMIT, MB, 10_000, true, false);
+
+    assertTrue(plan.isTranscodeRequired());
+  }
+
+  @Test
+  public void create_smallVideoWithOptions_transcodeRequired() {
+    TranscodePlan plan = TranscodePlan.create(SIZE_LIMIT, MB, 10_000, false, true);
+
+    assertTrue(plan.isTranscodeRequired());
+  }
+}
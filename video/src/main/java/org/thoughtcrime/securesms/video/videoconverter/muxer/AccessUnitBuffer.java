@@ -0,0 +1,58 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Collects the NAL units of one access unit at a time, already laid out as an MP4 sample with a
+ * 4 byte length in front of each unit. Units are copied once, straight out of the encoder's output
+ * buffer, into large blocks that are shared between samples. A finished sample is a slice of its
+ * block rather than another copy, and a block is freed once all the samples sliced from it have been
+ * written.
+ */
+final class AccessUnitBuffer {
+
+  static final int BLOCK_SIZE = 1024 * 1024;
+
+  private ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+  private int        start;
+
+  /**
+   * Appends the whole of the NAL unit, regardless of its position, to the current access unit.
+   */
+  void add(@NonNull ByteBuffer nal) {
+    final int size = nal.limit();
+
+    ensureCapacity(4 + size);
+
+    block.putInt(size);
+    nal.position(0);
+    block.put(nal);
+  }
+
+  /**
+   * Ends the current access unit.
+   *
+   * @return The sample content, from position 0 to its limit. It stays valid after later calls.
+   */
+  @NonNull ByteBuffer finish() {
+    final ByteBuffer sample = block.duplicate();
+    sample.position(start);
+    sample.limit(block.position());
+    start = block.position();
+    return sample.slice();
+  }
+
+  private void ensureCapacity(int size) {
+    if (block.remaining() < size) {
+      final int        pending  = block.position() - start;
+      final ByteBuffer newBlock = ByteBuffer.allocate(Math.max(BLOCK_SIZE, 2 * (pending + size)));
+
+      newBlock.put(block.array(), start, pending);
+
+      block = newBlock;
+      start = 0;
+    }
+  }
+}
@@ -46,7 +46,7 @@ abstract class AvcTrack extends AbstractStreamingTrack {
 
   private final SampleDescriptionBox stsd;
 
-  private final List<ByteBuffer>    bufferedNals = new ArrayList<>();
+  private final AccessUnitBuffer    accessUnit   = new AccessUnitBuffer();
   private       FirstVclNalDetector fvnd;
   private       H264NalUnitHeader   sliceNalUnitHeader;
   private       long                currentPresentationTimeUs;
@@ -184,7 +184,18 @@ abstract class AvcTrack extends AbstractStreamingTrack {
     return nalUnitHeader;
   }
 
-  void consumeNal(@NonNull final ByteBuffer nal, final long presentationTimeUs) throws IOException {
+  /**
+   * Consumes every NAL unit in an Annex B buffer, such as an encoder's output buffer. The buffer is
+   * only read during the call, anything that has to be kept is copied out of it.
+   */
+  void consumeNals(@NonNull final ByteBuffer buffer, final long presentationTimeUs) throws IOException {
+    ByteBuffer nal;
+    while ((nal = H264Utils.nextNALUnit(buffer)) != null) {
+      consumeNal(nal, presentationTimeUs);
+    }
+  }
+
+  private void consumeNal(@NonNull final ByteBuffer nal, final long presentationTimeUs) throws IOException {
 
     final H264NalUnitHeader nalUnitHeader = getNalUnitHeader(nal);
     switch (nalUnitHeader.nal_unit_type) {
@@ -195,41 +206,37 @@ abstract class AvcTrack extends AbstractStreamingTrack {
       case H264NalUnitTypes.CODED_SLICE_IDR:
         final FirstVclNalDetector current = new FirstVclNalDetector(nal, nalUnitHeader.nal_ref_idc, nalUnitHeader.nal_unit_type);
         if (fvnd != null && fvnd.isFirstInNew(current)) {
-          pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
-          bufferedNals.clear();
+          pushSample(createSample(accessUnit.finish(), fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
         }
         currentPresentationTimeUs = Math.max(currentPresentationTimeUs, presentationTimeUs);
         sliceNalUnitHeader = nalUnitHeader;
         fvnd = current;
-        bufferedNals.add(nal);
+        accessUnit.add(nal);
         break;
 
       case H264NalUnitTypes.SEI:
       case H264NalUnitTypes.AU_UNIT_DELIMITER:
         if (fvnd != null) {
-          pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
-          bufferedNals.clear();
+          pushSample(createSample(accessUnit.finish(), fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
           fvnd = null;
         }
-        bufferedNals.add(nal);
+        accessUnit.add(nal);
         break;
 
       case H264NalUnitTypes.SEQ_PARAMETER_SET:
         if (fvnd != null) {
-          pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
-          bufferedNals.clear();
+          pushSample(createSample(accessUnit.finish(), fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
           fvnd = null;
         }
-        handleSPS(nal);
+        handleSPS(Utils.clone(nal));
         break;
 
       case H264NalUnitTypes.PIC_PARAMETER_SET:
         if (fvnd != null) {
-          pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
-          bufferedNals.clear();
+          pushSample(createSample(accessUnit.finish(), fvnd.sliceHeader, sliceNalUnitHeader, presentationTimeUs - currentPresentationTimeUs), false, false);
           fvnd = null;
         }
-        handlePPS(nal);
+        handlePPS(Utils.clone(nal));
         break;
 
       case H264NalUnitTypes.END_OF_SEQUENCE:
@@ -246,7 +253,7 @@ abstract class AvcTrack extends AbstractStreamingTrack {
   }
 
   void consumeLastNal() throws IOException {
-    pushSample(createSample(bufferedNals, fvnd.sliceHeader, sliceNalUnitHeader, 0), true, true);
+    pushSample(createSample(accessUnit.finish(), fvnd.sliceHeader, sliceNalUnitHeader, 0), true, true);
   }
 
   private void pushSample(final StreamingSample ss, final boolean all, final boolean force) throws IOException {
@@ -323,9 +330,9 @@ abstract class AvcTrack extends AbstractStreamingTrack {
   }
 
 
-  private StreamingSample createSample(List<ByteBuffer> nals, SliceHeader sliceHeader, H264NalUnitHeader nu, long sampleDurationNs) {
+  private StreamingSample createSample(ByteBuffer content, SliceHeader sliceHeader, H264NalUnitHeader nu, long sampleDurationNs) {
     final long            sampleDuration = getTimescale() * Math.max(0, sampleDurationNs) / 1000000L;
-    final StreamingSample ss             = new StreamingSampleImpl(nals, sampleDuration);
+    final StreamingSample ss             = new StreamingSampleImpl(content, sampleDuration);
     ss.addSampleExtension(createSampleFlagsSampleExtension(nu, sliceHeader));
     final SampleExtension pictureOrderCountType0SampleExtension = createPictureOrderCountType0SampleExtension(sliceHeader);
     if (pictureOrderCountType0SampleExtension != null) {
@@ -28,7 +28,7 @@ import java.util.List;
 
 abstract class HevcTrack extends AbstractStreamingTrack implements H265NalUnitTypes {
 
-  private final ArrayList<ByteBuffer> bufferedNals = new ArrayList<>();
+  private final AccessUnitBuffer      accessUnit   = new AccessUnitBuffer();
   private       boolean               vclNalUnitSeenInAU;
   private       boolean               isIdr        = true;
   private       long                  currentPresentationTimeUs;
@@ -91,10 +91,21 @@ abstract class HevcTrack extends AbstractStreamingTrack implements H265NalUnitTy
   }
 
   void consumeLastNal() throws IOException {
-    wrapUp(bufferedNals, currentPresentationTimeUs);
+    wrapUp(currentPresentationTimeUs);
   }
 
-  void consumeNal(final @NonNull ByteBuffer nal, final long presentationTimeUs) throws IOException {
+  /**
+   * Consumes every NAL unit in an Annex B buffer, such as an encoder's output buffer. The buffer is
+   * only read during the call, anything that has to be kept is copied out of it.
+   */
+  void consumeNals(final @NonNull ByteBuffer buffer, final long presentationTimeUs) throws IOException {
+    ByteBuffer nal;
+    while ((nal = H264Utils.nextNALUnit(buffer)) != null) {
+      consumeNal(nal, presentationTimeUs);
+    }
+  }
+
+  private void consumeNal(final @NonNull ByteBuffer nal, final long presentationTimeUs) throws IOException {
 
     final H265NalUnitHeader unitHeader = getNalUnitHeader(nal);
     final boolean           isVcl      = isVcl(unitHeader);
@@ -103,7 +114,7 @@ abstract class HevcTrack extends AbstractStreamingTrack implements H265NalUnitTy
       // This branch checks if we encountered the start of a samples/AU
       if (isVcl) {
         if ((nal.get(2) & -128) != 0) { // this is: first_slice_segment_in_pic_flag  u(1)
-          wrapUp(bufferedNals, presentationTimeUs);
+          wrapUp(presentationTimeUs);
         }
       } else {
         switch (unitHeader.nalUnitType) {
@@ -127,7 +138,7 @@ abstract class HevcTrack extends AbstractStreamingTrack implements H265NalUnitTy
 
           case NAL_TYPE_EOB_NUT: // a bit special but also causes a sample to be formed
           case NAL_TYPE_EOS_NUT:
-            wrapUp(bufferedNals, presentationTimeUs);
+            wrapUp(presentationTimeUs);
             break;
         }
       }
@@ -145,7 +156,7 @@ abstract class HevcTrack extends AbstractStreamingTrack implements H265NalUnitTy
         // ignore these
         break;
       default:
-        bufferedNals.add(nal);
+        accessUnit.add(nal);
         break;
     }
 
@@ -155,13 +166,13 @@ abstract class HevcTrack extends AbstractStreamingTrack implements H265NalUnitTy
     }
   }
 
-  private void wrapUp(final @NonNull List<ByteBuffer> nals, final long presentationTimeUs) throws IOException {
+  private void wrapUp(final long presentationTimeUs) throws IOException {
 
     final long duration = presentationTimeUs - currentPresentationTimeUs;
     currentPresentationTimeUs = presentationTimeUs;
 
     final StreamingSample sample = new StreamingSampleImpl(
-            nals, getTimescale() * Math.max(0, duration) / 1000000L);
+            accessUnit.finish(), getTimescale() * Math.max(0, duration) / 1000000L);
 
     final SampleFlagsSampleExtension sampleFlagsSampleExtension = new SampleFlagsSampleExtension();
     sampleFlagsSampleExtension.setSampleIsNonSyncSample(!isIdr);
@@ -172,7 +183,6 @@ abstract class HevcTrack extends AbstractStreamingTrack implements H265NalUnitTy
 
     vclNalUnitSeenInAU = false;
     isIdr              = true;
-    nals.clear();
   }
 
   private static @NonNull H265NalUnitHeader getNalUnitHeader(final @NonNull ByteBuffer nal) {
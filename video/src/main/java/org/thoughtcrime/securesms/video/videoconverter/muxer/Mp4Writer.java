@@ -22,23 +22,14 @@ package org.thoughtcrime.securesms.video.videoconverter.muxer;
 import androidx.annotation.NonNull;
 
 import org.mp4parser.Box;
-import org.mp4parser.boxes.iso14496.part12.ChunkOffsetBox;
-import org.mp4parser.boxes.iso14496.part12.CompositionTimeToSample;
 import org.mp4parser.boxes.iso14496.part12.FileTypeBox;
 import org.mp4parser.boxes.iso14496.part12.MediaHeaderBox;
 import org.mp4parser.boxes.iso14496.part12.MovieBox;
 import org.mp4parser.boxes.iso14496.part12.MovieHeaderBox;
-import org.mp4parser.boxes.iso14496.part12.SampleSizeBox;
-import org.mp4parser.boxes.iso14496.part12.SampleTableBox;
-import org.mp4parser.boxes.iso14496.part12.SampleToChunkBox;
-import org.mp4parser.boxes.iso14496.part12.SyncSampleBox;
-import org.mp4parser.boxes.iso14496.part12.TimeToSampleBox;
 import org.mp4parser.boxes.iso14496.part12.TrackBox;
 import org.mp4parser.boxes.iso14496.part12.TrackHeaderBox;
 import org.mp4parser.streaming.StreamingSample;
 import org.mp4parser.streaming.StreamingTrack;
-import org.mp4parser.streaming.extensions.CompositionTimeSampleExtension;
-import org.mp4parser.streaming.extensions.CompositionTimeTrackExtension;
 import org.mp4parser.streaming.extensions.SampleFlagsSampleExtension;
 import org.mp4parser.streaming.extensions.TrackIdTrackExtension;
 import org.mp4parser.streaming.output.SampleSink;
@@ -63,21 +54,30 @@ import java.util.Objects;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 
-import static org.mp4parser.tools.CastUtils.l2i;
-
 /**
  * Creates an MP4 file with ftyp, mdat+, moov order.
  * A very special property of this variant is that it written sequentially. You can start transferring the
  * data while the <code>sink</code> receives it. (in contrast to typical implementations which need random
  * access to write length fields at the beginning of the file)
+ *
+ * The sample tables of each track are collected in a {@link SampleTable} and only turned into boxes
+ * once, when the moov is written on close.
  */
 final class Mp4Writer extends DefaultBoxes implements SampleSink {
 
   private static final String TAG = "Mp4Writer";
 
+  private static final int    WRITE_BUFFER_SIZE = 64 * 1024;
+  private static final byte[] MDAT_TYPE         = { 109, 100, 97, 116 }; // mdat
+
   private final WritableByteChannel  sink;
   private final List<StreamingTrack> source;
   private final Date                 creationTime = new Date();
+  /**
+   * Reused for every mdat, so that samples reach the sink in large writes rather than one or more
+   * writes per sample.
+   */
+  private final ByteBuffer           writeBuffer  = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
 
 
   /**
@@ -97,12 +97,11 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
    */
   private final Map<StreamingTrack, List<StreamingSample>> sampleBuffers            = new HashMap<>();
   private final Map<StreamingTrack, TrackBox>              trackBoxes               = new HashMap<>();
+  private final Map<StreamingTrack, SampleTable>           sampleTables             = new HashMap<>();
   /**
    * Buffers segments until it's time for a segment to be written.
    */
   private final Map<StreamingTrack, Queue<ChunkContainer>> chunkBuffers             = new ConcurrentHashMap<>();
-  private final Map<StreamingTrack, Long>                  chunkNumbers             = new HashMap<>();
-  private final Map<StreamingTrack, Long>                  sampleNumbers            = new HashMap<>();
   private       long                                       bytesWritten             = 0;
 
   Mp4Writer(final @NonNull List<StreamingTrack> source, final @NonNull WritableByteChannel sink) throws IOException {
@@ -112,8 +111,7 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
     final HashSet<Long> trackIds = new HashSet<>();
     for (StreamingTrack streamingTrack : source) {
       streamingTrack.setSampleSink(this);
-      chunkNumbers.put(streamingTrack, 1L);
-      sampleNumbers.put(streamingTrack, 1L);
+      sampleTables.put(streamingTrack, new SampleTable());
       nextSampleStartTime.put(streamingTrack, 0L);
       nextChunkCreateStartTime.put(streamingTrack, 0L);
       nextChunkWriteStartTime.put(streamingTrack, 0L);
@@ -168,6 +166,7 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
       mdhd.setDuration(Objects.requireNonNull(nextSampleStartTime.get(streamingTrack)));
       mdhd.setTimescale(streamingTrack.getTimescale());
       mdhd.setLanguage(streamingTrack.getLanguage());
+      Objects.requireNonNull(sampleTables.get(streamingTrack)).fill(Objects.requireNonNull(Path.getPath(tb, "mdia[0]/minf[0]/stbl[0]")));
       movieBox.addBox(tb);
 
       final TrackHeaderBox tkhd     = Path.getPath(tb, "tkhd[0]");
@@ -239,9 +238,7 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
   }
 
   private void writeChunkContainer(ChunkContainer chunkContainer) throws IOException {
-    final TrackBox       tb   = trackBoxes.get(chunkContainer.streamingTrack);
-    final ChunkOffsetBox stco = Objects.requireNonNull(Path.getPath(tb, "mdia[0]/minf[0]/stbl[0]/stco[0]"));
-    stco.setChunkOffsets(Mp4Arrays.copyOfAndAppend(stco.getChunkOffsets(), bytesWritten + 8));
+    Objects.requireNonNull(sampleTables.get(chunkContainer.streamingTrack)).addChunkOffset(bytesWritten + 8);
     write(sink, chunkContainer.mdat);
   }
 
@@ -293,76 +290,18 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
   private ChunkContainer createChunkContainer(final @NonNull StreamingTrack streamingTrack) {
 
     final List<StreamingSample> samples     = Objects.requireNonNull(sampleBuffers.get(streamingTrack));
-    final long                  chunkNumber = Objects.requireNonNull(chunkNumbers.get(streamingTrack));
-    chunkNumbers.put(streamingTrack, chunkNumber + 1);
+    final SampleTable           sampleTable = Objects.requireNonNull(sampleTables.get(streamingTrack));
     final ChunkContainer cc = new ChunkContainer();
     cc.streamingTrack = streamingTrack;
     cc.mdat           = new Mdat(samples);
     cc.duration       = Objects.requireNonNull(nextSampleStartTime.get(streamingTrack)) - Objects.requireNonNull(nextChunkCreateStartTime.get(streamingTrack));
-    final TrackBox         tb   = trackBoxes.get(streamingTrack);
-    final SampleTableBox   stbl = Objects.requireNonNull(Path.getPath(tb, "mdia[0]/minf[0]/stbl[0]"));
-    final SampleToChunkBox stsc = Objects.requireNonNull(Path.getPath(stbl, "stsc[0]"));
-    if (stsc.getEntries().isEmpty()) {
-      final List<SampleToChunkBox.Entry> entries = new ArrayList<>();
-      stsc.setEntries(entries);
-      entries.add(new SampleToChunkBox.Entry(chunkNumber, samples.size(), 1));
-    } else {
-      final SampleToChunkBox.Entry e = stsc.getEntries().get(stsc.getEntries().size() - 1);
-      if (e.getSamplesPerChunk() != samples.size()) {
-        stsc.getEntries().add(new SampleToChunkBox.Entry(chunkNumber, samples.size(), 1));
-      }
-    }
-    long sampleNumber = Objects.requireNonNull(sampleNumbers.get(streamingTrack));
-
-    final SampleSizeBox     stsz = Objects.requireNonNull(Path.getPath(stbl, "stsz[0]"));
-    final TimeToSampleBox   stts = Objects.requireNonNull(Path.getPath(stbl, "stts[0]"));
-    SyncSampleBox           stss = Path.getPath(stbl, "stss[0]");
-    CompositionTimeToSample ctts = Path.getPath(stbl, "ctts[0]");
-    if (streamingTrack.getTrackExtension(CompositionTimeTrackExtension.class) != null) {
-      if (ctts == null) {
-        ctts = new CompositionTimeToSample();
-        ctts.setEntries(new ArrayList<>());
-
-        final ArrayList<Box> bs = new ArrayList<>(stbl.getBoxes());
-        bs.add(bs.indexOf(stts), ctts);
-      }
-    }
 
-    final long[] sampleSizes = new long[samples.size()];
-    int          i           = 0;
+    sampleTable.addChunk(samples.size());
     for (StreamingSample sample : samples) {
-      sampleSizes[i++] = sample.getContent().limit();
-
-      if (ctts != null) {
-        ctts.getEntries().add(new CompositionTimeToSample.Entry(1, l2i(sample.getSampleExtension(CompositionTimeSampleExtension.class).getCompositionTimeOffset())));
-      }
-
-      if (stts.getEntries().isEmpty()) {
-        final ArrayList<TimeToSampleBox.Entry> entries = new ArrayList<>(stts.getEntries());
-        entries.add(new TimeToSampleBox.Entry(1, sample.getDuration()));
-        stts.setEntries(entries);
-      } else {
-        final TimeToSampleBox.Entry sttsEntry = stts.getEntries().get(stts.getEntries().size() - 1);
-        if (sttsEntry.getDelta() == sample.getDuration()) {
-          sttsEntry.setCount(sttsEntry.getCount() + 1);
-        } else {
-          stts.getEntries().add(new TimeToSampleBox.Entry(1, sample.getDuration()));
-        }
-      }
       final SampleFlagsSampleExtension sampleFlagsSampleExtension = sample.getSampleExtension(SampleFlagsSampleExtension.class);
-      if (sampleFlagsSampleExtension != null && sampleFlagsSampleExtension.isSyncSample()) {
-        if (stss == null) {
-          stss = new SyncSampleBox();
-          stbl.addBox(stss);
-        }
-        stss.setSampleNumber(Mp4Arrays.copyOfAndAppend(stss.getSampleNumber(), sampleNumber));
-      }
-      sampleNumber++;
-
+      sampleTable.addSample(sample.getContent().limit(), sample.getDuration(), sampleFlagsSampleExtension != null && sampleFlagsSampleExtension.isSyncSample());
     }
-    stsz.setSampleSizes(Mp4Arrays.copyOfAndAppend(stsz.getSampleSizes(), sampleSizes));
 
-    sampleNumbers.put(streamingTrack, sampleNumber);
     samples.clear();
     Log.d(TAG, "chunk container created for " + streamingTrack.getHandler() + ". mdat size: " + cc.mdat.size + ". chunk duration is " + (double) cc.duration / streamingTrack.getTimescale());
     return cc;
@@ -402,17 +341,38 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
 
     @Override
     public void getBox(WritableByteChannel writableByteChannel) throws IOException {
-      writableByteChannel.write(ByteBuffer.wrap(new byte[]{
-              (byte) ((size & 0xff000000) >> 24),
-              (byte) ((size & 0xff0000) >> 16),
-              (byte) ((size & 0xff00) >> 8),
-              (byte) ((size & 0xff)),
-              109, 100, 97, 116, // mdat
-
-      }));
+      writeBuffer.clear();
+      writeBuffer.putInt((int) size);
+      writeBuffer.put(MDAT_TYPE);
+
       for (StreamingSample sample : samples) {
-        writableByteChannel.write((ByteBuffer) sample.getContent().rewind());
+        final ByteBuffer content = (ByteBuffer) sample.getContent().rewind();
+
+        if (content.remaining() > writeBuffer.remaining()) {
+          flushWriteBuffer(writableByteChannel);
+
+          if (content.remaining() > writeBuffer.remaining()) {
+            writeFully(writableByteChannel, content);
+            continue;
+          }
+        }
+
+        writeBuffer.put(content);
       }
+
+      flushWriteBuffer(writableByteChannel);
+    }
+  }
+
+  private void flushWriteBuffer(final @NonNull WritableByteChannel out) throws IOException {
+    writeBuffer.flip();
+    writeFully(out, writeBuffer);
+    writeBuffer.clear();
+  }
+
+  private static void writeFully(final @NonNull WritableByteChannel out, final @NonNull ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
     }
   }
 
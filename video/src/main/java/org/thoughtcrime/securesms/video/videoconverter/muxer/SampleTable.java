@@ -0,0 +1,128 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import androidx.annotation.NonNull;
+
+import org.mp4parser.boxes.iso14496.part12.ChunkOffsetBox;
+import org.mp4parser.boxes.iso14496.part12.SampleSizeBox;
+import org.mp4parser.boxes.iso14496.part12.SampleTableBox;
+import org.mp4parser.boxes.iso14496.part12.SampleToChunkBox;
+import org.mp4parser.boxes.iso14496.part12.SyncSampleBox;
+import org.mp4parser.boxes.iso14496.part12.TimeToSampleBox;
+import org.mp4parser.tools.Path;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Collects the sample tables of one track while it is being written. Chunks and samples are appended
+ * to growable primitive arrays, so each one is amortized O(1) regardless of how long the recording
+ * is. The boxes are only filled in once, by {@link #fill(SampleTableBox)} when the moov is built.
+ */
+final class SampleTable {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private long[] chunkOffsets = new long[INITIAL_CAPACITY];
+  private int    chunkOffsetCount;
+
+  private long[] sampleSizes = new long[INITIAL_CAPACITY];
+  private int    sampleCount;
+
+  private long[] syncSamples = new long[INITIAL_CAPACITY];
+  private int    syncSampleCount;
+
+  private long[] timeToSampleCounts = new long[INITIAL_CAPACITY];
+  private long[] timeToSampleDeltas = new long[INITIAL_CAPACITY];
+  private int    timeToSampleCount;
+
+  private long[] sampleToChunkFirstChunks  = new long[INITIAL_CAPACITY];
+  private long[] sampleToChunkSampleCounts = new long[INITIAL_CAPACITY];
+  private int    sampleToChunkCount;
+
+  private long chunkCount;
+
+  /**
+   * Starts a new chunk. Its samples are the next {@code chunkSampleCount} passed to
+   * {@link #addSample(long, long, boolean)}.
+   */
+  void addChunk(int chunkSampleCount) {
+    chunkCount++;
+
+    if (sampleToChunkCount == 0 || sampleToChunkSampleCounts[sampleToChunkCount - 1] != chunkSampleCount) {
+      sampleToChunkFirstChunks  = ensureCapacity(sampleToChunkFirstChunks, sampleToChunkCount);
+      sampleToChunkSampleCounts = ensureCapacity(sampleToChunkSampleCounts, sampleToChunkCount);
+
+      sampleToChunkFirstChunks[sampleToChunkCount]  = chunkCount;
+      sampleToChunkSampleCounts[sampleToChunkCount] = chunkSampleCount;
+      sampleToChunkCount++;
+    }
+  }
+
+  /**
+   * Records where the next chunk's samples start in the file. Chunks must be written in the order
+   * they were added.
+   */
+  void addChunkOffset(long offset) {
+    chunkOffsets = ensureCapacity(chunkOffsets, chunkOffsetCount);
+    chunkOffsets[chunkOffsetCount++] = offset;
+  }
+
+  void addSample(long size, long duration, boolean isSyncSample) {
+    sampleSizes = ensureCapacity(sampleSizes, sampleCount);
+    sampleSizes[sampleCount++] = size;
+
+    if (timeToSampleCount > 0 && timeToSampleDeltas[timeToSampleCount - 1] == duration) {
+      timeToSampleCounts[timeToSampleCount - 1]++;
+    } else {
+      timeToSampleCounts = ensureCapacity(timeToSampleCounts, timeToSampleCount);
+      timeToSampleDeltas = ensureCapacity(timeToSampleDeltas, timeToSampleCount);
+
+      timeToSampleCounts[timeToSampleCount] = 1;
+      timeToSampleDeltas[timeToSampleCount] = duration;
+      timeToSampleCount++;
+    }
+
+    if (isSyncSample) {
+      syncSamples = ensureCapacity(syncSamples, syncSampleCount);
+      syncSamples[syncSampleCount++] = sampleCount;
+    }
+  }
+
+  /**
+   * Writes the collected tables into the track's stts, stsc, stsz and stco boxes. An stss box is
+   * appended if any sample was a sync sample.
+   */
+  void fill(@NonNull SampleTableBox stbl) {
+    final TimeToSampleBox  stts = Objects.requireNonNull(Path.getPath(stbl, "stts[0]"));
+    final SampleToChunkBox stsc = Objects.requireNonNull(Path.getPath(stbl, "stsc[0]"));
+    final SampleSizeBox    stsz = Objects.requireNonNull(Path.getPath(stbl, "stsz[0]"));
+    final ChunkOffsetBox   stco = Objects.requireNonNull(Path.getPath(stbl, "stco[0]"));
+
+    final List<TimeToSampleBox.Entry> timeToSample = new ArrayList<>(timeToSampleCount);
+    for (int i = 0; i < timeToSampleCount; i++) {
+      timeToSample.add(new TimeToSampleBox.Entry(timeToSampleCounts[i], timeToSampleDeltas[i]));
+    }
+    stts.setEntries(timeToSample);
+
+    final List<SampleToChunkBox.Entry> sampleToChunk = new ArrayList<>(sampleToChunkCount);
+    for (int i = 0; i < sampleToChunkCount; i++) {
+      sampleToChunk.add(new SampleToChunkBox.Entry(sampleToChunkFirstChunks[i], sampleToChunkSampleCounts[i], 1));
+    }
+    stsc.setEntries(sampleToChunk);
+
+    stsz.setSampleSizes(Arrays.copyOf(sampleSizes, sampleCount));
+    stco.setChunkOffsets(Arrays.copyOf(chunkOffsets, chunkOffsetCount));
+
+    if (syncSampleCount > 0) {
+      final SyncSampleBox stss = new SyncSampleBox();
+      stss.setSampleNumber(Arrays.copyOf(syncSamples, syncSampleCount));
+      stbl.addBox(stss);
+    }
+  }
+
+  private static @NonNull long[] ensureCapacity(@NonNull long[] array, int size) {
+    return size < array.length ? array : Arrays.copyOf(array, array.length * 2);
+  }
+}
@@ -89,10 +89,7 @@ public final class StreamingMuxer implements Muxer {
 
     @Override
     public void writeSampleData(@NonNull ByteBuffer byteBuf, @NonNull MediaCodec.BufferInfo bufferInfo) throws IOException {
-      final List<ByteBuffer> nals = H264Utils.getNals(byteBuf);
-      for (ByteBuffer nal : nals) {
-        consumeNal(Utils.clone(nal), bufferInfo.presentationTimeUs);
-      }
+      consumeNals(byteBuf, bufferInfo.presentationTimeUs);
     }
 
     @Override
@@ -109,10 +106,7 @@ public final class StreamingMuxer implements Muxer {
 
     @Override
     public void writeSampleData(@NonNull ByteBuffer byteBuf, @NonNull MediaCodec.BufferInfo bufferInfo) throws IOException {
-      final List<ByteBuffer> nals = H264Utils.getNals(byteBuf);
-      for (ByteBuffer nal : nals) {
-        consumeNal(Utils.clone(nal), bufferInfo.presentationTimeUs);
-      }
+      consumeNals(byteBuf, bufferInfo.presentationTimeUs);
     }
 
     @Override
@@ -0,0 +1,247 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Test;
+import org.mp4parser.streaming.StreamingSample;
+import org.mp4parser.streaming.StreamingTrack;
+import org.mp4parser.streaming.extensions.SampleFlagsSampleExtension;
+import org.mp4parser.streaming.output.SampleSink;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public final class AvcTrackTest {
+
+  private static final int  FRAME_SIZE     = 16 * 1024;
+  private static final int  GOP_SIZE       = 30;
+  private static final long FRAME_DURATION = 33_333;
+
+  @Test
+  public void consumeNals_buildsLengthPrefixedSamples() throws Exception {
+    final TestAvcTrack          track   = new TestAvcTrack();
+    final List<StreamingSample> samples = new ArrayList<>();
+    final List<byte[]>          slices  = new ArrayList<>();
+
+    track.setSampleSink(new TestSampleSink(samples));
+
+    final Random random = new Random(1);
+    for (int i = 0; i < 3 * GOP_SIZE; i++) {
+      final byte[] slice = slice(i, FRAME_SIZE, random);
+      slices.add(slice);
+      track.consumeNals(annexB(new byte[] { 9, (byte) 0xf0 }, slice), i * FRAME_DURATION);
+    }
+    track.consumeLastNal();
+
+    assertEquals(slices.size(), samples.size());
+
+    for (int i = 0; i < samples.size(); i++) {
+      final StreamingSample sample = samples.get(i);
+
+      assertArrayEquals(lengthPrefixed(new byte[] { 9, (byte) 0xf0 }, slices.get(i)), Utils.toArray((ByteBuffer) sample.getContent().rewind()));
+      assertEquals(i % GOP_SIZE == 0, sample.getSampleExtension(SampleFlagsSampleExtension.class).isSyncSample());
+    }
+  }
+
+  @Test
+  public void consumeNals_copiesEachFrameOnce() throws Exception {
+    final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+
+    final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+    final int                             frameCount  = 20 * GOP_SIZE;
+    final TestAvcTrack                    track       = new TestAvcTrack();
+    final List<ByteBuffer>                frames      = new ArrayList<>(frameCount);
+    final Random                          random      = new Random(1);
+
+    track.setSampleSink(new TestSampleSink(null));
+
+    for (int i = 0; i < frameCount; i++) {
+      frames.add(ByteBuffer.allocateDirect(FRAME_SIZE + 64).put(annexB(slice(i, FRAME_SIZE, random)).array()));
+    }
+
+    for (int i = 0; i < GOP_SIZE; i++) {
+      track.consumeNals((ByteBuffer) frames.get(i).flip(), i * FRAME_DURATION);
+    }
+
+    final long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    for (int i = GOP_SIZE; i < frameCount; i++) {
+      track.consumeNals((ByteBuffer) frames.get(i).flip(), i * FRAME_DURATION);
+    }
+    final long perFrame = (allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before) / (frameCount - GOP_SIZE);
+
+    assertTrue("Allocated " + perFrame + " bytes per " + FRAME_SIZE + " byte frame", perFrame < FRAME_SIZE * 5 / 4);
+  }
+
+  /**
+   * A coded slice of a P frame, or an IDR frame at the start of each GOP, padded with non-zero bytes
+   * so that it can't contain a start code.
+   */
+  private static @NonNull byte[] slice(int frame, int size, @NonNull Random random) {
+    final boolean   idr    = frame % GOP_SIZE == 0;
+    final BitWriter header = new BitWriter();
+
+    header.u(8, idr ? 0x65 : 0x41);
+    header.ue(0);                              // first_mb_in_slice
+    header.ue(idr ? 7 : 5);                    // slice_type
+    header.ue(0);                              // pic_parameter_set_id
+    header.u(4, (frame % GOP_SIZE) % 16);      // frame_num
+    if (idr) {
+      header.ue(frame / GOP_SIZE % 2);         // idr_pic_id
+    }
+    header.u(4, (2 * (frame % GOP_SIZE)) % 16); // pic_order_cnt_lsb
+    header.u(1, 1);
+
+    final byte[] bytes = header.toByteArray();
+    final byte[] slice = new byte[size];
+
+    System.arraycopy(bytes, 0, slice, 0, bytes.length);
+    for (int i = bytes.length; i < size; i++) {
+      slice[i] = (byte) (1 + random.nextInt(255));
+    }
+
+    return slice;
+  }
+
+  private static @NonNull ByteBuffer annexB(@NonNull byte[]... nals) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] nal : nals) {
+      out.write(0);
+      out.write(0);
+      out.write(0);
+      out.write(1);
+      out.write(nal, 0, nal.length);
+    }
+    return ByteBuffer.wrap(out.toByteArray());
+  }
+
+  private static @NonNull byte[] lengthPrefixed(@NonNull byte[]... nals) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (byte[] nal : nals) {
+      out.write(nal.length >>> 24);
+      out.write(nal.length >>> 16);
+      out.write(nal.length >>> 8);
+      out.write(nal.length);
+      out.write(nal, 0, nal.length);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Baseline profile, 320x240, picture order count type 0 with 4 bit frame numbers and counts.
+   */
+  private static @NonNull ByteBuffer sps() {
+    final BitWriter sps = new BitWriter();
+
+    sps.u(8, 0x67);
+    sps.u(8, 66);  // profile_idc
+    sps.u(8, 0);   // constraint flags
+    sps.u(8, 30);  // level_idc
+    sps.ue(0);     // seq_parameter_set_id
+    sps.ue(0);     // log2_max_frame_num_minus4
+    sps.ue(0);     // pic_order_cnt_type
+    sps.ue(0);     // log2_max_pic_order_cnt_lsb_minus4
+    sps.ue(1);     // max_num_ref_frames
+    sps.u(1, 0);   // gaps_in_frame_num_value_allowed_flag
+    sps.ue(19);    // pic_width_in_mbs_minus1
+    sps.ue(14);    // pic_height_in_map_units_minus1
+    sps.u(1, 1);   // frame_mbs_only_flag
+    sps.u(1, 1);   // direct_8x8_inference_flag
+    sps.u(1, 0);   // frame_cropping_flag
+    sps.u(1, 0);   // vui_parameters_present_flag
+    sps.u(1, 1);
+
+    return ByteBuffer.wrap(sps.toByteArray());
+  }
+
+  private static @NonNull ByteBuffer pps() {
+    final BitWriter pps = new BitWriter();
+
+    pps.u(8, 0x68);
+    pps.ue(0);    // pic_parameter_set_id
+    pps.ue(0);    // seq_parameter_set_id
+    pps.u(1, 0);  // entropy_coding_mode_flag
+    pps.u(1, 0);  // bottom_field_pic_order_in_frame_present_flag
+    pps.ue(0);    // num_slice_groups_minus1
+    pps.ue(0);    // num_ref_idx_l0_default_active_minus1
+    pps.ue(0);    // num_ref_idx_l1_default_active_minus1
+    pps.u(1, 0);  // weighted_pred_flag
+    pps.u(2, 0);  // weighted_bipred_idc
+    pps.ue(0);    // pic_init_qp_minus26
+    pps.ue(0);    // pic_init_qs_minus26
+    pps.ue(0);    // chroma_qp_index_offset
+    pps.u(1, 0);  // deblocking_filter_control_present_flag
+    pps.u(1, 0);  // constrained_intra_pred_flag
+    pps.u(1, 0);  // redundant_pic_cnt_present_flag
+    pps.u(1, 1);
+
+    return ByteBuffer.wrap(pps.toByteArray());
+  }
+
+  private static final class TestAvcTrack extends AvcTrack {
+    TestAvcTrack() {
+      super(sps(), pps());
+    }
+  }
+
+  private static final class TestSampleSink implements SampleSink {
+    private final List<StreamingSample> samples;
+
+    TestSampleSink(@Nullable List<StreamingSample> samples) {
+      this.samples = samples;
+    }
+
+    @Override
+    public void acceptSample(@NonNull StreamingSample sample, @NonNull StreamingTrack track) {
+      if (samples != null) {
+        samples.add(sample);
+      }
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static final class BitWriter {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private int current;
+    private int bitCount;
+
+    void u(int bits, int value) {
+      for (int i = bits - 1; i >= 0; i--) {
+        current = (current << 1) | ((value >> i) & 1);
+        if (++bitCount == 8) {
+          out.write(current);
+          current  = 0;
+          bitCount = 0;
+        }
+      }
+    }
+
+    void ue(int value) {
+      final int bits = 32 - Integer.numberOfLeadingZeros(value + 1);
+      u(bits - 1, 0);
+      u(bits, value + 1);
+    }
+
+    @NonNull byte[] toByteArray() {
+      if (bitCount > 0) {
+        u(8 - bitCount, 0);
+      }
+      return out.toByteArray();
+    }
+  }
+}